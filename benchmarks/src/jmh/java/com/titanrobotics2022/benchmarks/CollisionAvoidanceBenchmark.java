@@ -0,0 +1,78 @@
+package com.titanrobotics2022.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.titanrobotics2022.motion.generation.rmpflow.RMPRoot;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.CollisionAvoidance;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.CollisionAvoidanceField;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.GoalAttractor;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.simple.SimpleMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Solves a goal attractor among randomly placed obstacles on a 16 x 8 field.
+ * <p>
+ * The obstacles are either separate {@link CollisionAvoidance} leaves or a
+ * single {@link CollisionAvoidanceField}, with and without culling of far
+ * obstacles.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CollisionAvoidanceBenchmark {
+	/** How the obstacles are represented in the tree. */
+	public enum Layout {
+		LEAVES, CULLED_LEAVES, FIELD, CULLED_FIELD
+	}
+
+	private static final double CULLING_TOLERANCE = 1e-3;
+
+	@Param({ "8", "32", "128", "512" })
+	public int obstacles;
+
+	@Param
+	public Layout layout;
+
+	private RMPRoot root;
+	private final DMatrixRMaj x = new DMatrixRMaj(2, 1, true, .013, .021);
+	private final DMatrixRMaj x_dot = new DMatrixRMaj(2, 1, true, .3, .1);
+	private final DMatrixRMaj a = new DMatrixRMaj(2, 1);
+
+	@Setup
+	public void setup() {
+		root = new RMPRoot("root");
+		new GoalAttractor("Goal Attractor", root, new SimpleMatrix(1, 2, false, new double[] { 7, 3 }), 10, 1, 10, 1,
+				2, 2, .005);
+		CollisionAvoidanceField field = null;
+		if (layout == Layout.FIELD || layout == Layout.CULLED_FIELD) {
+			field = new CollisionAvoidanceField("Obstacles", root, .2, 1e-5, .1);
+			if (layout == Layout.CULLED_FIELD)
+				field.setCullingTolerance(CULLING_TOLERANCE);
+		}
+		Random random = new Random(2022); // The same field for every run
+		for (int i = 0; i < obstacles; i++) {
+			double cx = 16 * random.nextDouble() - 8, cy = 8 * random.nextDouble() - 4;
+			if (field != null) {
+				field.addObstacle(cx, cy, .1);
+			} else {
+				CollisionAvoidance leaf = new CollisionAvoidance("Obstacle " + i, root,
+						new SimpleMatrix(1, 2, false, new double[] { cx, cy }), .1, .2, 1e-5, .1);
+				if (layout == Layout.CULLED_LEAVES)
+					leaf.setCullingTolerance(CULLING_TOLERANCE);
+			}
+		}
+		root.compile();
+	}
+
+	@Benchmark
+	public DMatrixRMaj solve() {
+		return root.solve(x, x_dot, a);
+	}
+}
@@ -0,0 +1,50 @@
+package com.titanrobotics2022.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.titanrobotics2022.sensorfusion.KalmanFilter;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
+import org.ejml.simple.SimpleMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Updates a {@link KalmanFilter} with a new observation of the target quantity
+ * every 20 ms.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class KalmanFilterBenchmark {
+	/** The number of derivatives of the target quantity. */
+	@Param({ "0", "1", "2" })
+	public int degree;
+
+	/** The dimension of the target quantity. */
+	@Param({ "1", "2", "3", "6" })
+	public int dimension;
+
+	private KalmanFilter filter;
+	private DMatrixRMaj obs, obsPrec;
+	private double time = 0;
+
+	@Setup
+	public void setup() {
+		filter = new KalmanFilter(degree, new SimpleMatrix(dimension, 1), SimpleMatrix.identity(dimension));
+		obs = new DMatrixRMaj(dimension, 1);
+		for (int i = 0; i < dimension; i++)
+			obs.set(i, 0, i + 1);
+		obsPrec = CommonOps_DDRM.identity(dimension);
+	}
+
+	@Benchmark
+	public boolean update() {
+		time += .02;
+		return filter.update(0, obs, obsPrec, time);
+	}
+}
@@ -0,0 +1,106 @@
+package com.titanrobotics2022.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.titanrobotics2022.motion.generation.rmpflow.RMPNode;
+import com.titanrobotics2022.motion.generation.rmpflow.RMPRoot;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.CollisionAvoidance;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.GoalAttractor;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.simple.SimpleMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares a leaf's fused F and M evaluation with solving F and M separately.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LeafEvaluationBenchmark {
+	/** The leaf to evaluate. */
+	public enum Leaf {
+		GOAL_ATTRACTOR, COLLISION_AVOIDANCE
+	}
+
+	@Param
+	public Leaf leaf;
+
+	private Evaluator evaluator;
+	private final DMatrixRMaj f = new DMatrixRMaj(2, 1), m = new DMatrixRMaj(2, 2);
+	private DMatrixRMaj x, x_dot;
+
+	@Setup
+	public void setup() {
+		RMPRoot root = new RMPRoot("root");
+		if (leaf == Leaf.GOAL_ATTRACTOR) {
+			evaluator = new GoalAttractorEvaluator(root);
+			x = new DMatrixRMaj(2, 1, true, -1, -.5);
+			x_dot = new DMatrixRMaj(2, 1, true, .3, .1);
+		} else {
+			evaluator = new CollisionAvoidanceEvaluator(root);
+			x = new DMatrixRMaj(1, 1, true, .7); // A distance in radii from the edge
+			x_dot = new DMatrixRMaj(1, 1, true, -.4);
+		}
+	}
+
+	@Benchmark
+	public DMatrixRMaj fused() {
+		evaluator.fused(x, x_dot, f, m);
+		return m;
+	}
+
+	@Benchmark
+	public DMatrixRMaj separate() {
+		evaluator.separate(x, x_dot, f, m);
+		return m;
+	}
+
+	/**
+	 * Exposes the protected evaluation methods of a leaf.
+	 */
+	private interface Evaluator {
+		void fused(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj f, DMatrixRMaj m);
+
+		void separate(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj f, DMatrixRMaj m);
+	}
+
+	private static final class GoalAttractorEvaluator extends GoalAttractor implements Evaluator {
+		GoalAttractorEvaluator(RMPNode parent) {
+			super("Goal Attractor", parent, new SimpleMatrix(1, 2, false, new double[] { 10, 8 }), 10, 1, 10, 1, 2,
+					2, .005);
+		}
+
+		@Override
+		public void fused(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj f, DMatrixRMaj m) {
+			evaluate(x, x_dot, f, m);
+		}
+
+		@Override
+		public void separate(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj f, DMatrixRMaj m) {
+			solveM(x, x_dot, m);
+			solveF(x, x_dot, f);
+		}
+	}
+
+	private static final class CollisionAvoidanceEvaluator extends CollisionAvoidance implements Evaluator {
+		CollisionAvoidanceEvaluator(RMPNode parent) {
+			super("Obstacle", parent, new SimpleMatrix(1, 2, false, new double[] { 1, 1 }), .2, .2, 1e-5, .1);
+		}
+
+		@Override
+		public void fused(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj f, DMatrixRMaj m) {
+			evaluate(x, x_dot, f, m);
+		}
+
+		@Override
+		public void separate(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj f, DMatrixRMaj m) {
+			solveM(x, x_dot, m);
+			solveF(x, x_dot, f);
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package com.titanrobotics2022.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.titanrobotics2022.mapping.LinearSegment;
+import com.titanrobotics2022.mapping.Point;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Projects robot positions onto a zigzag path made of line segments.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PathBenchmark {
+	@Param({ "1", "16", "256" })
+	public int segments;
+
+	private LinearSegment[] path;
+	private double[] offsets; // Distance along the path to the start of each segment
+	private final Point[] positions = new Point[64];
+	private int next = 0;
+
+	@Setup
+	public void setup() {
+		path = new LinearSegment[segments];
+		offsets = new double[segments];
+		Point start = new Point(0, 0);
+		double length = 0;
+		for (int i = 0; i < segments; i++) {
+			Point end = new Point(i + 1, i % 2 == 0 ? .5 : 0);
+			path[i] = new LinearSegment(start, end);
+			offsets[i] = length;
+			length += path[i].getLength();
+			start = end;
+		}
+		for (int i = 0; i < positions.length; i++)
+			positions[i] = new Point(segments * (i + .5) / positions.length, .25 + .01 * (i % 7));
+	}
+
+	private Point nextPosition() {
+		next = (next + 1) & (positions.length - 1);
+		return positions[next];
+	}
+
+	/**
+	 * Calls {@link LinearSegment#getProgress(Point)} on every segment. Divide by
+	 * the number of segments for the time per call.
+	 */
+	@Benchmark
+	public double getProgress() {
+		Point pos = nextPosition();
+		double sum = 0;
+		for (LinearSegment segment : path)
+			sum += segment.getProgress(pos);
+		return sum;
+	}
+
+	/**
+	 * Finds the distance along the path to the point nearest to a position by
+	 * checking every segment.
+	 */
+	@Benchmark
+	public double nearestProgress() {
+		Point pos = nextPosition();
+		int nearest = 0;
+		double best = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < path.length; i++) {
+			double distance = path[i].getDistance(pos);
+			if (distance < best) {
+				best = distance;
+				nearest = i;
+			}
+		}
+		LinearSegment segment = path[nearest];
+		return offsets[nearest] + Math.max(0, Math.min(segment.getProgress(pos), segment.getLength()));
+	}
+}
@@ -0,0 +1,124 @@
+package com.titanrobotics2022.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.titanrobotics2022.motion.generation.rmpflow.RMPNode;
+import com.titanrobotics2022.motion.generation.rmpflow.RMPRoot;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.CollisionAvoidance;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.Damper;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.GoalAttractor;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
+import org.ejml.simple.SimpleMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Solves RMP trees of different shapes.
+ * <p>
+ * The root has {@code width} subtrees. Each subtree is a chain of
+ * {@code depth - 1} intermediate nodes ending in a goal attractor, a damper and
+ * a collision avoidance leaf, so a tree of depth 1 has its leaves directly
+ * below the root.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RMPTreeBenchmark {
+	@Param({ "1", "4", "16" })
+	public int width;
+
+	@Param({ "1", "2", "4" })
+	public int depth;
+
+	private RMPRoot root;
+	private final DMatrixRMaj x = new DMatrixRMaj(2, 1, true, -1, -.5);
+	private final DMatrixRMaj x_dot = new DMatrixRMaj(2, 1, true, .3, .1);
+	private final DMatrixRMaj a = new DMatrixRMaj(2, 1);
+	private final DMatrixRMaj xs = new DMatrixRMaj(2, 64), x_dots = new DMatrixRMaj(2, 64);
+	private final DMatrixRMaj as = new DMatrixRMaj(2, 64);
+
+	@Setup
+	public void setup() {
+		root = new RMPRoot("root");
+		for (int i = 0; i < width; i++) {
+			RMPNode parent = root;
+			for (int d = 1; d < depth; d++)
+				parent = new ScaledNode("Scaled " + i + "." + d, parent, 1.1);
+			new GoalAttractor("Goal Attractor " + i, parent,
+					new SimpleMatrix(1, 2, false, new double[] { 10 + i, 8 }), 10, 1, 10, 1, 2, 2, .005);
+			new Damper("Damper " + i, parent, .5, 1);
+			new CollisionAvoidance("Obstacle " + i, parent,
+					new SimpleMatrix(1, 2, false, new double[] { i % 6 + .5, i / 6 + .5 }), .2, .2, 1e-5, .1);
+		}
+		root.compile();
+		for (int k = 0; k < xs.numCols; k++) {
+			xs.set(0, k, -1 + .05 * k);
+			xs.set(1, k, -.5 - .02 * k);
+			x_dots.set(0, k, .3);
+			x_dots.set(1, k, .1);
+		}
+	}
+
+	@Benchmark
+	public DMatrixRMaj solve() {
+		return root.solve(x, x_dot, a);
+	}
+
+	/**
+	 * Solves the tree at 64 states at once. Divide by 64 for the time per state.
+	 */
+	@Benchmark
+	public DMatrixRMaj solveBatch() {
+		return root.solveBatch(xs, x_dots, as);
+	}
+
+	/**
+	 * An intermediate node with the task map psi(q) = scale * q.
+	 */
+	static class ScaledNode extends RMPNode {
+		private final double scale;
+
+		ScaledNode(String name, RMPNode parent, double scale) {
+			super(name, parent);
+			this.scale = scale;
+		}
+
+		@Override
+		public SimpleMatrix psi(SimpleMatrix q) {
+			return q.scale(scale);
+		}
+
+		@Override
+		public void psi(DMatrixRMaj q, DMatrixRMaj out) {
+			CommonOps_DDRM.scale(scale, q, out);
+		}
+
+		@Override
+		public SimpleMatrix j(SimpleMatrix q) {
+			return SimpleMatrix.identity(q.getNumElements()).scale(scale);
+		}
+
+		@Override
+		public void j(DMatrixRMaj q, DMatrixRMaj out) {
+			out.reshape(q.getNumElements(), q.getNumElements());
+			CommonOps_DDRM.setIdentity(out);
+			CommonOps_DDRM.scale(scale, out);
+		}
+
+		@Override
+		public SimpleMatrix j_dot(SimpleMatrix q, SimpleMatrix q_dot) {
+			return new SimpleMatrix(q.getNumElements(), q.getNumElements());
+		}
+
+		@Override
+		public void j_dot(DMatrixRMaj q, DMatrixRMaj q_dot, DMatrixRMaj out) {
+			out.reshape(q.getNumElements(), q.getNumElements());
+			out.zero();
+		}
+	}
+}
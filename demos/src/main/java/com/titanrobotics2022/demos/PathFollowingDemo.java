@@ -18,24 +18,19 @@ public class PathFollowingDemo {
         
         PathFollowing pathFollower = new PathFollowing("Path Following Demo", r, path, v, P, I, A, B, K, h);
 
-        SimpleMatrix x = new SimpleMatrix(1, 2, false, new double[] {0, 0});
-		SimpleMatrix x_dot = new SimpleMatrix(1, 2, false, new double[] {0, 0});
-		SimpleMatrix x_ddot;
+        double[] pos = {0, 0}, vel = {0, 0}, acc = new double[2];
+        RMPRollout rollout = new RMPRollout(r, RMPRollout.Scheme.TRAPEZOIDAL);
 
 		ArrayList<Double> simulationData = new ArrayList<Double>();
         for (int i = 0; i < 900; i++) {
-            x_ddot = r.solve(x, x_dot);
-			double[] newState = solveIntegration(.01*5, x_ddot, x_dot, x);
-			x_dot.set(1, newState[3]);
-			x_dot.set(0, newState[2]);
-			x.set(1, newState[1]);
-			x.set(0, newState[0]);
-			simulationData.add(newState[0]);
-			simulationData.add(newState[1]);
-			simulationData.add(newState[2]);
-			simulationData.add(newState[3]);
-			simulationData.add(x_ddot.get(0));
-			simulationData.add(x_ddot.get(1));
+            rollout.step(.01*5, pos, vel);
+            rollout.getLastAcceleration(acc);
+			simulationData.add(pos[0]);
+			simulationData.add(pos[1]);
+			simulationData.add(vel[0]);
+			simulationData.add(vel[1]);
+			simulationData.add(acc[0]);
+			simulationData.add(acc[1]);
         }
 
         JFrame frame = new JFrame("Path Following Demo");
@@ -62,15 +57,6 @@ public class PathFollowingDemo {
             return Math.sqrt(x*x + y*y);
         }
 
-        public static double[] solveIntegration(double deltaT, SimpleMatrix x_ddot, SimpleMatrix x_dot, SimpleMatrix x) {
-            double[] state = new double[4];
-            state[3] = x_dot.get(1) + x_ddot.get(1) * deltaT;
-            state[2] = x_dot.get(0) + x_ddot.get(0) * deltaT;
-            state[1] = x.get(1) + .5 * (x_dot.get(1) + state[3]) * deltaT;
-            state[0] = x.get(0) + .5 * (x_dot.get(0) + state[2]) * deltaT;
-            return state;
-        }
-
     }
 
 }
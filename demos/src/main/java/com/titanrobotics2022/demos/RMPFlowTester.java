@@ -9,6 +9,7 @@ import java.util.ArrayList;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 
+import com.titanrobotics2022.motion.generation.rmpflow.RMPRollout;
 import com.titanrobotics2022.motion.generation.rmpflow.RMPRoot;
 import com.titanrobotics2022.motion.generation.rmpflow.rmps.CollisionAvoidance;
 import com.titanrobotics2022.motion.generation.rmpflow.rmps.GoalAttractor;
@@ -44,26 +45,21 @@ public class RMPFlowTester{
 		*/
 		goalAttractors.add(new GoalAttractor("Goal Attractor Test", r, new SimpleMatrix(1, 2, false, new double[] {0, 10}), 10, 1, 10, 1, 2, 2, .005));
 		
-		SimpleMatrix x = new SimpleMatrix(1, 2, false, new double[] {0.5, -10});
-		SimpleMatrix x_dot = new SimpleMatrix(1, 2, false, new double[] {0, 0});
-		SimpleMatrix x_ddot;
+		double[] pos = {0.5, -10}, vel = {0, 0}, acc = new double[2];
+		RMPRollout rollout = new RMPRollout(r, RMPRollout.Scheme.TRAPEZOIDAL);
 		
 		//Simulation
 		ArrayList<Double> simulationData = new ArrayList<Double>();	
 		for(int i = 0; i < 4500/5; i++)
 		{
-			x_ddot = r.solve(x, x_dot);
-			double[] newState = solveIntegration(.01*5, x_ddot, x_dot, x);
-			x_dot.set(1, newState[3]);
-			x_dot.set(0, newState[2]);
-			x.set(1, newState[1]);
-			x.set(0, newState[0]);
-			simulationData.add(newState[0]);
-			simulationData.add(newState[1]);
-			simulationData.add(newState[2]);
-			simulationData.add(newState[3]);
-			simulationData.add(x_ddot.get(0));
-			simulationData.add(x_ddot.get(1));
+			rollout.step(.01*5, pos, vel);
+			rollout.getLastAcceleration(acc);
+			simulationData.add(pos[0]);
+			simulationData.add(pos[1]);
+			simulationData.add(vel[0]);
+			simulationData.add(vel[1]);
+			simulationData.add(acc[0]);
+			simulationData.add(acc[1]);
 		}
 		
 		for(int i = 0; i < simulationData.size(); i+=6)
@@ -154,15 +150,4 @@ public class RMPFlowTester{
 	{
 		return Math.sqrt(x * x + y * y);
 	}
-
-	//Dynamics of system
-	public static double[] solveIntegration(double deltaT, SimpleMatrix x_ddot, SimpleMatrix x_dot, SimpleMatrix x)
-	{
-		double[] state = new double[4];
-		state[3] = x_dot.get(1) + x_ddot.get(1) * deltaT;//y value
-		state[2] = x_dot.get(0) + x_ddot.get(0) * deltaT;//x value
-		state[1] = x.get(1) + .5 * (x_dot.get(1) + state[3]) * deltaT;//Trapezoid integration
-		state[0] = x.get(0) + .5 * (x_dot.get(0) + state[2]) * deltaT;
-		return state;
-	}
 }
@@ -7,18 +7,16 @@ import java.awt.Graphics2D;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 
-import com.titanrobotics2022.mapping.Path;
+import com.titanrobotics2022.motion.generation.rmpflow.RMPRollout;
 import com.titanrobotics2022.motion.generation.rmpflow.RMPRoot;
-import com.titanrobotics2022.motion.generation.rmpflow.rmps.CollisionAvoidance;
-import com.titanrobotics2022.motion.generation.rmpflow.rmps.PathFollowing;
-import com.titanrobotics2022.mapping.LinearSegment;
-import com.titanrobotics2022.mapping.Point;
+import com.titanrobotics2022.motion.generation.rmpflow.simulation.MonteCarloSimulator;
+import com.titanrobotics2022.motion.generation.rmpflow.simulation.Scenario;
+import com.titanrobotics2022.motion.generation.rmpflow.simulation.ScenarioGenerator;
 
 import org.ejml.simple.SimpleMatrix;
 
-import edu.wpi.first.math.geometry.Translation2d;
-
 import java.util.ArrayList;
+import java.util.Random;
 
 public class RMPDemo {
 
@@ -28,56 +26,13 @@ public class RMPDemo {
                 double speed = 0.75; // [0.0, 1.0]
                 int width = 1920, height = 1080;
 
-                RMPRoot root = new RMPRoot("root");
+                Scenario scenario = new ScenarioGenerator().generate(new Random());
+                RMPRoot root = MonteCarloSimulator.demoTree(scenario);
                 SimpleMatrix x = new SimpleMatrix(1, 2, false,
-                                new double[] { Math.random() * (width - 400) + 200,
-                                                Math.random() * (height - 400) + 200 });
+                                new double[] { scenario.getStart().getX(), scenario.getStart().getY() });
                 SimpleMatrix x_dot = new SimpleMatrix(1, 2, false, new double[] { 0, 0 });
-                SimpleMatrix x_ddot = new SimpleMatrix(1, 2, false, new double[] { 0, 0 });
-                double v = 8, P = 5, I = 0, A = 1, B = 0.5, K = 1, h = 0.5, maxAcc = 2;
-
-                double goal_x = Math.random() * 1300 + 200, goal_y = Math.random() * 600 + 200;
-                while (new Translation2d(goal_x, goal_y).getDistance(new Translation2d(x.get(0), x.get(1))) < 300) {
-                        goal_x = Math.random() * 1300 + 200;
-                        goal_y = Math.random() * 600 + 200;
-                }
                 SimpleMatrix goal = new SimpleMatrix(1, 2, false,
-                                new double[] { goal_x, goal_y });
-
-                Path path = new LinearSegment(new Point(x.get(0), x.get(1)), new Point(goal.get(0), goal.get(1)));
-                PathFollowing follower = new PathFollowing("Path Following Demo", root, path, v, P, I, A, B, K, h,
-                                maxAcc);
-
-                // RANDOMIZED obs locations
-                ArrayList<CollisionAvoidance> obstacles = new ArrayList<>();
-                int numObstacles = 30;
-                double minDist = 50;
-                for (int i = 0; i < numObstacles; i++) {
-                        boolean goodPos = false;
-                        double x_pos = 0, y_pos = 0;
-                        while (!goodPos) {
-                                x_pos = Math.random()
-                                                * (Math.max(x.get(0), goal.get(0)) - Math.min(x.get(0), goal.get(0)))
-                                                + Math.min(x.get(0), goal.get(0));
-                                y_pos = Math.random()
-                                                * (Math.max(x.get(1), goal.get(1)) - Math.min(x.get(1), goal.get(1)))
-                                                + Math.min(x.get(1), goal.get(1));
-                                boolean found = false;
-                                for (CollisionAvoidance cur : obstacles)
-                                        if (new Translation2d(cur.getCenter().get(0), cur.getCenter().get(1))
-                                                        .getDistance(new Translation2d(x_pos, y_pos)) < minDist)
-                                                found = true;
-                                goodPos = !found;
-                                if (new Translation2d(x.get(0), x.get(1))
-                                                .getDistance(new Translation2d(x_pos, y_pos)) < minDist
-                                                || new Translation2d(goal.get(0), goal.get(1))
-                                                                .getDistance(new Translation2d(x_pos, y_pos)) < minDist)
-                                        goodPos = false;
-                        }
-                        obstacles.add(new CollisionAvoidance(String.format("Obstacle %d", i), root,
-                                        new SimpleMatrix(1, 2, false, new double[] { x_pos, y_pos }),
-                                        Math.random() * 20 + 5, 0.2, 1e-5, 0.0));
-                }
+                                new double[] { scenario.getGoal().getX(), scenario.getGoal().getY() });
 
                 // FIXED obs locations
                 // obstacles.add(new CollisionAvoidance("Obstacle 1", root,
@@ -100,10 +55,11 @@ public class RMPDemo {
                                 super.paintComponent(g);
                                 Graphics2D g2 = (Graphics2D) g;
                                 g2.setColor(Color.red); // obs
-                                for (CollisionAvoidance obs : obstacles)
-                                        g2.fillOval((int) (obs.getCenter().get(0) / 1),
-                                                        (int) (obs.getCenter().get(1) / 1), (int) obs.getRadius(),
-                                                        (int) obs.getRadius());
+                                for (int i = 0; i < scenario.getObstacleCount(); i++)
+                                        g2.fillOval((int) (scenario.getObstacleCenter(i).getX() / 1),
+                                                        (int) (scenario.getObstacleCenter(i).getY() / 1),
+                                                        (int) scenario.getObstacleRadius(i),
+                                                        (int) scenario.getObstacleRadius(i));
                                 g2.fillOval((int) (simulationData.get(0) / 1),
                                                 (int) (simulationData.get(1) / 1), 10, 10);
                                 g2.setColor(Color.green); // start
@@ -139,23 +95,21 @@ public class RMPDemo {
 
                 double tolerance = 0.1;
                 int MAX_ITER = 100000;
+                RMPRollout rollout = new RMPRollout(root, RMPRollout.Scheme.TRAPEZOIDAL);
+                double[] pos = x.getDDRM().data, vel = x_dot.getDDRM().data, acc = new double[2];
                 for (int i = 0; Math.abs(x.minus(goal).normF()) > tolerance && i < MAX_ITER; i++) {
-                        x_ddot = root.solve(x, x_dot);
-                        // System.out.printf("x: (%f, %f)\n", x.get(0), x.get(1));
-                        // System.out.printf("x_dot: (%f, %f)\n", x_dot.get(0), x_dot.get(1));
-                        // System.out.printf("x_ddot: (%f, %f)\n", x_ddot.get(0), x_ddot.get(1));
+                        rollout.step(step, pos, vel);
+                        rollout.getLastAcceleration(acc);
+                        // System.out.printf("x: (%f, %f)\n", pos[0], pos[1]);
+                        // System.out.printf("x_dot: (%f, %f)\n", vel[0], vel[1]);
+                        // System.out.printf("x_ddot: (%f, %f)\n", acc[0], acc[1]);
                         // System.out.printf("t: %f\n", step * i);
-                        double[] newState = solveIntegration(step, x_ddot, x_dot, x);
-                        x_dot.set(1, newState[3]);
-                        x_dot.set(0, newState[2]);
-                        x.set(1, newState[1]);
-                        x.set(0, newState[0]);
-                        simulationData.add(newState[0]);
-                        simulationData.add(newState[1]);
-                        simulationData.add(newState[2]);
-                        simulationData.add(newState[3]);
-                        simulationData.add(x_ddot.get(0));
-                        simulationData.add(x_ddot.get(1));
+                        simulationData.add(pos[0]);
+                        simulationData.add(pos[1]);
+                        simulationData.add(vel[0]);
+                        simulationData.add(vel[1]);
+                        simulationData.add(acc[0]);
+                        simulationData.add(acc[1]);
                         panel.repaint();
                         try {
                                 Thread.sleep((long) (100 - (speed / 10 + 0.9) * 100));
@@ -165,16 +119,6 @@ public class RMPDemo {
 
         }
 
-        public static double[] solveIntegration(double deltaT, SimpleMatrix x_ddot, SimpleMatrix x_dot,
-                        SimpleMatrix x) {
-                double[] state = new double[4];
-                state[3] = x_dot.get(1) + x_ddot.get(1) * deltaT;
-                state[2] = x_dot.get(0) + x_ddot.get(0) * deltaT;
-                state[1] = x.get(1) + .5 * (x_dot.get(1) + state[3]) * deltaT;
-                state[0] = x.get(0) + .5 * (x_dot.get(0) + state[2]) * deltaT;
-                return state;
-        }
-
         public static void main(String[] args) {
                 new RMPDemo();
         }
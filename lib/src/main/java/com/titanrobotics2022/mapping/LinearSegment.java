@@ -5,12 +5,29 @@ import edu.wpi.first.math.geometry.Translation2d;
 
 /**
  * A line segment.
+ * 
+ * <p>
+ * The length, unit direction and left normal of the segment are computed at
+ * construction. Queries that take and return primitive coordinates, such as
+ * {@link #getProgress(double, double)} and
+ * {@link #getSignedDistance(double, double)}, do not allocate, so they can be
+ * called on the hot path of a controller.
  */
 public class LinearSegment implements Path {
+    private static final Rotation2d ZERO = new Rotation2d(0);
+
     /** The start point of this line segment. */
     protected final Point start;
     /** The end point of this line segment. */
     protected final Point end;
+    /** The length of this line segment. */
+    protected final double length;
+    /**
+     * The unit direction of this line segment, from the start to the end, or
+     * zero if the segment has no length.
+     */
+    protected final double dirX, dirY;
+    private final Rotation2d rotation;
 
     /**
      * Creates a new LinearSegment with the specified start and end points.
@@ -21,26 +38,99 @@ public class LinearSegment implements Path {
     public LinearSegment(Point start, Point end) {
         this.start = start;
         this.end = end;
+        double dx = end.getX() - start.getX(), dy = end.getY() - start.getY();
+        length = Math.hypot(dx, dy);
+        dirX = length > 0 ? dx / length : 0;
+        dirY = length > 0 ? dy / length : 0;
+        rotation = new Rotation2d(dx, dy);
     }
 
     @Override
     public double getLength() {
-        return end.minus(start).getNorm();
+        return length;
     }
 
     @Override
     public Point getPos(double distance) {
-        return start.plus(new Point(distance, end.minus(start).getAngle()));
+        return new Point(start.getX() + dirX * distance, start.getY() + dirY * distance);
+    }
+
+    /**
+     * Gets a position along this path without allocating.
+     * 
+     * @param distance The distance along this path.
+     * @param out      The array to write the x and y coordinates of the
+     *                 position to.
+     * @return out, for convenience.
+     */
+    @Override
+    public double[] getPos(double distance, double[] out) {
+        out[0] = start.getX() + dirX * distance;
+        out[1] = start.getY() + dirY * distance;
+        return out;
     }
 
     @Override
     public Rotation2d getRotation(double distance) {
-        return end.minus(start).getAngle();
+        return rotation;
+    }
+
+    @Override
+    public double getDirectionX(double distance) {
+        return dirX;
+    }
+
+    @Override
+    public double getDirectionY(double distance) {
+        return dirY;
     }
 
     @Override
     public Rotation2d getAngularVelocity(double distance) {
-        return new Rotation2d(0);
+        return ZERO;
+    }
+
+    @Override
+    public double getCurvature(double distance) {
+        return 0;
+    }
+
+    /**
+     * Gets the x component of the unit direction of this segment.
+     * 
+     * @return The cosine of the direction of this segment.
+     */
+    public double getDirectionX() {
+        return dirX;
+    }
+
+    /**
+     * Gets the y component of the unit direction of this segment.
+     * 
+     * @return The sine of the direction of this segment.
+     */
+    public double getDirectionY() {
+        return dirY;
+    }
+
+    /**
+     * Gets the x component of the unit normal to the left of this segment,
+     * which is the direction rotated by 90 degrees counterclockwise.
+     * 
+     * @return The x component of the normal.
+     */
+    public double getNormalX() {
+        return -dirY;
+    }
+
+    /**
+     * Gets the y component of the unit normal to the left of this segment.
+     * 
+     * @return The y component of the normal.
+     * @see #getNormalX()
+     */
+    public double getNormalY() {
+        return dirX;
     }
 
     @Override
@@ -53,13 +143,42 @@ public class LinearSegment implements Path {
         return new LinearSegment(start.rotateBy(rotation), end.rotateBy(rotation));
     }
 
+    /**
+     * Gets the distance along this segment of the nearest point to a point,
+     * clamped to the segment.
+     */
+    private double clampedProgress(double x, double y) {
+        return Math.max(0, Math.min(length, getProgress(x, y)));
+    }
+
     @Override
     public double getDistance(Point from) {
-        Rotation2d theta = Point.getAngle(end, start, from);
-        double startDist = start.getDistance(from);
-        if (theta.getCos() >= 0 && theta.getCos() * startDist < getLength())
-            return Math.abs(theta.getSin() * startDist);
-        return Math.min(startDist, end.getDistance(from));
+        return getDistance(from.getX(), from.getY());
+    }
+
+    /**
+     * Gets the minimum distance from this segment to a point without
+     * allocating.
+     * 
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     * @return The distance to the nearest point of this segment.
+     */
+    public double getDistance(double x, double y) {
+        double t = clampedProgress(x, y);
+        return Math.hypot(x - start.getX() - dirX * t, y - start.getY() - dirY * t);
+    }
+
+    /**
+     * Gets the signed distance from the line through this segment to a point.
+     * 
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     * @return The distance to the line, positive to the left of the direction
+     *         of this segment and negative to the right.
+     */
+    public double getSignedDistance(double x, double y) {
+        return (x - start.getX()) * -dirY + (y - start.getY()) * dirX;
     }
 
     /**
@@ -70,18 +189,46 @@ public class LinearSegment implements Path {
      *         point.
      */
     public Point getNearest(Point from) {
-        Rotation2d theta = Point.getAngle(end, start, from);
-        if (theta.getCos() <= 0)
+        double t = clampedProgress(from.getX(), from.getY());
+        if (t <= 0)
             return start;
-        double r = theta.getCos() * start.getDistance(from);
-        if (r >= getLength())
+        if (t >= length)
             return end;
-        return start.plus(new Point(r, end.minus(start).getAngle()));
+        return getPos(t);
+    }
+
+    /**
+     * Gets the nearest point of this segment to a specified point without
+     * allocating.
+     * 
+     * @param x   The x coordinate of the point.
+     * @param y   The y coordinate of the point.
+     * @param out The array to write the x and y coordinates of the nearest
+     *            point to.
+     * @return out, for convenience.
+     */
+    @Override
+    public double[] getNearest(double x, double y, double[] out) {
+        return getPos(clampedProgress(x, y), out);
     }
 
     @Override
     public double getProgress(Point pos) {
-        return Point.getAngle(end, start, pos).getCos() * pos.getDistance(start);
+        return getProgress(pos.getX(), pos.getY());
+    }
+
+    /**
+     * Gets the distance along the line through this segment of the projection
+     * of a point, without allocating.
+     * 
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     * @return The distance along this segment of the projection, which is
+     *         negative before the start and exceeds the length past the end.
+     */
+    @Override
+    public double getProgress(double x, double y) {
+        return (x - start.getX()) * dirX + (y - start.getY()) * dirY;
     }
 
     /**
@@ -102,6 +249,15 @@ public class LinearSegment implements Path {
         return this.end;
     }
 
+    /**
+     * Returns the sign of the turn from the ray from a vertex to a base point
+     * to the ray from the vertex to a leg point.
+     */
+    private static double turn(Point base, Point vertex, Point leg) {
+        return Math.signum((base.getX() - vertex.getX()) * (leg.getY() - vertex.getY())
+                - (base.getY() - vertex.getY()) * (leg.getX() - vertex.getX()));
+    }
+
     /**
      * Determines whether this path intersects another path.
      * 
@@ -114,10 +270,10 @@ public class LinearSegment implements Path {
      */
     public boolean intersects(LinearSegment other) {
         double abx, aby, xya, xyb;
-        abx = Point.getAngle(start, end, other.start).getSin();
-        aby = Point.getAngle(start, end, other.end).getSin();
-        xya = Point.getAngle(other.start, other.end, start).getSin();
-        xyb = Point.getAngle(other.start, other.end, end).getSin();
+        abx = turn(start, end, other.start);
+        aby = turn(start, end, other.end);
+        xya = turn(other.start, other.end, start);
+        xyb = turn(other.start, other.end, end);
         if (abx * aby <= 0 && xya * xyb <= 0)
             return true;
         else
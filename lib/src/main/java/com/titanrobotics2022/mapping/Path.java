@@ -18,6 +18,25 @@ public interface Path {
      */
     public Point getPos(double distance);
 
+    /**
+     * Gets a position along this path without allocating.
+     * 
+     * <p>
+     * Implementations that can answer without allocating should override this
+     * method. The default implementation calls {@link #getPos(double)}.
+     * 
+     * @param distance The distance along this path.
+     * @param out      The array to write the x and y coordinates of the
+     *                 position to.
+     * @return out, for convenience.
+     */
+    default public double[] getPos(double distance, double[] out) {
+        Point pos = getPos(distance);
+        out[0] = pos.getX();
+        out[1] = pos.getY();
+        return out;
+    }
+
     /**
      * Returns the starting position of this path.
      * 
@@ -52,6 +71,32 @@ public interface Path {
      */
     public Rotation2d getRotation(double distance);
 
+    /**
+     * Gets the x component of the unit direction of motion at a specified
+     * distance along this path.
+     * 
+     * <p>
+     * The default implementation calls {@link #getRotation(double)}.
+     * 
+     * @param distance The distance along this path.
+     * @return The cosine of the rotation at the specified distance.
+     */
+    default public double getDirectionX(double distance) {
+        return getRotation(distance).getCos();
+    }
+
+    /**
+     * Gets the y component of the unit direction of motion at a specified
+     * distance along this path.
+     * 
+     * @param distance The distance along this path.
+     * @return The sine of the rotation at the specified distance.
+     * @see #getDirectionX(double)
+     */
+    default public double getDirectionY(double distance) {
+        return getRotation(distance).getSin();
+    }
+
     /**
      * Gets the velocity at a specified distance along this path.
      * 
@@ -116,6 +161,20 @@ public interface Path {
      */
     public Rotation2d getAngularVelocity(double distance);
 
+    /**
+     * Gets the curvature at a specified distance along this path, which is
+     * {@link #getAngularVelocity(double)} in radians per unit distance.
+     * 
+     * <p>
+     * The default implementation calls {@link #getAngularVelocity(double)}.
+     * 
+     * @param distance The distance along this path.
+     * @return The curvature, positive where this path turns counterclockwise.
+     */
+    default public double getCurvature(double distance) {
+        return getAngularVelocity(distance).getRadians();
+    }
+
     /**
      * Gets the acceleration at a specified distance along this path.
      * 
@@ -232,8 +291,82 @@ public interface Path {
 
     public Point getNearest(Point from);
 
+    /**
+     * Gets the nearest point of this path to a point given by its coordinates.
+     * 
+     * <p>
+     * Implementations that can answer without allocating should override this
+     * method. The default implementation calls {@link #getNearest(Point)}.
+     * 
+     * @param x   The x coordinate of the point.
+     * @param y   The y coordinate of the point.
+     * @param out The array to write the x and y coordinates of the nearest
+     *            point to.
+     * @return out, for convenience.
+     */
+    default public double[] getNearest(double x, double y, double[] out) {
+        Point nearest = getNearest(new Point(x, y));
+        out[0] = nearest.getX();
+        out[1] = nearest.getY();
+        return out;
+    }
+
     public double getProgress(Point pos);
 
+    /**
+     * Gets the distance along this path of the nearest point to a point given
+     * by its coordinates.
+     * 
+     * <p>
+     * Implementations that can answer without allocating should override this
+     * method. The default implementation calls {@link #getProgress(Point)}.
+     * 
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     * @return The distance along this path of the point.
+     */
+    default public double getProgress(double x, double y) {
+        return getProgress(new Point(x, y));
+    }
+
+    /**
+     * Gets the distance along this path of the nearest point to a specified
+     * point, among the points within a range of distances.
+     * 
+     * <p>
+     * This lets a caller that knows roughly where along this path a point is,
+     * such as a {@link ProgressTracker}, search only part of a long path.
+     * Implementations may search a larger range than requested. The default
+     * implementation ignores the range and calls {@link #getProgress(Point)}.
+     * 
+     * @param pos  The point to find the progress of.
+     * @param from The smallest distance along this path to search.
+     * @param to   The largest distance along this path to search.
+     * @return The distance along this path of the point.
+     */
+    default public double getProgress(Point pos, double from, double to) {
+        return getProgress(pos);
+    }
+
+    /**
+     * Gets the distance along this path of the nearest point to a point given
+     * by its coordinates, among the points within a range of distances.
+     * 
+     * <p>
+     * Implementations that can answer without allocating should override this
+     * method. The default implementation calls
+     * {@link #getProgress(Point, double, double)}.
+     * 
+     * @param x    The x coordinate of the point.
+     * @param y    The y coordinate of the point.
+     * @param from The smallest distance along this path to search.
+     * @param to   The largest distance along this path to search.
+     * @return The distance along this path of the point.
+     */
+    default public double getProgress(double x, double y, double from, double to) {
+        return getProgress(new Point(x, y), from, to);
+    }
+
     /**
      * Determines whether this path intersects another path.
      * 
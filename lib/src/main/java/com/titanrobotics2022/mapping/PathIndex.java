@@ -0,0 +1,557 @@
+package com.titanrobotics2022.mapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A bounding volume hierarchy over the pieces of a set of paths, for finding
+ * the nearest path to a point, or the paths within a distance of it, without
+ * visiting every piece.
+ * 
+ * <p>
+ * Every path is split into straight pieces: a {@link LinearSegment} is one
+ * piece and a {@link Polyline} has one piece per segment. Any other path is
+ * split into chords, subdividing until the middle of every chord is within
+ * the tolerance of the path, and the bounding box of every chord is grown by
+ * twice its measured deviation. The nearest point found on a chord is then
+ * projected back onto the path with
+ * {@link Path#getProgress(double, double, double, double)} over the range of
+ * the chord.
+ * 
+ * <p>
+ * The pieces are sorted into a binary tree of axis-aligned boxes at
+ * construction. A query descends into the nearer child first and skips every
+ * box farther than the best distance found so far, so queries against long
+ * routes or many paths typically take logarithmic time. An index is not
+ * modified after construction, so it may be queried from several threads.
+ * Each thread keeps its own traversal stack and flags, so
+ * {@link #findNearest(double, double, Nearest)} and
+ * {@link #findWithin(double, double, double, int[])} do not allocate after
+ * the first query of a thread.
+ */
+public class PathIndex {
+    /** The tolerance used when none is specified. */
+    public static final double DEFAULT_TOLERANCE = 1e-3;
+
+    private static final int LEAF_SIZE = 4;
+    // Limits the subdivision of a curved path, so a cusp does not recurse forever
+    private static final int MAX_DEPTH = 16;
+
+    private final List<Path> paths;
+    // The pieces: chord endpoints, path, distance along the path of the start,
+    // and length along the path
+    private final double[] ax, ay, bx, by, starts, lengths;
+    private final int[] pathOf;
+    // The order the pieces were created in, which for a polyline is its segments
+    private final int[] original;
+    // Whether the piece is exactly its chord
+    private final boolean[] straight;
+    // The tree: boxes, and either the children or the range of pieces of a leaf
+    private final double[] minX, minY, maxX, maxY;
+    private final int[] left, right, first, count;
+    private final int nodes, depth;
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * The working memory of the queries of one thread.
+     */
+    private final class Scratch {
+        // The nodes left to visit, which never exceed the depth of the tree
+        final int[] stack = new int[depth + 1];
+        // Whether each path has been found, cleared by every query
+        final boolean[] found = new boolean[paths.size()];
+        final double[] pos = new double[2];
+    }
+
+    /**
+     * The result of a nearest-point query. One result can be reused for any
+     * number of queries.
+     */
+    public static final class Nearest {
+        private int path = -1;
+        private double progress, x, y, distance;
+
+        /**
+         * Gets the index of the nearest path in the index.
+         * 
+         * @return The index of the path, or -1 if nothing has been found.
+         */
+        public int getPath() {
+            return path;
+        }
+
+        /**
+         * Gets the distance along the nearest path of the nearest point.
+         * 
+         * @return The progress of the nearest point.
+         */
+        public double getProgress() {
+            return progress;
+        }
+
+        /**
+         * Gets the nearest point.
+         * 
+         * @return The nearest point.
+         */
+        public Point getPoint() {
+            return new Point(x, y);
+        }
+
+        /** Gets the x coordinate of the nearest point. */
+        public double getX() {
+            return x;
+        }
+
+        /** Gets the y coordinate of the nearest point. */
+        public double getY() {
+            return y;
+        }
+
+        /**
+         * Gets the distance from the query point to the nearest point.
+         * 
+         * @return The distance to the nearest path.
+         */
+        public double getDistance() {
+            return distance;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Nearest(path %d, progress %.3f, distance %.3f)", path, progress, distance);
+        }
+    }
+
+    /**
+     * Creates an index over a set of paths.
+     * 
+     * @param paths     The paths to index.
+     * @param tolerance The largest distance between a curved path and the
+     *                  chords it is split into.
+     */
+    public PathIndex(List<? extends Path> paths, double tolerance) {
+        if (!(tolerance > 0))
+            throw new IllegalArgumentException("Tolerance must be positive.");
+        this.paths = List.copyOf(paths);
+
+        Pieces pieces = new Pieces();
+        for (int p = 0; p < this.paths.size(); p++)
+            pieces.add(this.paths.get(p), p, tolerance);
+        int n = pieces.size;
+        ax = Arrays.copyOf(pieces.ax, n);
+        ay = Arrays.copyOf(pieces.ay, n);
+        bx = Arrays.copyOf(pieces.bx, n);
+        by = Arrays.copyOf(pieces.by, n);
+        starts = Arrays.copyOf(pieces.starts, n);
+        lengths = Arrays.copyOf(pieces.lengths, n);
+        pathOf = Arrays.copyOf(pieces.pathOf, n);
+        straight = Arrays.copyOf(pieces.straight, n);
+        double[] margins = pieces.margins;
+
+        int capacity = Math.max(1, 2 * n);
+        minX = new double[capacity];
+        minY = new double[capacity];
+        maxX = new double[capacity];
+        maxY = new double[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        first = new int[capacity];
+        count = new int[capacity];
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        int[] built = { 0, 0 };
+        if (n > 0)
+            build(order, margins, 0, n, 1, built);
+        nodes = built[0];
+        depth = built[1];
+        // Stores the pieces in tree order, so a leaf's pieces are contiguous
+        permute(order);
+        original = order;
+    }
+
+    /**
+     * Creates an index over a set of paths with the default tolerance.
+     * 
+     * @param paths The paths to index.
+     */
+    public PathIndex(List<? extends Path> paths) {
+        this(paths, DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * Creates an index over one path.
+     * 
+     * @param path The path to index.
+     */
+    public PathIndex(Path path) {
+        this(List.of(path));
+    }
+
+    /**
+     * Accumulates the pieces of the paths while the index is built.
+     */
+    private static final class Pieces {
+        double[] ax = new double[16], ay = new double[16], bx = new double[16], by = new double[16];
+        double[] starts = new double[16], lengths = new double[16], margins = new double[16];
+        int[] pathOf = new int[16];
+        boolean[] straight = new boolean[16];
+        int size = 0;
+
+        void add(Path path, int p, double tolerance) {
+            if (path instanceof Polyline) {
+                Polyline polyline = (Polyline) path;
+                for (int i = 0; i < polyline.getSegmentCount(); i++) {
+                    LinearSegment segment = polyline.getSegment(i);
+                    add(segment.getStart(), segment.getEnd(), polyline.getSegmentStart(i), segment.getLength(), p,
+                            true, 0);
+                }
+            } else if (path instanceof LinearSegment) {
+                add(path.getStart(), path.getEnd(), 0, path.getLength(), p, true, 0);
+            } else {
+                int initial = 8;
+                double length = path.getLength();
+                for (int i = 0; i < initial; i++)
+                    subdivide(path, p, length * i / initial, length * (i + 1) / initial, tolerance, 0);
+            }
+        }
+
+        private void subdivide(Path path, int p, double from, double to, double tolerance, int level) {
+            Point a = path.getPos(from), b = path.getPos(to), mid = path.getPos((from + to) / 2);
+            double deviation = mid.getDistance(a.plus(b).div(2));
+            if (deviation > tolerance && level < MAX_DEPTH) {
+                subdivide(path, p, from, (from + to) / 2, tolerance, level + 1);
+                subdivide(path, p, (from + to) / 2, to, tolerance, level + 1);
+            } else {
+                add(a, b, from, to - from, p, false, 2 * deviation);
+            }
+        }
+
+        private void add(Point a, Point b, double start, double length, int p, boolean isStraight, double margin) {
+            if (size == ax.length) {
+                int capacity = 2 * size;
+                ax = Arrays.copyOf(ax, capacity);
+                ay = Arrays.copyOf(ay, capacity);
+                bx = Arrays.copyOf(bx, capacity);
+                by = Arrays.copyOf(by, capacity);
+                starts = Arrays.copyOf(starts, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                margins = Arrays.copyOf(margins, capacity);
+                pathOf = Arrays.copyOf(pathOf, capacity);
+                straight = Arrays.copyOf(straight, capacity);
+            }
+            ax[size] = a.getX();
+            ay[size] = a.getY();
+            bx[size] = b.getX();
+            by[size] = b.getY();
+            starts[size] = start;
+            lengths[size] = length;
+            margins[size] = margin;
+            pathOf[size] = p;
+            straight[size] = isStraight;
+            size++;
+        }
+    }
+
+    /**
+     * Builds the subtree over order[from, to) and returns its node.
+     * 
+     * @param built The number of nodes so far and the deepest level reached
+     */
+    private int build(int[] order, double[] margins, int from, int to, int level, int[] built) {
+        int node = built[0]++;
+        built[1] = Math.max(built[1], level);
+        double loX = Double.POSITIVE_INFINITY, loY = Double.POSITIVE_INFINITY;
+        double hiX = Double.NEGATIVE_INFINITY, hiY = Double.NEGATIVE_INFINITY;
+        double cLoX = Double.POSITIVE_INFINITY, cLoY = Double.POSITIVE_INFINITY;
+        double cHiX = Double.NEGATIVE_INFINITY, cHiY = Double.NEGATIVE_INFINITY;
+        for (int k = from; k < to; k++) {
+            int i = order[k];
+            double m = margins[i];
+            loX = Math.min(loX, Math.min(ax[i], bx[i]) - m);
+            loY = Math.min(loY, Math.min(ay[i], by[i]) - m);
+            hiX = Math.max(hiX, Math.max(ax[i], bx[i]) + m);
+            hiY = Math.max(hiY, Math.max(ay[i], by[i]) + m);
+            double cx = (ax[i] + bx[i]) / 2, cy = (ay[i] + by[i]) / 2;
+            cLoX = Math.min(cLoX, cx);
+            cLoY = Math.min(cLoY, cy);
+            cHiX = Math.max(cHiX, cx);
+            cHiY = Math.max(cHiY, cy);
+        }
+        minX[node] = loX;
+        minY[node] = loY;
+        maxX[node] = hiX;
+        maxY[node] = hiY;
+        if (to - from <= LEAF_SIZE) {
+            left[node] = -1;
+            first[node] = from;
+            count[node] = to - from;
+            return node;
+        }
+        // Splits at the median centroid along the wider axis of the centroids
+        boolean alongX = cHiX - cLoX >= cHiY - cLoY;
+        int mid = (from + to) >>> 1;
+        select(order, from, to - 1, mid, alongX);
+        left[node] = build(order, margins, from, mid, level + 1, built);
+        right[node] = build(order, margins, mid, to, level + 1, built);
+        return node;
+    }
+
+    private double centroid(int i, boolean alongX) {
+        return alongX ? ax[i] + bx[i] : ay[i] + by[i];
+    }
+
+    /**
+     * Partially sorts order[lo, hi] so that order[k] has the median centroid.
+     */
+    private void select(int[] order, int lo, int hi, int k, boolean alongX) {
+        while (lo < hi) {
+            double pivot = centroid(order[(lo + hi) >>> 1], alongX);
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (centroid(order[i], alongX) < pivot)
+                    i++;
+                while (centroid(order[j], alongX) > pivot)
+                    j--;
+                if (i <= j) {
+                    int swap = order[i];
+                    order[i++] = order[j];
+                    order[j--] = swap;
+                }
+            }
+            if (k <= j)
+                hi = j;
+            else if (k >= i)
+                lo = i;
+            else
+                return;
+        }
+    }
+
+    private void permute(int[] order) {
+        double[][] columns = { ax, ay, bx, by, starts, lengths };
+        for (double[] column : columns) {
+            double[] copy = column.clone();
+            for (int k = 0; k < order.length; k++)
+                column[k] = copy[order[k]];
+        }
+        int[] paths = pathOf.clone();
+        boolean[] straights = straight.clone();
+        for (int k = 0; k < order.length; k++) {
+            pathOf[k] = paths[order[k]];
+            straight[k] = straights[order[k]];
+        }
+    }
+
+    private double boxDistanceSquared(int node, double x, double y) {
+        double dx = Math.max(0, Math.max(minX[node] - x, x - maxX[node]));
+        double dy = Math.max(0, Math.max(minY[node] - y, y - maxY[node]));
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Returns the clamped fraction along piece i of the nearest point of its
+     * chord.
+     */
+    private double project(int i, double x, double y) {
+        double dx = bx[i] - ax[i], dy = by[i] - ay[i];
+        double squared = dx * dx + dy * dy;
+        if (squared == 0)
+            return 0;
+        return Math.max(0, Math.min(1, ((x - ax[i]) * dx + (y - ay[i]) * dy) / squared));
+    }
+
+    /**
+     * Finds the nearest point of any indexed path to a point.
+     * 
+     * @param x   The x coordinate of the point.
+     * @param y   The y coordinate of the point.
+     * @param out The result to write to.
+     * @return True, if a path was found, or false, if the index is empty.
+     */
+    public boolean findNearest(double x, double y, Nearest out) {
+        if (nodes == 0) {
+            out.path = -1;
+            return false;
+        }
+        Scratch scratch = this.scratch.get();
+        write(nearestPiece(x, y, scratch.stack), x, y, out, scratch.pos);
+        return true;
+    }
+
+    /**
+     * Finds the piece whose chord is nearest to a point, in the order the
+     * pieces were created, which for an index over one polyline is the index
+     * of its segment. The index must not be empty.
+     */
+    int findNearestPiece(double x, double y) {
+        return original[nearestPiece(x, y, scratch.get().stack)];
+    }
+
+    private int nearestPiece(double x, double y, int[] stack) {
+        int best = -1;
+        double bestSquared = Double.POSITIVE_INFINITY;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            if (boxDistanceSquared(node, x, y) > bestSquared)
+                continue;
+            if (left[node] < 0) {
+                for (int i = first[node]; i < first[node] + count[node]; i++) {
+                    double t = project(i, x, y);
+                    double ex = ax[i] + t * (bx[i] - ax[i]) - x, ey = ay[i] + t * (by[i] - ay[i]) - y;
+                    double squared = ex * ex + ey * ey;
+                    if (squared < bestSquared || squared == bestSquared && original[i] < original[best]) {
+                        bestSquared = squared;
+                        best = i;
+                    }
+                }
+            } else {
+                int near = left[node], far = right[node];
+                if (boxDistanceSquared(near, x, y) > boxDistanceSquared(far, x, y)) {
+                    near = right[node];
+                    far = left[node];
+                }
+                stack[top++] = far;
+                stack[top++] = near;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Fills in a result from the nearest piece, projecting curved pieces back
+     * onto their path.
+     */
+    private void write(int i, double x, double y, Nearest out, double[] pos) {
+        out.path = pathOf[i];
+        if (straight[i]) {
+            double t = project(i, x, y);
+            out.progress = starts[i] + t * lengths[i];
+            out.x = ax[i] + t * (bx[i] - ax[i]);
+            out.y = ay[i] + t * (by[i] - ay[i]);
+        } else {
+            Path path = paths.get(out.path);
+            double progress = path.getProgress(x, y, starts[i], starts[i] + lengths[i]);
+            out.progress = Math.max(0, Math.min(path.getLength(), progress));
+            path.getPos(out.progress, pos);
+            out.x = pos[0];
+            out.y = pos[1];
+        }
+        out.distance = Math.hypot(out.x - x, out.y - y);
+    }
+
+    /**
+     * Finds the nearest point of any indexed path to a point.
+     * 
+     * @param from The point.
+     * @return The nearest point, with a path of -1 if the index is empty.
+     */
+    public Nearest findNearest(Point from) {
+        Nearest out = new Nearest();
+        findNearest(from.getX(), from.getY(), out);
+        return out;
+    }
+
+    /**
+     * Gets the minimum distance from any indexed path to a point.
+     * 
+     * @param from The point.
+     * @return The distance to the nearest path, or infinity if the index is
+     *         empty.
+     */
+    public double getDistance(Point from) {
+        Nearest out = new Nearest();
+        return findNearest(from.getX(), from.getY(), out) ? out.distance : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Finds the paths that pass within a distance of a point.
+     * 
+     * @param x      The x coordinate of the point.
+     * @param y      The y coordinate of the point.
+     * @param radius The distance to search within.
+     * @param out    The array to write the indices of the paths to, in
+     *               increasing order. It must be at least as long as the number
+     *               of paths.
+     * @return The number of indices written.
+     */
+    public int findWithin(double x, double y, double radius, int[] out) {
+        if (nodes == 0)
+            return 0;
+        Scratch scratch = this.scratch.get();
+        boolean[] found = scratch.found;
+        Arrays.fill(found, false);
+        int[] stack = scratch.stack;
+        double radiusSquared = radius * radius;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            if (boxDistanceSquared(node, x, y) > radiusSquared)
+                continue;
+            if (left[node] < 0) {
+                for (int i = first[node]; i < first[node] + count[node]; i++) {
+                    if (found[pathOf[i]])
+                        continue;
+                    if (straight[i]) {
+                        double t = project(i, x, y);
+                        double ex = ax[i] + t * (bx[i] - ax[i]) - x, ey = ay[i] + t * (by[i] - ay[i]) - y;
+                        found[pathOf[i]] = ex * ex + ey * ey <= radiusSquared;
+                    } else {
+                        Path path = paths.get(pathOf[i]);
+                        double progress = path.getProgress(x, y, starts[i], starts[i] + lengths[i]);
+                        progress = Math.max(starts[i], Math.min(starts[i] + lengths[i], progress));
+                        double[] pos = path.getPos(progress, scratch.pos);
+                        found[pathOf[i]] = Math.hypot(pos[0] - x, pos[1] - y) <= radius;
+                    }
+                }
+            } else {
+                stack[top++] = left[node];
+                stack[top++] = right[node];
+            }
+        }
+        int written = 0;
+        for (int p = 0; p < found.length; p++)
+            if (found[p])
+                out[written++] = p;
+        return written;
+    }
+
+    /**
+     * Finds the paths that pass within a distance of a point.
+     * 
+     * @param from   The point.
+     * @param radius The distance to search within.
+     * @return The paths within the distance, in the order they were indexed.
+     */
+    public List<Path> getPathsWithin(Point from, double radius) {
+        int[] indices = new int[paths.size()];
+        int n = findWithin(from.getX(), from.getY(), radius, indices);
+        List<Path> within = new ArrayList<>(n);
+        for (int k = 0; k < n; k++)
+            within.add(paths.get(indices[k]));
+        return within;
+    }
+
+    /**
+     * Gets the indexed paths.
+     * 
+     * @return A read-only list of the paths, in the order they were indexed.
+     */
+    public List<Path> getPaths() {
+        return paths;
+    }
+
+    /**
+     * Gets the number of pieces the paths were split into.
+     * 
+     * @return The number of pieces.
+     */
+    public int getPieceCount() {
+        return ax.length;
+    }
+}
@@ -0,0 +1,357 @@
+package com.titanrobotics2022.mapping;
+
+import java.util.Arrays;
+import java.util.List;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+
+/**
+ * A chain of line segments through a list of waypoints.
+ * 
+ * <p>
+ * The cumulative length at every waypoint is computed at construction, so
+ * the segment containing a distance along this path is found by binary
+ * search. The direction of every segment is precomputed too, so
+ * {@link #getRotation(double)} and {@link #getAngularVelocity(double)} do
+ * not allocate, and the queries that take or return primitive coordinates,
+ * such as {@link #getPos(double, double[])} and
+ * {@link #getDirectionX(double)}, do not allocate either.
+ * 
+ * <p>
+ * Nearest-point queries over the whole path go through a {@link PathIndex}
+ * built on first use when the path has at least
+ * {@value #INDEXED_SEGMENTS} segments, and scan the segments otherwise.
+ * 
+ * <p>
+ * Like {@link LinearSegment}, positions before the start or past the end are
+ * extrapolated along the first or last segment. The direction of this path
+ * changes only at the waypoints, so its angular velocity is zero everywhere
+ * else and is reported as zero at the waypoints as well.
+ */
+public class Polyline implements Path {
+    /** The number of segments from which global queries use an index. */
+    public static final int INDEXED_SEGMENTS = 16;
+
+    private static final Rotation2d ZERO = new Rotation2d(0);
+
+    /** The coordinates of the waypoints. */
+    private final double[] xs, ys;
+    /** The distance along this path of every waypoint. */
+    private final double[] cumulative;
+    /** The unit direction of every segment. */
+    private final double[] cos, sin;
+    /** The direction of every segment. */
+    private final Rotation2d[] rotations;
+    /** The index over the segments, built by the first global query. */
+    private volatile PathIndex index;
+
+    /**
+     * Creates a polyline through the specified waypoints.
+     * 
+     * <p>
+     * Repeated consecutive waypoints are dropped, since a segment of zero
+     * length has no direction.
+     * 
+     * @param waypoints The waypoints, in order of travel.
+     * @throws IllegalArgumentException If there are fewer than two distinct
+     *                                  waypoints.
+     */
+    public Polyline(List<? extends Translation2d> waypoints) {
+        this(waypoints.toArray(new Translation2d[0]));
+    }
+
+    /**
+     * Creates a polyline through the specified waypoints.
+     * 
+     * @param waypoints The waypoints, in order of travel.
+     * @throws IllegalArgumentException If there are fewer than two distinct
+     *                                  waypoints.
+     * @see #Polyline(List)
+     */
+    public Polyline(Translation2d... waypoints) {
+        double[] x = new double[waypoints.length], y = new double[waypoints.length];
+        int n = 0;
+        for (Translation2d waypoint : waypoints) {
+            if (n > 0 && waypoint.getX() == x[n - 1] && waypoint.getY() == y[n - 1])
+                continue;
+            x[n] = waypoint.getX();
+            y[n] = waypoint.getY();
+            n++;
+        }
+        if (n < 2)
+            throw new IllegalArgumentException("A polyline needs at least two distinct waypoints.");
+        xs = Arrays.copyOf(x, n);
+        ys = Arrays.copyOf(y, n);
+        cumulative = new double[n];
+        cos = new double[n - 1];
+        sin = new double[n - 1];
+        rotations = new Rotation2d[n - 1];
+        for (int i = 0; i < n - 1; i++) {
+            double dx = xs[i + 1] - xs[i], dy = ys[i + 1] - ys[i];
+            double length = Math.hypot(dx, dy);
+            cumulative[i + 1] = cumulative[i] + length;
+            cos[i] = dx / length;
+            sin[i] = dy / length;
+            rotations[i] = new Rotation2d(dx, dy);
+        }
+    }
+
+    @Override
+    public double getLength() {
+        return cumulative[cumulative.length - 1];
+    }
+
+    /**
+     * Gets the number of segments of this path.
+     * 
+     * @return The number of segments, one less than the number of waypoints.
+     */
+    public int getSegmentCount() {
+        return cos.length;
+    }
+
+    /**
+     * Gets a segment of this path.
+     * 
+     * @param index The index of the segment.
+     * @return The segment from waypoint {@code index} to waypoint
+     *         {@code index + 1}.
+     */
+    public LinearSegment getSegment(int index) {
+        return new LinearSegment(new Point(xs[index], ys[index]), new Point(xs[index + 1], ys[index + 1]));
+    }
+
+    /**
+     * Gets the distance along this path at which a segment starts.
+     * 
+     * @param index The index of the segment.
+     * @return The distance along this path of waypoint {@code index}.
+     */
+    public double getSegmentStart(int index) {
+        return cumulative[index];
+    }
+
+    /**
+     * Finds the segment containing a distance along this path.
+     * 
+     * @param distance The distance along this path.
+     * @return The index of the segment containing the distance. Distances
+     *         before the start map to the first segment, and distances past the
+     *         end to the last.
+     */
+    public int getSegmentIndex(double distance) {
+        int index = Arrays.binarySearch(cumulative, distance);
+        if (index < 0)
+            index = -index - 2;
+        return Math.max(0, Math.min(cos.length - 1, index));
+    }
+
+    @Override
+    public Point getPos(double distance) {
+        int i = getSegmentIndex(distance);
+        double t = distance - cumulative[i];
+        return new Point(xs[i] + cos[i] * t, ys[i] + sin[i] * t);
+    }
+
+    @Override
+    public double[] getPos(double distance, double[] out) {
+        int i = getSegmentIndex(distance);
+        double t = distance - cumulative[i];
+        out[0] = xs[i] + cos[i] * t;
+        out[1] = ys[i] + sin[i] * t;
+        return out;
+    }
+
+    @Override
+    public Point getStart() {
+        return new Point(xs[0], ys[0]);
+    }
+
+    @Override
+    public Point getEnd() {
+        return new Point(xs[xs.length - 1], ys[ys.length - 1]);
+    }
+
+    @Override
+    public Rotation2d getRotation(double distance) {
+        return rotations[getSegmentIndex(distance)];
+    }
+
+    @Override
+    public double getDirectionX(double distance) {
+        return cos[getSegmentIndex(distance)];
+    }
+
+    @Override
+    public double getDirectionY(double distance) {
+        return sin[getSegmentIndex(distance)];
+    }
+
+    @Override
+    public Rotation2d getAngularVelocity(double distance) {
+        return ZERO;
+    }
+
+    @Override
+    public double getCurvature(double distance) {
+        return 0;
+    }
+
+    @Override
+    public Polyline translateBy(Translation2d offset) {
+        Point[] waypoints = new Point[xs.length];
+        for (int i = 0; i < xs.length; i++)
+            waypoints[i] = new Point(xs[i] + offset.getX(), ys[i] + offset.getY());
+        return new Polyline(waypoints);
+    }
+
+    @Override
+    public Polyline rotateBy(Rotation2d angle) {
+        Point[] waypoints = new Point[xs.length];
+        for (int i = 0; i < xs.length; i++)
+            waypoints[i] = new Point(xs[i], ys[i]).rotateBy(angle);
+        return new Polyline(waypoints);
+    }
+
+    @Override
+    public Polyline reverse() {
+        Point[] waypoints = new Point[xs.length];
+        for (int i = 0; i < xs.length; i++)
+            waypoints[i] = new Point(xs[xs.length - 1 - i], ys[ys.length - 1 - i]);
+        return new Polyline(waypoints);
+    }
+
+    /**
+     * Finds the segment nearest to a point among a range of segments.
+     * 
+     * @return The index of the nearest segment.
+     */
+    private int nearestSegment(double px, double py, int first, int last) {
+        int nearest = first;
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = first; i <= last; i++) {
+            double dx = px - xs[i], dy = py - ys[i];
+            double t = clamp(dx * cos[i] + dy * sin[i], i);
+            double ex = dx - cos[i] * t, ey = dy - sin[i] * t;
+            double squared = ex * ex + ey * ey;
+            if (squared < best) {
+                best = squared;
+                nearest = i;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Finds the segment nearest to a point.
+     * 
+     * @return The index of the nearest segment.
+     */
+    private int nearestSegment(double px, double py) {
+        if (cos.length < INDEXED_SEGMENTS)
+            return nearestSegment(px, py, 0, cos.length - 1);
+        PathIndex index = this.index;
+        if (index == null)
+            this.index = index = new PathIndex(this);
+        return index.findNearestPiece(px, py);
+    }
+
+    /**
+     * Clamps the distance along a segment to the segment.
+     */
+    private double clamp(double t, int segment) {
+        return Math.max(0, Math.min(cumulative[segment + 1] - cumulative[segment], t));
+    }
+
+    @Override
+    public double getDistance(Point from) {
+        return getNearest(from).getDistance(from);
+    }
+
+    /**
+     * Gets the nearest point of this path to a specified point.
+     * 
+     * @param from The point to find the nearest point to.
+     * @return The point along this path that is nearest to the specified
+     *         point.
+     */
+    @Override
+    public Point getNearest(Point from) {
+        int i = nearestSegment(from.getX(), from.getY());
+        double t = clamp((from.getX() - xs[i]) * cos[i] + (from.getY() - ys[i]) * sin[i], i);
+        return new Point(xs[i] + cos[i] * t, ys[i] + sin[i] * t);
+    }
+
+    @Override
+    public double[] getNearest(double x, double y, double[] out) {
+        int i = nearestSegment(x, y);
+        double t = clamp((x - xs[i]) * cos[i] + (y - ys[i]) * sin[i], i);
+        out[0] = xs[i] + cos[i] * t;
+        out[1] = ys[i] + sin[i] * t;
+        return out;
+    }
+
+    /**
+     * Gets the distance along this path of the nearest point to a specified
+     * point.
+     * 
+     * <p>
+     * Like {@link LinearSegment#getProgress(Point)}, the progress of a point
+     * nearest to the start or the end is extended along the first or last
+     * segment, so it may be negative or exceed the length of this path.
+     * 
+     * @param pos The point to find the progress of.
+     * @return The distance along this path of the point.
+     */
+    @Override
+    public double getProgress(Point pos) {
+        return getProgress(pos.getX(), pos.getY());
+    }
+
+    @Override
+    public double getProgress(double x, double y) {
+        return progressOnSegment(x, y, nearestSegment(x, y));
+    }
+
+    /**
+     * Gets the distance along this path of the nearest point to a specified
+     * point, searching only the segments that overlap a range of distances.
+     * 
+     * @param pos  The point to find the progress of.
+     * @param from The smallest distance along this path to search.
+     * @param to   The largest distance along this path to search.
+     * @return The distance along this path of the point.
+     */
+    @Override
+    public double getProgress(Point pos, double from, double to) {
+        return getProgress(pos.getX(), pos.getY(), from, to);
+    }
+
+    @Override
+    public double getProgress(double x, double y, double from, double to) {
+        return progressOnSegment(x, y, nearestSegment(x, y, getSegmentIndex(from), getSegmentIndex(to)));
+    }
+
+    private double progressOnSegment(double x, double y, int i) {
+        double t = (x - xs[i]) * cos[i] + (y - ys[i]) * sin[i];
+        if (!(i == 0 && t < 0) && !(i == cos.length - 1 && t > 0))
+            t = clamp(t, i);
+        return cumulative[i] + t;
+    }
+
+    /**
+     * Gets the minimum distance between this path and another path.
+     * 
+     * @param other The path to find the distance to.
+     * @return The minimum distance between any point along this path and any
+     *         point on the other path.
+     */
+    @Override
+    public double getDistance(Path other) {
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < cos.length && min > 0; i++)
+            min = Math.min(min, getSegment(i).getDistance(other));
+        return min;
+    }
+}
@@ -0,0 +1,166 @@
+package com.titanrobotics2022.mapping;
+
+/**
+ * Tracks the progress along a path of a point that moves a little at a
+ * time, such as a robot following the path.
+ * 
+ * <p>
+ * The first query searches the whole path. Later queries search only a window
+ * of distances around the previous progress with
+ * {@link Path#getProgress(double, double, double, double)}, so their cost
+ * does not grow with the length of the path. A global search is made again
+ * when the point has moved more than half the window since the previous
+ * query, or when the nearest point found lies on an edge of the window inside
+ * the path, since the true nearest point may then lie outside it.
+ * 
+ * <p>
+ * Repeating the previous query returns the previous progress without a
+ * search, so the task map, Jacobian and its derivative of a path following
+ * leaf share one search per solve.
+ * 
+ * <p>
+ * Warm starting assumes the point is near the part of the path it was near
+ * before. Where a path comes back close to itself within half a window, the
+ * tracker keeps the progress on the part being followed rather than jumping
+ * to the other part, unlike {@link Path#getProgress(Point)}.
+ */
+public class ProgressTracker {
+    /** The window used when none is specified. */
+    public static final double DEFAULT_WINDOW = 1;
+
+    private final Path path;
+    private double window;
+    private boolean tracking = false;
+    private double lastX, lastY, progress;
+    private int globalSearches = 0;
+
+    /**
+     * Creates a tracker for a path.
+     * 
+     * @param path   The path to track progress along.
+     * @param window The distance along the path on either side of the previous
+     *               progress to search.
+     */
+    public ProgressTracker(Path path, double window) {
+        if (path == null)
+            throw new NullPointerException("path");
+        this.path = path;
+        setWindow(window);
+    }
+
+    /**
+     * Creates a tracker for a path with the default window.
+     * 
+     * @param path The path to track progress along.
+     */
+    public ProgressTracker(Path path) {
+        this(path, DEFAULT_WINDOW);
+    }
+
+    /**
+     * Gets the progress of a point, warm started from the previous query.
+     * 
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     * @return The distance along the path of the point.
+     */
+    public double getProgress(double x, double y) {
+        if (tracking && x == lastX && y == lastY)
+            return progress;
+        if (tracking && Math.hypot(x - lastX, y - lastY) <= window / 2) {
+            double from = progress - window, to = progress + window;
+            double local = path.getProgress(x, y, from, to);
+            boolean clipped = local <= from && from > 0 || local >= to && to < path.getLength();
+            progress = clipped ? search(x, y) : local;
+        } else {
+            progress = search(x, y);
+        }
+        lastX = x;
+        lastY = y;
+        tracking = true;
+        return progress;
+    }
+
+    /**
+     * Gets the progress of a point, warm started from the previous query.
+     * 
+     * @param pos The point.
+     * @return The distance along the path of the point.
+     * @see #getProgress(double, double)
+     */
+    public double getProgress(Point pos) {
+        return getProgress(pos.getX(), pos.getY());
+    }
+
+    private double search(double x, double y) {
+        globalSearches++;
+        return path.getProgress(x, y);
+    }
+
+    /**
+     * Copies the state of another tracker of the same path, such as one saved
+     * before the point was moved temporarily.
+     * 
+     * @param other The tracker to copy.
+     * @throws IllegalArgumentException If the other tracker tracks a different
+     *                                  path.
+     */
+    public void setTo(ProgressTracker other) {
+        if (other.path != path)
+            throw new IllegalArgumentException("The trackers must track the same path.");
+        window = other.window;
+        tracking = other.tracking;
+        lastX = other.lastX;
+        lastY = other.lastY;
+        progress = other.progress;
+        globalSearches = other.globalSearches;
+    }
+
+    /**
+     * Forgets the previous query, so that the next one searches the whole path.
+     */
+    public void reset() {
+        tracking = false;
+    }
+
+    /**
+     * Sets the distance along the path on either side of the previous progress
+     * to search. It should comfortably exceed the distance the point moves
+     * between queries.
+     * 
+     * @param window The half-width of the search window.
+     */
+    public void setWindow(double window) {
+        if (!(window > 0))
+            throw new IllegalArgumentException("Window must be positive.");
+        this.window = window;
+    }
+
+    /**
+     * Gets the distance along the path on either side of the previous progress
+     * that is searched.
+     * 
+     * @return The half-width of the search window.
+     */
+    public double getWindow() {
+        return window;
+    }
+
+    /**
+     * Gets the tracked path.
+     * 
+     * @return The path.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Gets the number of queries that searched the whole path.
+     * 
+     * @return The number of global searches.
+     */
+    public int getGlobalSearchCount() {
+        return globalSearches;
+    }
+}
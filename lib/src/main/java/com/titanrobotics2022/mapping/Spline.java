@@ -0,0 +1,529 @@
+package com.titanrobotics2022.mapping;
+
+import java.util.Arrays;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+
+/**
+ * A polynomial curve, parameterized by distance through a precomputed
+ * arc-length table.
+ * 
+ * <p>
+ * The curve is p(u) = sum c_k u^k for u in [0, 1], and has no closed form
+ * for its arc length. At construction, the parameter range is split into a
+ * number of equal intervals given by the resolution, and the distance along
+ * the curve at every interval boundary is integrated with Gauss-Legendre
+ * quadrature. A distance is then mapped to a parameter by binary search in
+ * the table and cubic Hermite interpolation within the interval, using the
+ * speed of the curve at the boundaries as slopes, so a query is a table
+ * lookup plus a few polynomial evaluations.
+ * 
+ * <p>
+ * The interpolation error is estimated at construction by integrating the
+ * arc length to the interpolated parameter at points inside every interval.
+ * The largest deviation is reported by {@link #getArcLengthError()}.
+ * 
+ * <p>
+ * Like {@link LinearSegment}, positions before the start or past the end are
+ * extrapolated along the tangent at that end.
+ */
+public class Spline implements Path {
+    /** The resolution used when none is specified. */
+    public static final int DEFAULT_RESOLUTION = 64;
+
+    // Nodes and weights of 5 point Gauss-Legendre quadrature on [0, 1]
+    private static final double[] GAUSS_NODES = {
+            .04691007703066800, .23076534494715845, .5, .76923465505284155, .95308992296933200 };
+    private static final double[] GAUSS_WEIGHTS = {
+            .11846344252809454, .23931433524968324, .28444444444444444, .23931433524968324, .11846344252809454 };
+
+    /** The monomial coefficients of the curve. */
+    private final double[] cx, cy;
+    /** The coefficients of the first and second derivatives of the curve. */
+    private final double[] dx, dy, ddx, ddy;
+    /** The parameter, distance and speed at every interval boundary. */
+    private final double[] us, lengths, speeds;
+    private final double error;
+
+    /**
+     * Creates a spline from the monomial coefficients of its coordinates.
+     * 
+     * @param xCoefficients The coefficients of x(u), lowest degree first.
+     * @param yCoefficients The coefficients of y(u), lowest degree first.
+     * @param resolution    The number of intervals of the arc-length table.
+     */
+    public Spline(double[] xCoefficients, double[] yCoefficients, int resolution) {
+        if (resolution < 1)
+            throw new IllegalArgumentException("Resolution must be positive.");
+        int degree = Math.max(xCoefficients.length, yCoefficients.length);
+        if (degree == 0)
+            throw new IllegalArgumentException("A spline needs at least one coefficient.");
+        cx = Arrays.copyOf(xCoefficients, degree);
+        cy = Arrays.copyOf(yCoefficients, degree);
+        dx = derivative(cx);
+        dy = derivative(cy);
+        ddx = derivative(dx);
+        ddy = derivative(dy);
+
+        us = new double[resolution + 1];
+        lengths = new double[resolution + 1];
+        speeds = new double[resolution + 1];
+        for (int k = 0; k <= resolution; k++) {
+            us[k] = (double) k / resolution;
+            speeds[k] = speed(us[k]);
+            if (k > 0)
+                lengths[k] = lengths[k - 1] + integrate(us[k - 1], us[k]);
+        }
+        if (!(getLength() > 0))
+            throw new IllegalArgumentException("A spline must have a positive length.");
+
+        double worst = 0;
+        for (int k = 0; k < resolution; k++)
+            for (double t = .25; t < 1; t += .25) {
+                double s = lengths[k] + t * (lengths[k + 1] - lengths[k]);
+                worst = Math.max(worst, Math.abs(lengths[k] + integrate(us[k], parameter(k, s)) - s));
+            }
+        error = worst;
+    }
+
+    /**
+     * Creates a spline from the monomial coefficients of its coordinates, with
+     * the default resolution.
+     * 
+     * @param xCoefficients The coefficients of x(u), lowest degree first.
+     * @param yCoefficients The coefficients of y(u), lowest degree first.
+     */
+    public Spline(double[] xCoefficients, double[] yCoefficients) {
+        this(xCoefficients, yCoefficients, DEFAULT_RESOLUTION);
+    }
+
+    /**
+     * Creates a cubic Hermite spline between two points.
+     * 
+     * @param start         The start point.
+     * @param startVelocity The derivative of the curve at the start with respect
+     *                      to its parameter.
+     * @param end           The end point.
+     * @param endVelocity   The derivative of the curve at the end with respect
+     *                      to its parameter.
+     * @param resolution    The number of intervals of the arc-length table.
+     * @return The spline.
+     */
+    public static Spline cubicHermite(Translation2d start, Translation2d startVelocity, Translation2d end,
+            Translation2d endVelocity, int resolution) {
+        Translation2d p0 = start, v0 = startVelocity, p1 = end, v1 = endVelocity;
+        Translation2d[] c = {
+                p0,
+                v0,
+                p0.times(-3).minus(v0.times(2)).plus(p1.times(3)).minus(v1),
+                p0.times(2).plus(v0).minus(p1.times(2)).plus(v1) };
+        return fromPoints(c, resolution);
+    }
+
+    /**
+     * Creates a quintic Hermite spline between two points, which also matches
+     * the second derivatives at the ends.
+     * 
+     * @param start             The start point.
+     * @param startVelocity     The first derivative of the curve at the start
+     *                          with respect to its parameter.
+     * @param startAcceleration The second derivative of the curve at the start
+     *                          with respect to its parameter.
+     * @param end               The end point.
+     * @param endVelocity       The first derivative of the curve at the end.
+     * @param endAcceleration   The second derivative of the curve at the end.
+     * @param resolution        The number of intervals of the arc-length table.
+     * @return The spline.
+     */
+    public static Spline quinticHermite(Translation2d start, Translation2d startVelocity,
+            Translation2d startAcceleration, Translation2d end, Translation2d endVelocity,
+            Translation2d endAcceleration, int resolution) {
+        Translation2d p0 = start, v0 = startVelocity, a0 = startAcceleration;
+        Translation2d p1 = end, v1 = endVelocity, a1 = endAcceleration;
+        Translation2d[] c = {
+                p0,
+                v0,
+                a0.times(.5),
+                p0.times(-10).minus(v0.times(6)).minus(a0.times(1.5)).plus(a1.times(.5)).minus(v1.times(4))
+                        .plus(p1.times(10)),
+                p0.times(15).plus(v0.times(8)).plus(a0.times(1.5)).minus(a1).plus(v1.times(7)).minus(p1.times(15)),
+                p0.times(-6).minus(v0.times(3)).minus(a0.times(.5)).plus(a1.times(.5)).minus(v1.times(3))
+                        .plus(p1.times(6)) };
+        return fromPoints(c, resolution);
+    }
+
+    /**
+     * Creates a Bezier curve of any degree.
+     * 
+     * @param resolution    The number of intervals of the arc-length table.
+     * @param controlPoints The control points, at least two.
+     * @return The spline.
+     */
+    public static Spline bezier(int resolution, Translation2d... controlPoints) {
+        int n = controlPoints.length - 1;
+        if (n < 1)
+            throw new IllegalArgumentException("A Bezier curve needs at least two control points.");
+        // c_k = C(n, k) * sum_i (-1)^(k - i) C(k, i) P_i
+        Translation2d[] c = new Translation2d[n + 1];
+        for (int k = 0; k <= n; k++) {
+            double x = 0, y = 0;
+            for (int i = 0; i <= k; i++) {
+                double w = ((k - i) % 2 == 0 ? 1 : -1) * binomial(k, i);
+                x += w * controlPoints[i].getX();
+                y += w * controlPoints[i].getY();
+            }
+            c[k] = new Translation2d(x, y).times(binomial(n, k));
+        }
+        return fromPoints(c, resolution);
+    }
+
+    private static Spline fromPoints(Translation2d[] c, int resolution) {
+        double[] x = new double[c.length], y = new double[c.length];
+        for (int k = 0; k < c.length; k++) {
+            x[k] = c[k].getX();
+            y[k] = c[k].getY();
+        }
+        return new Spline(x, y, resolution);
+    }
+
+    private static double binomial(int n, int k) {
+        double result = 1;
+        for (int i = 1; i <= k; i++)
+            result = result * (n - k + i) / i;
+        return result;
+    }
+
+    private static double[] derivative(double[] c) {
+        double[] d = new double[Math.max(1, c.length - 1)];
+        for (int k = 1; k < c.length; k++)
+            d[k - 1] = k * c[k];
+        return d;
+    }
+
+    private static double evaluate(double[] c, double u) {
+        double result = 0;
+        for (int k = c.length - 1; k >= 0; k--)
+            result = result * u + c[k];
+        return result;
+    }
+
+    private double speed(double u) {
+        return Math.hypot(evaluate(dx, u), evaluate(dy, u));
+    }
+
+    /**
+     * Integrates the speed of the curve between two parameters.
+     */
+    private double integrate(double from, double to) {
+        double sum = 0, h = to - from;
+        for (int i = 0; i < GAUSS_NODES.length; i++)
+            sum += GAUSS_WEIGHTS[i] * speed(from + GAUSS_NODES[i] * h);
+        return sum * h;
+    }
+
+    /**
+     * Interpolates the parameter at a distance within an interval of the
+     * table.
+     */
+    private double parameter(int k, double distance) {
+        double h = lengths[k + 1] - lengths[k];
+        double t = (distance - lengths[k]) / h;
+        double u0 = us[k], u1 = us[k + 1];
+        // A cusp has no finite du/ds, so fall back to linear interpolation
+        if (!(speeds[k] > 0) || !(speeds[k + 1] > 0))
+            return u0 + t * (u1 - u0);
+        double m0 = h / speeds[k], m1 = h / speeds[k + 1];
+        double t2 = t * t, t3 = t2 * t;
+        return (2 * t3 - 3 * t2 + 1) * u0 + (t3 - 2 * t2 + t) * m0 + (-2 * t3 + 3 * t2) * u1 + (t3 - t2) * m1;
+    }
+
+    /**
+     * Maps a distance along this path to the parameter of the curve.
+     * 
+     * @param distance The distance along this path, clamped to the curve.
+     * @return The parameter in [0, 1].
+     */
+    public double getParameter(double distance) {
+        if (distance <= 0)
+            return 0;
+        if (distance >= getLength())
+            return 1;
+        int k = Arrays.binarySearch(lengths, distance);
+        if (k >= 0)
+            return us[k];
+        k = -k - 2;
+        return Math.max(us[k], Math.min(us[k + 1], parameter(k, distance)));
+    }
+
+    /**
+     * Maps a parameter of the curve to the distance along this path.
+     * 
+     * @param u The parameter in [0, 1].
+     * @return The distance along this path.
+     */
+    public double getDistanceAt(double u) {
+        u = Math.max(0, Math.min(1, u));
+        int k = Math.min(us.length - 2, (int) (u * (us.length - 1)));
+        return lengths[k] + integrate(us[k], u);
+    }
+
+    /**
+     * Gets the largest error in distance of the arc-length table found at
+     * construction. It is sampled at points inside every interval, so it is an
+     * estimate rather than a strict bound.
+     * 
+     * @return The estimated error of the distance along this path of a point
+     *         returned by {@link #getPos(double)}.
+     */
+    public double getArcLengthError() {
+        return error;
+    }
+
+    /**
+     * Gets the number of intervals of the arc-length table.
+     * 
+     * @return The resolution of this spline.
+     */
+    public int getResolution() {
+        return us.length - 1;
+    }
+
+    @Override
+    public double getLength() {
+        return lengths[lengths.length - 1];
+    }
+
+    @Override
+    public Point getPos(double distance) {
+        double[] pos = getPos(distance, new double[2]);
+        return new Point(pos[0], pos[1]);
+    }
+
+    @Override
+    public double[] getPos(double distance, double[] out) {
+        if (distance < 0 || distance > getLength()) {
+            double u = distance < 0 ? 0 : 1, beyond = distance < 0 ? distance : distance - getLength();
+            double tx = evaluate(dx, u), ty = evaluate(dy, u), norm = Math.hypot(tx, ty);
+            out[0] = evaluate(cx, u) + tx / norm * beyond;
+            out[1] = evaluate(cy, u) + ty / norm * beyond;
+            return out;
+        }
+        double u = getParameter(distance);
+        out[0] = evaluate(cx, u);
+        out[1] = evaluate(cy, u);
+        return out;
+    }
+
+    @Override
+    public Rotation2d getRotation(double distance) {
+        double u = getParameter(distance);
+        return new Rotation2d(evaluate(dx, u), evaluate(dy, u));
+    }
+
+    /**
+     * Gets the x component of the unit tangent at a specified distance along
+     * this path, which is 1 at a cusp, like {@link #getRotation(double)}.
+     */
+    @Override
+    public double getDirectionX(double distance) {
+        double u = getParameter(distance);
+        double tx = evaluate(dx, u), norm = Math.hypot(tx, evaluate(dy, u));
+        return norm > 1e-6 ? tx / norm : 1;
+    }
+
+    /**
+     * Gets the y component of the unit tangent at a specified distance along
+     * this path, which is 0 at a cusp, like {@link #getRotation(double)}.
+     */
+    @Override
+    public double getDirectionY(double distance) {
+        double u = getParameter(distance);
+        double ty = evaluate(dy, u), norm = Math.hypot(evaluate(dx, u), ty);
+        return norm > 1e-6 ? ty / norm : 0;
+    }
+
+    /**
+     * Gets the curvature at a specified distance along this path, which is
+     * zero where the path is extrapolated past its ends.
+     */
+    @Override
+    public Rotation2d getAngularVelocity(double distance) {
+        return new Rotation2d(getCurvature(distance));
+    }
+
+    @Override
+    public double getCurvature(double distance) {
+        if (distance < 0 || distance > getLength())
+            return 0;
+        double u = getParameter(distance);
+        double x1 = evaluate(dx, u), y1 = evaluate(dy, u);
+        double x2 = evaluate(ddx, u), y2 = evaluate(ddy, u);
+        double speed = Math.hypot(x1, y1);
+        return (x1 * y2 - y1 * x2) / (speed * speed * speed);
+    }
+
+    @Override
+    public Spline translateBy(Translation2d offset) {
+        double[] x = cx.clone(), y = cy.clone();
+        x[0] += offset.getX();
+        y[0] += offset.getY();
+        return new Spline(x, y, getResolution());
+    }
+
+    @Override
+    public Spline rotateBy(Rotation2d angle) {
+        double[] x = new double[cx.length], y = new double[cy.length];
+        for (int k = 0; k < cx.length; k++) {
+            x[k] = cx[k] * angle.getCos() - cy[k] * angle.getSin();
+            y[k] = cx[k] * angle.getSin() + cy[k] * angle.getCos();
+        }
+        return new Spline(x, y, getResolution());
+    }
+
+    @Override
+    public Spline reverse() {
+        // p(1 - u) = sum_j c_j (1 - u)^j, expanded by the binomial theorem
+        double[] x = new double[cx.length], y = new double[cy.length];
+        for (int j = 0; j < cx.length; j++)
+            for (int k = 0; k <= j; k++) {
+                double w = (k % 2 == 0 ? 1 : -1) * binomial(j, k);
+                x[k] += w * cx[j];
+                y[k] += w * cy[j];
+            }
+        return new Spline(x, y, getResolution());
+    }
+
+    /**
+     * Finds the parameter of the point of the curve nearest to a point among a
+     * range of interval boundaries, by Newton's method started from the
+     * nearest boundary.
+     */
+    private double nearestParameter(double px, double py, int first, int last) {
+        int best = first;
+        double bestSquared = Double.POSITIVE_INFINITY;
+        for (int k = first; k <= last; k++) {
+            double ex = evaluate(cx, us[k]) - px, ey = evaluate(cy, us[k]) - py;
+            double squared = ex * ex + ey * ey;
+            if (squared < bestSquared) {
+                bestSquared = squared;
+                best = k;
+            }
+        }
+        double u = us[best];
+        for (int i = 0; i < 8; i++) {
+            double ex = evaluate(cx, u) - px, ey = evaluate(cy, u) - py;
+            double x1 = evaluate(dx, u), y1 = evaluate(dy, u);
+            double gradient = ex * x1 + ey * y1;
+            double hessian = x1 * x1 + y1 * y1 + ex * evaluate(ddx, u) + ey * evaluate(ddy, u);
+            if (!(hessian > 0))
+                break;
+            double next = Math.max(us[first], Math.min(us[last], u - gradient / hessian));
+            if (Math.abs(next - u) < 1e-12)
+                return next;
+            u = next;
+        }
+        return u;
+    }
+
+    @Override
+    public double getDistance(Point from) {
+        double u = nearestParameter(from.getX(), from.getY(), 0, us.length - 1);
+        return Math.hypot(evaluate(cx, u) - from.getX(), evaluate(cy, u) - from.getY());
+    }
+
+    @Override
+    public Point getNearest(Point from) {
+        double u = nearestParameter(from.getX(), from.getY(), 0, us.length - 1);
+        return new Point(evaluate(cx, u), evaluate(cy, u));
+    }
+
+    @Override
+    public double[] getNearest(double x, double y, double[] out) {
+        double u = nearestParameter(x, y, 0, us.length - 1);
+        out[0] = evaluate(cx, u);
+        out[1] = evaluate(cy, u);
+        return out;
+    }
+
+    /**
+     * Gets the distance along this path of the nearest point to a specified
+     * point.
+     * 
+     * <p>
+     * Like {@link LinearSegment#getProgress(Point)}, the progress of a point
+     * beyond either end is extended along the tangent at that end, so it may
+     * be negative or exceed the length of this path.
+     * 
+     * @param pos The point to find the progress of.
+     * @return The distance along this path of the point.
+     */
+    @Override
+    public double getProgress(Point pos) {
+        return getProgress(pos.getX(), pos.getY());
+    }
+
+    @Override
+    public double getProgress(double x, double y) {
+        return progressAt(x, y, nearestParameter(x, y, 0, us.length - 1));
+    }
+
+    /**
+     * Gets the distance along this path of the nearest point to a specified
+     * point, searching only the intervals of the arc-length table that
+     * overlap a range of distances.
+     * 
+     * @param pos  The point to find the progress of.
+     * @param from The smallest distance along this path to search.
+     * @param to   The largest distance along this path to search.
+     * @return The distance along this path of the point.
+     */
+    @Override
+    public double getProgress(Point pos, double from, double to) {
+        return getProgress(pos.getX(), pos.getY(), from, to);
+    }
+
+    @Override
+    public double getProgress(double x, double y, double from, double to) {
+        int resolution = getResolution();
+        int first = (int) Math.floor(getParameter(from) * resolution);
+        int last = (int) Math.ceil(getParameter(to) * resolution);
+        return progressAt(x, y, nearestParameter(x, y, first, Math.max(first, last)));
+    }
+
+    /**
+     * Gets the progress of a point whose nearest point on the curve is at a
+     * parameter, extending it past the ends.
+     */
+    private double progressAt(double x, double y, double u) {
+        if (u == 0 || u == 1) {
+            double tx = evaluate(dx, u), ty = evaluate(dy, u);
+            double along = ((x - evaluate(cx, u)) * tx + (y - evaluate(cy, u)) * ty)
+                    / Math.hypot(tx, ty);
+            if (u == 0 && along < 0)
+                return along;
+            if (u == 1 && along > 0)
+                return getLength() + along;
+        }
+        return getDistanceAt(u);
+    }
+
+    /**
+     * Gets the minimum distance between this path and another path.
+     * 
+     * <p>
+     * The distance is measured from the points of this path at the boundaries
+     * of its arc-length table, so it may overestimate by up to the distance
+     * the curve strays from its chords.
+     * 
+     * @param other The path to find the distance to.
+     * @return The approximate minimum distance between the paths.
+     */
+    @Override
+    public double getDistance(Path other) {
+        double min = Double.POSITIVE_INFINITY;
+        for (int k = 0; k < us.length && min > 0; k++)
+            min = Math.min(min, other.getDistance(new Point(evaluate(cx, us[k]), evaluate(cy, us[k]))));
+        return min;
+    }
+}
@@ -0,0 +1,274 @@
+package com.titanrobotics2022.motion.generation.rmpflow;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
+
+/**
+ * A leaf whose RMP is evaluated on a background executor, so that a slow
+ * policy does not block the thread solving the tree.
+ * <p>
+ * Each solve posts the current state of the leaf's parent to a worker and
+ * uses the latest F and M the worker has published, which were evaluated at
+ * the state of an earlier solve. Both directions go through lock-free
+ * single-writer slots, so the solving thread never waits for the worker. A
+ * leaf whose latest RMP is older than the age limit, or that has no RMP yet,
+ * is left out of the pullback.
+ * <p>
+ * The worker maps the posted state to task space with {@link #psi} and
+ * {@link #j}, then calls
+ * {@link #compute(DMatrixRMaj, DMatrixRMaj, DMatrixRMaj, DMatrixRMaj)}. Since
+ * the solving thread calls the task map too, it must not keep mutable state.
+ * Inputs the policy reads, such as an obstacle list refreshed from vision,
+ * must be safe to read from the worker. Batched solves never call the policy.
+ * They use the latest published RMP for every state of the batch, like a
+ * single solve, so they must run on the thread that solves the tree.
+ */
+public abstract class AsyncLeaf extends RMPLeaf {
+	private final Executor executor;
+	private final long maxAgeNanos;
+	// Parent states posted by the solving thread, and RMPs published by the worker
+	private final TripleBuffer<Frame> requests = new TripleBuffer<>(new Frame(), new Frame(), new Frame());
+	private final TripleBuffer<Frame> results = new TripleBuffer<>(new Frame(), new Frame(), new Frame());
+	private final AtomicBoolean running = new AtomicBoolean();
+	private final Runnable worker = this::work;
+	// Worker-owned task space state
+	private final DMatrixRMaj x = new DMatrixRMaj(1, 1), x_dot = new DMatrixRMaj(1, 1);
+	private final DMatrixRMaj jac = new DMatrixRMaj(1, 1);
+	private boolean lookahead = false; // Whether states are hypothetical and not posted
+
+	/**
+	 * A pair of matrices stamped with the time of the state they belong to.
+	 */
+	private static final class Frame {
+		final DMatrixRMaj first = new DMatrixRMaj(1, 1), second = new DMatrixRMaj(1, 1);
+		long time;
+		boolean valid = false;
+	}
+
+	/**
+	 * Creates a leaf evaluated on an executor.
+	 * 
+	 * @param name        The name of the leaf
+	 * @param parent      The parent node
+	 * @param executor    The executor to evaluate the policy on
+	 * @param maxAgeNanos The age, in nanoseconds, of the state an RMP was
+	 *                    evaluated at beyond which the RMP is not used
+	 */
+	public AsyncLeaf(String name, RMPNode parent, Executor executor, long maxAgeNanos) {
+		super(name, parent);
+		if (executor == null)
+			throw new NullPointerException("executor");
+		if (maxAgeNanos < 0)
+			throw new IllegalArgumentException("Maximum age must be non-negative.");
+		this.executor = executor;
+		this.maxAgeNanos = maxAgeNanos;
+	}
+
+	/**
+	 * Creates a leaf evaluated on the shared default executor.
+	 * 
+	 * @param name        The name of the leaf
+	 * @param parent      The parent node
+	 * @param maxAgeNanos The age, in nanoseconds, of the state an RMP was
+	 *                    evaluated at beyond which the RMP is not used
+	 * @see #defaultExecutor()
+	 */
+	public AsyncLeaf(String name, RMPNode parent, long maxAgeNanos) {
+		this(name, parent, defaultExecutor(), maxAgeNanos);
+	}
+
+	/**
+	 * Returns the executor shared by async leaves that are not given one. It
+	 * starts a virtual thread per task when the runtime supports them, and
+	 * otherwise runs tasks on a cached pool of daemon threads.
+	 * 
+	 * @return The default executor
+	 */
+	public static Executor defaultExecutor() {
+		return DefaultExecutor.INSTANCE;
+	}
+
+	private static final class DefaultExecutor {
+		static final ExecutorService INSTANCE = create();
+
+		private static ExecutorService create() {
+			try {
+				Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return (ExecutorService) virtual.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				return Executors.newCachedThreadPool(task -> {
+					Thread thread = new Thread(task, "RMP async leaf");
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+		}
+	}
+
+	/**
+	 * Evaluates F and M at a state. Called on the worker.
+	 * <p>
+	 * The default implementation calls
+	 * {@link #solveM(DMatrixRMaj, DMatrixRMaj, DMatrixRMaj)} and then
+	 * {@link #solveF(DMatrixRMaj, DMatrixRMaj, DMatrixRMaj)}.
+	 * 
+	 * @param x     The state in task space
+	 * @param x_dot The differentiated state in task space
+	 * @param fOut  F, the force motion policy, reshaped as needed
+	 * @param mOut  M, the inertia matrix, reshaped as needed
+	 */
+	protected void compute(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj fOut, DMatrixRMaj mOut) {
+		solveM(x, x_dot, mOut);
+		solveF(x, x_dot, fOut);
+	}
+
+	/**
+	 * Posts the parent state to the worker, and reports the leaf as negligible
+	 * when it has no RMP recent enough to use. During a lookahead, the state is
+	 * hypothetical and is not posted, so the worker only ever evaluates states
+	 * of real solves.
+	 */
+	@Override
+	protected final boolean isNegligible(DMatrixRMaj q, DMatrixRMaj q_dot) {
+		long now = System.nanoTime();
+		if (!lookahead) {
+			Frame request = requests.back();
+			request.first.setTo(q);
+			request.second.setTo(q_dot);
+			request.time = now;
+			requests.publish();
+			if (running.compareAndSet(false, true))
+				executor.execute(worker);
+		}
+
+		results.update();
+		Frame latest = results.front();
+		return !latest.valid || now - latest.time > maxAgeNanos;
+	}
+
+	@Override
+	protected void beginLookahead() {
+		lookahead = true;
+	}
+
+	@Override
+	protected void endLookahead() {
+		lookahead = false;
+	}
+
+	/**
+	 * Copies the latest published RMP. When no RMP has been published, F and M
+	 * are zero.
+	 */
+	@Override
+	protected final void evaluate(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj fOut, DMatrixRMaj mOut) {
+		results.update();
+		Frame latest = results.front();
+		if (latest.valid) {
+			fOut.setTo(latest.first);
+			mOut.setTo(latest.second);
+		} else {
+			int n = x.getNumElements();
+			fOut.reshape(n, 1);
+			fOut.zero();
+			mOut.reshape(n, n);
+			mOut.zero();
+		}
+	}
+
+	/**
+	 * Copies the latest published RMP into every column, as
+	 * {@link #evaluate(DMatrixRMaj, DMatrixRMaj, DMatrixRMaj, DMatrixRMaj)}
+	 * does for a single state, instead of evaluating the policy on the calling
+	 * thread while the worker may be evaluating it too.
+	 */
+	@Override
+	protected final void evaluateBatch(DMatrixRMaj xs, DMatrixRMaj x_dots, DMatrixRMaj fOut, DMatrixRMaj mOut) {
+		results.update();
+		Frame latest = results.front();
+		fillColumns(latest.valid ? latest.first : null, xs.numRows, xs.numCols, fOut);
+		fillColumns(latest.valid ? latest.second : null, xs.numRows * xs.numRows, xs.numCols, mOut);
+	}
+
+	/**
+	 * Copies the F of the latest published RMP into every column.
+	 * 
+	 * @see #evaluateBatch(DMatrixRMaj, DMatrixRMaj, DMatrixRMaj, DMatrixRMaj)
+	 */
+	@Override
+	protected final void solveFBatch(DMatrixRMaj xs, DMatrixRMaj x_dots, DMatrixRMaj out) {
+		results.update();
+		Frame latest = results.front();
+		fillColumns(latest.valid ? latest.first : null, xs.numRows, xs.numCols, out);
+	}
+
+	/**
+	 * Copies the M of the latest published RMP, flattened in row-major order,
+	 * into every column.
+	 * 
+	 * @see #evaluateBatch(DMatrixRMaj, DMatrixRMaj, DMatrixRMaj, DMatrixRMaj)
+	 */
+	@Override
+	protected final void solveMBatch(DMatrixRMaj xs, DMatrixRMaj x_dots, DMatrixRMaj out) {
+		results.update();
+		Frame latest = results.front();
+		fillColumns(latest.valid ? latest.second : null, xs.numRows * xs.numRows, xs.numCols, out);
+	}
+
+	/**
+	 * Writes the elements of a matrix into every column of out, or zeros when
+	 * there is no matrix.
+	 */
+	private static void fillColumns(DMatrixRMaj snapshot, int rows, int states, DMatrixRMaj out) {
+		out.reshape(rows, states);
+		if (snapshot == null) {
+			out.zero();
+			return;
+		}
+		for (int e = 0; e < rows; e++)
+			Arrays.fill(out.data, e * states, (e + 1) * states, snapshot.data[e]);
+	}
+
+	/**
+	 * Returns how old the state of the latest published RMP is. Call it from
+	 * the thread that solves the tree.
+	 * 
+	 * @return The age in nanoseconds, or -1 if no RMP has been published
+	 */
+	public long getSnapshotAge() {
+		results.update();
+		Frame latest = results.front();
+		return latest.valid ? System.nanoTime() - latest.time : -1;
+	}
+
+	/**
+	 * Evaluates the newest posted states until none is left.
+	 */
+	private void work() {
+		try {
+			while (requests.update()) {
+				Frame request = requests.front();
+				psi(request.first, x);
+				j(request.first, jac);
+				CommonOps_DDRM.mult(jac, request.second, x_dot);
+				Frame result = results.back();
+				compute(x, x_dot, result.first, result.second);
+				result.time = request.time;
+				result.valid = true;
+				results.publish();
+			}
+		} finally {
+			running.set(false);
+		}
+		// A state posted after the last update found the worker still running
+		if (requests.hasFresh() && running.compareAndSet(false, true))
+			executor.execute(worker);
+	}
+}
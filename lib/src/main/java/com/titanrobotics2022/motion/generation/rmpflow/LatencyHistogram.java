@@ -0,0 +1,100 @@
+package com.titanrobotics2022.motion.generation.rmpflow;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size histogram of durations in nanoseconds.
+ * <p>
+ * Durations below 16 ns are counted exactly. Larger ones fall in log-linear
+ * buckets, eight per power of two, so a percentile is reported to within
+ * 12.5% of the recorded duration. Recording never allocates.
+ */
+final class LatencyHistogram {
+	private static final int SUB_BITS = 3, SUB_BUCKETS = 1 << SUB_BITS;
+	// Durations of 2^40 ns, about 18 minutes, or more share the last bucket
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+	private final long[] counts = new long[BUCKETS];
+	private long count = 0, max = 0;
+
+	/**
+	 * Adds a duration to the histogram.
+	 * 
+	 * @param nanos The duration in nanoseconds
+	 */
+	void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		counts[bucket(nanos)]++;
+		count++;
+		max = Math.max(max, nanos);
+	}
+
+	private static int bucket(long nanos) {
+		if (nanos < 2 * SUB_BUCKETS)
+			return (int) nanos;
+		int exponent = Math.min(63 - Long.numberOfLeadingZeros(nanos), MAX_EXPONENT);
+		int sub = (int) (Math.min(nanos >>> (exponent - SUB_BITS), 2 * SUB_BUCKETS - 1) & (SUB_BUCKETS - 1));
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Returns the largest duration that falls in a bucket.
+	 */
+	private static long upperBound(int bucket) {
+		if (bucket < 2 * SUB_BUCKETS)
+			return bucket;
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1, sub = bucket % SUB_BUCKETS;
+		int shift = exponent - SUB_BITS;
+		return ((long) (SUB_BUCKETS + sub) << shift) + (1L << shift) - 1;
+	}
+
+	/**
+	 * Returns a percentile of the recorded durations.
+	 * 
+	 * @param percentile The percentile, between 0 and 100
+	 * @return The duration in nanoseconds that the given percentage of the
+	 *         recorded durations do not exceed, or 0 if nothing was recorded
+	 */
+	long percentile(double percentile) {
+		if (!(percentile >= 0 && percentile <= 100))
+			throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+		if (count == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count)), seen = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			seen += counts[b];
+			if (seen >= rank)
+				return Math.min(upperBound(b), max);
+		}
+		return max;
+	}
+
+	/**
+	 * Returns the longest recorded duration.
+	 * 
+	 * @return The duration in nanoseconds, or 0 if nothing was recorded
+	 */
+	long max() {
+		return max;
+	}
+
+	/**
+	 * Returns the number of recorded durations.
+	 * 
+	 * @return The number of recorded durations
+	 */
+	long count() {
+		return count;
+	}
+
+	/**
+	 * Forgets every recorded duration.
+	 */
+	void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		max = 0;
+	}
+}
@@ -0,0 +1,213 @@
+package com.titanrobotics2022.motion.generation.rmpflow;
+
+import java.util.Arrays;
+
+import org.ejml.data.DMatrixRMaj;
+
+/**
+ * Workspaces for solving a compiled RMP tree at many states at once.
+ * <p>
+ * Batched quantities are stored as structure-of-arrays blocks with one column
+ * per state. A task space state of dimension n is an n x N matrix, so each row
+ * holds one coordinate of every state contiguously. Matrices are flattened in
+ * row-major order into rows, so a Jacobian mapping R^p to R^n is an (n * p) x N
+ * matrix and an inertia matrix of dimension n is an (n * n) x N matrix.
+ */
+final class RMPBatch {
+	/** The plan these workspaces were sized for. */
+	final RMPPlan plan;
+	// Per-node blocks, indexed like the nodes of the plan
+	private final DMatrixRMaj[] x, x_dot, jac, jacDot, f, m;
+	// Scratch shared by every child pulled back into its parent
+	private double[] curv = new double[0], rhs = new double[0], mJac = new double[0];
+	// Scratch for resolving one state at the root
+	private final DMatrixRMaj colM = new DMatrixRMaj(1, 1), colF = new DMatrixRMaj(1, 1);
+	private final DMatrixRMaj colA = new DMatrixRMaj(1, 1);
+	private final RMPResolver resolver = new RMPResolver();
+
+	/**
+	 * Allocates empty workspaces for a plan. They are sized by the first solve.
+	 * 
+	 * @param plan The plan to solve
+	 */
+	RMPBatch(RMPPlan plan) {
+		this.plan = plan;
+		int n = plan.size();
+		x = blocks(n);
+		x_dot = blocks(n);
+		jac = blocks(n);
+		jacDot = blocks(n);
+		f = blocks(n);
+		m = blocks(n);
+	}
+
+	private static DMatrixRMaj[] blocks(int n) {
+		DMatrixRMaj[] blocks = new DMatrixRMaj[n];
+		for (int i = 0; i < n; i++)
+			blocks[i] = new DMatrixRMaj(1, 1);
+		return blocks;
+	}
+
+	/**
+	 * Solves the tree at every state of a batch.
+	 * 
+	 * @param xs     The root states, one per column
+	 * @param x_dots The differentiated root states, one per column
+	 * @param as     The matrix to write the desired accelerations to, one per
+	 *               column
+	 */
+	void solve(DMatrixRMaj xs, DMatrixRMaj x_dots, DMatrixRMaj as) {
+		x[0].setTo(xs);
+		x_dot[0].setTo(x_dots);
+		pushforward();
+		pullback();
+		resolve(as);
+	}
+
+	private void pushforward() {
+		RMPNode[] nodes = plan.nodes;
+		for (int i = 1; i < nodes.length; i++) {
+			int p = plan.parent[i];
+			nodes[i].psiBatch(x[p], x[i]);
+			nodes[i].jBatch(x[p], jac[i]);
+			multColumns(jac[i], x_dot[p], x_dot[i]);
+			if (plan.contributes[i])
+				nodes[i].j_dotBatch(x[p], x_dot[p], jacDot[i]);
+		}
+	}
+
+	private void pullback() {
+		RMPNode[] nodes = plan.nodes;
+		for (int i = nodes.length - 1; i >= 0; i--) {
+			if (plan.leaf[i]) {
+				((RMPLeaf) nodes[i]).evaluateBatch(x[i], x_dot[i], f[i], m[i]);
+			} else {
+				int n = x[i].numRows, states = x[i].numCols;
+				f[i].reshape(n, states);
+				f[i].zero();
+				m[i].reshape(n * n, states);
+				m[i].zero();
+				for (int k = plan.childStart[i]; k < plan.childStart[i + 1]; k++)
+					accumulate(plan.children[k], i);
+			}
+		}
+	}
+
+	/**
+	 * Computes xs_dot = J * q_dot for every state of a batch.
+	 */
+	private static void multColumns(DMatrixRMaj jac, DMatrixRMaj q_dot, DMatrixRMaj out) {
+		int p = q_dot.numRows, states = q_dot.numCols, n = jac.numRows / p;
+		out.reshape(n, states);
+		out.zero();
+		double[] j = jac.data, qd = q_dot.data, o = out.data;
+		for (int r = 0; r < n; r++)
+			for (int c = 0; c < p; c++)
+				for (int k = 0, jk = (r * p + c) * states, qk = c * states, ok = r * states; k < states; k++)
+					o[ok + k] += j[jk + k] * qd[qk + k];
+	}
+
+	/**
+	 * Adds the RMPs of child c, pulled back through its task map, to the RMPs of
+	 * its parent p for every state of the batch. This is the batched version of
+	 * {@link RMPNode#accumulate}, with every loop running over the states
+	 * innermost.
+	 */
+	private void accumulate(int c, int p) {
+		int n = x[c].numRows, q = x[p].numRows, states = x[p].numCols;
+		if (curv.length < n * states) {
+			curv = new double[n * states];
+			rhs = new double[n * states];
+		}
+		if (mJac.length < n * q * states)
+			mJac = new double[n * q * states];
+		double[] j = jac[c].data, jd = jacDot[c].data, qd = x_dot[p].data;
+		double[] cf = f[c].data, cm = m[c].data, pf = f[p].data, pm = m[p].data;
+
+		// curv = J_dot * x_dot
+		Arrays.fill(curv, 0, n * states, 0);
+		for (int r = 0; r < n; r++)
+			for (int s = 0; s < q; s++)
+				for (int k = 0, jk = (r * q + s) * states, qk = s * states, ck = r * states; k < states; k++)
+					curv[ck + k] += jd[jk + k] * qd[qk + k];
+		// rhs = f - M * curv
+		System.arraycopy(cf, 0, rhs, 0, n * states);
+		for (int r = 0; r < n; r++)
+			for (int s = 0; s < n; s++)
+				for (int k = 0, mk = (r * n + s) * states, ck = s * states, rk = r * states; k < states; k++)
+					rhs[rk + k] -= cm[mk + k] * curv[ck + k];
+		// mJac = M * J
+		Arrays.fill(mJac, 0, n * q * states, 0);
+		for (int r = 0; r < n; r++)
+			for (int s = 0; s < n; s++)
+				for (int t = 0; t < q; t++)
+					for (int k = 0, mk = (r * n + s) * states, jk = (s * q + t) * states,
+							ok = (r * q + t) * states; k < states; k++)
+						mJac[ok + k] += cm[mk + k] * j[jk + k];
+		// f += JT * rhs
+		for (int t = 0; t < q; t++)
+			for (int r = 0; r < n; r++)
+				for (int k = 0, jk = (r * q + t) * states, rk = r * states, fk = t * states; k < states; k++)
+					pf[fk + k] += j[jk + k] * rhs[rk + k];
+		// M += JT * M * J
+		for (int t = 0; t < q; t++)
+			for (int u = 0; u < q; u++)
+				for (int r = 0; r < n; r++)
+					for (int k = 0, jk = (r * q + t) * states, mk = (r * q + u) * states,
+							ok = (t * q + u) * states; k < states; k++)
+						pm[ok + k] += j[jk + k] * mJac[mk + k];
+	}
+
+	/**
+	 * Maps the root RMP of every state from its natural form to its canonical
+	 * form, a = M†f.
+	 */
+	private void resolve(DMatrixRMaj as) {
+		int n = x[0].numRows, states = x[0].numCols;
+		double[] rootF = f[0].data, rootM = m[0].data;
+		as.reshape(n, states);
+		colM.reshape(n, n);
+		colF.reshape(n, 1);
+		for (int k = 0; k < states; k++) {
+			for (int e = 0; e < n * n; e++)
+				colM.data[e] = rootM[e * states + k];
+			for (int e = 0; e < n; e++)
+				colF.data[e] = rootF[e * states + k];
+			resolver.solve(colM, colF, colA);
+			for (int e = 0; e < n; e++)
+				as.data[e * states + k] = colA.data[e];
+		}
+	}
+
+	/**
+	 * Copies one state out of a batched block.
+	 * 
+	 * @param block The batched block
+	 * @param k     The index of the state
+	 * @param out   The column vector to write the state to
+	 */
+	static void getColumn(DMatrixRMaj block, int k, DMatrixRMaj out) {
+		int n = block.numRows, states = block.numCols;
+		out.reshape(n, 1);
+		for (int e = 0; e < n; e++)
+			out.data[e] = block.data[e * states + k];
+	}
+
+	/**
+	 * Copies a single-state matrix into one column of a batched block. The block
+	 * is reshaped to fit when the first state is written.
+	 * 
+	 * @param value  The single-state vector or matrix, flattened in row-major
+	 *               order
+	 * @param block  The batched block
+	 * @param k      The index of the state
+	 * @param states The number of states in the batch
+	 */
+	static void setColumn(DMatrixRMaj value, DMatrixRMaj block, int k, int states) {
+		int n = value.getNumElements();
+		if (k == 0)
+			block.reshape(n, states);
+		for (int e = 0; e < n; e++)
+			block.data[e * states + k] = value.data[e];
+	}
+}
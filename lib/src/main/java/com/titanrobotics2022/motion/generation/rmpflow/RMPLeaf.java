@@ -1,5 +1,6 @@
 package com.titanrobotics2022.motion.generation.rmpflow;
 
+import org.ejml.data.DMatrixRMaj;
 import org.ejml.simple.SimpleMatrix;
 
 /**
@@ -8,6 +9,20 @@ import org.ejml.simple.SimpleMatrix;
  * <a href="https://arxiv.org/abs/1811.07049">RMPFlow Section 3.5</a>.
  */
 public abstract class RMPLeaf extends RMPNode {
+	/** Priority of leaves that keep the robot safe, such as collision avoidance. */
+	public static final int PRIORITY_SAFETY = 200;
+	/** Default priority of a leaf. */
+	public static final int PRIORITY_TASK = 100;
+	/** Priority of comfort terms, such as damping. */
+	public static final int PRIORITY_COMFORT = 0;
+
+	private int priority = PRIORITY_TASK;
+	private int updatePeriod = 1; // Solves between evaluations
+	private boolean reprojected = true; // Whether held RMPs are pulled back through the current Jacobian
+	// Single-state scratch for the default batched policies
+	private final DMatrixRMaj batchX = new DMatrixRMaj(1, 1), batchXdot = new DMatrixRMaj(1, 1);
+	private final DMatrixRMaj batchOut = new DMatrixRMaj(1, 1);
+
 	/**
 	 * RMP leaf node containing an RMP.
 	 * 
@@ -27,8 +42,144 @@ public abstract class RMPLeaf extends RMPNode {
 	 * Solves for the M and F of the RMP.
 	 */
 	public final void evaluate() {
-		setM(solveM(getX(), getXdot()));
-		setF(solveF(getX(), getXdot()));
+		evaluate(getXWorkspace(), getXdotWorkspace(), getFWorkspace(), getMWorkspace());
+	}
+
+	/**
+	 * Returns the priority of this leaf in a budgeted solve.
+	 * 
+	 * @return The priority. Higher priorities are evaluated first.
+	 * @see RMPRoot#solve(DMatrixRMaj, DMatrixRMaj, DMatrixRMaj, long,
+	 *      RMPSolveReport)
+	 */
+	public int getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Sets the priority of this leaf in a budgeted solve. Leaves with higher
+	 * priorities are evaluated first, so that they are the last to be left out
+	 * when a solve runs out of time.
+	 * 
+	 * @param priority The priority, such as {@link #PRIORITY_SAFETY},
+	 *                 {@link #PRIORITY_TASK} or {@link #PRIORITY_COMFORT}
+	 */
+	public void setPriority(int priority) {
+		this.priority = priority;
+		invalidate();
+	}
+
+	/**
+	 * Returns the number of solves between evaluations of this leaf.
+	 * 
+	 * @return The update period, in solves
+	 * @see #setUpdatePeriod(int, boolean)
+	 */
+	public int getUpdatePeriod() {
+		return updatePeriod;
+	}
+
+	/**
+	 * Returns whether the held RMP of this leaf is pulled back through the
+	 * Jacobian at the current state.
+	 * 
+	 * @return True, if the held RMP is reprojected, or false, if the
+	 *         contribution to the parent is held as well
+	 * @see #setUpdatePeriod(int, boolean)
+	 */
+	public boolean isReprojected() {
+		return reprojected;
+	}
+
+	/**
+	 * Evaluates this leaf only once every given number of solves, holding its
+	 * F and M in between.
+	 * <p>
+	 * Slowly varying leaves, such as path following along a long segment, can
+	 * be evaluated at a fraction of the control loop rate: a period of 5 runs a
+	 * leaf at 50 Hz in a 250 Hz loop. While held, the leaf skips its task map
+	 * and policies. When reprojected, the held F and M are pulled back through
+	 * the Jacobian at the current state, so the held policy follows the parent
+	 * frame. Otherwise the leaf's whole contribution to its parent is reused,
+	 * which also skips the Jacobian. Batched solves evaluate every leaf.
+	 * 
+	 * @param solves      The number of solves between evaluations, or 1 to
+	 *                    evaluate the leaf every solve
+	 * @param reprojected Whether to pull the held RMP back through the current
+	 *                    Jacobian
+	 * @see RMPRoot#getStaleness(RMPLeaf)
+	 */
+	public void setUpdatePeriod(int solves, boolean reprojected) {
+		if (solves < 1)
+			throw new IllegalArgumentException("Update period must be positive.");
+		this.updatePeriod = solves;
+		this.reprojected = reprojected;
+		invalidate();
+	}
+
+	/**
+	 * Evaluates this leaf only once every given number of solves, pulling its
+	 * held RMP back through the current Jacobian in between.
+	 * 
+	 * @param solves The number of solves between evaluations
+	 * @see #setUpdatePeriod(int, boolean)
+	 */
+	public void setUpdatePeriod(int solves) {
+		setUpdatePeriod(solves, true);
+	}
+
+	/**
+	 * Returns whether the RMP of this leaf is small enough at a state of its
+	 * parent to be left out of a solve.
+	 * <p>
+	 * The compiled solver checks this before pushing the state forward, so a
+	 * negligible leaf skips its task map, its policies and its pullback. Its
+	 * state, F and M keep the values of the last solve that included it. Batched
+	 * solves evaluate every leaf. The default implementation never skips the
+	 * leaf.
+	 * 
+	 * @param q     The state of the parent
+	 * @param q_dot The differentiated state of the parent
+	 * @return True, if the leaf can be skipped, or false, otherwise
+	 */
+	protected boolean isNegligible(DMatrixRMaj q, DMatrixRMaj q_dot) {
+		return false;
+	}
+
+	/**
+	 * Called by {@link RMPRoot#beginLookahead()} before the tree is solved at
+	 * hypothetical states. A leaf that carries state from one solve to the next,
+	 * such as an integral term, saves it here and puts it back in
+	 * {@link #endLookahead()}. The default implementation does nothing.
+	 */
+	protected void beginLookahead() {
+	}
+
+	/**
+	 * Called by {@link RMPRoot#endLookahead()} once the hypothetical solves are
+	 * done, to put back the state saved by {@link #beginLookahead()}. The
+	 * default implementation does nothing.
+	 */
+	protected void endLookahead() {
+	}
+
+	/**
+	 * Solves for both F and M at once.
+	 * <p>
+	 * The default implementation calls
+	 * {@link #solveM(DMatrixRMaj, DMatrixRMaj, DMatrixRMaj)} and then
+	 * {@link #solveF(DMatrixRMaj, DMatrixRMaj, DMatrixRMaj)}. Leaves whose F and
+	 * M share intermediate terms, such as weights or distances, can override it
+	 * to compute those terms once.
+	 * 
+	 * @param x     The RMPLeaf state in task space
+	 * @param x_dot The RMPLeaf differentiated state in task space
+	 * @param fOut  F, the force motion policy, reshaped as needed
+	 * @param mOut  M, the inertia matrix, reshaped as needed
+	 */
+	protected void evaluate(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj fOut, DMatrixRMaj mOut) {
+		solveM(x, x_dot, mOut);
+		solveF(x, x_dot, fOut);
 	}
 
 	/**
@@ -51,4 +202,98 @@ public abstract class RMPLeaf extends RMPNode {
 	 * @return M, the inertia matrix
 	 */
 	protected abstract SimpleMatrix solveM(SimpleMatrix x, SimpleMatrix x_dot);
-}
+
+	/**
+	 * In-place version of {@link #solveF(SimpleMatrix, SimpleMatrix)} used by the
+	 * solver.
+	 * <p>
+	 * The default implementation delegates to
+	 * {@link #solveF(SimpleMatrix, SimpleMatrix)}, which allocates. Leaves on the
+	 * hot path should override both methods.
+	 * 
+	 * @param x     The RMPLeaf state in task space
+	 * @param x_dot The RMPLeaf differentiated state in task space
+	 * @param out   F, the force motion policy, reshaped as needed
+	 */
+	protected void solveF(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj out) {
+		out.setTo(solveF(SimpleMatrix.wrap(x), SimpleMatrix.wrap(x_dot)).getDDRM());
+	}
+
+	/**
+	 * In-place version of {@link #solveM(SimpleMatrix, SimpleMatrix)} used by the
+	 * solver.
+	 * 
+	 * @param x     The RMPLeaf state in task space
+	 * @param x_dot The RMPLeaf differentiated state in task space
+	 * @param out   M, the inertia matrix, reshaped as needed
+	 * @see #solveF(DMatrixRMaj, DMatrixRMaj, DMatrixRMaj)
+	 */
+	protected void solveM(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj out) {
+		out.setTo(solveM(SimpleMatrix.wrap(x), SimpleMatrix.wrap(x_dot)).getDDRM());
+	}
+
+	/**
+	 * Batched version of
+	 * {@link #evaluate(DMatrixRMaj, DMatrixRMaj, DMatrixRMaj, DMatrixRMaj)} used
+	 * by {@link RMPRoot#solveBatch}.
+	 * <p>
+	 * The default implementation calls
+	 * {@link #solveMBatch(DMatrixRMaj, DMatrixRMaj, DMatrixRMaj)} and then
+	 * {@link #solveFBatch(DMatrixRMaj, DMatrixRMaj, DMatrixRMaj)}.
+	 * 
+	 * @param xs     The RMPLeaf states in task space, one per column
+	 * @param x_dots The RMPLeaf differentiated states in task space, one per
+	 *               column
+	 * @param fOut   F for every state, one per column, reshaped as needed
+	 * @param mOut   M for every state, one per column, reshaped as needed
+	 */
+	protected void evaluateBatch(DMatrixRMaj xs, DMatrixRMaj x_dots, DMatrixRMaj fOut, DMatrixRMaj mOut) {
+		solveMBatch(xs, x_dots, mOut);
+		solveFBatch(xs, x_dots, fOut);
+	}
+
+	/**
+	 * Batched version of {@link #solveF(DMatrixRMaj, DMatrixRMaj, DMatrixRMaj)}
+	 * used by {@link RMPRoot#solveBatch}.
+	 * <p>
+	 * States are stored one per column, so xs is an n x N matrix and out is
+	 * reshaped to n x N. The default implementation calls the single-state method
+	 * once per column. Leaves that are solved in large batches should override it
+	 * with a loop over the states.
+	 * 
+	 * @param xs     The RMPLeaf states in task space, one per column
+	 * @param x_dots The RMPLeaf differentiated states in task space, one per
+	 *               column
+	 * @param out    F for every state, one per column, reshaped as needed
+	 */
+	protected void solveFBatch(DMatrixRMaj xs, DMatrixRMaj x_dots, DMatrixRMaj out) {
+		for (int k = 0; k < xs.numCols; k++) {
+			RMPBatch.getColumn(xs, k, batchX);
+			RMPBatch.getColumn(x_dots, k, batchXdot);
+			solveF(batchX, batchXdot, batchOut);
+			RMPBatch.setColumn(batchOut, out, k, xs.numCols);
+		}
+	}
+
+	/**
+	 * Batched version of {@link #solveM(DMatrixRMaj, DMatrixRMaj, DMatrixRMaj)}
+	 * used by {@link RMPRoot#solveBatch}.
+	 * <p>
+	 * The n x n inertia matrix of each state is flattened in row-major order into
+	 * a column of out, so out is reshaped to (n * n) x N.
+	 * 
+	 * @param xs     The RMPLeaf states in task space, one per column
+	 * @param x_dots The RMPLeaf differentiated states in task space, one per
+	 *               column
+	 * @param out    M for every state, one per column, reshaped as needed
+	 * @see #solveFBatch(DMatrixRMaj, DMatrixRMaj, DMatrixRMaj)
+	 */
+	protected void solveMBatch(DMatrixRMaj xs, DMatrixRMaj x_dots, DMatrixRMaj out) {
+		for (int k = 0; k < xs.numCols; k++) {
+			RMPBatch.getColumn(xs, k, batchX);
+			RMPBatch.getColumn(x_dots, k, batchXdot);
+			solveM(batchX, batchXdot, batchOut);
+			RMPBatch.setColumn(batchOut, out, k, xs.numCols);
+		}
+	}
+}
\ No newline at end of file
@@ -1,14 +1,14 @@
 package com.titanrobotics2022.motion.generation.rmpflow;
 
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.titanrobotics2022.motion.generation.rmpflow.RMPProfiler.Phase;
 
 import org.ejml.data.DMatrixRMaj;
-import org.ejml.dense.row.factory.LinearSolverFactory_DDRM;
-import org.ejml.interfaces.linsol.LinearSolver;
+import org.ejml.dense.row.CommonOps_DDRM;
 import org.ejml.simple.SimpleMatrix;
 
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
-
 /**
  * Represents a single node and its connections in a Riemannian Motion Policies
  * Tree.
@@ -19,14 +19,71 @@ public abstract class RMPNode {
 	private String name; // Name of RMP
 	private RMPNode parent; // Parent node
 	private ArrayList<RMPNode> children = new ArrayList<RMPNode>(); // All child nodes
-	private SimpleMatrix x, x_dot, f, m;
-	private LinearSolver<DMatrixRMaj, DMatrixRMaj> solver = LinearSolverFactory_DDRM.pseudoInverse(true);
+	private final DMatrixRMaj x = new DMatrixRMaj(1, 1), x_dot = new DMatrixRMaj(1, 1);
+	private final DMatrixRMaj f = new DMatrixRMaj(1, 1), m = new DMatrixRMaj(1, 1);
+	private final DMatrixRMaj a = new DMatrixRMaj(1, 1);
+	private RMPResolver resolver = null; // Created by the first getA
 
 	// See <a href="https://arxiv.org/abs/1811.07049">RMPFlow Section 3.2</a>
 	// x: current state
 	// x_dot: derivative of current state
 	// f: desired force map
 	// m: inertia matrix
+	// a: resolved acceleration
+
+	// Workspaces used to pull this node back into its parent. They are sized
+	// by the first solve and reused afterwards, so a steady-state solve does
+	// not allocate.
+	// jac: Jacobian of this node's task map at the parent state
+	// jacDot: time derivative of jac
+	// curv: jacDot * parent x_dot
+	// rhs: f - m * curv
+	// mJac: m * jac
+	private final DMatrixRMaj jac = new DMatrixRMaj(1, 1), jacDot = new DMatrixRMaj(1, 1);
+	private final DMatrixRMaj curv = new DMatrixRMaj(1, 1), rhs = new DMatrixRMaj(1, 1);
+	private final DMatrixRMaj mJac = new DMatrixRMaj(1, 1);
+	// Every change to a node's state gets a new generation, so that a Jacobian
+	// computed during the pushforward can be reused by the pullback of the same
+	// solve.
+	// generation: generation of the state in x and x_dot
+	// jacGeneration: generation of the parent state jac was evaluated at
+	private static final AtomicLong generations = new AtomicLong();
+	private long generation = 0, jacGeneration = -1;
+	// Single-state scratch for the default batched task maps
+	private final DMatrixRMaj batchQ = new DMatrixRMaj(1, 1), batchQdot = new DMatrixRMaj(1, 1);
+	private final DMatrixRMaj batchOut = new DMatrixRMaj(1, 1);
+	// Structure of the task map's Jacobian, and its nonzero columns when sparse
+	private JacobianStructure structure = JacobianStructure.DENSE;
+	private int[] columns = null;
+
+	/**
+	 * Structures of a task map's Jacobian that the solver has specialized
+	 * kernels for. A node declares the structure of its task map with
+	 * {@link RMPNode#setJacobianStructure(JacobianStructure)} or
+	 * {@link RMPNode#setSparseJacobian(int...)}, and the solver then computes
+	 * x_dot = J * q_dot, J^T * (f - M * J_dot * q_dot) and J^T * M * J without
+	 * dense matrix products.
+	 */
+	public enum JacobianStructure {
+		/** No structure is assumed. */
+		DENSE,
+		/**
+		 * J is the identity and J_dot is zero, so F and M are added to the
+		 * parent's RMP as they are. j and j_dot are not called by the solver.
+		 */
+		IDENTITY,
+		/**
+		 * The task space is one-dimensional, so J and J_dot are rows and M is a
+		 * scalar.
+		 */
+		ROW,
+		/**
+		 * J is constant, J_dot is zero, and J is nonzero only in a few declared
+		 * columns. j is called once per parent dimension and j_dot is not called
+		 * by the solver.
+		 */
+		SPARSE_COLUMNS
+	}
 
 	/**
 	 * A node for an tree that contains mappings and functions for Riemannian Motion
@@ -40,10 +97,6 @@ public abstract class RMPNode {
 		this.parent = parent;
 		if (parent != null) // TODO: Throw null pointer if parent doesn't exist
 			parent.linkChild(this);
-		this.x = null;
-		this.x_dot = null;
-		this.f = null;
-		this.m = null;
 	}
 
 	/**
@@ -79,15 +132,117 @@ public abstract class RMPNode {
 		return q_dot;// TODO decide if to implement like goal Attractor J_dot
 	}
 
+	/**
+	 * In-place version of {@link #psi(SimpleMatrix)} used by the solver.
+	 * <p>
+	 * The default implementation delegates to {@link #psi(SimpleMatrix)}, which
+	 * allocates. Nodes on the hot path should override both methods.
+	 * 
+	 * @param q   The configuration space
+	 * @param out The task space, reshaped as needed
+	 */
+	public void psi(DMatrixRMaj q, DMatrixRMaj out) {
+		out.setTo(psi(SimpleMatrix.wrap(q)).getDDRM());
+	}
+
+	/**
+	 * In-place version of {@link #j(SimpleMatrix)} used by the solver.
+	 * 
+	 * @param q   The configuration space
+	 * @param out The Jacobian of the task map psi, reshaped as needed
+	 * @see #psi(DMatrixRMaj, DMatrixRMaj)
+	 */
+	public void j(DMatrixRMaj q, DMatrixRMaj out) {
+		out.setTo(j(SimpleMatrix.wrap(q)).getDDRM());
+	}
+
+	/**
+	 * In-place version of {@link #j_dot(SimpleMatrix, SimpleMatrix)} used by the
+	 * solver.
+	 * 
+	 * @param q     The configuration space
+	 * @param q_dot The configuration space
+	 * @param out   The second-order Jacobian of the task map psi, reshaped as
+	 *              needed
+	 * @see #psi(DMatrixRMaj, DMatrixRMaj)
+	 */
+	public void j_dot(DMatrixRMaj q, DMatrixRMaj q_dot, DMatrixRMaj out) {
+		out.setTo(j_dot(SimpleMatrix.wrap(q), SimpleMatrix.wrap(q_dot)).getDDRM());
+	}
+
+	/**
+	 * Batched version of {@link #psi(DMatrixRMaj, DMatrixRMaj)} used by
+	 * {@link RMPRoot#solveBatch}.
+	 * <p>
+	 * States are stored one per column, so qs is a p x N matrix and out is
+	 * reshaped to n x N. The default implementation calls the single-state method
+	 * once per column. Nodes that are solved in large batches should override it
+	 * with a loop over the states.
+	 * 
+	 * @param qs  The configuration space states, one per column
+	 * @param out The task space states, one per column, reshaped as needed
+	 */
+	public void psiBatch(DMatrixRMaj qs, DMatrixRMaj out) {
+		for (int k = 0; k < qs.numCols; k++) {
+			RMPBatch.getColumn(qs, k, batchQ);
+			psi(batchQ, batchOut);
+			RMPBatch.setColumn(batchOut, out, k, qs.numCols);
+		}
+	}
+
+	/**
+	 * Batched version of {@link #j(DMatrixRMaj, DMatrixRMaj)} used by
+	 * {@link RMPRoot#solveBatch}.
+	 * <p>
+	 * The n x p Jacobian of each state is flattened in row-major order into a
+	 * column of out, so out is reshaped to (n * p) x N.
+	 * 
+	 * @param qs  The configuration space states, one per column
+	 * @param out The Jacobians of the task map psi, one per column, reshaped as
+	 *            needed
+	 * @see #psiBatch(DMatrixRMaj, DMatrixRMaj)
+	 */
+	public void jBatch(DMatrixRMaj qs, DMatrixRMaj out) {
+		for (int k = 0; k < qs.numCols; k++) {
+			RMPBatch.getColumn(qs, k, batchQ);
+			j(batchQ, batchOut);
+			RMPBatch.setColumn(batchOut, out, k, qs.numCols);
+		}
+	}
+
+	/**
+	 * Batched version of {@link #j_dot(DMatrixRMaj, DMatrixRMaj, DMatrixRMaj)}
+	 * used by {@link RMPRoot#solveBatch}.
+	 * 
+	 * @param qs     The configuration space states, one per column
+	 * @param q_dots The configuration space derivative states, one per column
+	 * @param out    The second-order Jacobians of the task map psi, flattened
+	 *               like {@link #jBatch(DMatrixRMaj, DMatrixRMaj)}, reshaped as
+	 *               needed
+	 * @see #psiBatch(DMatrixRMaj, DMatrixRMaj)
+	 */
+	public void j_dotBatch(DMatrixRMaj qs, DMatrixRMaj q_dots, DMatrixRMaj out) {
+		for (int k = 0; k < qs.numCols; k++) {
+			RMPBatch.getColumn(qs, k, batchQ);
+			RMPBatch.getColumn(q_dots, k, batchQdot);
+			j_dot(batchQ, batchQdot, batchOut);
+			RMPBatch.setColumn(batchOut, out, k, qs.numCols);
+		}
+	}
+
 	/**
 	 * Set the current node's parent and updates the old and current link.
 	 * 
 	 * @param parent A RMP node parent
 	 */
 	public void linkParent(RMPNode parent) {
-		this.parent.removeChild(this);
+		if (this.parent != null) {
+			this.parent.removeChild(this);
+			this.parent.invalidate();
+		}
 		parent.children.add(this);
 		this.parent = parent;
+		parent.invalidate();
 	}
 
 	/**
@@ -96,6 +251,7 @@ public abstract class RMPNode {
 	 */
 	public void unlinkParent(RMPNode parent) {
 		parent.removeChild(this);
+		parent.invalidate();
 		this.parent = null;
 	}
 
@@ -133,8 +289,31 @@ public abstract class RMPNode {
 		return null;
 	}
 
+	/**
+	 * Notifies the tree that its topology has changed.
+	 * 
+	 * @implNote {@link RMPRoot} overrides this to drop its compiled plan.
+	 */
+	void invalidate() {
+		if (parent != null)
+			parent.invalidate();
+	}
+
+	/**
+	 * Returns the name of this node.
+	 * 
+	 * @return The name of this node
+	 */
+	public String getName() {
+		return name;
+	}
+
 	/**
 	 * Returns all child nodes.
+	 * <p>
+	 * Use {@link #linkChild(RMPNode)} and {@link #unlinkChild(RMPNode)} rather
+	 * than modifying the returned list, so that a compiled {@link RMPRoot} notices
+	 * the change.
 	 * 
 	 * @return An array list of all children nodes.
 	 */
@@ -162,13 +341,92 @@ public abstract class RMPNode {
 		// In the case that an RMP node does not have a psi or j function implement psi
 		// and j to return the input.
 		// TODO: Figure out above case
-		x = psi(parent.x);// psi(x)
-		x_dot = j(parent.x).mult(parent.x_dot);// j(x) * x_dot
+		pushforwardFrom(parent);
 
 		for (int i = 0; i < children.size(); i++)
 			children.get(i).pushforward();
 	}
 
+	/**
+	 * Forward propagates the state from a parent node to this node only.
+	 * 
+	 * @param parent The parent of this node
+	 */
+	final void pushforwardFrom(RMPNode parent) {
+		psi(parent.x, x);// psi(x)
+		pushJacobian(parent);
+		pushVelocity(parent);// j(x) * x_dot
+		generation = parent.generation;
+	}
+
+	/**
+	 * Profiled version of {@link #pushforwardFrom(RMPNode)}.
+	 * 
+	 * @param parent  The parent of this node
+	 * @param timings The timings of this node
+	 */
+	final void pushforwardFrom(RMPNode parent, RMPProfiler.Timings timings) {
+		long start = System.nanoTime();
+		psi(parent.x, x);
+		long mapped = System.nanoTime();
+		pushJacobian(parent);
+		long differentiated = System.nanoTime();
+		pushVelocity(parent);
+		generation = parent.generation;
+		timings.add(Phase.PUSHFORWARD, mapped - start + System.nanoTime() - differentiated);
+		timings.add(Phase.JACOBIAN, differentiated - mapped);
+	}
+
+	private void pushJacobian(RMPNode parent) {
+		switch (structure) {
+		case IDENTITY:
+			break;
+		case SPARSE_COLUMNS:
+			updateConstantJacobian(parent.x);
+			break;
+		default:
+			j(parent.x, jac);
+			jacGeneration = parent.generation;
+		}
+	}
+
+	private void pushVelocity(RMPNode parent) {
+		switch (structure) {
+		case IDENTITY:
+			x_dot.setTo(parent.x_dot);
+			break;
+		case SPARSE_COLUMNS:
+			x_dot.reshape(jac.numRows, 1);
+			for (int r = 0; r < jac.numRows; r++) {
+				double sum = 0;
+				for (int c : columns)
+					sum += jac.data[r * jac.numCols + c] * parent.x_dot.data[c];
+				x_dot.data[r] = sum;
+			}
+			break;
+		default:
+			CommonOps_DDRM.mult(jac, parent.x_dot, x_dot);
+		}
+	}
+
+	/**
+	 * Evaluates a constant Jacobian when the parent's dimension changes.
+	 */
+	private void updateConstantJacobian(DMatrixRMaj q) {
+		if (jacGeneration == -1 || jac.numCols != q.getNumElements()) {
+			j(q, jac);
+			jacGeneration = 0;
+		}
+	}
+
+	/**
+	 * Marks the state of this node as changed, so that Jacobians evaluated at
+	 * the previous state are not reused.
+	 */
+	final void newGeneration() {
+		generation = generations.incrementAndGet();
+	}
+
 	/**
 	 * The operator to backward propagate the natural-formed RMPs from the child
 	 * nodes to the parent node.
@@ -180,37 +438,288 @@ public abstract class RMPNode {
 		for (int i = 0; i < children.size(); i++)
 			children.get(i).pullback();
 
-		f = x.copy();
+		clearPolicy();
+
+		for (int i = 0; i < children.size(); i++) {
+			RMPNode child = children.get(i);
+			if (child.name != null)
+				child.accumulate(this);
+		}
+	}
+
+	/**
+	 * Zeros f and M before the children are accumulated into them.
+	 */
+	final void clearPolicy() {
+		f.reshape(x.numRows, x.numCols);
 		f.zero();
 
-		int mSize = Math.max(x.numCols(), x.numRows());
-		if (m == null)
-			m = new SimpleMatrix(mSize, mSize);
-		else
-			m.reshape(mSize, mSize);
+		int mSize = Math.max(x.numCols, x.numRows);
+		m.reshape(mSize, mSize);
 		m.zero();
+	}
 
-		for (int i = 0; i < children.size(); i++) {
-			RMPNode child = children.get(i);
-			SimpleMatrix J_child = child.j(x);// child's Jacobian of x
-			SimpleMatrix J_dot_child = child.j_dot(x, x_dot);
-
-			if (child.f != null && child.name != null) {
-				// f + JT * (f - (m * J_dot * x_dot)) Equation 1 in RMPFlow Computational Graph
-				f = f.plus(J_child.transpose().mult(child.f.minus(
-						child.m.mult(J_dot_child).mult(x_dot))));
-				// JT * M * J Equation 1 in RMPFlow Computational Graph
-				m = m.plus(J_child.transpose().mult(child.m).mult(J_child));
+	/**
+	 * Adds every child in the given plan slice to this node's RMP.
+	 * 
+	 * @param nodes    The nodes of the plan
+	 * @param children Indices into nodes of the children to accumulate
+	 * @param skipped  Whether each node of the plan was left out of the solve
+	 * @param frozen   Whether each node of the plan reuses its last
+	 *                 contribution
+	 * @param from     The first index into children, inclusive
+	 * @param to       The last index into children, exclusive
+	 */
+	final void accumulateChildren(RMPNode[] nodes, int[] children, boolean[] skipped, boolean[] frozen, int from,
+			int to) {
+		for (int i = from; i < to; i++) {
+			int c = children[i];
+			if (skipped[c])
+				continue;
+			if (frozen[c])
+				nodes[c].addContribution(f, m);
+			else
+				nodes[c].accumulate(this);
+		}
+	}
+
+	/**
+	 * Profiled version of
+	 * {@link #accumulateChildren(RMPNode[], int[], boolean[], boolean[], int, int)}.
+	 * 
+	 * @param timings The timings of each node of the plan
+	 */
+	final void accumulateChildren(RMPNode[] nodes, int[] children, boolean[] skipped, boolean[] frozen,
+			RMPProfiler.Timings[] timings, int from, int to) {
+		for (int i = from; i < to; i++) {
+			int c = children[i];
+			if (skipped[c])
+				continue;
+			if (frozen[c]) {
+				long start = System.nanoTime();
+				nodes[c].addContribution(f, m);
+				timings[c].add(Phase.PULLBACK, System.nanoTime() - start);
+			} else {
+				nodes[c].accumulate(this, timings[c]);
 			}
 		}
 	}
 
+	/**
+	 * Adds this node's natural-formed RMP, pulled back through its task map, to
+	 * the parent's RMP.
+	 * 
+	 * @param parent The node to add this node's RMP to
+	 */
+	void accumulate(RMPNode parent) {
+		prepareContribution(parent);
+		addContribution(parent.f, parent.m);
+	}
+
+	/**
+	 * Profiled version of {@link #accumulate(RMPNode)}.
+	 * 
+	 * @param parent  The node to add this node's RMP to
+	 * @param timings The timings of this node
+	 */
+	void accumulate(RMPNode parent, RMPProfiler.Timings timings) {
+		prepareContribution(parent, timings);
+		long start = System.nanoTime();
+		addContribution(parent.f, parent.m);
+		timings.add(Phase.PULLBACK, System.nanoTime() - start);
+	}
+
+	/**
+	 * Computes the terms of {@link #accumulate} that do not touch the parent's
+	 * RMP. Only this node's workspaces are written, so siblings may prepare their
+	 * contributions concurrently.
+	 * <p>
+	 * The Jacobian evaluated by the pushforward is reused when the parent's state
+	 * has not changed since.
+	 * 
+	 * @param parent The node this node's RMP will be added to
+	 */
+	void prepareContribution(RMPNode parent) {
+		differentiate(parent);
+		combine(parent);
+	}
+
+	/**
+	 * Profiled version of {@link #prepareContribution(RMPNode)}.
+	 * 
+	 * @param parent  The node this node's RMP will be added to
+	 * @param timings The timings of this node
+	 */
+	void prepareContribution(RMPNode parent, RMPProfiler.Timings timings) {
+		long start = System.nanoTime();
+		differentiate(parent);
+		long differentiated = System.nanoTime();
+		combine(parent);
+		timings.add(Phase.JACOBIAN, differentiated - start);
+		timings.add(Phase.PULLBACK, System.nanoTime() - differentiated);
+	}
+
+	private void differentiate(RMPNode parent) {
+		DMatrixRMaj q = parent.x, q_dot = parent.x_dot;
+		switch (structure) {
+		case IDENTITY:
+			break;
+		case SPARSE_COLUMNS:
+			updateConstantJacobian(q);
+			break;
+		default:
+			if (jacGeneration != parent.generation) {
+				j(q, jac);// child's Jacobian of x
+				jacGeneration = parent.generation;
+			}
+			j_dot(q, q_dot, jacDot);
+		}
+	}
+
+	private void combine(RMPNode parent) {
+		switch (structure) {
+		case IDENTITY:
+			// rhs = f and mJac = m, which addContribution reads directly
+			break;
+		case ROW: {
+			double[] jd = jacDot.data, q_dot = parent.x_dot.data;
+			double c = 0;
+			for (int i = 0; i < jacDot.numCols; i++)
+				c += jd[i] * q_dot[i];
+			rhs.reshape(1, 1);
+			rhs.data[0] = f.data[0] - m.data[0] * c;
+			break;
+		}
+		case SPARSE_COLUMNS: {
+			// rhs = f, and mJac holds m * J restricted to the nonzero columns
+			int n = m.numRows, k = columns.length;
+			mJac.reshape(n, k);
+			for (int r = 0; r < n; r++)
+				for (int b = 0; b < k; b++) {
+					double sum = 0;
+					for (int s = 0; s < n; s++)
+						sum += m.data[r * n + s] * jac.data[s * jac.numCols + columns[b]];
+					mJac.data[r * k + b] = sum;
+				}
+			break;
+		}
+		default:
+			CommonOps_DDRM.mult(jacDot, parent.x_dot, curv);
+			rhs.setTo(f);
+			CommonOps_DDRM.multAdd(-1, m, curv, rhs);
+			CommonOps_DDRM.mult(m, jac, mJac);
+		}
+	}
+
+	/**
+	 * Adds a contribution computed by {@link #prepareContribution} to the
+	 * parent's RMP.
+	 * 
+	 * @param pf The parent's force motion policy to add to
+	 * @param pm The parent's inertia matrix to add to
+	 */
+	void addContribution(DMatrixRMaj pf, DMatrixRMaj pm) {
+		switch (structure) {
+		case IDENTITY:
+			// Element-wise, since the parent's state may be a row vector
+			for (int i = 0; i < f.getNumElements(); i++)
+				pf.data[i] += f.data[i];
+			for (int i = 0; i < m.getNumElements(); i++)
+				pm.data[i] += m.data[i];
+			break;
+		case ROW: {
+			double[] row = jac.data;
+			int p = jac.numCols;
+			double r = rhs.data[0], w = m.data[0];
+			for (int a = 0; a < p; a++) {
+				pf.data[a] += row[a] * r;
+				for (int b = 0; b < p; b++)
+					pm.data[a * p + b] += row[a] * (w * row[b]);
+			}
+			break;
+		}
+		case SPARSE_COLUMNS: {
+			int n = f.numRows, k = columns.length, p = jac.numCols;
+			for (int a = 0; a < k; a++) {
+				int ca = columns[a];
+				double sum = 0;
+				for (int r = 0; r < n; r++)
+					sum += jac.data[r * p + ca] * f.data[r];
+				pf.data[ca] += sum;
+				for (int b = 0; b < k; b++) {
+					double mSum = 0;
+					for (int r = 0; r < n; r++)
+						mSum += jac.data[r * p + ca] * mJac.data[r * k + b];
+					pm.data[ca * p + columns[b]] += mSum;
+				}
+			}
+			break;
+		}
+		default:
+			// f + JT * (f - (m * J_dot * x_dot)) Equation 1 in RMPFlow Computational Graph
+			CommonOps_DDRM.multAddTransA(jac, rhs, pf);
+			// JT * M * J Equation 1 in RMPFlow Computational Graph
+			CommonOps_DDRM.multAddTransA(jac, mJac, pm);
+		}
+	}
+
+	/**
+	 * Declares the structure of this node's Jacobian, so that the solver can
+	 * pull the node back without dense matrix products. The declaration must
+	 * hold at every state.
+	 * 
+	 * @param structure The structure of the Jacobian, which may not be
+	 *                  {@link JacobianStructure#SPARSE_COLUMNS}
+	 * @see #setSparseJacobian(int...)
+	 */
+	protected final void setJacobianStructure(JacobianStructure structure) {
+		if (structure == JacobianStructure.SPARSE_COLUMNS)
+			throw new IllegalArgumentException("Use setSparseJacobian to declare the nonzero columns.");
+		this.structure = structure;
+		this.columns = null;
+		jacGeneration = -1;
+	}
+
+	/**
+	 * Declares that this node's Jacobian is constant, that its derivative is
+	 * zero, and that it is nonzero only in the given columns.
+	 * 
+	 * @param columns The indices of the nonzero columns, in increasing order
+	 * @see JacobianStructure#SPARSE_COLUMNS
+	 */
+	protected final void setSparseJacobian(int... columns) {
+		for (int i = 0; i < columns.length; i++)
+			if (columns[i] < 0 || i > 0 && columns[i] <= columns[i - 1])
+				throw new IllegalArgumentException("Columns must be non-negative and increasing.");
+		this.structure = JacobianStructure.SPARSE_COLUMNS;
+		this.columns = columns.clone();
+		jacGeneration = -1;
+	}
+
+	/**
+	 * Returns the declared structure of this node's Jacobian.
+	 * 
+	 * @return The structure of the Jacobian
+	 */
+	public JacobianStructure getJacobianStructure() {
+		return structure;
+	}
+
 	/**
 	 * Returns the RMP's current task space state
 	 * 
 	 * @return x The RMP's current task space state
 	 */
 	public SimpleMatrix getX() {
+		return SimpleMatrix.wrap(x);
+	}
+
+	/**
+	 * Returns the workspace holding the RMP's current task space state.
+	 * 
+	 * @return x The RMP's current task space state
+	 */
+	protected DMatrixRMaj getXWorkspace() {
 		return x;
 	}
 
@@ -220,7 +729,8 @@ public abstract class RMPNode {
 	 * @param x The RMP's current task space state
 	 */
 	public void setX(SimpleMatrix x) {
-		this.x = x;
+		this.x.setTo(x.getDDRM());
+		newGeneration();
 	}
 
 	/**
@@ -229,6 +739,15 @@ public abstract class RMPNode {
 	 * @return RMP's current task space derivative state
 	 */
 	public SimpleMatrix getXdot() {
+		return SimpleMatrix.wrap(x_dot);
+	}
+
+	/**
+	 * Returns the workspace holding the RMP's current task space derivative state.
+	 * 
+	 * @return RMP's current task space derivative state
+	 */
+	protected DMatrixRMaj getXdotWorkspace() {
 		return x_dot;
 	}
 
@@ -238,7 +757,8 @@ public abstract class RMPNode {
 	 * @param xdot The RMP's current task space derivative state
 	 */
 	public void setXdot(SimpleMatrix xdot) {
-		this.x_dot = xdot;
+		this.x_dot.setTo(xdot.getDDRM());
+		newGeneration();
 	}
 
 	/**
@@ -247,6 +767,15 @@ public abstract class RMPNode {
 	 * @return f The force motion policy
 	 */
 	public SimpleMatrix getF() {
+		return SimpleMatrix.wrap(f);
+	}
+
+	/**
+	 * Returns the workspace holding the force motion policy.
+	 * 
+	 * @return f The force motion policy
+	 */
+	protected DMatrixRMaj getFWorkspace() {
 		return f;
 	}
 
@@ -256,7 +785,7 @@ public abstract class RMPNode {
 	 * @param f The force motion policy
 	 */
 	public void setF(SimpleMatrix f) {
-		this.f = f;
+		this.f.setTo(f.getDDRM());
 	}
 
 	/**
@@ -265,6 +794,15 @@ public abstract class RMPNode {
 	 * @return M The inertia matrix
 	 */
 	public SimpleMatrix getM() {
+		return SimpleMatrix.wrap(m);
+	}
+
+	/**
+	 * Returns the workspace holding the inertia matrix.
+	 * 
+	 * @return M The inertia matrix
+	 */
+	protected DMatrixRMaj getMWorkspace() {
 		return m;
 	}
 
@@ -274,7 +812,7 @@ public abstract class RMPNode {
 	 * @param m The inertia matrix
 	 */
 	public void setM(SimpleMatrix m) {
-		this.m = m;
+		this.m.setTo(m.getDDRM());
 	}
 
 	/**
@@ -282,14 +820,39 @@ public abstract class RMPNode {
 	 * † denotes Moore-Penrose inverse.
 	 * Implementation from operator 3 in
 	 * <a href="https://arxiv.org/abs/1811.07049">RMPFlow Section 3.4</a>.
+	 * <p>
+	 * M is solved with a Cholesky factorization when it is positive definite and
+	 * reasonably conditioned. Otherwise, the pseudoinverse is used, so a
+	 * singular M never fails to resolve.
 	 * 
 	 * @return A the desired acceleration which is a(x, x_dot)
 	 */
 	public SimpleMatrix getA() {
-		solver.setA(m.getDDRM());
-		DMatrixRMaj a = new DMatrixRMaj(m.getDDRM().getNumRows(), 1);
-		solver.solve(f.getDDRM(), a);
-		return new SimpleMatrix(a);
-	} // TODO: Check for exception if inversion fails and return entire RMP tree in
-		// exception throw
+		return new SimpleMatrix(getA(a));
+	}
+
+	/**
+	 * In-place version of {@link #getA()}.
+	 * 
+	 * @param out The matrix to write the desired acceleration to, reshaped as
+	 *            needed
+	 * @return out, for convenience
+	 */
+	public DMatrixRMaj getA(DMatrixRMaj out) {
+		if (resolver == null)
+			resolver = new RMPResolver();
+		resolver.solve(m, f, out);
+		return out;
+	}
+
+	/**
+	 * Returns whether the last call to {@link #getA(DMatrixRMaj)} had to fall
+	 * back on the pseudoinverse because M was singular or poorly conditioned.
+	 * 
+	 * @return True, if the last resolve used the pseudoinverse, or false,
+	 *         otherwise
+	 */
+	boolean resolvedWithPseudoinverse() {
+		return resolver != null && resolver.usedPseudoinverse();
+	}
 }
\ No newline at end of file
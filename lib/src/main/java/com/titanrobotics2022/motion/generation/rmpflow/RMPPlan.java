@@ -0,0 +1,506 @@
+package com.titanrobotics2022.motion.generation.rmpflow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.titanrobotics2022.motion.generation.rmpflow.RMPProfiler.Phase;
+
+import org.ejml.data.DMatrixRMaj;
+
+/**
+ * A flattened, array-indexed evaluation order for an RMP tree.
+ * <p>
+ * Nodes are stored in pre-order, so every node comes after its parent and the
+ * subtree of node i occupies indices i through {@code subtreeEnd[i] - 1}.
+ * Pushing forward visits the nodes front to back and pulling back visits them
+ * back to front, which reproduces the recursive traversal of
+ * {@link RMPNode#pushforward()} and {@link RMPNode#pullback()} without
+ * recursion or list lookups.
+ */
+final class RMPPlan {
+	/** The nodes of the tree in pre-order. nodes[0] is the root. */
+	final RMPNode[] nodes;
+	/** Index of each node's parent, or -1 for the root. */
+	final int[] parent;
+	/** Exclusive end index of each node's subtree. */
+	final int[] subtreeEnd;
+	/**
+	 * Indices of the children that contribute to each node's RMP, stored so that
+	 * node i owns {@code children[childStart[i]]} through
+	 * {@code children[childStart[i + 1] - 1]}.
+	 */
+	final int[] childStart, children;
+	/** Whether each node is a leaf that evaluates its own RMP. */
+	final boolean[] leaf;
+	/** Whether each node's RMP is added to its parent's. */
+	final boolean[] contributes;
+	/** Start indices of the subtrees directly below the root. */
+	final int[] tops;
+	/**
+	 * Whether each node was left out of the last solve because its leaf reported
+	 * its RMP as negligible.
+	 */
+	final boolean[] skipped;
+	/**
+	 * Whether each node is a leaf that contributes the F and M of an earlier
+	 * solve because its update period has not elapsed.
+	 */
+	final boolean[] held;
+	/**
+	 * Whether each node is a held leaf whose whole contribution to its parent,
+	 * and not only its F and M, is reused.
+	 */
+	final boolean[] frozen;
+	// Update period of each node, 1 for inner nodes, and whether its held RMP is
+	// pulled back through the current Jacobian
+	private final int[] period;
+	private final boolean[] reprojected;
+	/** Indices of the leaves, in descending order of priority. */
+	final int[] leafOrder;
+	// The number of solves of this plan, and the solve each leaf was last
+	// evaluated in, or -1 if it has not been evaluated since the plan was compiled
+	private long solves = 0;
+	private final long[] evaluatedAt;
+	// Whether the solves are part of a lookahead, which does not advance the
+	// counters above, and the F and M of every leaf before the lookahead
+	private boolean lookahead = false;
+	private DMatrixRMaj[] savedF = null, savedM = null;
+	// The profiler recording the solves of this plan and the timings of each
+	// node, or null when the solves are not profiled
+	private RMPProfiler profiler = null;
+	private RMPProfiler.Timings[] timings = null;
+
+	/**
+	 * Compiles the current topology below a root.
+	 * 
+	 * @param root The root of the tree
+	 */
+	RMPPlan(RMPNode root) {
+		ArrayList<RMPNode> order = new ArrayList<RMPNode>();
+		ArrayList<Integer> parents = new ArrayList<Integer>();
+		ArrayList<Integer> ends = new ArrayList<Integer>();
+		collect(root, -1, order, parents, ends);
+
+		int n = order.size();
+		nodes = order.toArray(new RMPNode[n]);
+		parent = new int[n];
+		subtreeEnd = new int[n];
+		leaf = new boolean[n];
+		contributes = new boolean[n];
+		skipped = new boolean[n];
+		held = new boolean[n];
+		frozen = new boolean[n];
+		period = new int[n];
+		reprojected = new boolean[n];
+		evaluatedAt = new long[n];
+		Arrays.fill(evaluatedAt, -1);
+		childStart = new int[n + 1];
+		int edges = 0;
+		for (int i = 0; i < n; i++) {
+			parent[i] = parents.get(i);
+			subtreeEnd[i] = ends.get(i);
+			leaf[i] = nodes[i] instanceof RMPLeaf;
+			contributes[i] = i > 0 && nodes[i].getName() != null;
+			period[i] = leaf[i] ? ((RMPLeaf) nodes[i]).getUpdatePeriod() : 1;
+			reprojected[i] = !leaf[i] || ((RMPLeaf) nodes[i]).isReprojected();
+			if (contributes[i])
+				edges++;
+		}
+
+		// Children are grouped by parent, in the order they were linked.
+		children = new int[edges];
+		int k = 0;
+		for (int i = 0; i < n; i++) {
+			childStart[i] = k;
+			for (int c = i + 1; c < subtreeEnd[i]; c = subtreeEnd[c])
+				if (contributes[c])
+					children[k++] = c;
+		}
+		childStart[n] = k;
+
+		int width = 0;
+		for (int c = 1; c < n; c = subtreeEnd[c])
+			width++;
+		tops = new int[width];
+		for (int c = 1, t = 0; c < n; c = subtreeEnd[c])
+			tops[t++] = c;
+
+		// Leaves of equal priority keep their pre-order, so the order is stable
+		ArrayList<Integer> leaves = new ArrayList<Integer>();
+		for (int i = 0; i < n; i++)
+			if (leaf[i] && contributes[i])
+				leaves.add(i);
+		leaves.sort((a, b) -> Integer.compare(((RMPLeaf) nodes[b]).getPriority(),
+				((RMPLeaf) nodes[a]).getPriority()));
+		leafOrder = new int[leaves.size()];
+		for (int i = 0; i < leafOrder.length; i++)
+			leafOrder[i] = leaves.get(i);
+	}
+
+	private static void collect(RMPNode node, int parentIndex, ArrayList<RMPNode> order,
+			ArrayList<Integer> parents, ArrayList<Integer> ends) {
+		int index = order.size();
+		order.add(node);
+		parents.add(parentIndex);
+		ends.add(index + 1);
+		if (node instanceof RMPLeaf) // Leaves do not pull back their children
+			return;
+		ArrayList<RMPNode> children = node.getChildren();
+		for (int i = 0; i < children.size(); i++)
+			collect(children.get(i), index, order, parents, ends);
+		ends.set(index, order.size());
+	}
+
+	/**
+	 * Forward propagates the root state to every node.
+	 */
+	void pushforward() {
+		if (!lookahead)
+			solves++;
+		pushforward(1, nodes.length);
+	}
+
+	/**
+	 * Forward propagates the state through a contiguous range of the plan.
+	 * <p>
+	 * Leaves that report their RMP as negligible at their parent's state are
+	 * marked as skipped and not updated. Leaves whose update period has not
+	 * elapsed are marked as held and not updated either.
+	 * 
+	 * @param from The first node to update, inclusive. Must not be the root.
+	 * @param to   The last node to update, exclusive
+	 */
+	void pushforward(int from, int to) {
+		if (timings != null) {
+			profiledPushforward(from, to);
+			return;
+		}
+		for (int i = from; i < to; i++) {
+			RMPNode p = nodes[parent[i]];
+			skipped[i] = leaf[i] && ((RMPLeaf) nodes[i]).isNegligible(p.getXWorkspace(), p.getXdotWorkspace());
+			hold(i, !skipped[i] && isDue(i));
+			if (!skipped[i] && !held[i])
+				nodes[i].pushforwardFrom(p);
+		}
+	}
+
+	private void profiledPushforward(int from, int to) {
+		for (int i = from; i < to; i++) {
+			RMPNode p = nodes[parent[i]];
+			long start = System.nanoTime();
+			skipped[i] = leaf[i] && ((RMPLeaf) nodes[i]).isNegligible(p.getXWorkspace(), p.getXdotWorkspace());
+			timings[i].add(Phase.PUSHFORWARD, System.nanoTime() - start);
+			hold(i, !skipped[i] && isDue(i));
+			if (!skipped[i] && !held[i])
+				nodes[i].pushforwardFrom(p, timings[i]);
+		}
+	}
+
+	private void markEvaluated(int i) {
+		if (!lookahead)
+			evaluatedAt[i] = solves;
+	}
+
+	/**
+	 * Returns whether node i is a leaf that was evaluated less than its update
+	 * period ago.
+	 */
+	private boolean isDue(int i) {
+		return period[i] > 1 && evaluatedAt[i] >= 0 && solves - evaluatedAt[i] < period[i];
+	}
+
+	private void hold(int i, boolean hold) {
+		held[i] = hold;
+		frozen[i] = hold && !reprojected[i];
+	}
+
+	/**
+	 * Backward propagates the leaf RMPs to the root.
+	 */
+	void pullback() {
+		pullback(0, nodes.length);
+	}
+
+	/**
+	 * Backward propagates the RMPs through a contiguous range of the plan.
+	 * 
+	 * @param from The first node to update, inclusive
+	 * @param to   The last node to update, exclusive
+	 */
+	void pullback(int from, int to) {
+		if (timings != null) {
+			profiledPullback(from, to);
+			return;
+		}
+		for (int i = to - 1; i >= from; i--) {
+			RMPNode node = nodes[i];
+			if (leaf[i]) {
+				if (!skipped[i] && !held[i]) {
+					((RMPLeaf) node).evaluate();
+					markEvaluated(i);
+				}
+			} else {
+				node.clearPolicy();
+				node.accumulateChildren(nodes, children, skipped, frozen, childStart[i], childStart[i + 1]);
+			}
+		}
+	}
+
+	private void profiledPullback(int from, int to) {
+		for (int i = to - 1; i >= from; i--) {
+			RMPNode node = nodes[i];
+			if (leaf[i]) {
+				if (!skipped[i] && !held[i]) {
+					long start = System.nanoTime();
+					((RMPLeaf) node).evaluate();
+					timings[i].add(Phase.EVALUATE, System.nanoTime() - start);
+					markEvaluated(i);
+				}
+			} else {
+				long start = System.nanoTime();
+				node.clearPolicy();
+				timings[i].add(Phase.PULLBACK, System.nanoTime() - start);
+				node.accumulateChildren(nodes, children, skipped, frozen, timings, childStart[i],
+						childStart[i + 1]);
+			}
+		}
+	}
+
+	/**
+	 * Pushes the state forward and pulls the RMPs back, evaluating the subtrees
+	 * directly below the root concurrently.
+	 * <p>
+	 * Each task only writes to the workspaces of the nodes in its own subtrees,
+	 * including the Jacobian terms of the subtree's top node. The contributions of
+	 * the top nodes are then added to the root one at a time, in the same order and
+	 * with the same operations as {@link #pullback()}, so the result is
+	 * bit-identical to the serial traversal.
+	 * 
+	 * @param pool The pool to evaluate the subtrees on
+	 */
+	void solveParallel(ForkJoinPool pool) {
+		if (!lookahead)
+			solves++;
+		int grain = Math.max(1, tops.length / (4 * pool.getParallelism()));
+		pool.invoke(new SubtreeTask(0, tops.length, grain));
+
+		RMPNode root = nodes[0];
+		root.clearPolicy();
+		DMatrixRMaj rootF = root.getFWorkspace(), rootM = root.getMWorkspace();
+		for (int k = childStart[0]; k < childStart[1]; k++) {
+			int c = children[k];
+			if (skipped[c])
+				continue;
+			long start = timings != null ? System.nanoTime() : 0;
+			nodes[c].addContribution(rootF, rootM);
+			if (timings != null)
+				timings[c].add(Phase.PULLBACK, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Pushes the state forward and pulls the RMPs back, evaluating the leaves in
+	 * descending order of priority until a deadline.
+	 * <p>
+	 * Every inner node is pushed forward first, since the Jacobians of all
+	 * leaves are needed to pull them back. Leaves are then checked in priority
+	 * order. A negligible leaf is skipped and a leaf whose update period has not
+	 * elapsed is held, as in {@link #pushforward()}. A leaf with at least the
+	 * mandatory priority, and any other leaf before the deadline, is pushed
+	 * forward and evaluated. After it, a leaf that was evaluated within the last
+	 * staleLimit solves contributes its previous F and M, pulled back through
+	 * its Jacobian at the current state, and any other leaf is dropped. The
+	 * pullback of the inner nodes always runs to completion.
+	 * 
+	 * @param deadline   The {@link System#nanoTime()} after which no more leaves
+	 *                   below the mandatory priority are evaluated
+	 * @param staleLimit The number of solves for which an RMP may be reused
+	 * @param mandatory  The priority at and above which leaves are always
+	 *                   evaluated
+	 * @param report     The report to record the leaves in, or null
+	 */
+	void solveBudgeted(long deadline, int staleLimit, int mandatory, RMPSolveReport report) {
+		if (!lookahead)
+			solves++;
+		for (int i = 1; i < nodes.length; i++) {
+			skipped[i] = false;
+			hold(i, false);
+			if (!leaf[i])
+				nodes[i].pushforwardFrom(nodes[parent[i]]);
+		}
+		boolean late = false; // Once past the deadline, the clock is not read again
+		for (int k = 0; k < leafOrder.length; k++) {
+			int i = leafOrder[k];
+			RMPLeaf node = (RMPLeaf) nodes[i];
+			RMPNode p = nodes[parent[i]];
+			if (node.isNegligible(p.getXWorkspace(), p.getXdotWorkspace())) {
+				skipped[i] = true;
+				if (report != null)
+					report.addNegligible();
+				continue;
+			}
+			if (isDue(i)) {
+				hold(i, true);
+				if (report != null)
+					report.addHeld();
+				continue;
+			}
+			boolean required = node.getPriority() >= mandatory;
+			if (!late && !required)
+				late = System.nanoTime() - deadline >= 0;
+			if (required || !late) {
+				node.pushforwardFrom(p);
+				node.evaluate();
+				markEvaluated(i);
+				if (report != null)
+					report.addEvaluated();
+			} else if (evaluatedAt[i] >= 0 && solves - evaluatedAt[i] <= staleLimit) {
+				if (report != null)
+					report.addStale(node);
+			} else {
+				skipped[i] = true;
+				if (report != null)
+					report.addDropped(node);
+			}
+		}
+		for (int i = nodes.length - 1; i >= 0; i--) {
+			if (!leaf[i]) {
+				nodes[i].clearPolicy();
+				nodes[i].accumulateChildren(nodes, children, skipped, frozen, childStart[i], childStart[i + 1]);
+			}
+		}
+	}
+
+	/**
+	 * Evaluates a range of the subtrees directly below the root.
+	 */
+	private final class SubtreeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int from, to, grain;
+
+		SubtreeTask(int from, int to, int grain) {
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= grain) {
+				RMPNode root = nodes[0];
+				for (int t = from; t < to; t++) {
+					int top = tops[t];
+					pushforward(top, subtreeEnd[top]);
+					pullback(top, subtreeEnd[top]);
+					if (contributes[top] && !skipped[top] && !frozen[top]) {
+						if (timings != null)
+							nodes[top].prepareContribution(root, timings[top]);
+						else
+							nodes[top].prepareContribution(root);
+					}
+				}
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new SubtreeTask(from, mid, grain), new SubtreeTask(mid, to, grain));
+			}
+		}
+	}
+
+	/**
+	 * Starts solving at hypothetical states. Until {@link #endLookahead()}, the
+	 * solves are not counted, so no leaf becomes due or stale, and the F and M
+	 * of every leaf and the state each leaf saves in
+	 * {@link RMPLeaf#beginLookahead()} are put back afterwards.
+	 */
+	void beginLookahead() {
+		if (savedF == null) {
+			savedF = new DMatrixRMaj[leafOrder.length];
+			savedM = new DMatrixRMaj[leafOrder.length];
+			for (int k = 0; k < leafOrder.length; k++) {
+				savedF[k] = new DMatrixRMaj(1, 1);
+				savedM[k] = new DMatrixRMaj(1, 1);
+			}
+		}
+		for (int k = 0; k < leafOrder.length; k++) {
+			RMPLeaf node = (RMPLeaf) nodes[leafOrder[k]];
+			savedF[k].setTo(node.getFWorkspace());
+			savedM[k].setTo(node.getMWorkspace());
+			node.beginLookahead();
+		}
+		lookahead = true;
+	}
+
+	/**
+	 * Puts back the state saved by {@link #beginLookahead()}.
+	 */
+	void endLookahead() {
+		lookahead = false;
+		for (int k = 0; k < leafOrder.length; k++) {
+			RMPLeaf node = (RMPLeaf) nodes[leafOrder[k]];
+			node.getFWorkspace().setTo(savedF[k]);
+			node.getMWorkspace().setTo(savedM[k]);
+			node.endLookahead();
+		}
+	}
+
+	/**
+	 * Starts or stops recording the solves of this plan.
+	 * 
+	 * @param profiler The profiler to record the solves with, or null to stop
+	 *                 profiling
+	 */
+	void setProfiler(RMPProfiler profiler) {
+		this.profiler = profiler;
+		timings = profiler == null ? null : profiler.bind(nodes);
+	}
+
+	/**
+	 * Returns the profiler recording the solves of this plan.
+	 * 
+	 * @return The profiler, or null if the solves are not profiled
+	 */
+	RMPProfiler getProfiler() {
+		return profiler;
+	}
+
+	/**
+	 * Records the time spent resolving the root and adds every node's timings
+	 * for the solve to its histograms. Does nothing when the solves are not
+	 * profiled.
+	 * 
+	 * @param resolveNanos The time spent resolving the root, in nanoseconds
+	 */
+	void finishSolve(long resolveNanos) {
+		if (timings == null)
+			return;
+		timings[0].add(Phase.RESOLVE, resolveNanos);
+		for (int i = 0; i < timings.length; i++)
+			timings[i].commit();
+	}
+
+	/**
+	 * Returns the number of solves since a leaf was last evaluated.
+	 * 
+	 * @param node The leaf
+	 * @return The number of solves, 0 if it was evaluated by the last solve, or
+	 *         -1 if it is not in the plan or has not been evaluated since the
+	 *         plan was compiled
+	 */
+	long getStaleness(RMPNode node) {
+		for (int i = 0; i < nodes.length; i++)
+			if (nodes[i] == node)
+				return evaluatedAt[i] < 0 ? -1 : solves - evaluatedAt[i];
+		return -1;
+	}
+
+	/**
+	 * Returns the number of nodes in the plan, including the root.
+	 * 
+	 * @return The number of nodes in the plan
+	 */
+	int size() {
+		return nodes.length;
+	}
+}
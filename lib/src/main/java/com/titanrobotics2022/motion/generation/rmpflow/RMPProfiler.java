@@ -0,0 +1,204 @@
+package com.titanrobotics2022.motion.generation.rmpflow;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Per-node latency histograms for the solves of an RMP tree.
+ * <p>
+ * A profiler is attached to a tree with {@link RMPRoot#enableProfiling()}.
+ * Every compiled solve then records how long each node spent in each
+ * {@link Phase}, as one sample per node and phase per solve. Histograms are
+ * allocated when the tree is compiled, so a profiled solve does not allocate.
+ * A root without a profiler runs the uninstrumented solver, so profiling
+ * costs nothing until it is enabled.
+ * <p>
+ * Batched solves and the recursive {@link RMPNode#pushforward()} and
+ * {@link RMPNode#pullback()} are not profiled. The histograms are not
+ * synchronized, so they should be queried between solves, on the thread that
+ * solves the tree.
+ */
+public final class RMPProfiler {
+	/**
+	 * The phases of a solve that are timed separately.
+	 */
+	public enum Phase {
+		/** Mapping the parent's state into the node's task space. */
+		PUSHFORWARD,
+		/** Evaluating the Jacobian of the task map and its time derivative. */
+		JACOBIAN,
+		/** Solving a leaf's F and M. */
+		EVALUATE,
+		/** Pulling the node's RMP back and adding it to its parent's RMP. */
+		PULLBACK,
+		/** Resolving the root's RMP into an acceleration. */
+		RESOLVE
+	}
+
+	private static final Phase[] PHASES = Phase.values();
+
+	private final IdentityHashMap<RMPNode, Timings> timings = new IdentityHashMap<RMPNode, Timings>();
+	private final ArrayList<RMPNode> order = new ArrayList<RMPNode>(); // Nodes in the order they were first seen
+
+	RMPProfiler() {
+	}
+
+	/**
+	 * The histograms of one node, along with the time it has spent in each
+	 * phase of the current solve.
+	 */
+	static final class Timings {
+		private final LatencyHistogram[] histograms = new LatencyHistogram[PHASES.length];
+		private final long[] pending = new long[PHASES.length];
+
+		private Timings() {
+			for (int p = 0; p < PHASES.length; p++) {
+				histograms[p] = new LatencyHistogram();
+				pending[p] = -1;
+			}
+		}
+
+		/**
+		 * Adds time to a phase of the current solve.
+		 * 
+		 * @param phase The phase
+		 * @param nanos The time spent in the phase, in nanoseconds
+		 */
+		void add(Phase phase, long nanos) {
+			int p = phase.ordinal();
+			pending[p] = pending[p] < 0 ? nanos : pending[p] + nanos;
+		}
+
+		/**
+		 * Records every phase the node took part in during the current solve.
+		 */
+		void commit() {
+			for (int p = 0; p < pending.length; p++) {
+				if (pending[p] >= 0) {
+					histograms[p].record(pending[p]);
+					pending[p] = -1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the timings of every node of a plan, in plan order, creating them
+	 * for nodes that have not been profiled before.
+	 * 
+	 * @param nodes The nodes of the plan
+	 * @return The timings of each node
+	 */
+	Timings[] bind(RMPNode[] nodes) {
+		Timings[] bound = new Timings[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			Timings t = timings.get(nodes[i]);
+			if (t == null) {
+				t = new Timings();
+				timings.put(nodes[i], t);
+				order.add(nodes[i]);
+			}
+			bound[i] = t;
+		}
+		return bound;
+	}
+
+	private LatencyHistogram histogram(RMPNode node, Phase phase) {
+		Timings t = timings.get(node);
+		return t == null ? null : t.histograms[phase.ordinal()];
+	}
+
+	/**
+	 * Returns the number of solves in which a node took part in a phase.
+	 * 
+	 * @param node  The node
+	 * @param phase The phase
+	 * @return The number of recorded samples
+	 */
+	public long getCount(RMPNode node, Phase phase) {
+		LatencyHistogram h = histogram(node, phase);
+		return h == null ? 0 : h.count();
+	}
+
+	/**
+	 * Returns a percentile of the time a node spent in a phase per solve. The
+	 * result is within 12.5% of the exact percentile.
+	 * 
+	 * @param node       The node
+	 * @param phase      The phase
+	 * @param percentile The percentile, between 0 and 100
+	 * @return The time in nanoseconds, or 0 if the node never took part in the
+	 *         phase
+	 */
+	public long getPercentile(RMPNode node, Phase phase, double percentile) {
+		LatencyHistogram h = histogram(node, phase);
+		return h == null ? 0 : h.percentile(percentile);
+	}
+
+	/**
+	 * Returns the median time a node spent in a phase per solve.
+	 * 
+	 * @param node  The node
+	 * @param phase The phase
+	 * @return The time in nanoseconds
+	 * @see #getPercentile(RMPNode, Phase, double)
+	 */
+	public long getP50(RMPNode node, Phase phase) {
+		return getPercentile(node, phase, 50);
+	}
+
+	/**
+	 * Returns the 99th percentile of the time a node spent in a phase per solve.
+	 * 
+	 * @param node  The node
+	 * @param phase The phase
+	 * @return The time in nanoseconds
+	 * @see #getPercentile(RMPNode, Phase, double)
+	 */
+	public long getP99(RMPNode node, Phase phase) {
+		return getPercentile(node, phase, 99);
+	}
+
+	/**
+	 * Returns the longest time a node spent in a phase of one solve.
+	 * 
+	 * @param node  The node
+	 * @param phase The phase
+	 * @return The time in nanoseconds, or 0 if the node never took part in the
+	 *         phase
+	 */
+	public long getMax(RMPNode node, Phase phase) {
+		LatencyHistogram h = histogram(node, phase);
+		return h == null ? 0 : h.max();
+	}
+
+	/**
+	 * Forgets every recorded sample.
+	 */
+	public void reset() {
+		for (Timings t : timings.values())
+			for (LatencyHistogram h : t.histograms)
+				h.reset();
+	}
+
+	/**
+	 * Returns a table of the p50, p99 and max of every node and phase that has
+	 * been recorded, in microseconds.
+	 * 
+	 * @return The table, one line per node and phase
+	 */
+	@Override
+	public String toString() {
+		StringBuilder table = new StringBuilder(String.format("%-24s %-12s %10s %10s %10s%n", "node", "phase",
+				"p50 (us)", "p99 (us)", "max (us)"));
+		for (RMPNode node : order) {
+			for (Phase phase : PHASES) {
+				if (getCount(node, phase) == 0)
+					continue;
+				table.append(String.format("%-24s %-12s %10.3f %10.3f %10.3f%n", node.getName(), phase,
+						getP50(node, phase) / 1e3, getP99(node, phase) / 1e3, getMax(node, phase) / 1e3));
+			}
+		}
+		return table.toString();
+	}
+}
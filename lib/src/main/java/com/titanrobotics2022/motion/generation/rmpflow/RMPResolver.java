@@ -0,0 +1,71 @@
+package com.titanrobotics2022.motion.generation.rmpflow;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.decomposition.chol.CholeskyDecompositionInner_DDRM;
+import org.ejml.dense.row.factory.LinearSolverFactory_DDRM;
+import org.ejml.dense.row.linsol.chol.LinearSolverChol_DDRM;
+import org.ejml.interfaces.linsol.LinearSolverDense;
+
+/**
+ * Maps an RMP from its natural form to its canonical form by solving M a = f.
+ * <p>
+ * M is symmetric positive semi-definite, and in practice almost always
+ * positive definite, so a Cholesky solve is tried first. The Moore-Penrose
+ * pseudoinverse, an SVD, is only used when the factorization fails or M is
+ * too poorly conditioned for it to be trusted.
+ */
+final class RMPResolver {
+	/**
+	 * The largest estimated condition number of M that is solved with Cholesky.
+	 * The estimate is the squared ratio of the largest to the smallest diagonal
+	 * entry of the Cholesky factor.
+	 */
+	static final double MAX_CONDITION = 1e12;
+
+	private final CholeskyDecompositionInner_DDRM cholesky = new CholeskyDecompositionInner_DDRM(true);
+	private final LinearSolverChol_DDRM chol = new LinearSolverChol_DDRM(cholesky);
+	private final LinearSolverDense<DMatrixRMaj> pinv = LinearSolverFactory_DDRM.pseudoInverse(true);
+	private final DMatrixRMaj factor = new DMatrixRMaj(1, 1); // Cholesky overwrites its input
+	private boolean fellBack = false;
+
+	/**
+	 * Solves M a = f, in the least squares sense if M is singular.
+	 * 
+	 * @param m   The inertia matrix
+	 * @param f   The force motion policy
+	 * @param out The matrix to write the desired acceleration to, reshaped as
+	 *            needed
+	 */
+	void solve(DMatrixRMaj m, DMatrixRMaj f, DMatrixRMaj out) {
+		out.reshape(m.numRows, 1);
+		factor.setTo(m);
+		fellBack = !chol.setA(factor) || !wellConditioned();
+		if (fellBack) {
+			pinv.setA(m);
+			pinv.solve(f, out);
+		} else {
+			chol.solve(f, out);
+		}
+	}
+
+	private boolean wellConditioned() {
+		DMatrixRMaj t = cholesky.getT();
+		double min = Double.POSITIVE_INFINITY, max = 0;
+		for (int i = 0; i < t.numRows; i++) {
+			double d = Math.abs(t.unsafe_get(i, i));
+			min = Math.min(min, d);
+			max = Math.max(max, d);
+		}
+		double ratio = max / min;
+		return ratio * ratio <= MAX_CONDITION;
+	}
+
+	/**
+	 * Returns whether the last solve fell back on the pseudoinverse.
+	 * 
+	 * @return True, if M could not be solved with Cholesky, or false, otherwise
+	 */
+	boolean usedPseudoinverse() {
+		return fellBack;
+	}
+}
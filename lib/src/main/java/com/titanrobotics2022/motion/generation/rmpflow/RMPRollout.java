@@ -0,0 +1,317 @@
+package com.titanrobotics2022.motion.generation.rmpflow;
+
+import org.ejml.data.DMatrixRMaj;
+
+/**
+ * Forward-simulates the policy of an RMP tree at a fixed time step.
+ * <p>
+ * The tree is treated as a second order system, x_ddot = a(x, x_dot), where a
+ * is the resolved acceleration of the root. Each step solves the tree with
+ * {@link RMPRoot#solve(DMatrixRMaj, DMatrixRMaj, DMatrixRMaj)} and integrates
+ * the result with the selected scheme. All workspaces are owned by the
+ * rollout and sized by the first step of a given dimension, so rolling out a
+ * trajectory does not allocate.
+ * <p>
+ * Every evaluation of the policy is a full solve of the tree, so leaves with
+ * internal state, such as the integral term of a path follower, are updated
+ * once per evaluation. {@link Scheme#RK4} evaluates the policy four times per
+ * step. {@link #step(double, double[], double[])} treats the step as a real
+ * one and keeps those updates, which suits a simulation driven by the
+ * rollout. {@link #rollout(double[], double[], double, int, double[])} is a
+ * lookahead, see {@link RMPRoot#beginLookahead()}: the state of the leaves
+ * evolves along the rolled out trajectory and is put back afterwards, so the
+ * tree of a running controller can be rolled out between its solves.
+ */
+public class RMPRollout {
+	/**
+	 * The integration schemes a rollout can use.
+	 */
+	public enum Scheme {
+		/**
+		 * Updates the velocity with the acceleration, then the position with the
+		 * new velocity. One evaluation per step.
+		 */
+		SEMI_IMPLICIT_EULER,
+		/**
+		 * Updates the velocity with the acceleration, then the position with the
+		 * mean of the old and new velocities. One evaluation per step. This is the
+		 * scheme used by the demos.
+		 */
+		TRAPEZOIDAL,
+		/**
+		 * The classical fourth order Runge-Kutta method. Four evaluations per
+		 * step.
+		 */
+		RK4
+	}
+
+	private final RMPRoot root;
+	private final Scheme scheme;
+	// Position, velocity and acceleration of the current evaluation
+	private final DMatrixRMaj x = new DMatrixRMaj(1, 1), x_dot = new DMatrixRMaj(1, 1);
+	private final DMatrixRMaj a = new DMatrixRMaj(1, 1);
+	// Slopes of the Runge-Kutta stages, used only by RK4
+	private double[] x0 = new double[0], v0 = new double[0], dx = new double[0], dv = new double[0];
+	private int dimension = -1; // The dimension the workspaces are sized for
+	// Wall-clock time of the solves, recorded only when timing is enabled
+	private boolean timed = false;
+	private long solves = 0, solveNanos = 0, maxSolveNanos = 0;
+
+	/**
+	 * Creates a rollout of a tree.
+	 * 
+	 * @param root   The root of the tree to simulate
+	 * @param scheme The integration scheme
+	 */
+	public RMPRollout(RMPRoot root, Scheme scheme) {
+		if (root == null)
+			throw new NullPointerException("root");
+		if (scheme == null)
+			throw new NullPointerException("scheme");
+		this.root = root;
+		this.scheme = scheme;
+	}
+
+	/**
+	 * Returns the root of the simulated tree.
+	 * 
+	 * @return The root
+	 */
+	public RMPRoot getRoot() {
+		return root;
+	}
+
+	/**
+	 * Returns the integration scheme of the rollout.
+	 * 
+	 * @return The scheme
+	 */
+	public Scheme getScheme() {
+		return scheme;
+	}
+
+	/**
+	 * Enables or disables timing every solve of the tree. Timing reads the clock
+	 * around each solve only, so it excludes the integration, and counts every
+	 * evaluation of a multi-stage scheme as a separate solve.
+	 * 
+	 * @param timed Whether to time the solves
+	 */
+	public void setSolveTiming(boolean timed) {
+		this.timed = timed;
+	}
+
+	/**
+	 * Returns the number of solves timed since timing was first enabled.
+	 * 
+	 * @return The number of timed solves
+	 */
+	public long getTimedSolveCount() {
+		return solves;
+	}
+
+	/**
+	 * Returns the total wall-clock time of the timed solves.
+	 * 
+	 * @return The total time in nanoseconds
+	 */
+	public long getTotalSolveNanos() {
+		return solveNanos;
+	}
+
+	/**
+	 * Returns the longest wall-clock time of one timed solve.
+	 * 
+	 * @return The maximum time in nanoseconds
+	 */
+	public long getMaxSolveNanos() {
+		return maxSolveNanos;
+	}
+
+	/**
+	 * Advances a state by one time step in place.
+	 * 
+	 * @param deltaT The time step
+	 * @param pos    The position, overwritten with the new position
+	 * @param vel    The velocity, overwritten with the new velocity
+	 */
+	public void step(double deltaT, double[] pos, double[] vel) {
+		int n = pos.length;
+		if (vel.length != n)
+			throw new IllegalArgumentException("Position and velocity must have the same dimension.");
+		resize(n);
+		switch (scheme) {
+		case SEMI_IMPLICIT_EULER:
+			evaluate(pos, vel);
+			for (int i = 0; i < n; i++) {
+				vel[i] += a.data[i] * deltaT;
+				pos[i] += vel[i] * deltaT;
+			}
+			break;
+		case TRAPEZOIDAL:
+			evaluate(pos, vel);
+			for (int i = 0; i < n; i++) {
+				double v = vel[i] + a.data[i] * deltaT;
+				pos[i] += .5 * (vel[i] + v) * deltaT;
+				vel[i] = v;
+			}
+			break;
+		case RK4:
+			stepRK4(deltaT, pos, vel, n);
+			break;
+		}
+	}
+
+	/**
+	 * Rolls out a trajectory from an initial state.
+	 * <p>
+	 * The state after step k, for k starting at 0, is written to the trajectory
+	 * buffer at offset k * 2n as the n coordinates of the position followed by
+	 * the n coordinates of the velocity. The rollout stops early at the first
+	 * state that is not finite; that state is not written.
+	 * <p>
+	 * The rollout runs as a lookahead of the tree unless one has already begun,
+	 * so the next solve after it is the same as if it had not run.
+	 * 
+	 * @param pos        The initial position, overwritten with the last finite
+	 *                   position
+	 * @param vel        The initial velocity, overwritten with the last finite
+	 *                   velocity
+	 * @param deltaT     The time step
+	 * @param steps      The number of steps to take
+	 * @param trajectory The buffer to write the states to, of length at least
+	 *                   steps * 2n
+	 * @return The number of states written
+	 */
+	public int rollout(double[] pos, double[] vel, double deltaT, int steps, double[] trajectory) {
+		int n = pos.length;
+		if (steps < 0)
+			throw new IllegalArgumentException("The number of steps must be non-negative.");
+		if (trajectory.length < steps * 2 * n)
+			throw new IllegalArgumentException("The trajectory buffer is too small.");
+		if (root.isLookingAhead())
+			return integrate(pos, vel, deltaT, steps, trajectory);
+		root.beginLookahead();
+		try {
+			return integrate(pos, vel, deltaT, steps, trajectory);
+		} finally {
+			root.endLookahead();
+		}
+	}
+
+	private int integrate(double[] pos, double[] vel, double deltaT, int steps, double[] trajectory) {
+		int n = pos.length;
+		for (int k = 0; k < steps; k++) {
+			int offset = k * 2 * n;
+			// Keeps the previous state in the buffer in case the step diverges
+			System.arraycopy(pos, 0, trajectory, offset, n);
+			System.arraycopy(vel, 0, trajectory, offset + n, n);
+			step(deltaT, pos, vel);
+			if (!isFinite(pos) || !isFinite(vel)) {
+				System.arraycopy(trajectory, offset, pos, 0, n);
+				System.arraycopy(trajectory, offset + n, vel, 0, n);
+				return k;
+			}
+			System.arraycopy(pos, 0, trajectory, offset, n);
+			System.arraycopy(vel, 0, trajectory, offset + n, n);
+		}
+		return steps;
+	}
+
+	/**
+	 * Returns the acceleration of the last evaluation of the policy.
+	 * 
+	 * @param out The array to write the acceleration to
+	 * @return out, for convenience
+	 */
+	public double[] getLastAcceleration(double[] out) {
+		System.arraycopy(a.data, 0, out, 0, out.length);
+		return out;
+	}
+
+	private void stepRK4(double h, double[] pos, double[] vel, int n) {
+		System.arraycopy(pos, 0, x0, 0, n);
+		System.arraycopy(vel, 0, v0, 0, n);
+		// Stage 1 at (x0, v0)
+		evaluate(x0, v0);
+		for (int i = 0; i < n; i++) {
+			dx[i] = v0[i];
+			dv[i] = a.data[i];
+			x.data[i] = x0[i] + .5 * h * v0[i];
+			x_dot.data[i] = v0[i] + .5 * h * a.data[i];
+		}
+		// Stage 2 at the midpoint along stage 1
+		solve();
+		for (int i = 0; i < n; i++) {
+			double k2x = x_dot.data[i], k2v = a.data[i];
+			dx[i] += 2 * k2x;
+			dv[i] += 2 * k2v;
+			x.data[i] = x0[i] + .5 * h * k2x;
+			x_dot.data[i] = v0[i] + .5 * h * k2v;
+		}
+		// Stage 3 at the midpoint along stage 2
+		solve();
+		for (int i = 0; i < n; i++) {
+			double k3x = x_dot.data[i], k3v = a.data[i];
+			dx[i] += 2 * k3x;
+			dv[i] += 2 * k3v;
+			x.data[i] = x0[i] + h * k3x;
+			x_dot.data[i] = v0[i] + h * k3v;
+		}
+		// Stage 4 at the end of the step along stage 3
+		solve();
+		for (int i = 0; i < n; i++) {
+			dx[i] += x_dot.data[i];
+			dv[i] += a.data[i];
+			pos[i] = x0[i] + h / 6 * dx[i];
+			vel[i] = v0[i] + h / 6 * dv[i];
+		}
+	}
+
+	/**
+	 * Solves the tree at a state given as arrays.
+	 */
+	private void evaluate(double[] pos, double[] vel) {
+		System.arraycopy(pos, 0, x.data, 0, pos.length);
+		System.arraycopy(vel, 0, x_dot.data, 0, vel.length);
+		solve();
+	}
+
+	/**
+	 * Solves the tree at the state in the workspaces.
+	 */
+	private void solve() {
+		if (!timed) {
+			root.solve(x, x_dot, a);
+			return;
+		}
+		long before = System.nanoTime();
+		root.solve(x, x_dot, a);
+		long nanos = System.nanoTime() - before;
+		solves++;
+		solveNanos += nanos;
+		maxSolveNanos = Math.max(maxSolveNanos, nanos);
+	}
+
+	private void resize(int n) {
+		if (dimension == n)
+			return;
+		dimension = n;
+		x.reshape(n, 1);
+		x_dot.reshape(n, 1);
+		a.reshape(n, 1);
+		if (scheme == Scheme.RK4) {
+			x0 = new double[n];
+			v0 = new double[n];
+			dx = new double[n];
+			dv = new double[n];
+		}
+	}
+
+	private static boolean isFinite(double[] values) {
+		for (double v : values)
+			if (!Double.isFinite(v))
+				return false;
+		return true;
+	}
+}
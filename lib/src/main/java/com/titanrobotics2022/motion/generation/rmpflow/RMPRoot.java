@@ -1,5 +1,9 @@
 package com.titanrobotics2022.motion.generation.rmpflow;
 
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+
+import org.ejml.data.DMatrixRMaj;
 import org.ejml.simple.SimpleMatrix;
 
 /**
@@ -8,6 +12,17 @@ import org.ejml.simple.SimpleMatrix;
  * <a href="https://arxiv.org/abs/1811.07049">RMPFlow Section 3.5</a>.
  */
 public class RMPRoot extends RMPNode {
+	private RMPPlan plan = null; // Compiled traversal, null when stale
+	private ForkJoinPool pool = null; // Pool for parallel pullback, null when serial
+	private int parallelWidth; // Minimum number of subtrees to solve in parallel
+	private RMPBatch batch = null; // Batched workspaces, sized for the current plan
+	private RMPProfiler profiler = null; // Created by the first enableProfiling
+	private boolean profiling = false;
+	private int staleLimit = 1; // Solves for which a budgeted solve may reuse an RMP
+	private int mandatoryPriority = RMPLeaf.PRIORITY_SAFETY; // Priority a budgeted solve always evaluates
+	private final ConcurrentLinkedQueue<Runnable> staged = new ConcurrentLinkedQueue<>(); // Edits for the next solve
+	private RMPPlan lookahead = null; // Plan of the current lookahead, null outside one
+
 	/**
 	 * A root node of an RMP tree.
 	 * 
@@ -24,14 +39,262 @@ public class RMPRoot extends RMPNode {
 	 * @param x_dot The differentiated state
 	 */
 	public void setRootState(SimpleMatrix x, SimpleMatrix x_dot) {
-		if (x.numRows() == 1) // Sets to column matrices
-			setX(x.transpose());
-		else
-			setX(x);
-		if (x_dot.numRows() == 1)
-			setXdot(x_dot.transpose());
-		else
-			setXdot(x_dot);
+		setRootState(x.getDDRM(), x_dot.getDDRM());
+	}
+
+	/**
+	 * Updates the states of the tree
+	 * <p>
+	 * The state is copied into the root's workspaces, so the arguments may be
+	 * reused by the caller.
+	 * 
+	 * @param x     The state, as a row or column vector
+	 * @param x_dot The differentiated state, as a row or column vector
+	 */
+	public void setRootState(DMatrixRMaj x, DMatrixRMaj x_dot) {
+		DMatrixRMaj rootX = getXWorkspace(), rootXdot = getXdotWorkspace();
+		rootX.setTo(x);
+		if (x.numRows == 1) // Sets to column matrices
+			rootX.reshape(x.numCols, 1);
+		rootXdot.setTo(x_dot);
+		if (x_dot.numRows == 1)
+			rootXdot.reshape(x_dot.numCols, 1);
+		newGeneration();
+	}
+
+	/**
+	 * Compiles the current topology of the tree into a flat evaluation plan.
+	 * <p>
+	 * {@link #solve(SimpleMatrix, SimpleMatrix)} compiles the tree on demand, so
+	 * calling this method is only needed to move the cost of compiling out of
+	 * the first control loop iteration. Linking or unlinking any node in the tree
+	 * invalidates the plan, and it is recompiled by the next solve.
+	 */
+	public void compile() {
+		plan = new RMPPlan(this);
+	}
+
+	/**
+	 * Returns whether the tree has a compiled plan matching its current topology.
+	 * 
+	 * @return True, if the tree has an up-to-date plan, or false, otherwise
+	 */
+	public boolean isCompiled() {
+		return plan != null;
+	}
+
+	/**
+	 * Returns the compiled plan, compiling the tree if its topology has changed.
+	 * 
+	 * @return The plan of the tree
+	 */
+	RMPPlan getPlan() {
+		if (plan == null)
+			compile();
+		return plan;
+	}
+
+	/**
+	 * Evaluates the subtrees directly below the root in parallel when there are
+	 * at least a given number of them.
+	 * <p>
+	 * Leaf evaluations are independent of their siblings, so wide trees, such as
+	 * a root with many collision avoidance leaves, can spread their work across
+	 * cores. The contributions of the subtrees are added to the root in a fixed
+	 * order, so the result is bit-identical to a serial solve. Subtrees must not
+	 * share mutable state.
+	 * <p>
+	 * A parallel solve allocates its fork/join tasks.
+	 * 
+	 * @param pool           The pool to evaluate the subtrees on
+	 * @param widthThreshold The minimum number of subtrees below the root for a
+	 *                       solve to run in parallel
+	 */
+	public void enableParallelPullback(ForkJoinPool pool, int widthThreshold) {
+		if (pool == null)
+			throw new NullPointerException("pool");
+		if (widthThreshold < 1)
+			throw new IllegalArgumentException("Width threshold must be positive.");
+		this.pool = pool;
+		this.parallelWidth = widthThreshold;
+	}
+
+	/**
+	 * Evaluates the subtrees directly below the root on the common fork/join
+	 * pool when there are at least a given number of them.
+	 * 
+	 * @param widthThreshold The minimum number of subtrees below the root for a
+	 *                       solve to run in parallel
+	 * @see #enableParallelPullback(ForkJoinPool, int)
+	 */
+	public void enableParallelPullback(int widthThreshold) {
+		enableParallelPullback(ForkJoinPool.commonPool(), widthThreshold);
+	}
+
+	/**
+	 * Returns to evaluating the whole tree on the calling thread.
+	 */
+	public void disableParallelPullback() {
+		pool = null;
+	}
+
+	/**
+	 * Starts recording how long each node spends in each phase of a solve.
+	 * <p>
+	 * Profiling is off by default, and a tree that is not profiled runs without
+	 * any timing code. The histograms are kept when profiling is stopped and
+	 * restarted.
+	 * 
+	 * @return The profiler holding the recorded timings
+	 * @see RMPProfiler
+	 */
+	public RMPProfiler enableProfiling() {
+		if (profiler == null)
+			profiler = new RMPProfiler();
+		profiling = true;
+		return profiler;
+	}
+
+	/**
+	 * Stops recording the solves of the tree.
+	 */
+	public void disableProfiling() {
+		profiling = false;
+	}
+
+	/**
+	 * Returns the profiler of the tree.
+	 * 
+	 * @return The profiler, or null if profiling has never been enabled
+	 */
+	public RMPProfiler getProfiler() {
+		return profiler;
+	}
+
+	/**
+	 * Queues an edit of the tree to be applied at the start of the next solve.
+	 * <p>
+	 * The tree itself is not thread-safe: linking, unlinking or reconfiguring
+	 * nodes while another thread solves the tree can corrupt the solve. Other
+	 * threads, such as one refreshing obstacles from vision, should stage their
+	 * edits instead. Staged edits run on the solving thread, in the order they
+	 * were staged, before the tree is traversed, so every solve sees the tree
+	 * either before or after an edit. Edits that must be seen together, such as
+	 * replacing every obstacle of a frame, should be staged as one edit.
+	 * <p>
+	 * Staging is lock-free and safe from any thread. A solve with no staged
+	 * edits only checks that the queue is empty. An exception thrown by an edit
+	 * propagates out of the solve that applies it, and the edits staged after
+	 * it stay queued.
+	 * 
+	 * @param edit The edit to apply
+	 */
+	public void stageEdit(Runnable edit) {
+		if (edit == null)
+			throw new NullPointerException("edit");
+		staged.add(edit);
+	}
+
+	/**
+	 * Stages linking a node below a parent, moving it if it already has one.
+	 * Create the node with a null parent to link it this way.
+	 * 
+	 * @param child  The node to link
+	 * @param parent The node to link it below
+	 * @see #stageEdit(Runnable)
+	 */
+	public void stageLink(RMPNode child, RMPNode parent) {
+		stageEdit(() -> child.linkParent(parent));
+	}
+
+	/**
+	 * Stages unlinking a node from its parent.
+	 * 
+	 * @param child The node to unlink
+	 * @see #stageEdit(Runnable)
+	 */
+	public void stageUnlink(RMPNode child) {
+		stageEdit(() -> {
+			RMPNode parent = child.getParent();
+			if (parent != null)
+				child.unlinkParent(parent);
+		});
+	}
+
+	/**
+	 * Applies every staged edit now. Solves call this themselves, so it is only
+	 * needed to inspect the tree between solves. Call it from the solving
+	 * thread.
+	 * 
+	 * @return The number of edits applied
+	 */
+	public int applyStagedEdits() {
+		int applied = 0;
+		for (Runnable edit = staged.poll(); edit != null; edit = staged.poll()) {
+			edit.run();
+			applied++;
+		}
+		return applied;
+	}
+
+	/**
+	 * Applies the staged edits, if any, before a solve traverses the tree.
+	 */
+	private void beginSolve() {
+		if (!staged.isEmpty() && lookahead == null)
+			applyStagedEdits();
+	}
+
+	/**
+	 * Starts a lookahead, in which the tree can be solved at hypothetical states,
+	 * such as those of a rollout, without changing the next solve after it.
+	 * <p>
+	 * Every leaf saves the state it carries from one solve to the next, see
+	 * {@link RMPLeaf#beginLookahead()}, and the F and M of every leaf are saved,
+	 * so that {@link #endLookahead()} can put them back. Within the lookahead,
+	 * that state evolves from solve to solve as usual, but the solves do not
+	 * count towards update periods or staleness: a leaf held by its update
+	 * period stays held, and every other leaf is evaluated by every solve.
+	 * Staged edits wait for the first solve after the lookahead, and nodes must
+	 * not be linked or unlinked during it.
+	 * 
+	 * @throws IllegalStateException If a lookahead has already begun
+	 * @see RMPRollout#rollout(double[], double[], double, int, double[])
+	 */
+	public void beginLookahead() {
+		if (lookahead != null)
+			throw new IllegalStateException("A lookahead has already begun.");
+		beginSolve();
+		lookahead = getPlan();
+		lookahead.beginLookahead();
+	}
+
+	/**
+	 * Ends a lookahead, putting back the state of every leaf from before it.
+	 * 
+	 * @throws IllegalStateException If no lookahead has begun
+	 */
+	public void endLookahead() {
+		if (lookahead == null)
+			throw new IllegalStateException("No lookahead has begun.");
+		RMPPlan plan = lookahead;
+		lookahead = null;
+		plan.endLookahead();
+	}
+
+	/**
+	 * Returns whether a lookahead has begun and not ended.
+	 * 
+	 * @return True, if the tree is in a lookahead, or false, otherwise
+	 */
+	public boolean isLookingAhead() {
+		return lookahead != null;
+	}
+
+	@Override
+	void invalidate() {
+		plan = null;
+		super.invalidate();
 	}
 
 	@Override
@@ -49,6 +312,16 @@ public class RMPRoot extends RMPNode {
 		return getA();
 	}
 
+	/**
+	 * In-place version of {@link #resolve()}.
+	 * 
+	 * @param a The matrix to write the desired acceleration to
+	 * @return a, for convenience
+	 */
+	public DMatrixRMaj resolve(DMatrixRMaj a) {
+		return getA(a);
+	}
+
 	/**
 	 * Updates the state of the tree and solves for the desired output.
 	 * 
@@ -58,9 +331,169 @@ public class RMPRoot extends RMPNode {
 	 */
 	public SimpleMatrix solve(SimpleMatrix x, SimpleMatrix x_dot) {
 		// System.out.println("Solving...");
+		beginSolve();
 		setRootState(x, x_dot);
-		pushforward();
-		pullback();
-		return resolve();
+		propagate();
+		if (!profiling)
+			return resolve();
+		long start = System.nanoTime();
+		SimpleMatrix a = resolve();
+		plan.finishSolve(System.nanoTime() - start);
+		return a;
+	}
+
+	/**
+	 * Updates the state of the tree and solves for the desired output without
+	 * allocating.
+	 * <p>
+	 * Every node keeps its own workspaces, which are sized by the first solve and
+	 * reused by later ones. Once the tree has been solved once, this method does
+	 * not allocate as long as every node overrides the in-place task map and
+	 * policy methods.
+	 * 
+	 * @param x     The state
+	 * @param x_dot The differentiated state
+	 * @param a     The matrix to write the desired acceleration to
+	 * @return a, for convenience
+	 */
+	public DMatrixRMaj solve(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj a) {
+		beginSolve();
+		setRootState(x, x_dot);
+		propagate();
+		if (!profiling)
+			return resolve(a);
+		long start = System.nanoTime();
+		resolve(a);
+		plan.finishSolve(System.nanoTime() - start);
+		return a;
+	}
+
+	/**
+	 * Updates the state of the tree and solves for the desired output within a
+	 * time budget.
+	 * <p>
+	 * Leaves are evaluated in descending order of {@link RMPLeaf#getPriority()},
+	 * so safety terms such as collision avoidance come before comfort terms such
+	 * as damping. Leaves with at least the mandatory priority, see
+	 * {@link #setMandatoryPriority(int)}, are always evaluated. Once the budget
+	 * has run out, each remaining leaf reuses the F and M of its last evaluation
+	 * if that was within the stale limit, see {@link #setStaleLimit(int)}, and is
+	 * dropped otherwise. The reused RMPs are still pulled back through the
+	 * Jacobians at the current state.
+	 * <p>
+	 * The budget covers the evaluation of the leaves below the mandatory
+	 * priority. The mandatory leaves, the pullback and the resolve always run to
+	 * completion, so the solve may take longer than the budget. Budgeted solves run on the calling thread and are not
+	 * profiled.
+	 * 
+	 * @param x           The state
+	 * @param x_dot       The differentiated state
+	 * @param a           The matrix to write the desired acceleration to
+	 * @param budgetNanos The time after which no more leaves are evaluated, in
+	 *                    nanoseconds
+	 * @param report      The report to record the evaluated, stale and dropped
+	 *                    leaves in, or null
+	 * @return a, for convenience
+	 */
+	public DMatrixRMaj solve(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj a, long budgetNanos,
+			RMPSolveReport report) {
+		long start = System.nanoTime();
+		if (report != null)
+			report.clear();
+		beginSolve();
+		setRootState(x, x_dot);
+		getPlan().solveBudgeted(start + budgetNanos, staleLimit, mandatoryPriority, report);
+		resolve(a);
+		if (report != null)
+			report.setElapsedNanos(System.nanoTime() - start);
+		return a;
+	}
+
+	/**
+	 * Sets how old an RMP a budgeted solve may reuse for a leaf it has no time
+	 * to evaluate.
+	 * 
+	 * @param solves The number of solves after which an RMP is too old to reuse,
+	 *               or 0 to drop every leaf that is not evaluated
+	 */
+	public void setStaleLimit(int solves) {
+		if (solves < 0)
+			throw new IllegalArgumentException("Stale limit must be non-negative.");
+		staleLimit = solves;
+	}
+
+	/**
+	 * Sets the priority at and above which a budgeted solve evaluates a leaf
+	 * even once the budget has run out, so that leaves such as collision
+	 * avoidance are never stale or dropped. Defaults to
+	 * {@link RMPLeaf#PRIORITY_SAFETY}.
+	 * 
+	 * @param priority The lowest mandatory priority, or one above the priority
+	 *                 of every leaf to let the budget cover every leaf
+	 */
+	public void setMandatoryPriority(int priority) {
+		mandatoryPriority = priority;
+	}
+
+	/**
+	 * Returns how many solves ago a leaf of this tree was last evaluated, for
+	 * diagnosing leaves that are held by their update period or left out of
+	 * budgeted solves.
+	 * 
+	 * @param leaf The leaf
+	 * @return The number of solves, 0 if the last solve evaluated the leaf, or -1
+	 *         if the leaf is not in the tree or has not been evaluated since the
+	 *         tree last changed
+	 * @see RMPLeaf#setUpdatePeriod(int, boolean)
+	 */
+	public long getStaleness(RMPLeaf leaf) {
+		return plan == null ? -1 : plan.getStaleness(leaf);
+	}
+
+	/**
+	 * Pushes the root state forward and pulls the RMPs back using the compiled
+	 * plan.
+	 */
+	private void propagate() {
+		RMPPlan plan = getPlan();
+		RMPProfiler recorder = profiling ? profiler : null;
+		if (plan.getProfiler() != recorder)
+			plan.setProfiler(recorder);
+		if (pool != null && plan.tops.length >= parallelWidth) {
+			plan.solveParallel(pool);
+		} else {
+			plan.pushforward();
+			plan.pullback();
+		}
+	}
+
+	/**
+	 * Solves the tree at many states at once.
+	 * <p>
+	 * States are passed as structure-of-arrays blocks with one column per state,
+	 * so an n-dimensional tree solved at N states takes n x N matrices. Each node
+	 * and leaf is evaluated once for the whole batch through its batched methods,
+	 * such as {@link RMPNode#psiBatch} and {@link RMPLeaf#solveFBatch}, instead of
+	 * walking the tree once per state. The single-state workspaces of the nodes
+	 * are not touched.
+	 * <p>
+	 * The batch workspaces are sized by the first call and reused by later calls
+	 * with the same number of states.
+	 * 
+	 * @param xs     The states, one per column
+	 * @param x_dots The differentiated states, one per column
+	 * @param as     The matrix to write the desired accelerations to, one per
+	 *               column, reshaped as needed
+	 * @return as, for convenience
+	 */
+	public DMatrixRMaj solveBatch(DMatrixRMaj xs, DMatrixRMaj x_dots, DMatrixRMaj as) {
+		if (xs.numRows != x_dots.numRows || xs.numCols != x_dots.numCols)
+			throw new IllegalArgumentException("States and differentiated states must have the same shape.");
+		beginSolve();
+		RMPPlan plan = getPlan();
+		if (batch == null || batch.plan != plan)
+			batch = new RMPBatch(plan);
+		batch.solve(xs, x_dots, as);
+		return as;
 	}
 }
@@ -0,0 +1,132 @@
+package com.titanrobotics2022.motion.generation.rmpflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reports which leaves a budgeted solve evaluated and which it had to leave
+ * out.
+ * <p>
+ * A report is filled in by
+ * {@link RMPRoot#solve(org.ejml.data.DMatrixRMaj, org.ejml.data.DMatrixRMaj, org.ejml.data.DMatrixRMaj, long, RMPSolveReport)}
+ * and cleared at the start of every solve, so one report can be reused for
+ * every control loop iteration without allocating.
+ */
+public class RMPSolveReport {
+	private final ArrayList<RMPLeaf> stale = new ArrayList<>(), dropped = new ArrayList<>();
+	private final List<RMPLeaf> staleView = Collections.unmodifiableList(stale);
+	private final List<RMPLeaf> droppedView = Collections.unmodifiableList(dropped);
+	private int evaluated, negligible, held;
+	private long elapsedNanos;
+
+	void clear() {
+		stale.clear();
+		dropped.clear();
+		evaluated = 0;
+		negligible = 0;
+		held = 0;
+		elapsedNanos = 0;
+	}
+
+	void addEvaluated() {
+		evaluated++;
+	}
+
+	void addNegligible() {
+		negligible++;
+	}
+
+	void addHeld() {
+		held++;
+	}
+
+	void addStale(RMPLeaf leaf) {
+		stale.add(leaf);
+	}
+
+	void addDropped(RMPLeaf leaf) {
+		dropped.add(leaf);
+	}
+
+	void setElapsedNanos(long elapsedNanos) {
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * Returns whether every leaf was evaluated, negligible or held for its
+	 * update period, so the solve is the same as an unbudgeted one.
+	 * 
+	 * @return True, if no leaf was stale or dropped, or false, otherwise
+	 */
+	public boolean isComplete() {
+		return stale.isEmpty() && dropped.isEmpty();
+	}
+
+	/**
+	 * Returns the number of leaves evaluated at the current state.
+	 * 
+	 * @return The number of evaluated leaves
+	 */
+	public int getEvaluatedCount() {
+		return evaluated;
+	}
+
+	/**
+	 * Returns the number of leaves skipped because their RMP was negligible.
+	 * 
+	 * @return The number of negligible leaves
+	 * @see RMPLeaf#isNegligible
+	 */
+	public int getNegligibleCount() {
+		return negligible;
+	}
+
+	/**
+	 * Returns the number of leaves that reused their RMP because their update
+	 * period had not elapsed.
+	 * 
+	 * @return The number of held leaves
+	 * @see RMPLeaf#setUpdatePeriod(int, boolean)
+	 */
+	public int getHeldCount() {
+		return held;
+	}
+
+	/**
+	 * Returns the leaves that were not evaluated in time and contributed the F
+	 * and M of an earlier solve instead. Their RMPs are still pulled back
+	 * through the Jacobians at the current state.
+	 * 
+	 * @return A read-only view of the stale leaves, valid until the next solve
+	 */
+	public List<RMPLeaf> getStaleLeaves() {
+		return staleView;
+	}
+
+	/**
+	 * Returns the leaves that were not evaluated in time and had no recent RMP
+	 * to reuse, so they were left out of the solve.
+	 * 
+	 * @return A read-only view of the dropped leaves, valid until the next solve
+	 */
+	public List<RMPLeaf> getDroppedLeaves() {
+		return droppedView;
+	}
+
+	/**
+	 * Returns the wall-clock time of the solve, including the pullback and the
+	 * resolve that run after the deadline.
+	 * 
+	 * @return The time of the solve in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d evaluated, %d negligible, %d held, %d stale, %d dropped in %.1f us", evaluated,
+				negligible, held, stale.size(), dropped.size(), elapsedNanos / 1e3);
+	}
+}
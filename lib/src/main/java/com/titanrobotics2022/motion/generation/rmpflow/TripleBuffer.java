@@ -0,0 +1,84 @@
+package com.titanrobotics2022.motion.generation.rmpflow;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock-free slot passing the latest value from one writer thread to one
+ * reader thread.
+ * <p>
+ * The writer fills its back buffer and publishes it, and the reader takes the
+ * latest published buffer as its front buffer. The third buffer sits between
+ * them, so neither side ever waits for or overwrites the other. Values the
+ * reader has not taken before the next publish are skipped.
+ * 
+ * @param <T> The type of the buffers
+ */
+final class TripleBuffer<T> {
+	private static final int FRESH = 4; // Set when the middle buffer has not been taken
+	private static final int INDEX = 3;
+	private final Object[] buffers;
+	private final AtomicInteger middle = new AtomicInteger(1);
+	private int back = 0; // Owned by the writer
+	private int front = 2; // Owned by the reader
+
+	/**
+	 * Creates a slot from three buffers.
+	 * 
+	 * @param a The initial back buffer
+	 * @param b The initial middle buffer
+	 * @param c The initial front buffer
+	 */
+	TripleBuffer(T a, T b, T c) {
+		buffers = new Object[] { a, b, c };
+	}
+
+	/**
+	 * Returns the buffer for the writer to fill. Writer only.
+	 * 
+	 * @return The back buffer
+	 */
+	@SuppressWarnings("unchecked")
+	T back() {
+		return (T) buffers[back];
+	}
+
+	/**
+	 * Publishes the back buffer and swaps in a free one. Writer only.
+	 */
+	void publish() {
+		back = middle.getAndSet(back | FRESH) & INDEX;
+	}
+
+	/**
+	 * Takes the latest published buffer as the front buffer, if one was
+	 * published since the last call. Reader only.
+	 * 
+	 * @return True, if the front buffer changed, or false, otherwise
+	 */
+	boolean update() {
+		if ((middle.get() & FRESH) == 0)
+			return false;
+		front = middle.getAndSet(front) & INDEX;
+		return true;
+	}
+
+	/**
+	 * Returns whether a buffer was published that the reader has not taken.
+	 * Safe to call from either thread.
+	 * 
+	 * @return True, if the next update will change the front buffer
+	 */
+	boolean hasFresh() {
+		return (middle.get() & FRESH) != 0;
+	}
+
+	/**
+	 * Returns the buffer the reader last took. Reader only.
+	 * 
+	 * @return The front buffer
+	 */
+	@SuppressWarnings("unchecked")
+	T front() {
+		return (T) buffers[front];
+	}
+}
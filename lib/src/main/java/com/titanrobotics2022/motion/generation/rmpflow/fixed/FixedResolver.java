@@ -0,0 +1,147 @@
+package com.titanrobotics2022.motion.generation.rmpflow.fixed;
+
+import org.ejml.data.DMatrixFixed;
+import org.ejml.data.DMatrix2x2;
+import org.ejml.data.DMatrix3x3;
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.fixed.CommonOps_DDF2;
+import org.ejml.dense.fixed.CommonOps_DDF3;
+import org.ejml.dense.row.factory.LinearSolverFactory_DDRM;
+import org.ejml.interfaces.linsol.LinearSolverDense;
+
+/**
+ * Inverts the inertia matrix accumulated by {@link RMPRoot2D} and
+ * {@link RMPRoot3D}.
+ * <p>
+ * A well conditioned M is inverted in closed form. Round-off almost never
+ * makes a singular M exactly singular, so the closed form inverse of a rank
+ * deficient M is usually finite but meaningless, and M is judged by an
+ * estimate of its condition number instead. As in the dynamic tree's
+ * Cholesky solve, the estimate is the ratio of the largest to the smallest
+ * pivot of an LDLT factorization of M, the squared diagonal of its Cholesky
+ * factor. The factorization pivots on the largest remaining diagonal entry,
+ * so the last pivot reveals a small eigenvalue however M is oriented. Above
+ * {@link #MAX_CONDITION}, the Moore-Penrose pseudoinverse is used.
+ */
+final class FixedResolver {
+	/** The largest estimated condition number of M that is inverted directly. */
+	static final double MAX_CONDITION = 1e12;
+
+	private final DMatrixRMaj dense, inverse;
+	private final double[] factor;
+	private final LinearSolverDense<DMatrixRMaj> pinv = LinearSolverFactory_DDRM.pseudoInverse(true);
+	private boolean fellBack = false;
+
+	/**
+	 * A resolver for n-by-n inertia matrices.
+	 * 
+	 * @param n The dimension of the configuration space
+	 */
+	FixedResolver(int n) {
+		dense = new DMatrixRMaj(n, n);
+		inverse = new DMatrixRMaj(n, n);
+		factor = new double[n * n];
+	}
+
+	/**
+	 * Inverts a 2-by-2 inertia matrix, or pseudo-inverts it if it is singular or
+	 * poorly conditioned.
+	 * 
+	 * @param m   The inertia matrix
+	 * @param out The matrix to write M† to
+	 */
+	void invert(DMatrix2x2 m, DMatrix2x2 out) {
+		fellBack = !wellConditioned(m) || !CommonOps_DDF2.invert(m, out);
+		if (fellBack)
+			pseudoinvert(m, out);
+	}
+
+	/**
+	 * Inverts a 3-by-3 inertia matrix, or pseudo-inverts it if it is singular or
+	 * poorly conditioned.
+	 * 
+	 * @param m   The inertia matrix
+	 * @param out The matrix to write M† to
+	 */
+	void invert(DMatrix3x3 m, DMatrix3x3 out) {
+		fellBack = !wellConditioned(m) || !CommonOps_DDF3.invert(m, out);
+		if (fellBack)
+			pseudoinvert(m, out);
+	}
+
+	/**
+	 * Factors M with symmetric pivoting and compares its largest and smallest
+	 * pivots.
+	 * 
+	 * @param m The inertia matrix
+	 * @return True, if the condition number estimate is at most
+	 *         {@link #MAX_CONDITION}, or false, otherwise, including when M is
+	 *         singular or not finite
+	 */
+	private boolean wellConditioned(DMatrixFixed m) {
+		int n = dense.numRows;
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < n; j++)
+				factor[i * n + j] = m.unsafe_get(i, j);
+		double first = 0, pivot = 0;
+		for (int k = 0; k < n; k++) {
+			int p = k;
+			for (int i = k + 1; i < n; i++)
+				if (factor[i * n + i] > factor[p * n + p])
+					p = i;
+			swap(k, p);
+			pivot = factor[k * n + k];
+			if (!(pivot > 0))
+				return false;
+			if (k == 0)
+				first = pivot;
+			for (int i = k + 1; i < n; i++) {
+				double l = factor[i * n + k] / pivot;
+				for (int j = k + 1; j < n; j++)
+					factor[i * n + j] -= l * factor[k * n + j];
+			}
+		}
+		// The pivots of a positive semi-definite matrix never grow
+		return first <= MAX_CONDITION * pivot;
+	}
+
+	/**
+	 * Swaps two rows and the same two columns of the factor.
+	 */
+	private void swap(int a, int b) {
+		int n = dense.numRows;
+		if (a == b)
+			return;
+		for (int j = 0; j < n; j++) {
+			double t = factor[a * n + j];
+			factor[a * n + j] = factor[b * n + j];
+			factor[b * n + j] = t;
+		}
+		for (int i = 0; i < n; i++) {
+			double t = factor[i * n + a];
+			factor[i * n + a] = factor[i * n + b];
+			factor[i * n + b] = t;
+		}
+	}
+
+	private void pseudoinvert(DMatrixFixed m, DMatrixFixed out) {
+		int n = dense.numRows;
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < n; j++)
+				dense.unsafe_set(i, j, m.unsafe_get(i, j));
+		pinv.setA(dense);
+		pinv.invert(inverse);
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < n; j++)
+				out.unsafe_set(i, j, inverse.unsafe_get(i, j));
+	}
+
+	/**
+	 * Returns whether the last inversion fell back on the pseudoinverse.
+	 * 
+	 * @return True, if M was singular or poorly conditioned, or false, otherwise
+	 */
+	boolean usedPseudoinverse() {
+		return fellBack;
+	}
+}
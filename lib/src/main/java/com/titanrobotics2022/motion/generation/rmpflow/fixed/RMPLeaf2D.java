@@ -0,0 +1,45 @@
+package com.titanrobotics2022.motion.generation.rmpflow.fixed;
+
+import org.ejml.data.DMatrix2;
+import org.ejml.data.DMatrix2x2;
+
+/**
+ * A leaf of an {@link RMPRoot2D}.
+ * <p>
+ * Extend {@link RMPVectorLeaf2D} for leaves with a 2-D task space and
+ * {@link RMPScalarLeaf2D} for leaves with a 1-D task space, such as distances.
+ */
+public abstract class RMPLeaf2D {
+	private final String name;
+
+	/**
+	 * A leaf attached to the root of a 2-D RMP tree.
+	 * 
+	 * @param name   of leaf node
+	 * @param parent of leaf node
+	 */
+	RMPLeaf2D(String name, RMPRoot2D parent) {
+		this.name = name;
+		parent.linkLeaf(this);
+	}
+
+	/**
+	 * Returns the name of this leaf.
+	 * 
+	 * @return The name of this leaf
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Pushes the root state forward to this leaf, evaluates its RMP and adds the
+	 * RMP, pulled back through the task map, to the root's RMP.
+	 * 
+	 * @param q     The root state
+	 * @param q_dot The differentiated root state
+	 * @param pf    The root's force motion policy to add to
+	 * @param pm    The root's inertia matrix to add to
+	 */
+	abstract void accumulate(DMatrix2 q, DMatrix2 q_dot, DMatrix2 pf, DMatrix2x2 pm);
+}
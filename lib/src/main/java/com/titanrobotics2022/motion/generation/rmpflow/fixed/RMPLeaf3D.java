@@ -0,0 +1,45 @@
+package com.titanrobotics2022.motion.generation.rmpflow.fixed;
+
+import org.ejml.data.DMatrix3;
+import org.ejml.data.DMatrix3x3;
+
+/**
+ * A leaf of an {@link RMPRoot3D}.
+ * <p>
+ * Extend {@link RMPVectorLeaf3D} for leaves with a 3-D task space and
+ * {@link RMPScalarLeaf3D} for leaves with a 1-D task space, such as distances.
+ */
+public abstract class RMPLeaf3D {
+	private final String name;
+
+	/**
+	 * A leaf attached to the root of a 3-D RMP tree.
+	 * 
+	 * @param name   of leaf node
+	 * @param parent of leaf node
+	 */
+	RMPLeaf3D(String name, RMPRoot3D parent) {
+		this.name = name;
+		parent.linkLeaf(this);
+	}
+
+	/**
+	 * Returns the name of this leaf.
+	 * 
+	 * @return The name of this leaf
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Pushes the root state forward to this leaf, evaluates its RMP and adds the
+	 * RMP, pulled back through the task map, to the root's RMP.
+	 * 
+	 * @param q     The root state
+	 * @param q_dot The differentiated root state
+	 * @param pf    The root's force motion policy to add to
+	 * @param pm    The root's inertia matrix to add to
+	 */
+	abstract void accumulate(DMatrix3 q, DMatrix3 q_dot, DMatrix3 pf, DMatrix3x3 pm);
+}
@@ -0,0 +1,129 @@
+package com.titanrobotics2022.motion.generation.rmpflow.fixed;
+
+import static org.ejml.dense.fixed.CommonOps_DDF2.*;
+
+import java.util.ArrayList;
+
+import org.ejml.data.DMatrix2;
+import org.ejml.data.DMatrix2x2;
+
+/**
+ * The root of a flat RMP tree over a 2-D configuration space.
+ * <p>
+ * This is a fixed-size counterpart of
+ * {@link com.titanrobotics2022.motion.generation.rmpflow.RMPRoot} for planar
+ * robots. Every leaf is attached directly to the root and every quantity is a
+ * {@link DMatrix2} or {@link DMatrix2x2}, so the pushforward and pullback are
+ * unrolled scalar code that never allocates.
+ */
+public class RMPRoot2D {
+	private final String name;
+	private final ArrayList<RMPLeaf2D> leaves = new ArrayList<RMPLeaf2D>();
+	private final DMatrix2 x = new DMatrix2(), x_dot = new DMatrix2();
+	private final DMatrix2 f = new DMatrix2();
+	private final DMatrix2x2 m = new DMatrix2x2(), mInv = new DMatrix2x2();
+	private final FixedResolver resolver = new FixedResolver(2);
+
+	/**
+	 * A root of a 2-D RMP tree.
+	 * 
+	 * @param name The name of the tree
+	 */
+	public RMPRoot2D(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Adds a leaf to the tree. Called by the leaf's constructor.
+	 * 
+	 * @param leaf The leaf to add
+	 */
+	void linkLeaf(RMPLeaf2D leaf) {
+		leaves.add(leaf);
+	}
+
+	/**
+	 * Removes a leaf from the tree.
+	 * 
+	 * @param leaf The leaf to remove
+	 * @return True, if the leaf was part of the tree, or false, otherwise
+	 */
+	public boolean unlinkLeaf(RMPLeaf2D leaf) {
+		return leaves.remove(leaf);
+	}
+
+	/**
+	 * Updates the state of the tree and solves for the desired acceleration.
+	 * 
+	 * @param x     The state
+	 * @param x_dot The differentiated state
+	 * @param a     The vector to write the desired acceleration to
+	 * @return a, for convenience
+	 */
+	public DMatrix2 solve(DMatrix2 x, DMatrix2 x_dot, DMatrix2 a) {
+		this.x.setTo(x);
+		this.x_dot.setTo(x_dot);
+		fill(f, 0);
+		fill(m, 0);
+		for (int i = 0; i < leaves.size(); i++) {
+			RMPLeaf2D leaf = leaves.get(i);
+			if (leaf.getName() != null)
+				leaf.accumulate(this.x, this.x_dot, f, m);
+		}
+		return resolve(a);
+	}
+
+	/**
+	 * Maps the accumulated RMP from its natural form to its canonical form,
+	 * a = M†f.
+	 * <p>
+	 * M is inverted in closed form unless it is singular or poorly conditioned,
+	 * in which case its pseudoinverse is used, see {@link FixedResolver}.
+	 * 
+	 * @param a The vector to write the desired acceleration to
+	 * @return a, for convenience
+	 */
+	public DMatrix2 resolve(DMatrix2 a) {
+		resolver.invert(m, mInv);
+		mult(mInv, f, a);
+		return a;
+	}
+
+	/**
+	 * Returns the name of the tree.
+	 * 
+	 * @return The name of the tree
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Copies the force motion policy accumulated by the last solve.
+	 * 
+	 * @param out The vector to write f to
+	 */
+	public void getF(DMatrix2 out) {
+		out.setTo(f);
+	}
+
+	/**
+	 * Copies the inertia matrix accumulated by the last solve.
+	 * 
+	 * @param out The matrix to write M to
+	 */
+	public void getM(DMatrix2x2 out) {
+		out.setTo(m);
+	}
+
+	/**
+	 * Returns whether the last resolve had to fall back on the pseudoinverse
+	 * because M was singular or poorly conditioned.
+	 * 
+	 * @return True, if the last resolve used the pseudoinverse, or false,
+	 *         otherwise
+	 */
+	boolean resolvedWithPseudoinverse() {
+		return resolver.usedPseudoinverse();
+	}
+}
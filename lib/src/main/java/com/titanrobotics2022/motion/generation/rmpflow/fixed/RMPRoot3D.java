@@ -0,0 +1,130 @@
+package com.titanrobotics2022.motion.generation.rmpflow.fixed;
+
+import static org.ejml.dense.fixed.CommonOps_DDF3.*;
+
+import java.util.ArrayList;
+
+import org.ejml.data.DMatrix3;
+import org.ejml.data.DMatrix3x3;
+
+/**
+ * The root of a flat RMP tree over a 3-D configuration space.
+ * <p>
+ * This is a fixed-size counterpart of
+ * {@link com.titanrobotics2022.motion.generation.rmpflow.RMPRoot} for planar
+ * robots whose configuration includes their heading, such as (x, y, theta).
+ * Every leaf is attached directly to the root and every quantity is a
+ * {@link DMatrix3} or {@link DMatrix3x3}, so the pushforward and pullback are
+ * unrolled scalar code that never allocates.
+ */
+public class RMPRoot3D {
+	private final String name;
+	private final ArrayList<RMPLeaf3D> leaves = new ArrayList<RMPLeaf3D>();
+	private final DMatrix3 x = new DMatrix3(), x_dot = new DMatrix3();
+	private final DMatrix3 f = new DMatrix3();
+	private final DMatrix3x3 m = new DMatrix3x3(), mInv = new DMatrix3x3();
+	private final FixedResolver resolver = new FixedResolver(3);
+
+	/**
+	 * A root of a 3-D RMP tree.
+	 * 
+	 * @param name The name of the tree
+	 */
+	public RMPRoot3D(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Adds a leaf to the tree. Called by the leaf's constructor.
+	 * 
+	 * @param leaf The leaf to add
+	 */
+	void linkLeaf(RMPLeaf3D leaf) {
+		leaves.add(leaf);
+	}
+
+	/**
+	 * Removes a leaf from the tree.
+	 * 
+	 * @param leaf The leaf to remove
+	 * @return True, if the leaf was part of the tree, or false, otherwise
+	 */
+	public boolean unlinkLeaf(RMPLeaf3D leaf) {
+		return leaves.remove(leaf);
+	}
+
+	/**
+	 * Updates the state of the tree and solves for the desired acceleration.
+	 * 
+	 * @param x     The state
+	 * @param x_dot The differentiated state
+	 * @param a     The vector to write the desired acceleration to
+	 * @return a, for convenience
+	 */
+	public DMatrix3 solve(DMatrix3 x, DMatrix3 x_dot, DMatrix3 a) {
+		this.x.setTo(x);
+		this.x_dot.setTo(x_dot);
+		fill(f, 0);
+		fill(m, 0);
+		for (int i = 0; i < leaves.size(); i++) {
+			RMPLeaf3D leaf = leaves.get(i);
+			if (leaf.getName() != null)
+				leaf.accumulate(this.x, this.x_dot, f, m);
+		}
+		return resolve(a);
+	}
+
+	/**
+	 * Maps the accumulated RMP from its natural form to its canonical form,
+	 * a = M†f.
+	 * <p>
+	 * M is inverted in closed form unless it is singular or poorly conditioned,
+	 * in which case its pseudoinverse is used, see {@link FixedResolver}.
+	 * 
+	 * @param a The vector to write the desired acceleration to
+	 * @return a, for convenience
+	 */
+	public DMatrix3 resolve(DMatrix3 a) {
+		resolver.invert(m, mInv);
+		mult(mInv, f, a);
+		return a;
+	}
+
+	/**
+	 * Returns the name of the tree.
+	 * 
+	 * @return The name of the tree
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Copies the force motion policy accumulated by the last solve.
+	 * 
+	 * @param out The vector to write f to
+	 */
+	public void getF(DMatrix3 out) {
+		out.setTo(f);
+	}
+
+	/**
+	 * Copies the inertia matrix accumulated by the last solve.
+	 * 
+	 * @param out The matrix to write M to
+	 */
+	public void getM(DMatrix3x3 out) {
+		out.setTo(m);
+	}
+
+	/**
+	 * Returns whether the last resolve had to fall back on the pseudoinverse
+	 * because M was singular or poorly conditioned.
+	 * 
+	 * @return True, if the last resolve used the pseudoinverse, or false,
+	 *         otherwise
+	 */
+	boolean resolvedWithPseudoinverse() {
+		return resolver.usedPseudoinverse();
+	}
+}
@@ -0,0 +1,87 @@
+package com.titanrobotics2022.motion.generation.rmpflow.fixed;
+
+import static org.ejml.dense.fixed.CommonOps_DDF2.*;
+
+import org.ejml.data.DMatrix2;
+import org.ejml.data.DMatrix2x2;
+
+/**
+ * A leaf of an {@link RMPRoot2D} whose task space is 1-D.
+ * <p>
+ * The Jacobian of a scalar task map is a row vector, stored as a
+ * {@link DMatrix2}, and the RMP itself is a pair of scalars.
+ */
+public abstract class RMPScalarLeaf2D extends RMPLeaf2D {
+	private final DMatrix2 jac = new DMatrix2(), jacDot = new DMatrix2();
+
+	/**
+	 * A leaf with a 1-D task space.
+	 * 
+	 * @param name   of leaf node
+	 * @param parent of leaf node
+	 */
+	public RMPScalarLeaf2D(String name, RMPRoot2D parent) {
+		super(name, parent);
+	}
+
+	/**
+	 * Differentiable task map that relates the configuration space to the task
+	 * space.
+	 * 
+	 * @param q The configuration space
+	 * @return The task space
+	 */
+	public abstract double psi(DMatrix2 q);
+
+	/**
+	 * Jacobian of the task map psi
+	 * 
+	 * @param q   The configuration space
+	 * @param out The gradient of the task map psi
+	 */
+	public abstract void j(DMatrix2 q, DMatrix2 out);
+
+	/**
+	 * Time derivative of the Jacobian of the task map psi
+	 * 
+	 * @param q     The configuration space
+	 * @param q_dot The differentiated configuration space
+	 * @param out   The time derivative of the gradient
+	 */
+	public abstract void j_dot(DMatrix2 q, DMatrix2 q_dot, DMatrix2 out);
+
+	/**
+	 * Solves for F, the force motion policy.
+	 * 
+	 * @param x     The leaf state in task space
+	 * @param x_dot The leaf differentiated state in task space
+	 * @return F, the force motion policy
+	 */
+	protected abstract double solveF(double x, double x_dot);
+
+	/**
+	 * Solves for M, the inertia matrix.
+	 * 
+	 * @param x     The leaf state in task space
+	 * @param x_dot The leaf differentiated state in task space
+	 * @return M, the inertia matrix
+	 */
+	protected abstract double solveM(double x, double x_dot);
+
+	@Override
+	final void accumulate(DMatrix2 q, DMatrix2 q_dot, DMatrix2 pf, DMatrix2x2 pm) {
+		double x = psi(q);
+		j(q, jac);
+		double x_dot = dot(jac, q_dot);
+		j_dot(q, q_dot, jacDot);
+		double m = solveM(x, x_dot);
+		double f = solveF(x, x_dot);
+
+		// f + JT * (f - (m * J_dot * x_dot))
+		double rhs = f - m * dot(jacDot, q_dot);
+		pf.a1 += jac.a1 * rhs;
+		pf.a2 += jac.a2 * rhs;
+		// JT * M * J
+		multAddOuter(1, pm, m, jac, jac, pm);
+	}
+}
@@ -0,0 +1,88 @@
+package com.titanrobotics2022.motion.generation.rmpflow.fixed;
+
+import static org.ejml.dense.fixed.CommonOps_DDF3.*;
+
+import org.ejml.data.DMatrix3;
+import org.ejml.data.DMatrix3x3;
+
+/**
+ * A leaf of an {@link RMPRoot3D} whose task space is 1-D.
+ * <p>
+ * The Jacobian of a scalar task map is a row vector, stored as a
+ * {@link DMatrix3}, and the RMP itself is a pair of scalars.
+ */
+public abstract class RMPScalarLeaf3D extends RMPLeaf3D {
+	private final DMatrix3 jac = new DMatrix3(), jacDot = new DMatrix3();
+
+	/**
+	 * A leaf with a 1-D task space.
+	 * 
+	 * @param name   of leaf node
+	 * @param parent of leaf node
+	 */
+	public RMPScalarLeaf3D(String name, RMPRoot3D parent) {
+		super(name, parent);
+	}
+
+	/**
+	 * Differentiable task map that relates the configuration space to the task
+	 * space.
+	 * 
+	 * @param q The configuration space
+	 * @return The task space
+	 */
+	public abstract double psi(DMatrix3 q);
+
+	/**
+	 * Jacobian of the task map psi
+	 * 
+	 * @param q   The configuration space
+	 * @param out The gradient of the task map psi
+	 */
+	public abstract void j(DMatrix3 q, DMatrix3 out);
+
+	/**
+	 * Time derivative of the Jacobian of the task map psi
+	 * 
+	 * @param q     The configuration space
+	 * @param q_dot The differentiated configuration space
+	 * @param out   The time derivative of the gradient
+	 */
+	public abstract void j_dot(DMatrix3 q, DMatrix3 q_dot, DMatrix3 out);
+
+	/**
+	 * Solves for F, the force motion policy.
+	 * 
+	 * @param x     The leaf state in task space
+	 * @param x_dot The leaf differentiated state in task space
+	 * @return F, the force motion policy
+	 */
+	protected abstract double solveF(double x, double x_dot);
+
+	/**
+	 * Solves for M, the inertia matrix.
+	 * 
+	 * @param x     The leaf state in task space
+	 * @param x_dot The leaf differentiated state in task space
+	 * @return M, the inertia matrix
+	 */
+	protected abstract double solveM(double x, double x_dot);
+
+	@Override
+	final void accumulate(DMatrix3 q, DMatrix3 q_dot, DMatrix3 pf, DMatrix3x3 pm) {
+		double x = psi(q);
+		j(q, jac);
+		double x_dot = dot(jac, q_dot);
+		j_dot(q, q_dot, jacDot);
+		double m = solveM(x, x_dot);
+		double f = solveF(x, x_dot);
+
+		// f + JT * (f - (m * J_dot * x_dot))
+		double rhs = f - m * dot(jacDot, q_dot);
+		pf.a1 += jac.a1 * rhs;
+		pf.a2 += jac.a2 * rhs;
+		pf.a3 += jac.a3 * rhs;
+		// JT * M * J
+		multAddOuter(1, pm, m, jac, jac, pm);
+	}
+}
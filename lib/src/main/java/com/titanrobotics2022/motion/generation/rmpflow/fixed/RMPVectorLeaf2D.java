@@ -0,0 +1,118 @@
+package com.titanrobotics2022.motion.generation.rmpflow.fixed;
+
+import static org.ejml.dense.fixed.CommonOps_DDF2.*;
+
+import org.ejml.data.DMatrix2;
+import org.ejml.data.DMatrix2x2;
+
+/**
+ * A leaf of an {@link RMPRoot2D} whose task space is 2-D.
+ * <p>
+ * The task map defaults to the identity, so leaves that act directly on the
+ * configuration space only need to implement the policy.
+ */
+public abstract class RMPVectorLeaf2D extends RMPLeaf2D {
+	private final DMatrix2 x = new DMatrix2(), x_dot = new DMatrix2();
+	private final DMatrix2 f = new DMatrix2();
+	private final DMatrix2x2 m = new DMatrix2x2();
+	// Pullback workspaces, see RMPNode
+	private final DMatrix2x2 jac = new DMatrix2x2(), jacDot = new DMatrix2x2();
+	private final DMatrix2x2 mJac = new DMatrix2x2();
+	private final DMatrix2 curv = new DMatrix2(), rhs = new DMatrix2(), pulled = new DMatrix2();
+
+	/**
+	 * A leaf with a 2-D task space.
+	 * 
+	 * @param name   of leaf node
+	 * @param parent of leaf node
+	 */
+	public RMPVectorLeaf2D(String name, RMPRoot2D parent) {
+		super(name, parent);
+	}
+
+	/**
+	 * Differentiable task map that relates the configuration space to the task
+	 * space.
+	 * 
+	 * @param q   The configuration space
+	 * @param out The task space
+	 */
+	public void psi(DMatrix2 q, DMatrix2 out) {
+		out.setTo(q);
+	}
+
+	/**
+	 * Jacobian of the task map psi
+	 * 
+	 * @param q   The configuration space
+	 * @param out The Jacobian of the task map psi
+	 */
+	public void j(DMatrix2 q, DMatrix2x2 out) {
+		setIdentity(out);
+	}
+
+	/**
+	 * Time derivative of the Jacobian of the task map psi
+	 * 
+	 * @param q     The configuration space
+	 * @param q_dot The differentiated configuration space
+	 * @param out   The time derivative of the Jacobian
+	 */
+	public void j_dot(DMatrix2 q, DMatrix2 q_dot, DMatrix2x2 out) {
+		fill(out, 0);
+	}
+
+	/**
+	 * Solves for F, the force motion policy.
+	 * 
+	 * @param x     The leaf state in task space
+	 * @param x_dot The leaf differentiated state in task space
+	 * @param out   F, the force motion policy
+	 */
+	protected abstract void solveF(DMatrix2 x, DMatrix2 x_dot, DMatrix2 out);
+
+	/**
+	 * Solves for M, the inertia matrix.
+	 * 
+	 * @param x     The leaf state in task space
+	 * @param x_dot The leaf differentiated state in task space
+	 * @param out   M, the inertia matrix
+	 */
+	protected abstract void solveM(DMatrix2 x, DMatrix2 x_dot, DMatrix2x2 out);
+
+	/**
+	 * Solves for both F and M at once.
+	 * <p>
+	 * The default implementation calls {@link #solveM} and then
+	 * {@link #solveF}. Leaves whose F and M share intermediate terms can
+	 * override it to compute those terms once.
+	 * 
+	 * @param x     The leaf state in task space
+	 * @param x_dot The leaf differentiated state in task space
+	 * @param fOut  F, the force motion policy
+	 * @param mOut  M, the inertia matrix
+	 */
+	protected void evaluate(DMatrix2 x, DMatrix2 x_dot, DMatrix2 fOut, DMatrix2x2 mOut) {
+		solveM(x, x_dot, mOut);
+		solveF(x, x_dot, fOut);
+	}
+
+	@Override
+	final void accumulate(DMatrix2 q, DMatrix2 q_dot, DMatrix2 pf, DMatrix2x2 pm) {
+		psi(q, x);
+		j(q, jac);
+		mult(jac, q_dot, x_dot);
+		j_dot(q, q_dot, jacDot);
+		evaluate(x, x_dot, f, m);
+
+		// f + JT * (f - (m * J_dot * x_dot))
+		mult(jacDot, q_dot, curv);
+		mult(m, curv, rhs);
+		subtract(f, rhs, rhs);
+		mult(rhs, jac, pulled); // (rhsT * J)T = JT * rhs
+		addEquals(pf, pulled);
+		// JT * M * J
+		mult(m, jac, mJac);
+		multAddTransA(jac, mJac, pm);
+	}
+}
@@ -0,0 +1,118 @@
+package com.titanrobotics2022.motion.generation.rmpflow.fixed;
+
+import static org.ejml.dense.fixed.CommonOps_DDF3.*;
+
+import org.ejml.data.DMatrix3;
+import org.ejml.data.DMatrix3x3;
+
+/**
+ * A leaf of an {@link RMPRoot3D} whose task space is 3-D.
+ * <p>
+ * The task map defaults to the identity, so leaves that act directly on the
+ * configuration space only need to implement the policy.
+ */
+public abstract class RMPVectorLeaf3D extends RMPLeaf3D {
+	private final DMatrix3 x = new DMatrix3(), x_dot = new DMatrix3();
+	private final DMatrix3 f = new DMatrix3();
+	private final DMatrix3x3 m = new DMatrix3x3();
+	// Pullback workspaces, see RMPNode
+	private final DMatrix3x3 jac = new DMatrix3x3(), jacDot = new DMatrix3x3();
+	private final DMatrix3x3 mJac = new DMatrix3x3();
+	private final DMatrix3 curv = new DMatrix3(), rhs = new DMatrix3(), pulled = new DMatrix3();
+
+	/**
+	 * A leaf with a 3-D task space.
+	 * 
+	 * @param name   of leaf node
+	 * @param parent of leaf node
+	 */
+	public RMPVectorLeaf3D(String name, RMPRoot3D parent) {
+		super(name, parent);
+	}
+
+	/**
+	 * Differentiable task map that relates the configuration space to the task
+	 * space.
+	 * 
+	 * @param q   The configuration space
+	 * @param out The task space
+	 */
+	public void psi(DMatrix3 q, DMatrix3 out) {
+		out.setTo(q);
+	}
+
+	/**
+	 * Jacobian of the task map psi
+	 * 
+	 * @param q   The configuration space
+	 * @param out The Jacobian of the task map psi
+	 */
+	public void j(DMatrix3 q, DMatrix3x3 out) {
+		setIdentity(out);
+	}
+
+	/**
+	 * Time derivative of the Jacobian of the task map psi
+	 * 
+	 * @param q     The configuration space
+	 * @param q_dot The differentiated configuration space
+	 * @param out   The time derivative of the Jacobian
+	 */
+	public void j_dot(DMatrix3 q, DMatrix3 q_dot, DMatrix3x3 out) {
+		fill(out, 0);
+	}
+
+	/**
+	 * Solves for F, the force motion policy.
+	 * 
+	 * @param x     The leaf state in task space
+	 * @param x_dot The leaf differentiated state in task space
+	 * @param out   F, the force motion policy
+	 */
+	protected abstract void solveF(DMatrix3 x, DMatrix3 x_dot, DMatrix3 out);
+
+	/**
+	 * Solves for M, the inertia matrix.
+	 * 
+	 * @param x     The leaf state in task space
+	 * @param x_dot The leaf differentiated state in task space
+	 * @param out   M, the inertia matrix
+	 */
+	protected abstract void solveM(DMatrix3 x, DMatrix3 x_dot, DMatrix3x3 out);
+
+	/**
+	 * Solves for both F and M at once.
+	 * <p>
+	 * The default implementation calls {@link #solveM} and then
+	 * {@link #solveF}. Leaves whose F and M share intermediate terms can
+	 * override it to compute those terms once.
+	 * 
+	 * @param x     The leaf state in task space
+	 * @param x_dot The leaf differentiated state in task space
+	 * @param fOut  F, the force motion policy
+	 * @param mOut  M, the inertia matrix
+	 */
+	protected void evaluate(DMatrix3 x, DMatrix3 x_dot, DMatrix3 fOut, DMatrix3x3 mOut) {
+		solveM(x, x_dot, mOut);
+		solveF(x, x_dot, fOut);
+	}
+
+	@Override
+	final void accumulate(DMatrix3 q, DMatrix3 q_dot, DMatrix3 pf, DMatrix3x3 pm) {
+		psi(q, x);
+		j(q, jac);
+		mult(jac, q_dot, x_dot);
+		j_dot(q, q_dot, jacDot);
+		evaluate(x, x_dot, f, m);
+
+		// f + JT * (f - (m * J_dot * x_dot))
+		mult(jacDot, q_dot, curv);
+		mult(m, curv, rhs);
+		subtract(f, rhs, rhs);
+		mult(rhs, jac, pulled); // (rhsT * J)T = JT * rhs
+		addEquals(pf, pulled);
+		// JT * M * J
+		mult(m, jac, mJac);
+		multAddTransA(jac, mJac, pm);
+	}
+}
@@ -0,0 +1,103 @@
+package com.titanrobotics2022.motion.generation.rmpflow.rmps;
+
+import com.titanrobotics2022.motion.generation.rmpflow.RMPNode;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.simple.SimpleMatrix;
+
+/**
+ * Selects the position of one agent from the state of a multi-agent tree.
+ * <p>
+ * The configuration of a team of planar agents is the concatenation of their
+ * positions, so agent i occupies rows 2i and 2i + 1 of the root state. This
+ * node maps the root state to those two rows, so that leaves written for a
+ * single robot, such as {@link GoalAttractor} or {@link PathFollowing}, can
+ * be attached to each agent of the team.
+ */
+public class AgentBlock extends RMPNode {
+	private final int agent;
+
+	/**
+	 * Creates a node selecting the position of an agent.
+	 * 
+	 * @param name   The name of the node
+	 * @param parent The parent node, whose state holds every agent
+	 * @param agent  The index of the agent
+	 */
+	public AgentBlock(String name, RMPNode parent, int agent) {
+		super(name, parent);
+		if (agent < 0)
+			throw new IllegalArgumentException("Agent index must be non-negative.");
+		this.agent = agent;
+		setSparseJacobian(2 * agent, 2 * agent + 1);
+	}
+
+	/**
+	 * Returns the index of the selected agent.
+	 * 
+	 * @return The index of the agent
+	 */
+	public int getAgent() {
+		return agent;
+	}
+
+	/**
+	 * R^2N to R^2 Task Map
+	 * 
+	 * x = psi(q) = q_i
+	 * 
+	 * @param q The positions of every agent
+	 * @return The position of the selected agent
+	 */
+	public SimpleMatrix psi(SimpleMatrix q) {
+		DMatrixRMaj out = new DMatrixRMaj(1, 1);
+		psi(q.getDDRM(), out);
+		return SimpleMatrix.wrap(out);
+	}
+
+	@Override
+	public void psi(DMatrixRMaj q, DMatrixRMaj out) {
+		out.reshape(2, 1);
+		out.data[0] = q.data[2 * agent];
+		out.data[1] = q.data[2 * agent + 1];
+	}
+
+	/**
+	 * Jacobian of psi, a 2 x 2N matrix with an identity block in the columns of
+	 * the selected agent.
+	 * 
+	 * @param q The positions of every agent
+	 * @return The Jacobian of psi
+	 */
+	public SimpleMatrix j(SimpleMatrix q) {
+		DMatrixRMaj out = new DMatrixRMaj(1, 1);
+		j(q.getDDRM(), out);
+		return SimpleMatrix.wrap(out);
+	}
+
+	@Override
+	public void j(DMatrixRMaj q, DMatrixRMaj out) {
+		int n = q.getNumElements();
+		out.reshape(2, n);
+		out.zero();
+		out.data[2 * agent] = 1;
+		out.data[n + 2 * agent + 1] = 1;
+	}
+
+	/**
+	 * The task map is linear, so the derivative of its Jacobian is zero.
+	 * 
+	 * @param q     The positions of every agent
+	 * @param q_dot The velocities of every agent
+	 * @return A 2 x 2N zero matrix
+	 */
+	public SimpleMatrix j_dot(SimpleMatrix q, SimpleMatrix q_dot) {
+		return new SimpleMatrix(2, q.getNumElements());
+	}
+
+	@Override
+	public void j_dot(DMatrixRMaj q, DMatrixRMaj q_dot, DMatrixRMaj out) {
+		out.reshape(2, q.getNumElements());
+		out.zero();
+	}
+}
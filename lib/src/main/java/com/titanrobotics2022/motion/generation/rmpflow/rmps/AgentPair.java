@@ -0,0 +1,123 @@
+package com.titanrobotics2022.motion.generation.rmpflow.rmps;
+
+import com.titanrobotics2022.motion.generation.rmpflow.RMPNode;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.simple.SimpleMatrix;
+
+/**
+ * Maps the state of a multi-agent tree to the position of one agent relative
+ * to another.
+ * <p>
+ * A {@link CollisionAvoidance} leaf centered at the origin below this node
+ * keeps the two agents apart, and its force is pulled back into both of them,
+ * as in Section 3.1 Pairwise Collision Avoidance from
+ * <a href="https://arxiv.org/abs/1902.05177">Multi-Objective Policy Generation
+ * for Multi-Robot Systems Using Riemannian Motion Policies</a>.
+ * 
+ * @see AgentBlock
+ * @see MultiAgentAvoidance
+ */
+public class AgentPair extends RMPNode {
+	private final int first, second;
+
+	/**
+	 * Creates a node mapping to the position of one agent relative to another.
+	 * 
+	 * @param name   The name of the node
+	 * @param parent The parent node, whose state holds every agent
+	 * @param first  The index of the agent whose relative position is taken
+	 * @param second The index of the agent it is relative to
+	 */
+	public AgentPair(String name, RMPNode parent, int first, int second) {
+		super(name, parent);
+		if (first < 0 || second < 0 || first == second)
+			throw new IllegalArgumentException("Agent indices must be distinct and non-negative.");
+		this.first = first;
+		this.second = second;
+		if (first < second)
+			setSparseJacobian(2 * first, 2 * first + 1, 2 * second, 2 * second + 1);
+		else
+			setSparseJacobian(2 * second, 2 * second + 1, 2 * first, 2 * first + 1);
+	}
+
+	/**
+	 * Returns the index of the agent whose relative position is taken.
+	 * 
+	 * @return The index of the first agent
+	 */
+	public int getFirst() {
+		return first;
+	}
+
+	/**
+	 * Returns the index of the agent the position is relative to.
+	 * 
+	 * @return The index of the second agent
+	 */
+	public int getSecond() {
+		return second;
+	}
+
+	/**
+	 * R^2N to R^2 Task Map
+	 * 
+	 * x = psi(q) = q_first - q_second
+	 * 
+	 * @param q The positions of every agent
+	 * @return The relative position
+	 */
+	public SimpleMatrix psi(SimpleMatrix q) {
+		DMatrixRMaj out = new DMatrixRMaj(1, 1);
+		psi(q.getDDRM(), out);
+		return SimpleMatrix.wrap(out);
+	}
+
+	@Override
+	public void psi(DMatrixRMaj q, DMatrixRMaj out) {
+		out.reshape(2, 1);
+		out.data[0] = q.data[2 * first] - q.data[2 * second];
+		out.data[1] = q.data[2 * first + 1] - q.data[2 * second + 1];
+	}
+
+	/**
+	 * Jacobian of psi, a 2 x 2N matrix with an identity block in the columns of
+	 * the first agent and a negated identity block in those of the second.
+	 * 
+	 * @param q The positions of every agent
+	 * @return The Jacobian of psi
+	 */
+	public SimpleMatrix j(SimpleMatrix q) {
+		DMatrixRMaj out = new DMatrixRMaj(1, 1);
+		j(q.getDDRM(), out);
+		return SimpleMatrix.wrap(out);
+	}
+
+	@Override
+	public void j(DMatrixRMaj q, DMatrixRMaj out) {
+		int n = q.getNumElements();
+		out.reshape(2, n);
+		out.zero();
+		out.data[2 * first] = 1;
+		out.data[n + 2 * first + 1] = 1;
+		out.data[2 * second] = -1;
+		out.data[n + 2 * second + 1] = -1;
+	}
+
+	/**
+	 * The task map is linear, so the derivative of its Jacobian is zero.
+	 * 
+	 * @param q     The positions of every agent
+	 * @param q_dot The velocities of every agent
+	 * @return A 2 x 2N zero matrix
+	 */
+	public SimpleMatrix j_dot(SimpleMatrix q, SimpleMatrix q_dot) {
+		return new SimpleMatrix(2, q.getNumElements());
+	}
+
+	@Override
+	public void j_dot(DMatrixRMaj q, DMatrixRMaj q_dot, DMatrixRMaj out) {
+		out.reshape(2, q.getNumElements());
+		out.zero();
+	}
+}
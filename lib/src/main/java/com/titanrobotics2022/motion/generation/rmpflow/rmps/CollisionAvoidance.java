@@ -3,6 +3,7 @@ package com.titanrobotics2022.motion.generation.rmpflow.rmps;
 import com.titanrobotics2022.motion.generation.rmpflow.RMPLeaf;
 import com.titanrobotics2022.motion.generation.rmpflow.RMPNode;
 
+import org.ejml.data.DMatrixRMaj;
 import org.ejml.simple.SimpleMatrix;
 
 import edu.wpi.first.math.geometry.Pose2d;
@@ -20,6 +21,11 @@ public class CollisionAvoidance extends RMPLeaf {
 	// epsilon(ɛ): small positive scalar for avoidance metric
 	private double r, alpha, eta, epsilon;
 	private SimpleMatrix center; // location of center of circular obstacle
+	private double reach = Double.POSITIVE_INFINITY; // distance from center beyond which w is below the tolerance
+	private double cullX = Double.POSITIVE_INFINITY; // the same distance from the edge, in radii
+	// F and M of the last scalar solve, and the state they were solved at
+	private final double[] rmpF = new double[1], rmpM = new double[1];
+	private double rmpX = Double.NaN, rmpXdot = Double.NaN;
 
 	/**
 	 * A 1-d distance subtask space collision avoidance RMP Node between obstacle
@@ -36,6 +42,8 @@ public class CollisionAvoidance extends RMPLeaf {
 	public CollisionAvoidance(String name, RMPNode parent, SimpleMatrix center, double r, double epsilon, double alpha,
 			double eta) {
 		super(name, parent);
+		setPriority(PRIORITY_SAFETY);
+		setJacobianStructure(JacobianStructure.ROW);
 		this.r = r;
 		this.alpha = alpha;
 		this.eta = eta;
@@ -65,6 +73,102 @@ public class CollisionAvoidance extends RMPLeaf {
 				alpha, eta);
 	}
 
+	/**
+	 * Lets the solver skip this leaf while the state is far from the obstacle
+	 * and not closing on it quickly.
+	 * <p>
+	 * The barrier weight w = 1 / x^4 decays quickly with the distance x from the
+	 * edge of the obstacle, measured in radii, and is below the tolerance beyond
+	 * x0 = tolerance^(-1/4). The terms of F and M are w times factors that grow
+	 * with the speed x_dot along the distance, such as the damping η w (ɛ +
+	 * x_dot^2) x_dot, see {@link #termBound}. The leaf is skipped when every
+	 * term of F and M, and w itself, is below the tolerance, so the tolerance
+	 * bounds the error given up at any speed. At rest, this is when the state is
+	 * farther than r * (1 + x0) from the center, and the distance grows with the
+	 * speed.
+	 * 
+	 * @param tolerance The barrier weight below which the leaf is skipped, or 0
+	 *                  to always evaluate it
+	 */
+	public void setCullingTolerance(double tolerance) {
+		reach = reach(r, tolerance);
+		cullX = reach / r - 1;
+	}
+
+	/**
+	 * Computes the distance from the center of an obstacle beyond which its
+	 * barrier weight is below a tolerance. Shared with
+	 * {@link CollisionAvoidanceField}.
+	 * 
+	 * @param r         The radius of the obstacle
+	 * @param tolerance The barrier weight below which the obstacle is skipped,
+	 *                  or 0 to never skip it
+	 * @return The distance from the center, or infinity if the tolerance is 0
+	 */
+	static double reach(double r, double tolerance) {
+		if (!(tolerance >= 0))
+			throw new IllegalArgumentException("Culling tolerance must be non-negative.");
+		return tolerance == 0 ? Double.POSITIVE_INFINITY : r * (1 + Math.pow(tolerance, -.25));
+	}
+
+	/**
+	 * Bounds every term of the F and M of a barrier, per unit of barrier weight,
+	 * at a distance of at least x0 radii from the edge of the obstacle. Shared
+	 * with {@link CollisionAvoidanceField}.
+	 * <p>
+	 * With u = ɛ + min(0, x_dot) * x_dot, the terms of F are 4 α w / x^5,
+	 * 2 x_dot^2 u w / x and η u w |x_dot|, and M = w (u + min(0, x_dot) x_dot).
+	 * Each decreases with x, so their values at x0 divided by w bound them
+	 * beyond x0.
+	 * 
+	 * @param x0    The smallest distance from the edge, in radii
+	 * @param x_dot The speed along the distance, negative when approaching
+	 * @return The bound, at least 1 so that it also bounds w itself
+	 */
+	static double termBound(double x0, double x_dot, double epsilon, double alpha, double eta) {
+		double approach = Math.min(0, x_dot) * x_dot;
+		double u = epsilon + approach;
+		double x2 = x0 * x0;
+		double f = Math.max(4 * alpha / (x2 * x2 * x0),
+				Math.max(2 * x_dot * x_dot * u / x0, eta * u * Math.abs(x_dot)));
+		return Math.max(1, Math.max(u + approach, f));
+	}
+
+	/**
+	 * Returns whether every term of the F and M of a barrier is below the
+	 * culling tolerance. Shared with {@link CollisionAvoidanceField}.
+	 * <p>
+	 * Beyond x0 every term is at most w times {@link #termBound}. Since
+	 * w = 1 / x^4, w is at most the tolerance divided by the bound beyond x0
+	 * times the fourth root of the bound.
+	 * 
+	 * @param x     The distance from the edge of the obstacle, in radii
+	 * @param x_dot The speed along the distance
+	 * @param x0    The distance, in radii, beyond which w is below the tolerance
+	 * @return True, if the barrier can be skipped, or false, otherwise
+	 */
+	static boolean negligible(double x, double x_dot, double x0, double epsilon, double alpha, double eta) {
+		if (!(x > x0))
+			return false;
+		double bound = termBound(x0, x_dot, epsilon, alpha, eta);
+		return bound == 1 || x > x0 * Math.sqrt(Math.sqrt(bound));
+	}
+
+	@Override
+	protected boolean isNegligible(DMatrixRMaj q, DMatrixRMaj q_dot) {
+		if (reach == Double.POSITIVE_INFINITY)
+			return false;
+		double norm = distance(q.data, 0, 1);
+		if (!(norm > reach))
+			return false;
+		// x_dot = J * q_dot, see j
+		double[] c = center.getDDRM().data;
+		double proj = 0;
+		for (int i = 0; i < c.length; i++)
+			proj += q_dot.data[i] * (q.data[i] - c[i]);
+		return negligible(norm / r - 1, proj / (norm * r), cullX, epsilon, alpha, eta);
+	}
+
 	/**
 	 * R^N to R Task Map
 	 * 
@@ -74,7 +178,23 @@ public class CollisionAvoidance extends RMPLeaf {
 	 * @return 1-d matrix
 	 */
 	public SimpleMatrix psi(SimpleMatrix q) {
-		return new SimpleMatrix(1, 1, false, new double[] { q.minus(center).normF() / r - 1 }).transpose();
+		DMatrixRMaj out = new DMatrixRMaj(1, 1);
+		psi(q.getDDRM(), out);
+		return SimpleMatrix.wrap(out);
+	}
+
+	@Override
+	public void psi(DMatrixRMaj q, DMatrixRMaj out) {
+		out.reshape(1, 1);
+		out.data[0] = distance(q.data, 0, 1) / r - 1;
+	}
+
+	@Override
+	public void psiBatch(DMatrixRMaj qs, DMatrixRMaj out) {
+		int states = qs.numCols;
+		out.reshape(1, states);
+		for (int k = 0; k < states; k++)
+			out.data[k] = distance(qs.data, k, states) / r - 1;
 	}
 
 	/**
@@ -85,8 +205,34 @@ public class CollisionAvoidance extends RMPLeaf {
 	 * @return // TODO: Describe what a jacobian respresents in this instance
 	 */
 	public SimpleMatrix j(SimpleMatrix q) {
-		double scale = 1 / q.minus(center).normF();
-		return q.minus(center).transpose().divide(r).scale(scale);
+		DMatrixRMaj out = new DMatrixRMaj(1, 1);
+		j(q.getDDRM(), out);
+		return SimpleMatrix.wrap(out);
+	}
+
+	@Override
+	public void j(DMatrixRMaj q, DMatrixRMaj out) {
+		out.reshape(1, center.getNumElements());
+		j(q.data, 0, 1, out.data);
+	}
+
+	@Override
+	public void jBatch(DMatrixRMaj qs, DMatrixRMaj out) {
+		int states = qs.numCols;
+		out.reshape(center.getNumElements(), states);
+		for (int k = 0; k < states; k++)
+			j(qs.data, k, states, out.data);
+	}
+
+	/**
+	 * Computes the Jacobian of one state stored with a stride, writing it to out
+	 * with the same offset and stride.
+	 */
+	private void j(double[] q, int offset, int stride, double[] out) {
+		double[] c = center.getDDRM().data;
+		double scale = 1 / distance(q, offset, stride) / r;
+		for (int i = 0, e = offset; i < c.length; i++, e += stride)
+			out[e] = (q[e] - c[i]) * scale;
 	}
 
 	/**
@@ -108,10 +254,57 @@ public class CollisionAvoidance extends RMPLeaf {
 	 *         this instance
 	 */
 	public SimpleMatrix j_dot(SimpleMatrix q, SimpleMatrix q_dot) {
-		SimpleMatrix a = q.minus(center).mult(q.minus(center).transpose())
-				.scale(-1 / Math.pow(q.minus(center).normF(), 3));
-		SimpleMatrix b = a.plus(SimpleMatrix.identity(center.getNumElements()).scale(1 / q.minus(center).normF()));
-		return q_dot.transpose().mult(b).divide(r);
+		DMatrixRMaj out = new DMatrixRMaj(1, 1);
+		j_dot(q.getDDRM(), q_dot.getDDRM(), out);
+		return SimpleMatrix.wrap(out);
+	}
+
+	@Override
+	public void j_dot(DMatrixRMaj q, DMatrixRMaj q_dot, DMatrixRMaj out) {
+		out.reshape(1, center.getNumElements());
+		j_dot(q.data, q_dot.data, 0, 1, out.data);
+	}
+
+	@Override
+	public void j_dotBatch(DMatrixRMaj qs, DMatrixRMaj q_dots, DMatrixRMaj out) {
+		int states = qs.numCols;
+		out.reshape(center.getNumElements(), states);
+		for (int k = 0; k < states; k++)
+			j_dot(qs.data, q_dots.data, k, states, out.data);
+	}
+
+	/**
+	 * Computes the derivative of the Jacobian of one state stored with a stride,
+	 * writing it to out with the same offset and stride.
+	 */
+	private void j_dot(double[] q, double[] q_dot, int offset, int stride, double[] out) {
+		// Expands q_dotT * b / r elementwise, where b is symmetric.
+		double[] c = center.getDDRM().data;
+		double norm = distance(q, offset, stride);
+		double proj = 0; // q_dotT * (q - center)
+		for (int i = 0, e = offset; i < c.length; i++, e += stride)
+			proj += q_dot[e] * (q[e] - c[i]);
+		double a = -proj / (norm * norm * norm);
+		for (int i = 0, e = offset; i < c.length; i++, e += stride)
+			out[e] = ((q[e] - c[i]) * a + q_dot[e] / norm) / r;
+	}
+
+	/**
+	 * Computes ||q - center|| without allocating.
+	 * 
+	 * @param q      An array holding an R^N dimensional state
+	 * @param offset The index of the first coordinate of the state
+	 * @param stride The distance between consecutive coordinates of the state
+	 * @return The distance from q to the center of the obstacle
+	 */
+	private double distance(double[] q, int offset, int stride) {
+		double[] c = center.getDDRM().data;
+		double sum = 0;
+		for (int i = 0, e = offset; i < c.length; i++, e += stride) {
+			double d = q[e] - c[i];
+			sum += d * d;
+		}
+		return Math.sqrt(sum);
 	}
 
 	/**
@@ -143,27 +336,28 @@ public class CollisionAvoidance extends RMPLeaf {
 	 * @return The acceleration motion policy denoted F
 	 */
 	public SimpleMatrix solveF(SimpleMatrix x, SimpleMatrix x_dot) {
-		double w;
-		double grad_w;
-		if (x.get(0, 0) < 0) {
-			w = 1e10;
-			grad_w = 0;
-		} else {
-			w = 1 / Math.pow(x.get(0, 0), 4);
-			grad_w = -4 / Math.pow(x.get(0, 0), 5);
-		}
-
-		double u = epsilon + Math.min(0, x_dot.get(0, 0)) * x_dot.get(0, 0);
-		double g = w * u;
-
-		double grad_Phi = alpha * w * grad_w;
-		double xi = .5 * Math.pow(x_dot.get(0, 0), 2) * u * grad_w;
+		DMatrixRMaj out = new DMatrixRMaj(1, 1);
+		solveF(x.getDDRM(), x_dot.getDDRM(), out);
+		return SimpleMatrix.wrap(out);
+	}
 
-		double bx_dot = eta * g * x_dot.get(0, 0);
+	@Override
+	protected void solveF(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj out) {
+		out.reshape(1, 1);
+		out.data[0] = solveF(x.data[0], x_dot.data[0]);
+	}
 
-		double f_double = -grad_Phi - xi - bx_dot;
-		return new SimpleMatrix(1, 1, false, new double[] { Math.min(Math.max(-1e10, f_double), 1e10) });
+	@Override
+	protected void solveFBatch(DMatrixRMaj xs, DMatrixRMaj x_dots, DMatrixRMaj out) {
+		int states = xs.numCols;
+		out.reshape(1, states);
+		for (int k = 0; k < states; k++)
+			out.data[k] = solveF(xs.data[k], x_dots.data[k]);
+	}
 
+	private double solveF(double x, double x_dot) {
+		barrier(x, x_dot);
+		return rmpF[0];
 	}
 
 	/**
@@ -189,20 +383,92 @@ public class CollisionAvoidance extends RMPLeaf {
 	 * @return The inertia matrix denoted M
 	 */
 	public SimpleMatrix solveM(SimpleMatrix x, SimpleMatrix x_dot) {
+		DMatrixRMaj out = new DMatrixRMaj(1, 1);
+		solveM(x.getDDRM(), x_dot.getDDRM(), out);
+		return SimpleMatrix.wrap(out);
+	}
+
+	@Override
+	protected void solveM(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj out) {
+		out.reshape(1, 1);
+		out.data[0] = solveM(x.data[0], x_dot.data[0]);
+	}
+
+	@Override
+	protected void solveMBatch(DMatrixRMaj xs, DMatrixRMaj x_dots, DMatrixRMaj out) {
+		int states = xs.numCols;
+		out.reshape(1, states);
+		for (int k = 0; k < states; k++)
+			out.data[k] = solveM(xs.data[k], x_dots.data[k]);
+	}
+
+	private double solveM(double x, double x_dot) {
+		barrier(x, x_dot);
+		return rmpM[0];
+	}
+
+	/**
+	 * Evaluates the barrier into rmpF and rmpM, unless they already hold it at
+	 * this state, so solving F and then M at one state evaluates it once.
+	 */
+	private void barrier(double x, double x_dot) {
+		if (x == rmpX && x_dot == rmpXdot)
+			return;
+		barrier(x, x_dot, epsilon, alpha, eta, rmpF, rmpM, 0);
+		rmpX = x;
+		rmpXdot = x_dot;
+	}
+
+	@Override
+	protected void evaluate(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj fOut, DMatrixRMaj mOut) {
+		fOut.reshape(1, 1);
+		mOut.reshape(1, 1);
+		barrier(x.data[0], x_dot.data[0], epsilon, alpha, eta, fOut.data, mOut.data, 0);
+	}
+
+	@Override
+	protected void evaluateBatch(DMatrixRMaj xs, DMatrixRMaj x_dots, DMatrixRMaj fOut, DMatrixRMaj mOut) {
+		int states = xs.numCols;
+		fOut.reshape(1, states);
+		mOut.reshape(1, states);
+		for (int k = 0; k < states; k++)
+			barrier(xs.data[k], x_dots.data[k], epsilon, alpha, eta, fOut.data, mOut.data, k);
+	}
+
+	/**
+	 * Computes F of {@link #solveF(SimpleMatrix, SimpleMatrix)} and M of
+	 * {@link #solveM(SimpleMatrix, SimpleMatrix)} for a scalar distance,
+	 * evaluating w, u and G once. This is the only implementation of the
+	 * barrier, shared with {@link CollisionAvoidance2D} and
+	 * {@link CollisionAvoidanceField}.
+	 * 
+	 * @param f     The array to write F to
+	 * @param m     The array to write M to
+	 * @param index The index to write F and M at
+	 */
+	static void barrier(double x, double x_dot, double epsilon, double alpha, double eta, double[] f, double[] m,
+			int index) {
 		double w;
-		if (x.get(0, 0) < 0) {
+		double grad_w;
+		if (x < 0) {
 			w = 1e10;
+			grad_w = 0;
 		} else {
-			w = 1 / Math.pow(x.get(0, 0), 4);
+			double x2 = x * x;
+			w = 1 / (x2 * x2);
+			grad_w = -4 * w / x;
 		}
 
-		double u = epsilon + Math.min(0, x_dot.get(0, 0)) * x_dot.get(0, 0);
+		double u = epsilon + Math.min(0, x_dot) * x_dot;
 		double g = w * u;
 
-		double grad_u = 2 * Math.min(0, x_dot.get(0, 0));
+		double grad_Phi = alpha * w * grad_w;
+		double xi = .5 * x_dot * x_dot * u * grad_w;
+		double bx_dot = eta * g * x_dot;
+		f[index] = Math.min(Math.max(-1e10, -grad_Phi - xi - bx_dot), 1e10);
 
-		double m_double = g + .5 * x_dot.get(0, 0) * w * grad_u;
-		return new SimpleMatrix(1, 1, false, new double[] { Math.min(Math.max(-1e5, m_double), 1e5) });
+		double grad_u = 2 * Math.min(0, x_dot);
+		m[index] = Math.min(Math.max(-1e5, g + .5 * x_dot * w * grad_u), 1e5);
 	}
 
 	/**
@@ -0,0 +1,111 @@
+package com.titanrobotics2022.motion.generation.rmpflow.rmps;
+
+import com.titanrobotics2022.motion.generation.rmpflow.fixed.RMPRoot2D;
+import com.titanrobotics2022.motion.generation.rmpflow.fixed.RMPScalarLeaf2D;
+
+import org.ejml.data.DMatrix2;
+
+/**
+ * A fixed-size version of {@link CollisionAvoidance} for an {@link RMPRoot2D}.
+ * <p>
+ * The task map z = ||q - center|| / r - 1 and the barrier-type policy are the
+ * same as {@link CollisionAvoidance}.
+ */
+public class CollisionAvoidance2D extends RMPScalarLeaf2D {
+	private double r, alpha, eta, epsilon;
+	private final DMatrix2 center; // location of center of circular obstacle
+	// F and M of the last solve, and the state they were solved at
+	private final double[] rmpF = new double[1], rmpM = new double[1];
+	private double rmpX = Double.NaN, rmpXdot = Double.NaN;
+
+	/**
+	 * A 1-d distance subtask space collision avoidance RMP between obstacle with
+	 * radius r.
+	 * 
+	 * @param name    The name of the motion policy.
+	 * @param parent  The root of the tree.
+	 * @param center  The location of the center of the circular obstacle.
+	 * @param r       The radius of the obstacle.
+	 * @param epsilon The positive damping matrix scalar
+	 * @param alpha   The positive potenial function scalar
+	 * @param eta     A small positive scalar for avoidance metric
+	 */
+	public CollisionAvoidance2D(String name, RMPRoot2D parent, DMatrix2 center, double r, double epsilon,
+			double alpha, double eta) {
+		super(name, parent);
+		this.center = center.copy();
+		this.r = r;
+		this.alpha = alpha;
+		this.eta = eta;
+		this.epsilon = epsilon;
+	}
+
+	@Override
+	public double psi(DMatrix2 q) {
+		return distance(q) / r - 1;
+	}
+
+	@Override
+	public void j(DMatrix2 q, DMatrix2 out) {
+		double scale = 1 / distance(q) / r;
+		out.a1 = (q.a1 - center.a1) * scale;
+		out.a2 = (q.a2 - center.a2) * scale;
+	}
+
+	@Override
+	public void j_dot(DMatrix2 q, DMatrix2 q_dot, DMatrix2 out) {
+		double dx = q.a1 - center.a1, dy = q.a2 - center.a2;
+		double norm = Math.sqrt(dx * dx + dy * dy);
+		double a = -(q_dot.a1 * dx + q_dot.a2 * dy) / (norm * norm * norm);
+		out.a1 = (dx * a + q_dot.a1 / norm) / r;
+		out.a2 = (dy * a + q_dot.a2 / norm) / r;
+	}
+
+	private double distance(DMatrix2 q) {
+		double dx = q.a1 - center.a1, dy = q.a2 - center.a2;
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	@Override
+	protected double solveF(double x, double x_dot) {
+		barrier(x, x_dot);
+		return rmpF[0];
+	}
+
+	@Override
+	protected double solveM(double x, double x_dot) {
+		barrier(x, x_dot);
+		return rmpM[0];
+	}
+
+	/**
+	 * Evaluates {@link CollisionAvoidance#barrier} into rmpF and rmpM, unless
+	 * they already hold it at this state, so solving M and then F at one state
+	 * evaluates it once.
+	 */
+	private void barrier(double x, double x_dot) {
+		if (x == rmpX && x_dot == rmpXdot)
+			return;
+		CollisionAvoidance.barrier(x, x_dot, epsilon, alpha, eta, rmpF, rmpM, 0);
+		rmpX = x;
+		rmpXdot = x_dot;
+	}
+
+	/**
+	 * Returns radius of the obstacle
+	 * 
+	 * @return The radius of obstacle.
+	 */
+	public double getRadius() {
+		return r;
+	}
+
+	/**
+	 * Returns the center of the obstacle
+	 * 
+	 * @return The center of the obstacle
+	 */
+	public DMatrix2 getCenter() {
+		return center;
+	}
+}
@@ -0,0 +1,393 @@
+package com.titanrobotics2022.motion.generation.rmpflow.rmps;
+
+import java.util.Arrays;
+
+import com.titanrobotics2022.motion.generation.rmpflow.RMPLeaf;
+import com.titanrobotics2022.motion.generation.rmpflow.RMPNode;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
+import org.ejml.simple.SimpleMatrix;
+
+import edu.wpi.first.math.geometry.Pose2d;
+
+/**
+ * Collision avoidance against many circular obstacles in the plane, as a
+ * single leaf.
+ * <p>
+ * Each obstacle contributes the same 1-d barrier-type RMP as a
+ * {@link CollisionAvoidance} leaf. Instead of one node per obstacle, the
+ * centers and radii are stored in packed arrays and every obstacle's RMP is
+ * pulled back into the 2-D configuration space in one loop:
+ * <p>
+ * f = Σ J_kT * (f_k - m_k * J_dot_k * x_dot)
+ * <p>
+ * M = Σ m_k * J_kT * J_k
+ * <p>
+ * The leaf's own task map is the identity, so the summed RMP is added to the
+ * parent unchanged. All obstacles share ε, α and η.
+ * <p>
+ * With a culling tolerance, the obstacles are bucketed in a uniform grid and
+ * only the ones near the state are evaluated, so a solve costs time in the
+ * number of nearby obstacles instead of the number of obstacles.
+ */
+public class CollisionAvoidanceField extends RMPLeaf {
+	// epsilon(ɛ): small positive scalar for avoidance metric
+	// alpha(α): positive potenial function scalar
+	// eta(η): positive damping matrix scalar
+	private double epsilon, alpha, eta;
+	private int count = 0;
+	// Obstacle k is centered at (cx[k], cy[k]) with radius radii[k]
+	private double[] cx = new double[8], cy = new double[8], radii = new double[8];
+	// The centers and radii of the obstacles to evaluate, compacted
+	private double[] nx = new double[8], ny = new double[8], nr = new double[8];
+	// Per-obstacle terms of the last evaluation, indexed like nx
+	private double[] jx = new double[8], jy = new double[8], fk = new double[8], mk = new double[8];
+	// Culling: obstacle k is skipped when the state is farther than reach[k]
+	// from its center, which is cullX radii from its edge, and not closing on
+	// it quickly. near is scratch for the grid queries.
+	private double tolerance = 0, cullX = Double.POSITIVE_INFINITY, maxReach = 0, minRadius, maxRadius;
+	private double[] reach = new double[8];
+	private int[] near = new int[8];
+	private final ObstacleGrid grid = new ObstacleGrid();
+	private boolean stale = true; // Whether reach and grid need to be rebuilt
+	// Scratch for the single-output batched solves
+	private final DMatrixRMaj unused = new DMatrixRMaj(1, 1);
+	// F and M of the last single-state solve, and the state they were solved at
+	private final double[] rmpF = new double[2], rmpM = new double[4];
+	private double rmpQx = Double.NaN, rmpQy = Double.NaN, rmpQdx = Double.NaN, rmpQdy = Double.NaN;
+
+	/**
+	 * A collision avoidance RMP for a field of circular obstacles, with no
+	 * obstacles.
+	 * 
+	 * @param name    The name of the motion policy.
+	 * @param parent  The parent node of current RMP Node. Its task space must be
+	 *                2-D.
+	 * @param epsilon The positive damping matrix scalar
+	 * @param alpha   The positive potenial function scalar
+	 * @param eta     A small positive scalar for avoidance metric
+	 */
+	public CollisionAvoidanceField(String name, RMPNode parent, double epsilon, double alpha, double eta) {
+		super(name, parent);
+		setPriority(PRIORITY_SAFETY);
+		setJacobianStructure(JacobianStructure.IDENTITY);
+		this.epsilon = epsilon;
+		this.alpha = alpha;
+		this.eta = eta;
+	}
+
+	/**
+	 * Adds an obstacle to the field.
+	 * 
+	 * @param x The x coordinate of the center of the obstacle
+	 * @param y The y coordinate of the center of the obstacle
+	 * @param r The radius of the obstacle
+	 * @return The index of the new obstacle
+	 */
+	public int addObstacle(double x, double y, double r) {
+		if (count == cx.length) {
+			int capacity = 2 * count;
+			cx = Arrays.copyOf(cx, capacity);
+			cy = Arrays.copyOf(cy, capacity);
+			radii = Arrays.copyOf(radii, capacity);
+			nx = new double[capacity];
+			ny = new double[capacity];
+			nr = new double[capacity];
+			jx = new double[capacity];
+			jy = new double[capacity];
+			fk = new double[capacity];
+			mk = new double[capacity];
+			reach = new double[capacity];
+			near = new int[capacity];
+		}
+		cx[count] = x;
+		cy[count] = y;
+		radii[count] = r;
+		stale = true;
+		return count++;
+	}
+
+	/**
+	 * Adds an obstacle to the field.
+	 * 
+	 * @param center The center of the obstacle
+	 * @param r      The radius of the obstacle
+	 * @return The index of the new obstacle
+	 */
+	public int addObstacle(Pose2d center, double r) {
+		return addObstacle(center.getX(), center.getY(), r);
+	}
+
+	/**
+	 * Moves or resizes an obstacle, such as another robot.
+	 * 
+	 * @param index The index of the obstacle
+	 * @param x     The x coordinate of the center of the obstacle
+	 * @param y     The y coordinate of the center of the obstacle
+	 * @param r     The radius of the obstacle
+	 */
+	public void setObstacle(int index, double x, double y, double r) {
+		if (index < 0 || index >= count)
+			throw new IndexOutOfBoundsException("Obstacle " + index + " does not exist.");
+		cx[index] = x;
+		cy[index] = y;
+		radii[index] = r;
+		stale = true;
+	}
+
+	/**
+	 * Removes an obstacle. The indices of the obstacles after it shift down by
+	 * one.
+	 * 
+	 * @param index The index of the obstacle
+	 */
+	public void removeObstacle(int index) {
+		if (index < 0 || index >= count)
+			throw new IndexOutOfBoundsException("Obstacle " + index + " does not exist.");
+		int tail = count - index - 1;
+		System.arraycopy(cx, index + 1, cx, index, tail);
+		System.arraycopy(cy, index + 1, cy, index, tail);
+		System.arraycopy(radii, index + 1, radii, index, tail);
+		count--;
+		stale = true;
+	}
+
+	/**
+	 * Removes every obstacle.
+	 */
+	public void clearObstacles() {
+		count = 0;
+		stale = true;
+	}
+
+	/**
+	 * Returns the number of obstacles in the field.
+	 * 
+	 * @return The number of obstacles
+	 */
+	public int getObstacleCount() {
+		return count;
+	}
+
+	/**
+	 * Skips the obstacles that are far from the state.
+	 * <p>
+	 * An obstacle is skipped when its barrier weight w = 1 / x^4 and every term
+	 * of its F and M are below the tolerance, as in
+	 * {@link CollisionAvoidance#setCullingTolerance(double)}, so obstacles are
+	 * evaluated farther away while the state moves quickly.
+	 * 
+	 * @param tolerance The barrier weight below which an obstacle is skipped, or
+	 *                  0 to always evaluate every obstacle
+	 */
+	public void setCullingTolerance(double tolerance) {
+		cullX = CollisionAvoidance.reach(1, tolerance) - 1; // Validates the tolerance
+		this.tolerance = tolerance;
+		stale = true;
+	}
+
+	@Override
+	public SimpleMatrix psi(SimpleMatrix q) {
+		return q;
+	}
+
+	@Override
+	public void psi(DMatrixRMaj q, DMatrixRMaj out) {
+		out.setTo(q);
+	}
+
+	@Override
+	public SimpleMatrix j(SimpleMatrix q) {
+		return SimpleMatrix.identity(q.getNumElements());
+	}
+
+	@Override
+	public void j(DMatrixRMaj q, DMatrixRMaj out) {
+		out.reshape(q.getNumElements(), q.getNumElements());
+		CommonOps_DDRM.setIdentity(out);
+	}
+
+	@Override
+	public SimpleMatrix j_dot(SimpleMatrix q, SimpleMatrix q_dot) {
+		return new SimpleMatrix(q.getNumElements(), q.getNumElements());
+	}
+
+	@Override
+	public void j_dot(DMatrixRMaj q, DMatrixRMaj q_dot, DMatrixRMaj out) {
+		out.reshape(q.getNumElements(), q.getNumElements());
+		out.zero();
+	}
+
+	@Override
+	public SimpleMatrix solveF(SimpleMatrix x, SimpleMatrix x_dot) {
+		DMatrixRMaj out = new DMatrixRMaj(2, 1);
+		solveF(x.getDDRM(), x_dot.getDDRM(), out);
+		return SimpleMatrix.wrap(out);
+	}
+
+	@Override
+	protected void solveF(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj out) {
+		solve(x, x_dot);
+		out.reshape(2, 1);
+		System.arraycopy(rmpF, 0, out.data, 0, 2);
+	}
+
+	@Override
+	public SimpleMatrix solveM(SimpleMatrix x, SimpleMatrix x_dot) {
+		DMatrixRMaj out = new DMatrixRMaj(2, 2);
+		solveM(x.getDDRM(), x_dot.getDDRM(), out);
+		return SimpleMatrix.wrap(out);
+	}
+
+	@Override
+	protected void solveM(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj out) {
+		solve(x, x_dot);
+		out.reshape(2, 2);
+		System.arraycopy(rmpM, 0, out.data, 0, 4);
+	}
+
+	/**
+	 * Evaluates the field into rmpF and rmpM, unless they already hold it at
+	 * this state and the obstacles have not changed, so solving F and then M at
+	 * one state evaluates it once.
+	 */
+	private void solve(DMatrixRMaj x, DMatrixRMaj x_dot) {
+		if (x.getNumElements() != 2)
+			throw new IllegalArgumentException("Collision avoidance fields require a 2-D task space.");
+		double qx = x.data[0], qy = x.data[1], qdx = x_dot.data[0], qdy = x_dot.data[1];
+		if (!stale && qx == rmpQx && qy == rmpQy && qdx == rmpQdx && qdy == rmpQdy)
+			return;
+		evaluate(qx, qy, qdx, qdy, rmpF, rmpM, 0, 1);
+		rmpQx = qx;
+		rmpQy = qy;
+		rmpQdx = qdx;
+		rmpQdy = qdy;
+	}
+
+	@Override
+	protected void evaluate(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj fOut, DMatrixRMaj mOut) {
+		if (x.getNumElements() != 2)
+			throw new IllegalArgumentException("Collision avoidance fields require a 2-D task space.");
+		fOut.reshape(2, 1);
+		mOut.reshape(2, 2);
+		evaluate(x.data[0], x.data[1], x_dot.data[0], x_dot.data[1], fOut.data, mOut.data, 0, 1);
+	}
+
+	@Override
+	protected void evaluateBatch(DMatrixRMaj xs, DMatrixRMaj x_dots, DMatrixRMaj fOut, DMatrixRMaj mOut) {
+		if (xs.numRows != 2)
+			throw new IllegalArgumentException("Collision avoidance fields require a 2-D task space.");
+		int states = xs.numCols;
+		fOut.reshape(2, states);
+		mOut.reshape(4, states);
+		for (int k = 0; k < states; k++)
+			evaluate(xs.data[k], xs.data[states + k], x_dots.data[k], x_dots.data[states + k], fOut.data,
+					mOut.data, k, states);
+	}
+
+	@Override
+	protected void solveFBatch(DMatrixRMaj xs, DMatrixRMaj x_dots, DMatrixRMaj out) {
+		evaluateBatch(xs, x_dots, out, unused);
+	}
+
+	@Override
+	protected void solveMBatch(DMatrixRMaj xs, DMatrixRMaj x_dots, DMatrixRMaj out) {
+		evaluateBatch(xs, x_dots, unused, out);
+	}
+
+	/**
+	 * Recomputes the reach of every obstacle and rebuckets them after the
+	 * obstacles or the tolerance change.
+	 */
+	private void rebuild() {
+		maxReach = 0;
+		minRadius = Double.POSITIVE_INFINITY;
+		maxRadius = 0;
+		for (int k = 0; k < count; k++) {
+			reach[k] = CollisionAvoidance.reach(radii[k], tolerance);
+			maxReach = Math.max(maxReach, reach[k]);
+			minRadius = Math.min(minRadius, radii[k]);
+			maxRadius = Math.max(maxRadius, radii[k]);
+		}
+		if (tolerance > 0)
+			grid.build(cx, cy, count, maxReach);
+		stale = false;
+	}
+
+	/**
+	 * Copies the centers and radii of the obstacles within reach of a state into
+	 * nx, ny and nr, so that the evaluation reads them in order.
+	 * 
+	 * @return The number of obstacles to evaluate
+	 */
+	private int gather(double qx, double qy, double qdx, double qdy) {
+		if (stale)
+			rebuild();
+		if (tolerance == 0 || count == 0)
+			return count; // Every obstacle, already contiguous
+		// No obstacle sees a speed along its distance above |q_dot| / r, and
+		// approaching at that speed bounds its terms the most
+		double speed = Math.sqrt(qdx * qdx + qdy * qdy) / minRadius;
+		double bound = CollisionAvoidance.termBound(cullX, -speed, epsilon, alpha, eta);
+		double scale = Math.sqrt(Math.sqrt(bound)), radius = Math.max(maxReach, maxRadius * (1 + cullX * scale));
+		int found = grid.query(qx, qy, radius, near), n = 0;
+		for (int i = 0; i < found; i++) {
+			int k = near[i];
+			double dx = qx - cx[k], dy = qy - cy[k], squared = dx * dx + dy * dy;
+			boolean within = squared <= reach[k] * reach[k];
+			if (!within && bound > 1) {
+				double norm = Math.sqrt(squared), r = radii[k];
+				within = !CollisionAvoidance.negligible(norm / r - 1, (qdx * dx + qdy * dy) / (norm * r), cullX,
+						epsilon, alpha, eta);
+			}
+			if (within) {
+				nx[n] = cx[k];
+				ny[n] = cy[k];
+				nr[n++] = radii[k];
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Sums the pulled back RMPs of every obstacle at one state, writing f and
+	 * the row-major M with the given offset and stride.
+	 */
+	private void evaluate(double qx, double qy, double qdx, double qdy, double[] f, double[] m, int offset,
+			int stride) {
+		int n = gather(qx, qy, qdx, qdy);
+		boolean all = tolerance == 0;
+		double[] ox = all ? cx : nx, oy = all ? cy : ny, or = all ? radii : nr;
+		// Elementwise pass: each obstacle's Jacobian and 1-d RMP. Only reads and
+		// writes the packed arrays at index k, so it has no loop-carried state.
+		for (int k = 0; k < n; k++) {
+			double dx = qx - ox[k], dy = qy - oy[k], r = or[k];
+			double norm = Math.sqrt(dx * dx + dy * dy);
+			// J = (q - center) / (r * ||q - center||), see CollisionAvoidance.j
+			double scale = 1 / norm / r;
+			jx[k] = dx * scale;
+			jy[k] = dy * scale;
+			// J_dot, see CollisionAvoidance.j_dot
+			double a = -(qdx * dx + qdy * dy) / (norm * norm * norm);
+			double curv = ((dx * a + qdx / norm) * qdx + (dy * a + qdy / norm) * qdy) / r;
+			CollisionAvoidance.barrier(norm / r - 1, jx[k] * qdx + jy[k] * qdy, epsilon, alpha, eta, fk, mk, k);
+			fk[k] -= mk[k] * curv;
+		}
+		// Reduction pass: f += JT * (f - m * J_dot * x_dot) and M += JT * m * J
+		double f1 = 0, f2 = 0, m11 = 0, m12 = 0, m22 = 0;
+		for (int k = 0; k < n; k++) {
+			f1 += jx[k] * fk[k];
+			f2 += jy[k] * fk[k];
+			m11 += mk[k] * jx[k] * jx[k];
+			m12 += mk[k] * jx[k] * jy[k];
+			m22 += mk[k] * jy[k] * jy[k];
+		}
+		f[offset] = f1;
+		f[offset + stride] = f2;
+		m[offset] = m11;
+		m[offset + stride] = m12;
+		m[offset + 2 * stride] = m12;
+		m[offset + 3 * stride] = m22;
+	}
+}
@@ -3,6 +3,8 @@ package com.titanrobotics2022.motion.generation.rmpflow.rmps;
 import com.titanrobotics2022.motion.generation.rmpflow.RMPLeaf;
 import com.titanrobotics2022.motion.generation.rmpflow.RMPNode;
 
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
 import org.ejml.simple.SimpleMatrix;
 
 public class Damper extends RMPLeaf{
@@ -11,6 +13,8 @@ public class Damper extends RMPLeaf{
 
     public Damper(String name, RMPNode parent, double eta, double w){
         super(name, parent);
+        setPriority(PRIORITY_COMFORT);
+        setJacobianStructure(JacobianStructure.IDENTITY);
         this.eta = eta;
         this.w = w;
     }
@@ -20,14 +24,65 @@ public class Damper extends RMPLeaf{
 		return q;
 	}
 
+	@Override
+	public void psi(DMatrixRMaj q, DMatrixRMaj out)
+	{
+		out.setTo(q);
+	}
+
+	@Override
+	public void psiBatch(DMatrixRMaj qs, DMatrixRMaj out)
+	{
+		out.setTo(qs);
+	}
+
 	public SimpleMatrix j(SimpleMatrix q)
 	{
-		return SimpleMatrix.identity(2);
+		return SimpleMatrix.identity(q.getNumElements());
+	}
+
+	@Override
+	public void j(DMatrixRMaj q, DMatrixRMaj out)
+	{
+		out.reshape(q.getNumElements(), q.getNumElements());
+		CommonOps_DDRM.setIdentity(out);
+	}
+
+	@Override
+	public void jBatch(DMatrixRMaj qs, DMatrixRMaj out)
+	{
+		identityBatch(qs.numRows, qs.numCols, 1, out);
 	}
 
 	public SimpleMatrix j_dot(SimpleMatrix q, SimpleMatrix q_dot)
 	{
-		return new SimpleMatrix(2, 2);
+		return new SimpleMatrix(q.getNumElements(), q.getNumElements());
+	}
+
+	@Override
+	public void j_dot(DMatrixRMaj q, DMatrixRMaj q_dot, DMatrixRMaj out)
+	{
+		out.reshape(q.getNumElements(), q.getNumElements());
+		out.zero();
+	}
+
+	@Override
+	public void j_dotBatch(DMatrixRMaj qs, DMatrixRMaj q_dots, DMatrixRMaj out)
+	{
+		out.reshape(qs.numRows * qs.numRows, qs.numCols);
+		out.zero();
+	}
+
+	/**
+	 * Writes scale * I for every state of a batch, each flattened into a column.
+	 */
+	private static void identityBatch(int n, int states, double scale, DMatrixRMaj out)
+	{
+		out.reshape(n * n, states);
+		out.zero();
+		for (int i = 0; i < n; i++)
+			for (int k = (i * n + i) * states; k < (i * n + i + 1) * states; k++)
+				out.data[k] = scale;
 	}
 
 
@@ -36,9 +91,32 @@ public class Damper extends RMPLeaf{
         return bx_dot;
     }
 
+    @Override
+    protected void solveF(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj out){
+        CommonOps_DDRM.scale(-(eta * w), x_dot, out);
+    }
+
+    @Override
+    protected void solveFBatch(DMatrixRMaj xs, DMatrixRMaj x_dots, DMatrixRMaj out){
+        CommonOps_DDRM.scale(-(eta * w), x_dots, out);
+    }
+
     
     public SimpleMatrix solveM(SimpleMatrix x, SimpleMatrix x_dot){
-        return new SimpleMatrix(1, 1, false, new double[]{w});
+        return SimpleMatrix.identity(x.getNumElements()).scale(w);
+    }
+
+    // M is w * I so that it matches the dimensions of the identity task map.
+    @Override
+    protected void solveM(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj out){
+        out.reshape(x.getNumElements(), x.getNumElements());
+        CommonOps_DDRM.setIdentity(out);
+        CommonOps_DDRM.scale(w, out);
+    }
+
+    @Override
+    protected void solveMBatch(DMatrixRMaj xs, DMatrixRMaj x_dots, DMatrixRMaj out){
+        identityBatch(xs.numRows, xs.numCols, w, out);
     }
 
 }
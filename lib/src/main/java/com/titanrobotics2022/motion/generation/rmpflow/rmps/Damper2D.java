@@ -0,0 +1,35 @@
+package com.titanrobotics2022.motion.generation.rmpflow.rmps;
+
+import com.titanrobotics2022.motion.generation.rmpflow.fixed.RMPRoot2D;
+import com.titanrobotics2022.motion.generation.rmpflow.fixed.RMPVectorLeaf2D;
+
+import org.ejml.data.DMatrix2;
+import org.ejml.data.DMatrix2x2;
+
+/**
+ * A fixed-size version of {@link Damper} for an {@link RMPRoot2D}.
+ */
+public class Damper2D extends RMPVectorLeaf2D {
+	private double w;
+	private double eta;
+
+	public Damper2D(String name, RMPRoot2D parent, double eta, double w) {
+		super(name, parent);
+		this.eta = eta;
+		this.w = w;
+	}
+
+	@Override
+	protected void solveF(DMatrix2 x, DMatrix2 x_dot, DMatrix2 out) {
+		out.a1 = -(eta * w) * x_dot.a1;
+		out.a2 = -(eta * w) * x_dot.a2;
+	}
+
+	@Override
+	protected void solveM(DMatrix2 x, DMatrix2 x_dot, DMatrix2x2 out) {
+		out.a11 = w;
+		out.a12 = 0;
+		out.a21 = 0;
+		out.a22 = w;
+	}
+}
@@ -3,6 +3,8 @@ package com.titanrobotics2022.motion.generation.rmpflow.rmps;
 import com.titanrobotics2022.motion.generation.rmpflow.RMPLeaf;
 import com.titanrobotics2022.motion.generation.rmpflow.RMPNode;
 
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
 import org.ejml.simple.SimpleMatrix;
 
 /**
@@ -19,6 +21,7 @@ public class GoalAttractor extends RMPLeaf {
 			, double alpha, double eta, double gain, double tolerance)
 	{
 		super(name, parent);
+		setJacobianStructure(JacobianStructure.IDENTITY);
 		this.w_u = w_u;
 		this.w_l = w_l;
 		this.sigma = sigma;
@@ -42,48 +45,193 @@ public class GoalAttractor extends RMPLeaf {
 		return q.minus(goal);
 	}
 
+	@Override
+	public void psi(DMatrixRMaj q, DMatrixRMaj out)
+	{
+		CommonOps_DDRM.subtract(q, goal.getDDRM(), out);
+	}
+
+	@Override
+	public void psiBatch(DMatrixRMaj qs, DMatrixRMaj out)
+	{
+		int states = qs.numCols;
+		double[] g = goal.getDDRM().data;
+		out.reshape(goalSize, states);
+		for (int i = 0; i < goalSize; i++)
+			for (int k = i * states; k < (i + 1) * states; k++)
+				out.data[k] = qs.data[k] - g[i];
+	}
+
 	public SimpleMatrix j(SimpleMatrix q)
 	{
 		return jeye;
 	}
 
+	@Override
+	public void j(DMatrixRMaj q, DMatrixRMaj out)
+	{
+		out.setTo(jeye.getDDRM());
+	}
+
+	@Override
+	public void jBatch(DMatrixRMaj qs, DMatrixRMaj out)
+	{
+		int states = qs.numCols;
+		out.reshape(goalSize * goalSize, states);
+		out.zero();
+		for (int i = 0; i < goalSize; i++)
+			for (int k = (i * goalSize + i) * states; k < (i * goalSize + i + 1) * states; k++)
+				out.data[k] = 1;
+	}
+
 	public SimpleMatrix j_dot(SimpleMatrix q, SimpleMatrix q_dot)
 	{
 		return new SimpleMatrix(goalSize, goalSize);
 	}
+
+	@Override
+	public void j_dot(DMatrixRMaj q, DMatrixRMaj q_dot, DMatrixRMaj out)
+	{
+		out.reshape(goalSize, goalSize);
+		out.zero();
+	}
+
+	@Override
+	public void j_dotBatch(DMatrixRMaj qs, DMatrixRMaj q_dots, DMatrixRMaj out)
+	{
+		out.reshape(goalSize * goalSize, qs.numCols);
+		out.zero();
+	}
 	
 	public SimpleMatrix solveF(SimpleMatrix x, SimpleMatrix x_dot)
 	{
-		double x_norm = x.normF();
+		DMatrixRMaj out = new DMatrixRMaj(goalSize, 1);
+		solveF(x.getDDRM(), x_dot.getDDRM(), out);
+		return SimpleMatrix.wrap(out);
+	}
+
+	@Override
+	protected void solveF(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj out)
+	{
+		out.reshape(goalSize, 1);
+		solveF(x.data, x_dot.data, 0, 1, out.data);
+	}
+
+	@Override
+	protected void solveFBatch(DMatrixRMaj xs, DMatrixRMaj x_dots, DMatrixRMaj out)
+	{
+		int states = xs.numCols;
+		out.reshape(goalSize, states);
+		for (int k = 0; k < states; k++)
+			solveF(xs.data, x_dots.data, k, states, out.data);
+	}
+
+	@Override
+	protected void evaluate(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj fOut, DMatrixRMaj mOut)
+	{
+		fOut.reshape(goalSize, 1);
+		double w = solveF(x.data, x_dot.data, 0, 1, fOut.data);
+		
+		mOut.reshape(goalSize, goalSize);
+		CommonOps_DDRM.setIdentity(mOut);
+		CommonOps_DDRM.scale(w, mOut);
+	}
+
+	@Override
+	protected void evaluateBatch(DMatrixRMaj xs, DMatrixRMaj x_dots, DMatrixRMaj fOut, DMatrixRMaj mOut)
+	{
+		int states = xs.numCols;
+		fOut.reshape(goalSize, states);
+		mOut.reshape(goalSize * goalSize, states);
+		mOut.zero();
+		for (int k = 0; k < states; k++)
+		{
+			double w = solveF(xs.data, x_dots.data, k, states, fOut.data);
+			for (int i = 0; i < goalSize; i++)
+				mOut.data[(i * goalSize + i) * states + k] = w;
+		}
+	}
+
+	/**
+	 * Computes F for one state stored with a stride, writing it to out with the
+	 * same offset and stride.
+	 * 
+	 * @return The weight w of the metric, which is M = w * I
+	 */
+	private double solveF(double[] x, double[] x_dot, int offset, int stride, double[] out)
+	{
+		double x_norm = norm(x, offset, stride);
 		
 		double beta = Math.exp(- Math.pow(x_norm, 2) / 2 / Math.pow(sigma, 2));
 		double w = (w_u - w_l) * beta + w_l;
-		double s = (1 - Math.exp(-2 * alpha * x_norm)) / (1 + Math.exp(-2 * alpha * x_norm));
+		double e2 = Math.exp(-2 * alpha * x_norm);
+		double s = (1 - e2) / (1 + e2);
 		
-		SimpleMatrix grad_Phi;
-		if(x_norm > tolerance)
-			grad_Phi = x.scale(s / x_norm * w * gain);
-		else
-			grad_Phi = new SimpleMatrix(x.numRows() , 1);
-		SimpleMatrix bx_dot = x_dot.scale(eta * w);
-		SimpleMatrix grad_w = x.scale(-beta * (w_u - w_l) / Math.pow(sigma, 2));
+		// grad_Phi = x * s / x_norm * w * gain
+		double grad_Phi = x_norm > tolerance ? s / x_norm * w * gain : 0;
+		// grad_w = x * -beta * (w_u - w_l) / sigma^2
+		double grad_w = -beta * (w_u - w_l) / Math.pow(sigma, 2);
 		
-		double x_dot_norm = x_dot.normF();
-		SimpleMatrix xi = grad_w.scale(Math.pow(x_dot_norm, 2)).minus(x_dot.mult(x_dot.transpose()).mult(grad_w).scale(2)).scale(-.5);
+		double x_dot_norm2 = 0, x_dot_grad_w = 0;
+		for (int i = 0, e = offset; i < goalSize; i++, e += stride)
+		{
+			x_dot_norm2 += x_dot[e] * x_dot[e];
+			x_dot_grad_w += x_dot[e] * x[e] * grad_w;
+		}
 		
-		return grad_Phi.scale(-1).minus(bx_dot).minus(xi);
+		// F = -grad_Phi - bx_dot - xi
+		// xi = -.5 * (grad_w * ||x_dot||^2 - 2 * x_dot * x_dotT * grad_w)
+		for (int i = 0, e = offset; i < goalSize; i++, e += stride)
+		{
+			double xi = -.5 * (x[e] * grad_w * x_dot_norm2 - 2 * x_dot[e] * x_dot_grad_w);
+			out[e] = -x[e] * grad_Phi - x_dot[e] * eta * w - xi;
+		}
+		return w;
 	}
 	
 	public SimpleMatrix solveM(SimpleMatrix x, SimpleMatrix x_dot)
 	{
-		double x_norm = x.normF();
-		
-		double beta = Math.exp(- Math.pow(x_norm, 2) / 2 / Math.pow(sigma, 2));
-		double w = (w_u - w_l) * beta + w_l;
+		DMatrixRMaj out = new DMatrixRMaj(goalSize, goalSize);
+		solveM(x.getDDRM(), x_dot.getDDRM(), out);
+		return SimpleMatrix.wrap(out);
+	}
+
+	@Override
+	protected void solveM(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj out)
+	{
+		double w = weight(norm(x.data, 0, 1));
 		
-		SimpleMatrix G = SimpleMatrix.identity(this.goal.numCols() * this.goal.numRows()).scale(w);
+		out.reshape(goalSize, goalSize);
+		CommonOps_DDRM.setIdentity(out);
+		CommonOps_DDRM.scale(w, out);
+	}
 
-		return G;
+	@Override
+	protected void solveMBatch(DMatrixRMaj xs, DMatrixRMaj x_dots, DMatrixRMaj out)
+	{
+		int states = xs.numCols;
+		out.reshape(goalSize * goalSize, states);
+		out.zero();
+		for (int k = 0; k < states; k++)
+		{
+			double w = weight(norm(xs.data, k, states));
+			for (int i = 0; i < goalSize; i++)
+				out.data[(i * goalSize + i) * states + k] = w;
+		}
+	}
+	
+	private double weight(double x_norm)
+	{
+		double beta = Math.exp(- Math.pow(x_norm, 2) / 2 / Math.pow(sigma, 2));
+		return (w_u - w_l) * beta + w_l;
+	}
+	
+	private double norm(double[] x, int offset, int stride)
+	{
+		double sum = 0;
+		for (int i = 0, e = offset; i < goalSize; i++, e += stride)
+			sum += x[e] * x[e];
+		return Math.sqrt(sum);
 	}
 	
 	public void updateGoal(SimpleMatrix goal)
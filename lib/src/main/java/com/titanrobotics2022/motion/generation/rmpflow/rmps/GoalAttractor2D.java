@@ -0,0 +1,103 @@
+package com.titanrobotics2022.motion.generation.rmpflow.rmps;
+
+import com.titanrobotics2022.motion.generation.rmpflow.fixed.RMPRoot2D;
+import com.titanrobotics2022.motion.generation.rmpflow.fixed.RMPVectorLeaf2D;
+
+import org.ejml.data.DMatrix2;
+import org.ejml.data.DMatrix2x2;
+
+/**
+ * A fixed-size version of {@link GoalAttractor} for an {@link RMPRoot2D}.
+ */
+public class GoalAttractor2D extends RMPVectorLeaf2D {
+	private double w_u, w_l, sigma, alpha, eta, gain, tolerance;
+	private final DMatrix2 goal = new DMatrix2();
+	
+	public GoalAttractor2D(String name, RMPRoot2D parent, DMatrix2 goal, double w_u, double w_l, double sigma
+			, double alpha, double eta, double gain, double tolerance)
+	{
+		super(name, parent);
+		this.w_u = w_u;
+		this.w_l = w_l;
+		this.sigma = sigma;
+		this.alpha = alpha;
+		this.eta = eta;
+		this.gain = gain;
+		this.tolerance = tolerance;
+		updateGoal(goal);
+	}
+
+	@Override
+	public void psi(DMatrix2 q, DMatrix2 out)
+	{
+		out.a1 = q.a1 - goal.a1;
+		out.a2 = q.a2 - goal.a2;
+	}
+
+	@Override
+	protected void solveF(DMatrix2 x, DMatrix2 x_dot, DMatrix2 out)
+	{
+		force(x, x_dot, out);
+	}
+
+	@Override
+	protected void solveM(DMatrix2 x, DMatrix2 x_dot, DMatrix2x2 out)
+	{
+		double x_norm = Math.sqrt(x.a1 * x.a1 + x.a2 * x.a2);
+		
+		double beta = Math.exp(- Math.pow(x_norm, 2) / 2 / Math.pow(sigma, 2));
+		double w = (w_u - w_l) * beta + w_l;
+		
+		metric(w, out);
+	}
+
+	@Override
+	protected void evaluate(DMatrix2 x, DMatrix2 x_dot, DMatrix2 fOut, DMatrix2x2 mOut)
+	{
+		metric(force(x, x_dot, fOut), mOut);
+	}
+
+	/**
+	 * Computes F, writing it to out.
+	 * 
+	 * @return The weight w of the metric, which is M = w * I
+	 */
+	private double force(DMatrix2 x, DMatrix2 x_dot, DMatrix2 out)
+	{
+		double x_norm = Math.sqrt(x.a1 * x.a1 + x.a2 * x.a2);
+		
+		double beta = Math.exp(- Math.pow(x_norm, 2) / 2 / Math.pow(sigma, 2));
+		double w = (w_u - w_l) * beta + w_l;
+		double e2 = Math.exp(-2 * alpha * x_norm);
+		double s = (1 - e2) / (1 + e2);
+		
+		// grad_Phi = x * s / x_norm * w * gain
+		double grad_Phi = x_norm > tolerance ? s / x_norm * w * gain : 0;
+		// grad_w = x * -beta * (w_u - w_l) / sigma^2
+		double grad_w = -beta * (w_u - w_l) / Math.pow(sigma, 2);
+		
+		double x_dot_norm2 = x_dot.a1 * x_dot.a1 + x_dot.a2 * x_dot.a2;
+		double x_dot_grad_w = (x_dot.a1 * x.a1 + x_dot.a2 * x.a2) * grad_w;
+		
+		// F = -grad_Phi - bx_dot - xi
+		// xi = -.5 * (grad_w * ||x_dot||^2 - 2 * x_dot * x_dotT * grad_w)
+		double xi1 = -.5 * (x.a1 * grad_w * x_dot_norm2 - 2 * x_dot.a1 * x_dot_grad_w);
+		double xi2 = -.5 * (x.a2 * grad_w * x_dot_norm2 - 2 * x_dot.a2 * x_dot_grad_w);
+		out.a1 = -x.a1 * grad_Phi - x_dot.a1 * eta * w - xi1;
+		out.a2 = -x.a2 * grad_Phi - x_dot.a2 * eta * w - xi2;
+		return w;
+	}
+
+	private static void metric(double w, DMatrix2x2 out)
+	{
+		out.a11 = w;
+		out.a12 = 0;
+		out.a21 = 0;
+		out.a22 = w;
+	}
+	
+	public void updateGoal(DMatrix2 goal)
+	{
+		this.goal.setTo(goal);
+	}
+}
@@ -0,0 +1,237 @@
+package com.titanrobotics2022.motion.generation.rmpflow.rmps;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+import com.titanrobotics2022.motion.generation.rmpflow.RMPNode;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.simple.SimpleMatrix;
+
+/**
+ * Maintains pairwise collision avoidance between the agents of a multi-agent
+ * tree, only for agents that are near each other.
+ * <p>
+ * The state of the tree is the concatenation of the positions of N planar
+ * agents, as described in {@link AgentBlock}. Linking a pairwise leaf for every
+ * pair of agents would give the tree O(N^2) leaves, most of them for agents
+ * too far apart to interact. Instead, an {@link AgentPair} with a
+ * {@link CollisionAvoidance} leaf is linked only for agents closer than a
+ * cutoff, and {@link #update(DMatrixRMaj)} is called each tick to link and
+ * unlink pairs as the agents move.
+ * <p>
+ * The pairs are kept in a Verlet neighbor list. Every pair closer than the
+ * cutoff plus a skin distance is linked, and the list is only rebuilt, with a
+ * cell list over the agents' positions, once some agent has moved more than
+ * half the skin since the last rebuild. Until then no two agents can have
+ * closed the skin between them, so every pair within the cutoff is still
+ * linked. Pairs that stay in the list keep their nodes, and the tree is only
+ * recompiled when the list changes.
+ * <p>
+ * The barrier of every pair is culled beyond the cutoff while the agents are
+ * not closing on each other quickly, see
+ * {@link CollisionAvoidance#setCullingTolerance(double)}. The cull also
+ * bounds the damping of the barrier, which grows with the closing speed, so
+ * beyond the cutoff a pair closing fast enough is still evaluated. Such a pair
+ * contributes to the solved accelerations until it is unlinked, and when the
+ * list is rebuilt leaves the solved accelerations unchanged only while no
+ * unlinked pair closes that fast. For agents of combined radius r closing at
+ * a speed v, with s = v / r and x0 = cutoff / r - 1, the barrier is culled at
+ * the cutoff while ɛ + 2 s^2, η (ɛ + s^2) s and 2 s^2 (ɛ + s^2) / x0 all stay
+ * below 1, as they do at rest for ɛ below 1. The cutoff should be far
+ * enough that the barrier weight there is negligible, and the skin wide
+ * enough that no pair closes at such speeds before it is relinked.
+ */
+public class MultiAgentAvoidance {
+	private final RMPNode parent;
+	private final double[] radii;
+	private final double cutoff, skin, epsilon, alpha, eta;
+	// Linked pairs, keyed by first * N + second with first < second
+	private final HashMap<Long, Neighbor> pairs = new HashMap<>();
+	private final ObstacleGrid grid = new ObstacleGrid();
+	// Positions of the agents at the last rebuild, and scratch for the cell list
+	private final double[] xs, ys;
+	private final int[] near;
+	private int rebuilds = 0;
+
+	/**
+	 * A linked pair and the rebuild it was last found in.
+	 */
+	private static final class Neighbor {
+		final AgentPair pair;
+		int seen;
+
+		Neighbor(AgentPair pair) {
+			this.pair = pair;
+		}
+	}
+
+	/**
+	 * Creates pairwise avoidance between a team of agents. No pairs are linked
+	 * until the first update.
+	 * 
+	 * @param parent  The node whose state holds the positions of every agent,
+	 *                usually the root
+	 * @param radii   The radius of each agent. Two agents are kept at least the
+	 *                sum of their radii apart.
+	 * @param cutoff  The distance between two agents below which they avoid each
+	 *                other. It must exceed the sum of the radii of any two
+	 *                agents.
+	 * @param skin    The extra distance within which pairs are kept linked, so
+	 *                that the neighbor list need not be rebuilt every tick
+	 * @param epsilon The positive damping matrix scalar of each pair
+	 * @param alpha   The positive potenial function scalar of each pair
+	 * @param eta     A small positive scalar for the avoidance metric of each
+	 *                pair
+	 */
+	public MultiAgentAvoidance(RMPNode parent, double[] radii, double cutoff, double skin, double epsilon,
+			double alpha, double eta) {
+		if (!(cutoff > 0) || !(skin >= 0))
+			throw new IllegalArgumentException("Cutoff must be positive and skin non-negative.");
+		double largest = 0, second = 0;
+		for (double radius : radii) {
+			if (radius > largest) {
+				second = largest;
+				largest = radius;
+			} else if (radius > second) {
+				second = radius;
+			}
+		}
+		if (!(cutoff > largest + second))
+			throw new IllegalArgumentException("Cutoff must exceed the sum of the radii of any two agents.");
+		this.parent = parent;
+		this.radii = radii.clone();
+		this.cutoff = cutoff;
+		this.skin = skin;
+		this.epsilon = epsilon;
+		this.alpha = alpha;
+		this.eta = eta;
+		xs = new double[radii.length];
+		ys = new double[radii.length];
+		near = new int[radii.length];
+	}
+
+	/**
+	 * Returns the number of agents in the team.
+	 * 
+	 * @return The number of agents
+	 */
+	public int getAgentCount() {
+		return radii.length;
+	}
+
+	/**
+	 * Returns the number of pairs currently linked into the tree.
+	 * 
+	 * @return The number of linked pairs
+	 */
+	public int getPairCount() {
+		return pairs.size();
+	}
+
+	/**
+	 * Returns whether avoidance between two agents is currently linked into the
+	 * tree.
+	 * 
+	 * @param first  The index of one agent
+	 * @param second The index of the other agent
+	 * @return True, if the pair is linked, or false, otherwise
+	 */
+	public boolean isLinked(int first, int second) {
+		return pairs.containsKey(key(Math.min(first, second), Math.max(first, second)));
+	}
+
+	/**
+	 * Returns the number of times the neighbor list has been rebuilt.
+	 * 
+	 * @return The number of rebuilds
+	 */
+	public int getRebuildCount() {
+		return rebuilds;
+	}
+
+	/**
+	 * Updates the linked pairs for the current positions of the agents. Call it
+	 * before each solve.
+	 * 
+	 * @param x The positions of every agent, as a vector of length 2N
+	 * @return True, if the neighbor list was rebuilt, or false, otherwise
+	 */
+	public boolean update(DMatrixRMaj x) {
+		return update(x.data);
+	}
+
+	/**
+	 * Updates the linked pairs for the current positions of the agents.
+	 * 
+	 * @param x The positions of every agent, as a vector of length 2N
+	 * @return True, if the neighbor list was rebuilt, or false, otherwise
+	 * @see #update(DMatrixRMaj)
+	 */
+	public boolean update(SimpleMatrix x) {
+		return update(x.getDDRM().data);
+	}
+
+	private boolean update(double[] q) {
+		int n = radii.length;
+		if (q.length < 2 * n)
+			throw new IllegalArgumentException("The state must hold the positions of every agent.");
+		if (rebuilds > 0 && !movedPastSkin(q))
+			return false;
+		rebuilds++;
+		for (int i = 0; i < n; i++) {
+			xs[i] = q[2 * i];
+			ys[i] = q[2 * i + 1];
+		}
+		double range = cutoff + skin;
+		grid.build(xs, ys, n, range);
+		for (int i = 0; i < n; i++) {
+			int found = grid.query(xs[i], ys[i], range, near);
+			for (int k = 0; k < found; k++) {
+				int j = near[k];
+				if (j <= i || Math.hypot(xs[j] - xs[i], ys[j] - ys[i]) > range)
+					continue;
+				Neighbor neighbor = pairs.get(key(i, j));
+				if (neighbor == null) {
+					neighbor = new Neighbor(link(i, j));
+					pairs.put(key(i, j), neighbor);
+				}
+				neighbor.seen = rebuilds;
+			}
+		}
+		for (Iterator<Neighbor> it = pairs.values().iterator(); it.hasNext();) {
+			Neighbor neighbor = it.next();
+			if (neighbor.seen != rebuilds) {
+				neighbor.pair.unlinkParent(parent);
+				it.remove();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether some agent has moved more than half the skin since the
+	 * last rebuild.
+	 */
+	private boolean movedPastSkin(double[] q) {
+		double limit = .5 * skin;
+		for (int i = 0; i < radii.length; i++)
+			if (Math.hypot(q[2 * i] - xs[i], q[2 * i + 1] - ys[i]) > limit)
+				return true;
+		return false;
+	}
+
+	private AgentPair link(int first, int second) {
+		AgentPair pair = new AgentPair(String.format("Agents %d-%d", first, second), parent, first, second);
+		double r = radii[first] + radii[second];
+		CollisionAvoidance avoidance = new CollisionAvoidance(String.format("Avoidance %d-%d", first, second), pair,
+				new SimpleMatrix(2, 1), r, epsilon, alpha, eta);
+		// The reach of a tolerance of (cutoff / r - 1)^-4 is the cutoff, at rest
+		avoidance.setCullingTolerance(Math.pow(cutoff / r - 1, -4));
+		return pair;
+	}
+
+	private long key(int first, int second) {
+		return (long) first * radii.length + second;
+	}
+}
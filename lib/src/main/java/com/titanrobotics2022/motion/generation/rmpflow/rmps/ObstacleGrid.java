@@ -0,0 +1,102 @@
+package com.titanrobotics2022.motion.generation.rmpflow.rmps;
+
+/**
+ * A uniform grid over a set of points in the plane, for finding the points
+ * near a query point without visiting all of them.
+ * <p>
+ * The points are bucketed by cell with a counting sort, so every cell's points
+ * are stored contiguously. The arrays are reused when the grid is rebuilt, and
+ * only grow when it is rebuilt with more points than before.
+ */
+final class ObstacleGrid {
+	// Upper bound on the number of cells per point, so that sparse points do not
+	// create huge grids
+	private static final int CELLS_PER_POINT = 4;
+
+	private double minX, minY, size;
+	private int cols, rows;
+	// The points in cell c are items[cellStart[c]] through items[cellStart[c + 1] - 1]
+	private int[] cellStart = new int[1], items = new int[0], cellOf = new int[0];
+
+	/**
+	 * Rebuckets a set of points.
+	 * 
+	 * @param xs       The x coordinates of the points
+	 * @param ys       The y coordinates of the points
+	 * @param n        The number of points
+	 * @param cellSize The desired width of a cell. Queries are cheapest when it is
+	 *                 about the query radius.
+	 */
+	void build(double[] xs, double[] ys, int n, double cellSize) {
+		minX = Double.POSITIVE_INFINITY;
+		minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			minX = Math.min(minX, xs[i]);
+			minY = Math.min(minY, ys[i]);
+			maxX = Math.max(maxX, xs[i]);
+			maxY = Math.max(maxY, ys[i]);
+		}
+		if (n == 0) {
+			minX = minY = maxX = maxY = 0;
+		}
+		double width = maxX - minX, height = maxY - minY;
+		size = Math.max(cellSize, Math.sqrt(width * height / (CELLS_PER_POINT * n + 1)));
+		size = Math.max(size, Math.max(width, height) / (CELLS_PER_POINT * n + 1));
+		if (!(size > 0) || Double.isInfinite(size))
+			size = Math.max(Math.max(width, height), 1);
+		cols = (int) (width / size) + 1;
+		rows = (int) (height / size) + 1;
+
+		int cells = cols * rows;
+		if (cellStart.length < cells + 1)
+			cellStart = new int[cells + 1];
+		if (items.length < n) {
+			items = new int[n];
+			cellOf = new int[n];
+		}
+		for (int c = 0; c < cells; c++)
+			cellStart[c] = 0;
+		for (int i = 0; i < n; i++) {
+			int col = Math.min((int) ((xs[i] - minX) / size), cols - 1);
+			int row = Math.min((int) ((ys[i] - minY) / size), rows - 1);
+			cellOf[i] = row * cols + col;
+			cellStart[cellOf[i]]++;
+		}
+		// cellStart[c] is the end of cell c, then each cell is filled from its end
+		// so that its entry ends up at its start
+		for (int c = 1; c < cells; c++)
+			cellStart[c] += cellStart[c - 1];
+		cellStart[cells] = n;
+		for (int i = n - 1; i >= 0; i--)
+			items[--cellStart[cellOf[i]]] = i;
+	}
+
+	/**
+	 * Finds the points that may be within a distance of a query point. Every
+	 * point within the distance is found, along with some farther ones, so
+	 * callers should check the exact distance.
+	 * 
+	 * @param x      The x coordinate of the query point
+	 * @param y      The y coordinate of the query point
+	 * @param radius The distance to search within
+	 * @param out    The array to write the indices of the points to. It must be
+	 *               at least as long as the number of points.
+	 * @return The number of indices written
+	 */
+	int query(double x, double y, double radius, int[] out) {
+		double colLo = Math.floor((x - radius - minX) / size), colHi = Math.floor((x + radius - minX) / size);
+		double rowLo = Math.floor((y - radius - minY) / size), rowHi = Math.floor((y + radius - minY) / size);
+		if (!(colHi >= 0 && colLo < cols && rowHi >= 0 && rowLo < rows))
+			return 0;
+		int c0 = (int) Math.max(colLo, 0), c1 = (int) Math.min(colHi, cols - 1);
+		int r0 = (int) Math.max(rowLo, 0), r1 = (int) Math.min(rowHi, rows - 1);
+		int found = 0;
+		for (int row = r0; row <= r1; row++) {
+			int from = cellStart[row * cols + c0], to = cellStart[row * cols + c1 + 1];
+			for (int k = from; k < to; k++)
+				out[found++] = items[k];
+		}
+		return found;
+	}
+}
@@ -1,20 +1,24 @@
 package com.titanrobotics2022.motion.generation.rmpflow.rmps;
 
 import com.titanrobotics2022.mapping.Path;
-import com.titanrobotics2022.mapping.Point;
+import com.titanrobotics2022.mapping.ProgressTracker;
 import com.titanrobotics2022.motion.generation.rmpflow.RMPLeaf;
 import com.titanrobotics2022.motion.generation.rmpflow.RMPNode;
 
+import org.ejml.data.DMatrixRMaj;
 import org.ejml.simple.SimpleMatrix;
 
-import edu.wpi.first.math.geometry.Rotation2d;
-import edu.wpi.first.math.geometry.Translation2d;
-
 public class PathFollowing extends RMPLeaf {
 
     private Path path;
+    private final ProgressTracker tracker;
     private double v, P, I, A, B, maxAcc, kFore, kSide;
     private double err = 0;
+    // The integral term and progress from before a lookahead
+    private final ProgressTracker savedTracker;
+    private double savedErr;
+    // The nearest point of the path, reused so that the maps do not allocate
+    private final double[] nearest = new double[2];
 
     // Compute desired vertical acceleration (PI loop)
     // P(c_dot - v) + I(c - d)
@@ -39,6 +43,8 @@ public class PathFollowing extends RMPLeaf {
             double K, double h, double maxAcc) {
         super(name, parent);
         this.path = path;
+        this.tracker = new ProgressTracker(path);
+        this.savedTracker = new ProgressTracker(path);
         this.v = v;
         this.P = P;
         this.I = I;
@@ -49,27 +55,121 @@ public class PathFollowing extends RMPLeaf {
         this.kSide = K * Math.cos(h * Math.PI / 2);
     }
 
+    /**
+     * Returns the tracker of the progress along the path, shared by the task
+     * map, its Jacobian and its derivative. Its window should exceed the
+     * distance the robot moves in one solve.
+     * 
+     * @return The progress tracker
+     */
+    public ProgressTracker getProgressTracker() {
+        return tracker;
+    }
+
     @Override
     public SimpleMatrix psi(SimpleMatrix x) {
-        double c = path.getProgress(new Point(x.get(0), x.get(1)));
-        double theta = path.getRotation(c).getRadians();
-        double s = -Math.signum(
-                Math.sin(theta - Math.atan2(path.getPos(c).getY() - x.get(1), path.getPos(c).getX() - x.get(0))));
-        double d = path.getPos(c).getDistance(new Translation2d(x.get(0), x.get(1))) * s;
-        return new SimpleMatrix(2, 1, true, new double[] { c, d });
+        DMatrixRMaj out = new DMatrixRMaj(2, 1);
+        psi(x.getDDRM(), out);
+        return SimpleMatrix.wrap(out);
+    }
+
+    @Override
+    public void psi(DMatrixRMaj x, DMatrixRMaj out) {
+        out.reshape(2, 1);
+        psi(x.get(0), x.get(1), tracker.getProgress(x.get(0), x.get(1)), out.data, 0, 1);
+    }
+
+    /**
+     * Maps every state of a batch to task space.
+     * <p>
+     * Unlike {@link #psi(DMatrixRMaj, DMatrixRMaj)}, this finds the progress of
+     * each state with a global search of the path rather than with the shared
+     * tracker, so the states of a batch do not move the warm start of the
+     * single-state solve.
+     */
+    @Override
+    public void psiBatch(DMatrixRMaj qs, DMatrixRMaj out) {
+        int states = qs.numCols;
+        out.reshape(2, states);
+        for (int k = 0; k < states; k++) {
+            double qx = qs.data[k], qy = qs.data[states + k];
+            psi(qx, qy, path.getProgress(qx, qy), out.data, k, states);
+        }
+    }
+
+    /**
+     * Writes the task space position of a state whose progress is c to
+     * out[offset] and out[offset + stride].
+     */
+    private void psi(double qx, double qy, double c, double[] out, int offset, int stride) {
+        path.getPos(c, nearest);
+        double ex = nearest[0] - qx, ey = nearest[1] - qy;
+        // The sign of the sine of the angle from the offset to the direction
+        double s = -Math.signum(path.getDirectionY(c) * ex - path.getDirectionX(c) * ey);
+        out[offset] = c;
+        out[offset + stride] = Math.hypot(ex, ey) * s;
     }
 
     @Override
     public SimpleMatrix solveF(SimpleMatrix x, SimpleMatrix x_dot) {
-        err += getV(x) - x_dot.get(0);
-        SimpleMatrix a = new SimpleMatrix(2, 1, true,
-                new double[] { P * (getV(x) - x_dot.get(0)) + I * err,
-                        A * x.get(1) - B * x_dot.get(1) });
-        return solveM(x, x_dot).mult(a);
+        DMatrixRMaj out = new DMatrixRMaj(2, 1);
+        solveF(x.getDDRM(), x_dot.getDDRM(), out);
+        return SimpleMatrix.wrap(out);
+    }
+
+    @Override
+    protected void solveF(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj out) {
+        double vErr = getV(x) - x_dot.get(0);
+        err += vErr;
+        // M * a, where M is diagonal
+        out.reshape(2, 1);
+        out.data[0] = kFore * (P * vErr + I * err);
+        out.data[1] = kSide * (A * x.get(1) - B * x_dot.get(1));
+    }
+
+    /**
+     * Solves F for every state of a batch.
+     * <p>
+     * Unlike {@link #solveF(DMatrixRMaj, DMatrixRMaj, DMatrixRMaj)}, this does not
+     * advance the integral term. Each state is evaluated as if it were the next
+     * step after the current one, so the states of a batch do not leak into each
+     * other or into the integrator of the single-state solve.
+     */
+    @Override
+    protected void solveFBatch(DMatrixRMaj xs, DMatrixRMaj x_dots, DMatrixRMaj out) {
+        int states = xs.numCols;
+        out.reshape(2, states);
+        for (int k = 0; k < states; k++) {
+            double vErr = getV(xs.data[k]) - x_dots.data[k];
+            out.data[k] = kFore * (P * vErr + I * (err + vErr));
+            out.data[states + k] = kSide * (A * xs.data[states + k] - B * x_dots.data[states + k]);
+        }
+    }
+
+    @Override
+    protected void beginLookahead() {
+        savedErr = err;
+        savedTracker.setTo(tracker);
+    }
+
+    @Override
+    protected void endLookahead() {
+        err = savedErr;
+        tracker.setTo(savedTracker);
     }
 
     public double getV(SimpleMatrix x) {
-        double dist = path.getLength() - x.get(0);
+        return getV(x.getDDRM());
+    }
+
+    private double getV(DMatrixRMaj x) {
+        return getV(x.get(0));
+    }
+
+    private double getV(double c) {
+        // The progress of a path that does not clamp it exceeds the length once
+        // the robot has passed the end, where it should come to a stop
+        double dist = Math.max(0, path.getLength() - c);
         return Math.min(v, Math.sqrt(2 * maxAcc * dist));
     }
 
@@ -78,24 +178,98 @@ public class PathFollowing extends RMPLeaf {
         return new SimpleMatrix(2, 2, true, new double[] { kFore, 0, 0, kSide });
     }
 
+    @Override
+    protected void solveM(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj out) {
+        out.reshape(2, 2);
+        out.data[0] = kFore;
+        out.data[1] = 0;
+        out.data[2] = 0;
+        out.data[3] = kSide;
+    }
+
     @Override
     public SimpleMatrix j(SimpleMatrix q) {
-        double c = path.getProgress(new Point(q.get(0), q.get(1)));
-        double theta = path.getRotation(c).getRadians();
-        return new SimpleMatrix(2, 2, true,
-                new double[] { Math.cos(theta), Math.sin(theta), -Math.sin(theta), Math.cos(theta) });
+        DMatrixRMaj out = new DMatrixRMaj(2, 2);
+        j(q.getDDRM(), out);
+        return SimpleMatrix.wrap(out);
+    }
+
+    @Override
+    public void j(DMatrixRMaj q, DMatrixRMaj out) {
+        out.reshape(2, 2);
+        j(tracker.getProgress(q.get(0), q.get(1)), out.data, 0, 1);
+    }
+
+    /**
+     * Computes the Jacobian of every state of a batch, finding the progress of
+     * each state without the shared tracker, like
+     * {@link #psiBatch(DMatrixRMaj, DMatrixRMaj)}.
+     */
+    @Override
+    public void jBatch(DMatrixRMaj qs, DMatrixRMaj out) {
+        int states = qs.numCols;
+        out.reshape(4, states);
+        for (int k = 0; k < states; k++)
+            j(path.getProgress(qs.data[k], qs.data[states + k]), out.data, k, states);
+    }
+
+    /**
+     * Writes the row-major Jacobian at progress c to out[offset],
+     * out[offset + stride], and so on.
+     */
+    private void j(double c, double[] out, int offset, int stride) {
+        double cos = path.getDirectionX(c), sin = path.getDirectionY(c);
+        out[offset] = cos;
+        out[offset + stride] = sin;
+        out[offset + 2 * stride] = -sin;
+        out[offset + 3 * stride] = cos;
     }
 
     @Override
     public SimpleMatrix j_dot(SimpleMatrix q, SimpleMatrix q_dot) {
-        Point pos = new Point(q.get(0), q.get(1));
-        double c = path.getProgress(pos);
-        Rotation2d theta = path.getRotation(c);
-        Rotation2d phi = pos.minus(path.getPos(c)).getAngle();
-        double dcdq = theta.getCos() * q_dot.get(0) + theta.getSin() * q_dot.get(1);
-        return new SimpleMatrix(2, 2, true,
-                new double[] { -theta.getSin(), theta.getCos(), -phi.getSin(), phi.getCos() })
-                .scale(dcdq * path.getAngularVelocity(c).getRadians());
+        DMatrixRMaj out = new DMatrixRMaj(2, 2);
+        j_dot(q.getDDRM(), q_dot.getDDRM(), out);
+        return SimpleMatrix.wrap(out);
+    }
+
+    @Override
+    public void j_dot(DMatrixRMaj q, DMatrixRMaj q_dot, DMatrixRMaj out) {
+        out.reshape(2, 2);
+        j_dot(q.get(0), q.get(1), q_dot.get(0), q_dot.get(1), tracker.getProgress(q.get(0), q.get(1)), out.data, 0, 1);
+    }
+
+    /**
+     * Computes the derivative of the Jacobian of every state of a batch, finding
+     * the progress of each state without the shared tracker, like
+     * {@link #psiBatch(DMatrixRMaj, DMatrixRMaj)}.
+     */
+    @Override
+    public void j_dotBatch(DMatrixRMaj qs, DMatrixRMaj q_dots, DMatrixRMaj out) {
+        int states = qs.numCols;
+        out.reshape(4, states);
+        for (int k = 0; k < states; k++) {
+            double qx = qs.data[k], qy = qs.data[states + k];
+            j_dot(qx, qy, q_dots.data[k], q_dots.data[states + k], path.getProgress(qx, qy), out.data, k, states);
+        }
+    }
+
+    /**
+     * Writes the row-major derivative of the Jacobian of a state whose progress
+     * is c to out[offset], out[offset + stride], and so on.
+     */
+    private void j_dot(double qx, double qy, double qx_dot, double qy_dot, double c, double[] out, int offset,
+            int stride) {
+        double cos = path.getDirectionX(c), sin = path.getDirectionY(c);
+        path.getPos(c, nearest);
+        // The unit offset from the path, or zero degrees on it, like Rotation2d
+        double ex = qx - nearest[0], ey = qy - nearest[1], norm = Math.hypot(ex, ey);
+        double phiCos = norm > 1e-6 ? ex / norm : 1, phiSin = norm > 1e-6 ? ey / norm : 0;
+        double dcdq = cos * qx_dot + sin * qy_dot;
+        double scale = dcdq * path.getCurvature(c);
+        out[offset] = -sin * scale;
+        out[offset + stride] = cos * scale;
+        out[offset + 2 * stride] = -phiSin * scale;
+        out[offset + 3 * stride] = phiCos * scale;
     }
 
 }
@@ -0,0 +1,134 @@
+package com.titanrobotics2022.motion.generation.rmpflow.simulation;
+
+/**
+ * The outcome and metrics of one simulated episode.
+ */
+public final class EpisodeResult {
+	/**
+	 * How an episode ended.
+	 */
+	public enum Outcome {
+		/** The robot came within the goal tolerance without colliding. */
+		REACHED_GOAL,
+		/** The robot entered an obstacle. */
+		COLLIDED,
+		/** The robot did not reach the goal in the time allowed. */
+		TIMED_OUT,
+		/** The state or the solved acceleration stopped being finite. */
+		DIVERGED
+	}
+
+	private final int episode;
+	private final Outcome outcome;
+	private final double minClearance, timeToGoal;
+	private final int steps, solves;
+	private final long totalSolveNanos, maxSolveNanos;
+
+	EpisodeResult(int episode, Outcome outcome, double minClearance, double timeToGoal, int steps, int solves,
+			long totalSolveNanos, long maxSolveNanos) {
+		this.episode = episode;
+		this.outcome = outcome;
+		this.minClearance = minClearance;
+		this.timeToGoal = timeToGoal;
+		this.steps = steps;
+		this.solves = solves;
+		this.totalSolveNanos = totalSolveNanos;
+		this.maxSolveNanos = maxSolveNanos;
+	}
+
+	/**
+	 * Gets the index of the episode in its run.
+	 * 
+	 * @return The index of the episode
+	 */
+	public int getEpisode() {
+		return episode;
+	}
+
+	/**
+	 * Gets how the episode ended.
+	 * 
+	 * @return The outcome
+	 */
+	public Outcome getOutcome() {
+		return outcome;
+	}
+
+	/**
+	 * Gets whether the robot reached the goal.
+	 * 
+	 * @return True, if the robot reached the goal without colliding, or false,
+	 *         otherwise
+	 */
+	public boolean isSuccess() {
+		return outcome == Outcome.REACHED_GOAL;
+	}
+
+	/**
+	 * Gets the smallest distance between the robot and the edge of an obstacle
+	 * over the episode.
+	 * 
+	 * @return The minimum clearance, which is negative after a collision
+	 */
+	public double getMinClearance() {
+		return minClearance;
+	}
+
+	/**
+	 * Gets the simulated time the robot took to reach the goal.
+	 * 
+	 * @return The time to the goal in seconds, or NaN if it was not reached
+	 */
+	public double getTimeToGoal() {
+		return timeToGoal;
+	}
+
+	/**
+	 * Gets the number of integration steps in the episode.
+	 * 
+	 * @return The number of steps
+	 */
+	public int getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Gets the number of solves of the tree in the episode. A multi-stage
+	 * integration scheme solves the tree several times per step.
+	 * 
+	 * @return The number of solves
+	 */
+	public int getSolves() {
+		return solves;
+	}
+
+	/**
+	 * Gets the mean wall-clock time of one solve of the tree, excluding the
+	 * integration.
+	 * 
+	 * @return The mean solve latency in nanoseconds, or 0 if there were no
+	 *         solves
+	 */
+	public double getMeanSolveNanos() {
+		return solves == 0 ? 0 : (double) totalSolveNanos / solves;
+	}
+
+	/**
+	 * Gets the longest wall-clock time of one solve of the tree.
+	 * 
+	 * @return The maximum solve latency in nanoseconds
+	 */
+	public long getMaxSolveNanos() {
+		return maxSolveNanos;
+	}
+
+	long getTotalSolveNanos() {
+		return totalSolveNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Episode %d: %s, min clearance %.3f, time to goal %.2f s, %d steps, mean solve %.2f us",
+				episode, outcome, minClearance, timeToGoal, steps, getMeanSolveNanos() / 1e3);
+	}
+}
@@ -0,0 +1,226 @@
+package com.titanrobotics2022.motion.generation.rmpflow.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.titanrobotics2022.mapping.LinearSegment;
+import com.titanrobotics2022.mapping.Point;
+import com.titanrobotics2022.motion.generation.rmpflow.RMPRollout;
+import com.titanrobotics2022.motion.generation.rmpflow.RMPRoot;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.CollisionAvoidance;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.PathFollowing;
+
+import org.ejml.simple.SimpleMatrix;
+
+/**
+ * Runs randomized RMP episodes without a display, in parallel.
+ * <p>
+ * Each episode generates a scenario, builds a fresh tree for it and drives a
+ * point robot from the start towards the goal by integrating the solved
+ * accelerations at a fixed time step. Episodes are spread over worker
+ * threads. A tree is only ever solved by the worker that built it, so
+ * leaves with state, such as the integrator of {@link PathFollowing}, need no
+ * synchronization.
+ * <p>
+ * Every episode draws its scenario from its own seed, derived from the run's
+ * seed and the episode's index, so a run is reproducible regardless of the
+ * number of threads.
+ */
+public class MonteCarloSimulator {
+	/**
+	 * Builds the RMP tree that controls the robot in a scenario.
+	 */
+	public interface TreeBuilder {
+		/**
+		 * Builds a tree for a scenario. It is called once per episode, on the
+		 * worker that runs the episode.
+		 * 
+		 * @param scenario The scenario
+		 * @return The root of the tree
+		 */
+		RMPRoot build(Scenario scenario);
+	}
+
+	private final ScenarioGenerator generator;
+	private final TreeBuilder builder;
+	private final double step, maxTime, goalTolerance;
+	private final RMPRollout.Scheme scheme;
+
+	/**
+	 * Creates a simulator that integrates with the trapezoidal scheme of
+	 * {@code RMPDemo}.
+	 * 
+	 * @param generator     The generator of the scenarios
+	 * @param builder       The builder of the tree for each scenario
+	 * @param step          The time step in seconds
+	 * @param maxTime       The simulated time after which an episode times out,
+	 *                      in seconds
+	 * @param goalTolerance The distance from the goal at which an episode
+	 *                      succeeds
+	 */
+	public MonteCarloSimulator(ScenarioGenerator generator, TreeBuilder builder, double step, double maxTime,
+			double goalTolerance) {
+		this(generator, builder, step, maxTime, goalTolerance, RMPRollout.Scheme.TRAPEZOIDAL);
+	}
+
+	/**
+	 * Creates a simulator.
+	 * 
+	 * @param generator     The generator of the scenarios
+	 * @param builder       The builder of the tree for each scenario
+	 * @param step          The time step in seconds
+	 * @param maxTime       The simulated time after which an episode times out,
+	 *                      in seconds
+	 * @param goalTolerance The distance from the goal at which an episode
+	 *                      succeeds
+	 * @param scheme        The scheme to integrate the solved accelerations with
+	 */
+	public MonteCarloSimulator(ScenarioGenerator generator, TreeBuilder builder, double step, double maxTime,
+			double goalTolerance, RMPRollout.Scheme scheme) {
+		if (!(step > 0) || !(maxTime > 0))
+			throw new IllegalArgumentException("Time step and maximum time must be positive.");
+		this.generator = generator;
+		this.builder = builder;
+		this.step = step;
+		this.maxTime = maxTime;
+		this.goalTolerance = goalTolerance;
+		this.scheme = scheme;
+	}
+
+	/**
+	 * Builds the tree of {@code RMPDemo}: path following along a straight line
+	 * from the start to the goal, and a collision avoidance leaf per obstacle.
+	 * 
+	 * @param scenario The scenario
+	 * @return The root of the tree
+	 */
+	public static RMPRoot demoTree(Scenario scenario) {
+		RMPRoot root = new RMPRoot("root");
+		new PathFollowing("Path Following", root, new LinearSegment(scenario.getStart(), scenario.getGoal()), 8, 5,
+				0, 1, .5, 1, .5, 2);
+		for (int i = 0; i < scenario.getObstacleCount(); i++) {
+			Point center = scenario.getObstacleCenter(i);
+			new CollisionAvoidance(String.format("Obstacle %d", i), root,
+					new SimpleMatrix(1, 2, false, new double[] { center.getX(), center.getY() }),
+					scenario.getObstacleRadius(i), .2, 1e-5, 0);
+		}
+		return root;
+	}
+
+	/**
+	 * Runs episodes on a pool of worker threads.
+	 * 
+	 * @param episodes The number of episodes
+	 * @param seed     The seed of the run
+	 * @param threads  The number of worker threads
+	 * @return The results of the episodes
+	 */
+	public SimulationReport run(int episodes, long seed, int threads) {
+		if (episodes < 0 || threads < 1)
+			throw new IllegalArgumentException("Episodes must be non-negative and threads must be positive.");
+		EpisodeResult[] results = new EpisodeResult[episodes];
+		AtomicInteger next = new AtomicInteger();
+		List<Callable<Void>> workers = new ArrayList<Callable<Void>>();
+		for (int t = 0; t < Math.min(threads, Math.max(episodes, 1)); t++) {
+			workers.add(() -> {
+				for (int i = next.getAndIncrement(); i < episodes; i = next.getAndIncrement())
+					results[i] = runEpisode(seed, i);
+				return null;
+			});
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(workers.size());
+		try {
+			for (Future<Void> worker : pool.invokeAll(workers))
+				worker.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while simulating.", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("An episode failed.", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		return new SimulationReport(results);
+	}
+
+	/**
+	 * Runs episodes on one worker thread per available processor.
+	 * 
+	 * @param episodes The number of episodes
+	 * @param seed     The seed of the run
+	 * @return The results of the episodes
+	 */
+	public SimulationReport run(int episodes, long seed) {
+		return run(episodes, seed, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Runs one episode of a run on the calling thread.
+	 * 
+	 * @param seed    The seed of the run
+	 * @param episode The index of the episode
+	 * @return The result of the episode
+	 */
+	public EpisodeResult runEpisode(long seed, int episode) {
+		long episodeSeed = new SplittableRandom(seed ^ (episode * 0x9E3779B97F4A7C15L)).nextLong();
+		return runEpisode(generator.generate(new Random(episodeSeed)), episode);
+	}
+
+	/**
+	 * Runs an episode in a given scenario on the calling thread.
+	 * 
+	 * @param scenario The scenario
+	 * @param episode  The index to report the episode with
+	 * @return The result of the episode
+	 */
+	public EpisodeResult runEpisode(Scenario scenario, int episode) {
+		RMPRoot root = builder.build(scenario);
+		Point start = scenario.getStart();
+		RMPRollout rollout = new RMPRollout(root, scheme);
+		rollout.setSolveTiming(true);
+		double[] x = { start.getX(), start.getY() }, x_dot = new double[2];
+		double minClearance = scenario.getClearance(x[0], x[1]);
+		int maxSteps = (int) Math.ceil(maxTime / step), steps = 0;
+		EpisodeResult.Outcome outcome = EpisodeResult.Outcome.TIMED_OUT;
+
+		while (true) {
+			if (scenario.getDistanceToGoal(x[0], x[1]) <= goalTolerance) {
+				outcome = EpisodeResult.Outcome.REACHED_GOAL;
+				break;
+			}
+			if (steps == maxSteps)
+				break;
+			rollout.step(step, x, x_dot);
+			steps++;
+
+			if (!isFinite(x) || !isFinite(x_dot)) {
+				outcome = EpisodeResult.Outcome.DIVERGED;
+				break;
+			}
+			minClearance = Math.min(minClearance, scenario.getClearance(x[0], x[1]));
+			if (minClearance < 0) {
+				outcome = EpisodeResult.Outcome.COLLIDED;
+				break;
+			}
+		}
+		double timeToGoal = outcome == EpisodeResult.Outcome.REACHED_GOAL ? steps * step : Double.NaN;
+		return new EpisodeResult(episode, outcome, minClearance, timeToGoal, steps,
+				(int) rollout.getTimedSolveCount(), rollout.getTotalSolveNanos(), rollout.getMaxSolveNanos());
+	}
+
+	private static boolean isFinite(double[] values) {
+		for (double v : values)
+			if (!Double.isFinite(v))
+				return false;
+		return true;
+	}
+}
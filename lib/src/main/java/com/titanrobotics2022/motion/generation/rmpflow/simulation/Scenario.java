@@ -0,0 +1,108 @@
+package com.titanrobotics2022.motion.generation.rmpflow.simulation;
+
+import com.titanrobotics2022.mapping.Point;
+
+/**
+ * A point robot's start and goal positions among circular obstacles in the
+ * plane.
+ */
+public final class Scenario {
+	private final double startX, startY, goalX, goalY;
+	private final double[] obstacleX, obstacleY, obstacleR;
+
+	/**
+	 * Creates a scenario. The obstacle arrays are copied.
+	 * 
+	 * @param start     The start position of the robot
+	 * @param goal      The goal position of the robot
+	 * @param obstacleX The x coordinates of the centers of the obstacles
+	 * @param obstacleY The y coordinates of the centers of the obstacles
+	 * @param obstacleR The radii of the obstacles
+	 */
+	public Scenario(Point start, Point goal, double[] obstacleX, double[] obstacleY, double[] obstacleR) {
+		if (obstacleX.length != obstacleY.length || obstacleX.length != obstacleR.length)
+			throw new IllegalArgumentException("Every obstacle needs an x, a y and a radius.");
+		this.startX = start.getX();
+		this.startY = start.getY();
+		this.goalX = goal.getX();
+		this.goalY = goal.getY();
+		this.obstacleX = obstacleX.clone();
+		this.obstacleY = obstacleY.clone();
+		this.obstacleR = obstacleR.clone();
+	}
+
+	/**
+	 * Gets the start position of the robot.
+	 * 
+	 * @return The start position
+	 */
+	public Point getStart() {
+		return new Point(startX, startY);
+	}
+
+	/**
+	 * Gets the goal position of the robot.
+	 * 
+	 * @return The goal position
+	 */
+	public Point getGoal() {
+		return new Point(goalX, goalY);
+	}
+
+	/**
+	 * Gets the number of obstacles.
+	 * 
+	 * @return The number of obstacles
+	 */
+	public int getObstacleCount() {
+		return obstacleX.length;
+	}
+
+	/**
+	 * Gets the center of an obstacle.
+	 * 
+	 * @param index The index of the obstacle
+	 * @return The center of the obstacle
+	 */
+	public Point getObstacleCenter(int index) {
+		return new Point(obstacleX[index], obstacleY[index]);
+	}
+
+	/**
+	 * Gets the radius of an obstacle.
+	 * 
+	 * @param index The index of the obstacle
+	 * @return The radius of the obstacle
+	 */
+	public double getObstacleRadius(int index) {
+		return obstacleR[index];
+	}
+
+	/**
+	 * Gets the distance from a position to the edge of the nearest obstacle.
+	 * 
+	 * @param x The x coordinate of the position
+	 * @param y The y coordinate of the position
+	 * @return The clearance, which is negative inside an obstacle, or infinity if
+	 *         there are no obstacles
+	 */
+	public double getClearance(double x, double y) {
+		double clearance = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < obstacleX.length; i++) {
+			double dx = x - obstacleX[i], dy = y - obstacleY[i];
+			clearance = Math.min(clearance, Math.sqrt(dx * dx + dy * dy) - obstacleR[i]);
+		}
+		return clearance;
+	}
+
+	/**
+	 * Gets the distance from a position to the goal.
+	 * 
+	 * @param x The x coordinate of the position
+	 * @param y The y coordinate of the position
+	 * @return The distance to the goal
+	 */
+	public double getDistanceToGoal(double x, double y) {
+		return Math.hypot(x - goalX, y - goalY);
+	}
+}
@@ -0,0 +1,114 @@
+package com.titanrobotics2022.motion.generation.rmpflow.simulation;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.titanrobotics2022.mapping.Point;
+
+/**
+ * Generates random scenarios: a start and a goal far enough apart, and
+ * obstacles scattered between them that do not crowd each other, the start or
+ * the goal.
+ */
+public class ScenarioGenerator {
+	// Gives up on placing an obstacle after this many rejected positions, so
+	// crowded settings cannot loop forever
+	private static final int MAX_ATTEMPTS = 1000;
+
+	private final double width, height, margin, minGoalDistance;
+	private final int obstacles;
+	private final double minSpacing, minRadius, maxRadius;
+
+	/**
+	 * Creates a generator for the field of {@code RMPDemo}: a 1920 x 1080 field
+	 * with 30 obstacles of radius 5 to 25.
+	 */
+	public ScenarioGenerator() {
+		this(1920, 1080, 200, 300, 30, 50, 5, 25);
+	}
+
+	/**
+	 * Creates a scenario generator.
+	 * 
+	 * @param width           The width of the field
+	 * @param height          The height of the field
+	 * @param margin          The minimum distance from the start and goal to the
+	 *                        sides of the field
+	 * @param minGoalDistance The minimum distance between the start and the goal
+	 * @param obstacles       The number of obstacles to place
+	 * @param minSpacing      The minimum distance between the centers of two
+	 *                        obstacles, and between an obstacle's center and the
+	 *                        start or goal
+	 * @param minRadius       The minimum radius of an obstacle
+	 * @param maxRadius       The maximum radius of an obstacle
+	 */
+	public ScenarioGenerator(double width, double height, double margin, double minGoalDistance, int obstacles,
+			double minSpacing, double minRadius, double maxRadius) {
+		if (width <= 2 * margin || height <= 2 * margin)
+			throw new IllegalArgumentException("The field must be larger than its margins.");
+		if (obstacles < 0)
+			throw new IllegalArgumentException("The number of obstacles must be non-negative.");
+		if (minRadius < 0 || maxRadius < minRadius)
+			throw new IllegalArgumentException("Obstacle radii must satisfy 0 <= minRadius <= maxRadius.");
+		this.width = width;
+		this.height = height;
+		this.margin = margin;
+		this.minGoalDistance = minGoalDistance;
+		this.obstacles = obstacles;
+		this.minSpacing = minSpacing;
+		this.minRadius = minRadius;
+		this.maxRadius = maxRadius;
+	}
+
+	/**
+	 * Generates a scenario.
+	 * <p>
+	 * Obstacles are placed uniformly in the box spanned by the start and the
+	 * goal. Positions that are too close to another obstacle, the start or the
+	 * goal are redrawn. An obstacle that cannot be placed after many attempts is
+	 * left out, so a scenario may have fewer obstacles than requested.
+	 * 
+	 * @param random The source of randomness. The same seed gives the same
+	 *               scenario.
+	 * @return The scenario
+	 */
+	public Scenario generate(Random random) {
+		double startX = margin + random.nextDouble() * (width - 2 * margin);
+		double startY = margin + random.nextDouble() * (height - 2 * margin);
+		double goalX, goalY;
+		int attempts = 0;
+		do {
+			goalX = margin + random.nextDouble() * (width - 2 * margin);
+			goalY = margin + random.nextDouble() * (height - 2 * margin);
+		} while (Math.hypot(goalX - startX, goalY - startY) < minGoalDistance && ++attempts < MAX_ATTEMPTS);
+
+		double minX = Math.min(startX, goalX), minY = Math.min(startY, goalY);
+		double spanX = Math.abs(goalX - startX), spanY = Math.abs(goalY - startY);
+		double[] xs = new double[obstacles], ys = new double[obstacles], rs = new double[obstacles];
+		int placed = 0;
+		for (int i = 0; i < obstacles; i++) {
+			for (attempts = 0; attempts < MAX_ATTEMPTS; attempts++) {
+				double x = minX + random.nextDouble() * spanX, y = minY + random.nextDouble() * spanY;
+				if (isFree(x, y, startX, startY, goalX, goalY, xs, ys, placed)) {
+					xs[placed] = x;
+					ys[placed] = y;
+					rs[placed] = minRadius + random.nextDouble() * (maxRadius - minRadius);
+					placed++;
+					break;
+				}
+			}
+		}
+		return new Scenario(new Point(startX, startY), new Point(goalX, goalY), Arrays.copyOf(xs, placed),
+				Arrays.copyOf(ys, placed), Arrays.copyOf(rs, placed));
+	}
+
+	private boolean isFree(double x, double y, double startX, double startY, double goalX, double goalY,
+			double[] xs, double[] ys, int placed) {
+		if (Math.hypot(x - startX, y - startY) < minSpacing || Math.hypot(x - goalX, y - goalY) < minSpacing)
+			return false;
+		for (int i = 0; i < placed; i++)
+			if (Math.hypot(x - xs[i], y - ys[i]) < minSpacing)
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,124 @@
+package com.titanrobotics2022.motion.generation.rmpflow.simulation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The results of a run of simulated episodes.
+ */
+public final class SimulationReport {
+	private final List<EpisodeResult> results;
+
+	SimulationReport(EpisodeResult[] results) {
+		this.results = Collections.unmodifiableList(Arrays.asList(results));
+	}
+
+	/**
+	 * Gets the result of every episode, in episode order.
+	 * 
+	 * @return The results
+	 */
+	public List<EpisodeResult> getResults() {
+		return results;
+	}
+
+	/**
+	 * Gets the number of episodes that ended with an outcome.
+	 * 
+	 * @param outcome The outcome
+	 * @return The number of episodes
+	 */
+	public int count(EpisodeResult.Outcome outcome) {
+		int count = 0;
+		for (EpisodeResult result : results)
+			if (result.getOutcome() == outcome)
+				count++;
+		return count;
+	}
+
+	/**
+	 * Gets the fraction of episodes in which the robot reached the goal.
+	 * 
+	 * @return The success rate, between 0 and 1
+	 */
+	public double getSuccessRate() {
+		return results.isEmpty() ? 0 : (double) count(EpisodeResult.Outcome.REACHED_GOAL) / results.size();
+	}
+
+	/**
+	 * Gets the fraction of episodes in which the robot entered an obstacle.
+	 * 
+	 * @return The collision rate, between 0 and 1
+	 */
+	public double getCollisionRate() {
+		return results.isEmpty() ? 0 : (double) count(EpisodeResult.Outcome.COLLIDED) / results.size();
+	}
+
+	/**
+	 * Gets the smallest clearance of any episode.
+	 * 
+	 * @return The minimum clearance, or infinity if no episode had obstacles
+	 */
+	public double getMinClearance() {
+		double min = Double.POSITIVE_INFINITY;
+		for (EpisodeResult result : results)
+			min = Math.min(min, result.getMinClearance());
+		return min;
+	}
+
+	/**
+	 * Gets the mean time to the goal of the successful episodes.
+	 * 
+	 * @return The mean time in seconds, or NaN if no episode succeeded
+	 */
+	public double getMeanTimeToGoal() {
+		double sum = 0;
+		int count = 0;
+		for (EpisodeResult result : results) {
+			if (result.isSuccess()) {
+				sum += result.getTimeToGoal();
+				count++;
+			}
+		}
+		return count == 0 ? Double.NaN : sum / count;
+	}
+
+	/**
+	 * Gets the mean wall-clock time of one solve over every episode.
+	 * 
+	 * @return The mean solve latency in nanoseconds
+	 */
+	public double getMeanSolveNanos() {
+		long nanos = 0, solves = 0;
+		for (EpisodeResult result : results) {
+			nanos += result.getTotalSolveNanos();
+			solves += result.getSolves();
+		}
+		return solves == 0 ? 0 : (double) nanos / solves;
+	}
+
+	/**
+	 * Gets the longest wall-clock time of one solve in any episode. Solves run
+	 * concurrently on all workers, so this includes interference from the other
+	 * workers.
+	 * 
+	 * @return The maximum solve latency in nanoseconds
+	 */
+	public long getMaxSolveNanos() {
+		long max = 0;
+		for (EpisodeResult result : results)
+			max = Math.max(max, result.getMaxSolveNanos());
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%d episodes: %.1f%% reached goal, %.1f%% collided, %d timed out, %d diverged, "
+						+ "min clearance %.3f, mean time to goal %.2f s, mean solve %.2f us, max solve %.2f us",
+				results.size(), 100 * getSuccessRate(), 100 * getCollisionRate(),
+				count(EpisodeResult.Outcome.TIMED_OUT), count(EpisodeResult.Outcome.DIVERGED), getMinClearance(),
+				getMeanTimeToGoal(), getMeanSolveNanos() / 1e3, getMaxSolveNanos() / 1e3);
+	}
+}
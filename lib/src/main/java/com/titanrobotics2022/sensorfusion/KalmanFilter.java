@@ -214,7 +214,7 @@ public class KalmanFilter {
         if(!invertSPD(predCov, covs[degree]))
             pinv(predCov, covs[degree]);
         mult(prec, pred, z);
-        multAdd(z, obsPrec, obs);
+        multAdd(obsPrec, obs, z);
         mult(covs[degree], z, means[degree]);
         predDegree = -1;
         return true;
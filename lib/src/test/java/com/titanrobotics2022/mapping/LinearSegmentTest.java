@@ -0,0 +1,62 @@
+package com.titanrobotics2022.mapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class LinearSegmentTest {
+    private static final double delta = 1e-9;
+
+    private final LinearSegment segment = new LinearSegment(new Point(1, 1), new Point(4, 5));
+
+    @Test
+    void precomputedGeometryTest()
+    {
+        assertEquals(5, segment.getLength(), 0);
+        assertEquals(.6, segment.getDirectionX(), delta);
+        assertEquals(.8, segment.getDirectionY(), delta);
+        assertEquals(-.8, segment.getNormalX(), delta);
+        assertEquals(.6, segment.getNormalY(), delta);
+        assertSame(segment.getRotation(0), segment.getRotation(3));
+        double[] out = segment.getPos(2.5, new double[2]);
+        assertEquals(2.5, out[0], delta);
+        assertEquals(3, out[1], delta);
+    }
+
+    @Test
+    void primitiveQueriesMatchAnglesTest()
+    {
+        Random random = new Random(4);
+        double[] nearest = new double[2];
+        for (int i = 0; i < 200; i++) {
+            Point pos = new Point(random.nextGaussian() * 5, random.nextGaussian() * 5);
+            double x = pos.getX(), y = pos.getY();
+            // The projection as it was computed from angles
+            double angle = Point.getAngle(segment.getEnd(), segment.getStart(), pos).getCos();
+            assertEquals(angle * pos.getDistance(segment.getStart()), segment.getProgress(x, y), delta);
+            assertEquals(segment.getProgress(pos), segment.getProgress(x, y), 0);
+
+            Point expected = segment.getNearest(pos);
+            segment.getNearest(x, y, nearest);
+            assertEquals(expected.getX(), nearest[0], delta);
+            assertEquals(expected.getY(), nearest[1], delta);
+            assertEquals(expected.getDistance(pos), segment.getDistance(x, y), delta);
+            double sin = Point.getAngle(segment.getEnd(), segment.getStart(), pos).getSin();
+            assertEquals(sin * pos.getDistance(segment.getStart()), segment.getSignedDistance(x, y), delta);
+        }
+    }
+
+    @Test
+    void intersectionTest()
+    {
+        assertTrue(segment.intersects(new LinearSegment(new Point(1, 5), new Point(4, 1))));
+        assertFalse(segment.intersects(new LinearSegment(new Point(2, 1), new Point(5, 5))));
+        assertEquals(0, segment.getDistance((Path) new LinearSegment(new Point(1, 5), new Point(4, 1))), 0);
+        assertEquals(.8, segment.getDistance(new LinearSegment(new Point(2, 1), new Point(5, 5))), delta);
+    }
+}
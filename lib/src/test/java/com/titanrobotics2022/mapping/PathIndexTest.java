@@ -0,0 +1,179 @@
+package com.titanrobotics2022.mapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+public class PathIndexTest {
+    private static final double delta = 1e-9;
+
+    /**
+     * A library of random walks, single segments and Bezier curves.
+     */
+    private static List<Path> library(Random random)
+    {
+        List<Path> paths = new ArrayList<>();
+        for (int p = 0; p < 30; p++) {
+            Point start = new Point(random.nextDouble() * 50, random.nextDouble() * 50);
+            if (p % 3 == 0) {
+                Point[] waypoints = new Point[40];
+                waypoints[0] = start;
+                for (int i = 1; i < waypoints.length; i++)
+                    waypoints[i] = waypoints[i - 1].plus(new Point(random.nextGaussian(), random.nextGaussian()));
+                paths.add(new Polyline(waypoints));
+            } else if (p % 3 == 1) {
+                paths.add(new LinearSegment(start, start.plus(new Point(random.nextGaussian() * 5, 3))));
+            } else {
+                paths.add(Spline.bezier(32, start, start.plus(new Point(4, 0)), start.plus(new Point(4, 4)),
+                        start.plus(new Point(random.nextDouble() * 8, 8))));
+            }
+        }
+        return paths;
+    }
+
+    @Test
+    void nearestMatchesBruteForceTest()
+    {
+        Random random = new Random(2);
+        List<Path> paths = library(random);
+        PathIndex index = new PathIndex(paths, 1e-4);
+        PathIndex.Nearest nearest = new PathIndex.Nearest();
+        for (int q = 0; q < 300; q++) {
+            Point pos = new Point(random.nextDouble() * 60 - 5, random.nextDouble() * 60 - 5);
+            double expected = Double.POSITIVE_INFINITY;
+            for (Path path : paths)
+                expected = Math.min(expected, path.getDistance(pos));
+            index.findNearest(pos.getX(), pos.getY(), nearest);
+            assertEquals(expected, nearest.getDistance(), 1e-6);
+            Path path = paths.get(nearest.getPath());
+            assertEquals(nearest.getDistance(), path.getPos(nearest.getProgress()).getDistance(pos), 1e-6);
+
+            double radius = random.nextDouble() * 5;
+            int[] within = new int[paths.size()];
+            int found = index.findWithin(pos.getX(), pos.getY(), radius, within);
+            List<Path> listed = index.getPathsWithin(pos, radius);
+            assertEquals(found, listed.size());
+            for (int k = 0; k < found; k++)
+                assertEquals(paths.get(within[k]), listed.get(k));
+            for (int p = 0; p < paths.size(); p++) {
+                double distance = paths.get(p).getDistance(pos);
+                if (Math.abs(distance - radius) > 1e-6)
+                    assertEquals(distance < radius, listed.contains(paths.get(p)));
+            }
+        }
+    }
+
+    @Test
+    void queriesDoNotAllocateTest()
+    {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        Random random = new Random(4);
+        PathIndex index = new PathIndex(library(random), 1e-4);
+        double[] xs = new double[100], ys = new double[100];
+        for (int q = 0; q < xs.length; q++) {
+            xs[q] = random.nextDouble() * 60 - 5;
+            ys[q] = random.nextDouble() * 60 - 5;
+        }
+        PathIndex.Nearest nearest = new PathIndex.Nearest();
+        int[] within = new int[index.getPaths().size()];
+
+        for (int i = 0; i < 200; i++) // Warms up the JIT
+            for (int q = 0; q < xs.length; q++) {
+                index.findNearest(xs[q], ys[q], nearest);
+                index.findWithin(xs[q], ys[q], 3, within);
+            }
+        long allocated = Long.MAX_VALUE;
+        for (int window = 0; window < 5; window++) {
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int q = 0; q < xs.length; q++) {
+                index.findNearest(xs[q], ys[q], nearest);
+                index.findWithin(xs[q], ys[q], 3, within);
+            }
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(thread) - before);
+        }
+        assertEquals(0, allocated);
+    }
+
+    @Test
+    void concurrentQueriesMatchSerialQueriesTest() throws Exception
+    {
+        Random random = new Random(5);
+        PathIndex index = new PathIndex(library(random), 1e-4);
+        int queries = 2000;
+        double[] xs = new double[queries], ys = new double[queries];
+        for (int q = 0; q < queries; q++) {
+            xs[q] = random.nextDouble() * 60 - 5;
+            ys[q] = random.nextDouble() * 60 - 5;
+        }
+        double[] expected = answers(index, xs, ys);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<double[]>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++)
+                results.add(pool.submit(() -> answers(index, xs, ys)));
+            for (Future<double[]> result : results)
+                assertArrayEquals(expected, result.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns the nearest distance and the number of paths within 3 of every
+     * point.
+     */
+    private static double[] answers(PathIndex index, double[] xs, double[] ys)
+    {
+        PathIndex.Nearest nearest = new PathIndex.Nearest();
+        int[] within = new int[index.getPaths().size()];
+        double[] answers = new double[2 * xs.length];
+        for (int q = 0; q < xs.length; q++) {
+            index.findNearest(xs[q], ys[q], nearest);
+            answers[2 * q] = nearest.getDistance();
+            answers[2 * q + 1] = index.findWithin(xs[q], ys[q], 3, within);
+        }
+        return answers;
+    }
+
+    @Test
+    void indexedPolylineTest()
+    {
+        Random random = new Random(3);
+        Point[] waypoints = new Point[500];
+        waypoints[0] = new Point(0, 0);
+        for (int i = 1; i < waypoints.length; i++)
+            waypoints[i] = waypoints[i - 1].plus(new Point(random.nextGaussian(), random.nextGaussian()));
+        Polyline path = new Polyline(waypoints);
+        for (int q = 0; q < 200; q++) {
+            Point pos = new Point(random.nextGaussian() * 20, random.nextGaussian() * 20);
+            int best = 0;
+            for (int i = 1; i < path.getSegmentCount(); i++)
+                if (path.getSegment(i).getDistance(pos) < path.getSegment(best).getDistance(pos))
+                    best = i;
+            LinearSegment segment = path.getSegment(best);
+            assertEquals(segment.getDistance(pos), path.getDistance(pos), delta);
+            assertEquals(segment.getNearest(pos).getDistance(pos), path.getNearest(pos).getDistance(pos), delta);
+        }
+    }
+
+    @Test
+    void emptyIndexTest()
+    {
+        PathIndex index = new PathIndex(List.of());
+        assertFalse(index.findNearest(0, 0, new PathIndex.Nearest()));
+        assertEquals(Double.POSITIVE_INFINITY, index.getDistance(new Point(1, 1)));
+        assertEquals(0, index.findWithin(0, 0, 10, new int[0]));
+    }
+}
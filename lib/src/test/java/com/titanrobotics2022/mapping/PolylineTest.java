@@ -0,0 +1,84 @@
+package com.titanrobotics2022.mapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+public class PolylineTest {
+    private static final double delta = 1e-9;
+
+    // An L from (0, 0) to (3, 0) to (3, 4), with a repeated corner
+    private final Polyline path = new Polyline(new Point(0, 0), new Point(3, 0), new Point(3, 0), new Point(3, 4));
+
+    @Test
+    void lookupTest()
+    {
+        assertEquals(2, path.getSegmentCount());
+        assertEquals(7, path.getLength(), delta);
+        assertEquals(0, path.getSegmentIndex(-1));
+        assertEquals(0, path.getSegmentIndex(2.9));
+        assertEquals(1, path.getSegmentIndex(3));
+        assertEquals(1, path.getSegmentIndex(10));
+
+        Point pos = path.getPos(5);
+        assertEquals(3, pos.getX(), delta);
+        assertEquals(2, pos.getY(), delta);
+        assertEquals(Math.PI / 2, path.getRotation(5).getRadians(), delta);
+        assertSame(path.getRotation(4), path.getRotation(6));
+        assertEquals(0, path.getAngularVelocity(3).getRadians(), 0);
+        // Extrapolates past the end like a LinearSegment
+        assertEquals(5, path.getPos(8).getY(), delta);
+    }
+
+    @Test
+    void primitiveQueriesMatchObjectQueriesTest()
+    {
+        double[] out = new double[2];
+        for (double d = -1; d <= 8; d += .25) {
+            assertEquals(path.getPos(d), new Point(path.getPos(d, out)[0], out[1]));
+            assertEquals(path.getRotation(d).getCos(), path.getDirectionX(d), 0);
+            assertEquals(path.getRotation(d).getSin(), path.getDirectionY(d), 0);
+            assertEquals(0, path.getCurvature(d), 0);
+
+            Point pos = path.getPos(d).plus(new Point(-.5, .5));
+            assertEquals(path.getNearest(pos), new Point(path.getNearest(pos.getX(), pos.getY(), out)[0], out[1]));
+            assertEquals(path.getProgress(pos, d - 1, d + 1), path.getProgress(pos.getX(), pos.getY(), d - 1, d + 1), 0);
+        }
+    }
+
+    @Test
+    void matchesSegmentsTest()
+    {
+        for (double d = -1; d <= 8; d += .25) {
+            int i = d < 3 ? 0 : 1;
+            Point expected = path.getSegment(i).getPos(d - path.getSegmentStart(i));
+            assertEquals(expected.getX(), path.getPos(d).getX(), delta);
+            assertEquals(expected.getY(), path.getPos(d).getY(), delta);
+        }
+    }
+
+    @Test
+    void projectionTest()
+    {
+        assertEquals(1.5, path.getProgress(new Point(1.5, -1)), delta);
+        assertEquals(5, path.getProgress(new Point(4, 2)), delta);
+        assertEquals(-1, path.getProgress(new Point(-1, .5)), delta);
+        assertEquals(8, path.getProgress(new Point(3.5, 5)), delta);
+        assertEquals(3, path.getProgress(new Point(4, -1)), delta);
+        assertEquals(Math.sqrt(2), path.getDistance(new Point(4, -1)), delta);
+        assertEquals(new Point(3, 2), path.getNearest(new Point(2, 2)));
+        assertEquals(1, path.getDistance(new LinearSegment(new Point(5, 1), new Point(4, 1))), delta);
+
+        Polyline reversed = path.reverse();
+        assertEquals(new Point(3, 4), reversed.getStart());
+        assertEquals(2, reversed.getProgress(new Point(4, 2)), delta);
+    }
+
+    @Test
+    void degenerateTest()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new Polyline(new Point(1, 1), new Point(1, 1)));
+    }
+}
@@ -0,0 +1,60 @@
+package com.titanrobotics2022.mapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class ProgressTrackerTest {
+    private static final double delta = 1e-9;
+
+    /**
+     * A zigzag of 200 segments, each 1 long and alternating between 45 degrees
+     * up and down.
+     */
+    private static Polyline zigzag()
+    {
+        Point[] waypoints = new Point[201];
+        double step = Math.sqrt(.5);
+        for (int i = 0; i < waypoints.length; i++)
+            waypoints[i] = new Point(i * step, i % 2 * step);
+        return new Polyline(waypoints);
+    }
+
+    @Test
+    void matchesGlobalSearchTest()
+    {
+        Polyline path = zigzag();
+        ProgressTracker tracker = new ProgressTracker(path, .5);
+        for (double c = 0; c < path.getLength(); c += .05) {
+            Point pos = path.getPos(c).plus(new Point(0, .1));
+            assertEquals(path.getProgress(pos), tracker.getProgress(pos), delta);
+            assertEquals(path.getProgress(pos), tracker.getProgress(pos), delta);
+        }
+        assertEquals(1, tracker.getGlobalSearchCount());
+    }
+
+    @Test
+    void jumpsSearchGloballyTest()
+    {
+        Polyline path = zigzag();
+        ProgressTracker tracker = new ProgressTracker(path, .5);
+        tracker.getProgress(path.getPos(10));
+        assertEquals(150, tracker.getProgress(path.getPos(150)), delta);
+        assertEquals(2, tracker.getGlobalSearchCount());
+        tracker.reset();
+        assertEquals(150.1, tracker.getProgress(path.getPos(150.1)), delta);
+        assertEquals(3, tracker.getGlobalSearchCount());
+    }
+
+    @Test
+    void splineTest()
+    {
+        Spline spline = Spline.bezier(64, new Point(0, 0), new Point(4, 0), new Point(4, 4), new Point(0, 4));
+        ProgressTracker tracker = new ProgressTracker(spline, .3);
+        for (double c = 0; c < spline.getLength(); c += .02) {
+            Point pos = spline.getPos(c);
+            assertEquals(c, tracker.getProgress(pos), 1e-6);
+        }
+        assertEquals(1, tracker.getGlobalSearchCount());
+    }
+}
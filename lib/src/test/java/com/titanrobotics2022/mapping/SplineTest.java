@@ -0,0 +1,85 @@
+package com.titanrobotics2022.mapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import edu.wpi.first.math.geometry.Translation2d;
+
+public class SplineTest {
+    private static final double delta = 1e-9;
+
+    @Test
+    void straightSplineTest()
+    {
+        Spline line = Spline.cubicHermite(new Point(1, 1), new Translation2d(3, 4), new Point(4, 5),
+                new Translation2d(3, 4), 8);
+        assertEquals(5, line.getLength(), delta);
+        assertEquals(0, line.getArcLengthError(), delta);
+        Point mid = line.getPos(2.5);
+        assertEquals(2.5, mid.getX(), delta);
+        assertEquals(3, mid.getY(), delta);
+        assertEquals(Math.atan2(4, 3), line.getRotation(1).getRadians(), delta);
+        assertEquals(0, line.getAngularVelocity(1).getRadians(), delta);
+        assertEquals(-1, line.getProgress(new Point(1 - .6, 1 - .8)), delta);
+    }
+
+    @Test
+    void primitiveQueriesMatchObjectQueriesTest()
+    {
+        Spline spline = Spline.quinticHermite(new Point(0, 0), new Translation2d(2, 0), new Translation2d(0, 1),
+                new Point(2, 2), new Translation2d(0, 3), new Translation2d(-1, 0), 64);
+        double[] out = new double[2];
+        for (double d = -.5; d <= spline.getLength() + .5; d += .05) {
+            assertEquals(spline.getPos(d), new Point(spline.getPos(d, out)[0], out[1]));
+            assertEquals(spline.getRotation(d).getCos(), spline.getDirectionX(d), 0);
+            assertEquals(spline.getRotation(d).getSin(), spline.getDirectionY(d), 0);
+            assertEquals(spline.getAngularVelocity(d).getRadians(), spline.getCurvature(d), 0);
+
+            Point pos = spline.getPos(d).plus(new Point(.1, -.2));
+            assertEquals(spline.getNearest(pos), new Point(spline.getNearest(pos.getX(), pos.getY(), out)[0], out[1]));
+            assertEquals(spline.getProgress(pos), spline.getProgress(pos.getX(), pos.getY()), 0);
+            assertEquals(spline.getProgress(pos, d - .5, d + .5), spline.getProgress(pos.getX(), pos.getY(), d - .5, d + .5), 0);
+        }
+    }
+
+    @Test
+    void arcLengthTableTest()
+    {
+        // A Bezier approximation of a quarter of the unit circle
+        double k = 4 * (Math.sqrt(2) - 1) / 3;
+        Spline coarse = Spline.bezier(4, new Point(1, 0), new Point(1, k), new Point(k, 1), new Point(0, 1));
+        Spline fine = Spline.bezier(256, new Point(1, 0), new Point(1, k), new Point(k, 1), new Point(0, 1));
+        assertEquals(Math.PI / 2, fine.getLength(), 1e-3);
+        assertEquals(fine.getLength(), coarse.getLength(), 1e-9);
+        assertTrue(fine.getArcLengthError() < coarse.getArcLengthError());
+        assertTrue(fine.getArcLengthError() < 1e-9);
+        assertEquals(1, fine.getAngularVelocity(.7).getRadians(), 1e-2);
+
+        for (double d = 0; d <= fine.getLength(); d += .1) {
+            Point pos = fine.getPos(d);
+            assertEquals(d, fine.getProgress(pos), 1e-9);
+            assertEquals(pos.getX(), coarse.getPos(d).getX(), 1e-4);
+            assertEquals(pos.getY(), coarse.getPos(d).getY(), 1e-4);
+        }
+    }
+
+    @Test
+    void quinticHermiteTest()
+    {
+        Translation2d v0 = new Translation2d(2, 0), a0 = new Translation2d(0, 1);
+        Translation2d v1 = new Translation2d(0, 3), a1 = new Translation2d(-1, 0);
+        Spline spline = Spline.quinticHermite(new Point(0, 0), v0, a0, new Point(2, 2), v1, a1, 64);
+        assertEquals(new Point(2, 2), spline.getEnd());
+        assertEquals(0, spline.getRotation(0).getRadians(), delta);
+        assertEquals(Math.PI / 2, spline.getRotation(spline.getLength()).getRadians(), delta);
+
+        Spline reversed = spline.reverse();
+        assertEquals(spline.getLength(), reversed.getLength(), 1e-9);
+        assertEquals(spline.getPos(1), reversed.getPos(spline.getLength() - 1));
+        Spline moved = spline.rotateBy(new edu.wpi.first.math.geometry.Rotation2d(Math.PI / 2))
+                .translateBy(new Translation2d(1, 0));
+        assertEquals(new Point(-1, 2), moved.getEnd());
+    }
+}
@@ -0,0 +1,150 @@
+package com.titanrobotics2022.motion.generation.rmpflow;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
+import org.ejml.simple.SimpleMatrix;
+import org.junit.jupiter.api.Test;
+
+public class AsyncLeafTest {
+    private static final double delta = 1e-9;
+
+    /**
+     * A spring to the origin, F = -k * x with M = I.
+     */
+    private static class Spring extends AsyncLeaf {
+        private final double k;
+        final AtomicInteger calls = new AtomicInteger(); // Evaluations of F
+
+        Spring(RMPNode parent, Executor executor, long maxAgeNanos, double k)
+        {
+            super("Spring", parent, executor, maxAgeNanos);
+            this.k = k;
+        }
+
+        @Override
+        public void psi(DMatrixRMaj q, DMatrixRMaj out)
+        {
+            out.setTo(q);
+        }
+
+        @Override
+        public void j(DMatrixRMaj q, DMatrixRMaj out)
+        {
+            out.reshape(q.getNumElements(), q.getNumElements());
+            CommonOps_DDRM.setIdentity(out);
+        }
+
+        @Override
+        public void j_dot(DMatrixRMaj q, DMatrixRMaj q_dot, DMatrixRMaj out)
+        {
+            out.reshape(q.getNumElements(), q.getNumElements());
+            out.zero();
+        }
+
+        @Override
+        protected SimpleMatrix solveF(SimpleMatrix x, SimpleMatrix x_dot)
+        {
+            calls.incrementAndGet();
+            return x.scale(-k);
+        }
+
+        @Override
+        protected SimpleMatrix solveM(SimpleMatrix x, SimpleMatrix x_dot)
+        {
+            return SimpleMatrix.identity(x.getNumElements());
+        }
+    }
+
+    @Test
+    void leafUsesPublishedRmpTest()
+    {
+        ArrayList<Runnable> tasks = new ArrayList<>();
+        RMPRoot root = new RMPRoot("root");
+        Spring spring = new Spring(root, tasks::add, Long.MAX_VALUE / 2, 2);
+        DMatrixRMaj x = new DMatrixRMaj(2, 1, true, 1, 2), x_dot = new DMatrixRMaj(2, 1);
+        DMatrixRMaj a = new DMatrixRMaj(2, 1);
+
+        root.solve(x, x_dot, a); // Nothing has been published, so the leaf is left out
+        assertEquals(0, a.get(0), delta);
+        assertEquals(-1, spring.getSnapshotAge());
+        assertEquals(1, tasks.size());
+
+        tasks.remove(0).run(); // The worker evaluates the posted state
+        x.data[0] = 5; // The solve uses the RMP of the earlier state
+        root.solve(x, x_dot, a);
+        assertEquals(-2, a.get(0), delta);
+        assertEquals(-4, a.get(1), delta);
+        assertTrue(spring.getSnapshotAge() >= 0);
+    }
+
+    @Test
+    void staleRmpIsDroppedTest() throws InterruptedException
+    {
+        ArrayList<Runnable> tasks = new ArrayList<>();
+        RMPRoot root = new RMPRoot("root");
+        new Spring(root, tasks::add, 1_000_000L, 2);
+        DMatrixRMaj x = new DMatrixRMaj(2, 1, true, 1, 2), x_dot = new DMatrixRMaj(2, 1);
+        DMatrixRMaj a = new DMatrixRMaj(2, 1);
+        root.solve(x, x_dot, a);
+        tasks.remove(0).run();
+        Thread.sleep(5); // Older than the 1 ms limit
+        root.solve(x, x_dot, a);
+        assertEquals(0, a.get(0), delta);
+        assertEquals(0, a.get(1), delta);
+    }
+
+    @Test
+    void backgroundWorkerPublishesTest() throws InterruptedException
+    {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            RMPRoot root = new RMPRoot("root");
+            Spring spring = new Spring(root, executor, Long.MAX_VALUE / 2, 3);
+            DMatrixRMaj x = new DMatrixRMaj(2, 1, true, 1, 2), x_dot = new DMatrixRMaj(2, 1);
+            DMatrixRMaj a = new DMatrixRMaj(2, 1);
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            do {
+                root.solve(x, x_dot, a);
+                Thread.sleep(1);
+            } while (spring.getSnapshotAge() < 0 && System.nanoTime() < deadline);
+            root.solve(x, x_dot, a);
+            assertEquals(-3, a.get(0), delta);
+            assertEquals(-6, a.get(1), delta);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void batchSolveUsesPublishedRmpTest()
+    {
+        ArrayList<Runnable> tasks = new ArrayList<>();
+        RMPRoot root = new RMPRoot("root");
+        Spring spring = new Spring(root, tasks::add, Long.MAX_VALUE / 2, 2);
+        DMatrixRMaj xs = new DMatrixRMaj(2, 3, true, 1, 3, 5, 2, 4, 6), x_dots = new DMatrixRMaj(2, 3);
+        DMatrixRMaj as = root.solveBatch(xs, x_dots, new DMatrixRMaj(1, 1));
+        for (int e = 0; e < 6; e++) // Nothing has been published
+            assertEquals(0, as.get(e), delta);
+
+        root.solve(new DMatrixRMaj(2, 1, true, 1, 2), new DMatrixRMaj(2, 1), new DMatrixRMaj(2, 1));
+        tasks.remove(0).run();
+        assertEquals(1, spring.calls.get());
+        // Every state of the batch uses the RMP of the published state, and the
+        // policy is not called on the solving thread
+        root.solveBatch(xs, x_dots, as);
+        assertEquals(1, spring.calls.get());
+        for (int k = 0; k < 3; k++) {
+            assertEquals(-2, as.get(0, k), delta);
+            assertEquals(-4, as.get(1, k), delta);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.titanrobotics2022.motion.generation.rmpflow;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import com.titanrobotics2022.mapping.LinearSegment;
+import com.titanrobotics2022.mapping.Point;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.CollisionAvoidance;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.Damper;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.GoalAttractor;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.PathFollowing;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.simple.SimpleMatrix;
+import org.junit.jupiter.api.Test;
+
+public class RMPRolloutTest {
+    private static RMPRoot obstacleTree()
+    {
+        RMPRoot root = new RMPRoot("root");
+        new GoalAttractor("Goal Attractor", root, new SimpleMatrix(1, 2, false, new double[] {10, 8}), 10, 1, 10, 1, 2, 2, .005);
+        for (int i = 0; i < 30; i++)
+            new CollisionAvoidance("Obstacle " + i, root, new SimpleMatrix(1, 2, false, new double[] {i % 6 + .5, i / 6 + .5}), .2, .2, 1e-5, .1);
+        new Damper("Damper", root, .5, 1);
+        return root;
+    }
+
+    @Test
+    void trapezoidalRolloutMatchesManualIntegrationTest()
+    {
+        double step = .01;
+        RMPRoot expectedRoot = obstacleTree();
+        DMatrixRMaj x = new DMatrixRMaj(2, 1, true, -1, -.5), x_dot = new DMatrixRMaj(2, 1, true, .3, .1);
+        DMatrixRMaj a = new DMatrixRMaj(2, 1);
+        double[] pos = {-1, -.5}, vel = {.3, .1}, trajectory = new double[4 * 50];
+        assertEquals(50, new RMPRollout(obstacleTree(), RMPRollout.Scheme.TRAPEZOIDAL).rollout(pos, vel, step, 50, trajectory));
+        for (int k = 0; k < 50; k++) {
+            expectedRoot.solve(x, x_dot, a);
+            for (int i = 0; i < 2; i++) {
+                double v = x_dot.data[i] + a.data[i] * step;
+                x.data[i] += .5 * (x_dot.data[i] + v) * step;
+                x_dot.data[i] = v;
+                assertEquals(x.data[i], trajectory[k * 4 + i], 0);
+                assertEquals(x_dot.data[i], trajectory[k * 4 + 2 + i], 0);
+            }
+        }
+        assertEquals(x.data[0], pos[0], 0);
+        assertEquals(x_dot.data[1], vel[1], 0);
+    }
+
+    @Test
+    void rk4IsMoreAccurateThanEulerTest()
+    {
+        // A damper alone gives x_ddot = -eta * x_dot, which has a closed form solution
+        double eta = .5, v0 = 2, step = .1;
+        int steps = 20;
+        double t = steps * step;
+        double exact = v0 / eta * (1 - Math.exp(-eta * t));
+        double[] errors = new double[2];
+        RMPRollout.Scheme[] schemes = {RMPRollout.Scheme.SEMI_IMPLICIT_EULER, RMPRollout.Scheme.RK4};
+        for (int s = 0; s < 2; s++) {
+            RMPRoot root = new RMPRoot("root");
+            new Damper("Damper", root, eta, 1);
+            double[] pos = {0}, vel = {v0};
+            new RMPRollout(root, schemes[s]).rollout(pos, vel, step, steps, new double[2 * steps]);
+            errors[s] = Math.abs(pos[0] - exact);
+        }
+        assertTrue(errors[1] < 1e-6, "RK4 error " + errors[1]);
+        assertTrue(errors[1] < errors[0] / 1000);
+    }
+
+    @Test
+    void steadyStateRolloutDoesNotAllocateTest()
+    {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        RMPRollout rollout = new RMPRollout(obstacleTree(), RMPRollout.Scheme.RK4);
+        double[] pos = new double[2], vel = new double[2], trajectory = new double[4 * 20];
+
+        for (int i = 0; i < 500; i++) { // Sizes the workspaces and warms up the JIT
+            pos[0] = -1; pos[1] = -.5; vel[0] = .3; vel[1] = .1;
+            rollout.rollout(pos, vel, .01, 20, trajectory);
+        }
+        long allocated = Long.MAX_VALUE;
+        for (int window = 0; window < 5; window++) {
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < 100; i++) {
+                pos[0] = -1; pos[1] = -.5; vel[0] = .3; vel[1] = .1;
+                rollout.rollout(pos, vel, .01, 20, trajectory);
+            }
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(thread) - before);
+        }
+        assertEquals(0, allocated);
+    }
+
+    private static RMPRoot statefulTree()
+    {
+        RMPRoot root = obstacleTree();
+        new PathFollowing("Path Following", root, new LinearSegment(new Point(-1, -.5), new Point(10, 8)), 8, 5, .1, 1, .5, 1, .5, 2);
+        ((RMPLeaf) root.getChildren().get(1)).setUpdatePeriod(3);
+        return root;
+    }
+
+    @Test
+    void rolloutLeavesTheNextSolveUnchangedTest()
+    {
+        RMPRoot live = statefulTree(), reference = statefulTree();
+        RMPRollout lookahead = new RMPRollout(live, RMPRollout.Scheme.RK4);
+        DMatrixRMaj x = new DMatrixRMaj(2, 1, true, -1, -.5), x_dot = new DMatrixRMaj(2, 1, true, .3, .1);
+        DMatrixRMaj a = new DMatrixRMaj(2, 1), expected = new DMatrixRMaj(2, 1);
+        double[] pos = new double[2], vel = new double[2], trajectory = new double[4 * 20];
+        for (int k = 0; k < 8; k++) {
+            if (k % 2 == 1) {
+                pos[0] = x.data[0]; pos[1] = x.data[1]; vel[0] = x_dot.data[0]; vel[1] = x_dot.data[1];
+                assertEquals(20, lookahead.rollout(pos, vel, .01, 20, trajectory));
+            }
+            live.solve(x, x_dot, a);
+            reference.solve(x, x_dot, expected);
+            assertEquals(expected.data[0], a.data[0], 0);
+            assertEquals(expected.data[1], a.data[1], 0);
+            for (int i = 0; i < 2; i++) {
+                x_dot.data[i] += a.data[i] * .02;
+                x.data[i] += x_dot.data[i] * .02;
+            }
+        }
+        // A budgeted solve that runs out of time reuses the RMPs of the last solve
+        pos[0] = x.data[0]; pos[1] = x.data[1]; vel[0] = x_dot.data[0]; vel[1] = x_dot.data[1];
+        lookahead.rollout(pos, vel, .01, 20, trajectory);
+        live.solve(x, x_dot, a, 0, null);
+        reference.solve(x, x_dot, expected, 0, null);
+        assertEquals(expected.data[0], a.data[0], 0);
+        assertEquals(expected.data[1], a.data[1], 0);
+    }
+}
@@ -0,0 +1,560 @@
+package com.titanrobotics2022.motion.generation.rmpflow;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+
+import com.titanrobotics2022.mapping.Point;
+import com.titanrobotics2022.mapping.Polyline;
+import com.titanrobotics2022.mapping.Spline;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.AgentBlock;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.AgentPair;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.CollisionAvoidance;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.Damper;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.GoalAttractor;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.PathFollowing;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.simple.SimpleMatrix;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import edu.wpi.first.math.geometry.Translation2d;
+
+public class RMPRootTest {
+    private static final double delta = 1e-9;
+
+    RMPRoot root;
+
+    @BeforeEach
+    void createObstacleTree()
+    {
+        root = new RMPRoot("root");
+        new GoalAttractor("Goal Attractor", root, new SimpleMatrix(1, 2, false, new double[] {10, 8}), 10, 1, 10, 1, 2, 2, .005);
+        for (int i = 0; i < 30; i++)
+            new CollisionAvoidance("Obstacle " + i, root, new SimpleMatrix(1, 2, false, new double[] {i % 6 + .5, i / 6 + .5}), .2, .2, 1e-5, .1);
+        new Damper("Damper", root, .5, 1);
+    }
+
+    @Test
+    void inPlaceSolveMatchesSimpleSolveTest()
+    {
+        SimpleMatrix x = new SimpleMatrix(1, 2, false, new double[] {-1, -.5});
+        SimpleMatrix x_dot = new SimpleMatrix(1, 2, false, new double[] {.3, .1});
+        SimpleMatrix expected = root.solve(x, x_dot);
+        DMatrixRMaj actual = root.solve(x.getDDRM(), x_dot.getDDRM(), new DMatrixRMaj(2, 1));
+        assertEquals(expected.get(0), actual.get(0), delta);
+        assertEquals(expected.get(1), actual.get(1), delta);
+    }
+
+    @Test
+    void pathFollowingSolveDoesNotAllocateTest()
+    {
+        new PathFollowing("Path Following", root, Spline.cubicHermite(new Point(-1, -.5), new Translation2d(4, 1),
+                new Point(10, 8), new Translation2d(1, 4), Spline.DEFAULT_RESOLUTION), 8, 5, .1, 1, .5, 1, .5, 2);
+        assertSolveDoesNotAllocate();
+    }
+
+    @Test
+    void steadyStateSolveDoesNotAllocateTest()
+    {
+        assertSolveDoesNotAllocate();
+    }
+
+    private void assertSolveDoesNotAllocate()
+    {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        DMatrixRMaj x = new DMatrixRMaj(2, 1, true, -1, -.5);
+        DMatrixRMaj x_dot = new DMatrixRMaj(2, 1, true, .3, .1);
+        DMatrixRMaj a = new DMatrixRMaj(2, 1);
+
+        for (int i = 0; i < 5000; i++) // Sizes the workspaces and warms up the JIT
+            step(x, x_dot, a);
+        // One-off JVM events (class loading, deoptimization) can be charged to
+        // this thread, so only the quietest window is checked.
+        long allocated = Long.MAX_VALUE;
+        for (int window = 0; window < 5; window++) {
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < 1000; i++)
+                step(x, x_dot, a);
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(thread) - before);
+        }
+        assertEquals(0, allocated);
+    }
+
+    @Test
+    void compiledSolveMatchesRecursiveTraversalTest()
+    {
+        RMPNode scaled = new ScaledNode("Scaled", root, 2);
+        new GoalAttractor("Nested Goal Attractor", scaled, new SimpleMatrix(1, 2, false, new double[] {4, 2}), 10, 1, 10, 1, 2, 2, .005);
+        new CollisionAvoidance("Nested Obstacle", scaled, new SimpleMatrix(1, 2, false, new double[] {1, 1}), .2, .2, 1e-5, .1);
+        SimpleMatrix x = new SimpleMatrix(1, 2, false, new double[] {-1, -.5});
+        SimpleMatrix x_dot = new SimpleMatrix(1, 2, false, new double[] {.3, .1});
+
+        root.setRootState(x, x_dot);
+        root.pushforward();
+        root.pullback();
+        SimpleMatrix expected = root.resolve();
+        SimpleMatrix actual = root.solve(x, x_dot);
+        assertEquals(expected.get(0), actual.get(0), 0);
+        assertEquals(expected.get(1), actual.get(1), 0);
+    }
+
+    @Test
+    void topologyChangeInvalidatesPlanTest()
+    {
+        SimpleMatrix x = new SimpleMatrix(1, 2, false, new double[] {-1, -.5});
+        SimpleMatrix x_dot = new SimpleMatrix(1, 2, false, new double[] {.3, .1});
+        root.solve(x, x_dot);
+        assertTrue(root.isCompiled());
+
+        RMPNode scaled = new ScaledNode("Scaled", root, 2);
+        assertFalse(root.isCompiled());
+        root.compile();
+        RMPNode leaf = new CollisionAvoidance("Late Obstacle", scaled, new SimpleMatrix(1, 2, false, new double[] {-2, -2}), .2, .2, 1e-5, .1);
+        assertFalse(root.isCompiled());
+        SimpleMatrix withLeaf = root.solve(x, x_dot);
+
+        leaf.unlinkParent(scaled);
+        assertFalse(root.isCompiled());
+        SimpleMatrix withoutLeaf = root.solve(x, x_dot);
+        assertTrue(withLeaf.get(0) != withoutLeaf.get(0));
+
+        root.setRootState(x, x_dot);
+        root.pushforward();
+        root.pullback();
+        assertEquals(root.resolve().get(0), withoutLeaf.get(0), 0);
+    }
+
+    @Test
+    void parallelPullbackIsBitIdenticalTest()
+    {
+        for (int i = 0; i < 30; i++)
+            new CollisionAvoidance("Extra Obstacle " + i, root, new SimpleMatrix(1, 2, false, new double[] {-i % 5 - .5, i / 5 + .25}), .3, .2, 1e-5, .1);
+        RMPNode scaled = new ScaledNode("Scaled", root, 2);
+        new GoalAttractor("Nested Goal Attractor", scaled, new SimpleMatrix(1, 2, false, new double[] {4, 2}), 10, 1, 10, 1, 2, 2, .005);
+        SimpleMatrix x = new SimpleMatrix(1, 2, false, new double[] {-1, -.5});
+        SimpleMatrix x_dot = new SimpleMatrix(1, 2, false, new double[] {.3, .1});
+        SimpleMatrix serial = root.solve(x, x_dot);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            root.enableParallelPullback(pool, 8);
+            for (int i = 0; i < 20; i++) {
+                SimpleMatrix parallel = root.solve(x, x_dot);
+                assertEquals(Double.doubleToLongBits(serial.get(0)), Double.doubleToLongBits(parallel.get(0)));
+                assertEquals(Double.doubleToLongBits(serial.get(1)), Double.doubleToLongBits(parallel.get(1)));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void batchSolveMatchesSingleSolvesTest()
+    {
+        RMPNode scaled = new ScaledNode("Scaled", root, 2);
+        new GoalAttractor("Nested Goal Attractor", scaled, new SimpleMatrix(1, 2, false, new double[] {4, 2}), 10, 1, 10, 1, 2, 2, .005);
+        new CollisionAvoidance("Nested Obstacle", scaled, new SimpleMatrix(1, 2, false, new double[] {1, 1}), .2, .2, 1e-5, .1);
+        int states = 50;
+        DMatrixRMaj xs = new DMatrixRMaj(2, states), x_dots = new DMatrixRMaj(2, states);
+        for (int k = 0; k < states; k++) {
+            xs.set(0, k, -1 + .07 * k);
+            xs.set(1, k, -.5 - .03 * k);
+            x_dots.set(0, k, .3 - .01 * k);
+            x_dots.set(1, k, .1 + .02 * k);
+        }
+
+        DMatrixRMaj as = root.solveBatch(xs, x_dots, new DMatrixRMaj(1, 1));
+        assertEquals(2, as.numRows);
+        assertEquals(states, as.numCols);
+        DMatrixRMaj a = new DMatrixRMaj(2, 1);
+        for (int k = 0; k < states; k++) {
+            root.solve(new DMatrixRMaj(2, 1, true, xs.get(0, k), xs.get(1, k)),
+                new DMatrixRMaj(2, 1, true, x_dots.get(0, k), x_dots.get(1, k)), a);
+            assertEquals(a.get(0), as.get(0, k), delta * Math.max(1, Math.abs(a.get(0))));
+            assertEquals(a.get(1), as.get(1, k), delta * Math.max(1, Math.abs(a.get(1))));
+        }
+    }
+
+    @Test
+    void batchSolveLeavesTheNextSolveUnchangedTest()
+    {
+        // A hairpin, so the progress of a point between its legs depends on
+        // which leg was being followed
+        Polyline hairpin = new Polyline(new Point(0, 0), new Point(4, 0), new Point(4, .3), new Point(0, .3));
+        RMPRoot live = new RMPRoot("root"), reference = new RMPRoot("root");
+        new PathFollowing("Path Following", live, hairpin, 8, 5, .1, 1, .5, 1, .5, 2);
+        new PathFollowing("Path Following", reference, hairpin, 8, 5, .1, 1, .5, 1, .5, 2);
+        DMatrixRMaj x = new DMatrixRMaj(2, 1, true, 1, .1), x_dot = new DMatrixRMaj(2, 1, true, .3, 0);
+        DMatrixRMaj a = new DMatrixRMaj(2, 1), expected = new DMatrixRMaj(2, 1);
+        live.solve(x, x_dot, a);
+        reference.solve(x, x_dot, expected);
+
+        // States that follow the return leg back to near the next state, as a
+        // warm started tracker would
+        DMatrixRMaj xs = new DMatrixRMaj(2, 6, true, 3, 2.6, 2.2, 1.8, 1.4, 1.1, .28, .28, .28, .28, .28, .25);
+        live.solveBatch(xs, new DMatrixRMaj(2, 6), new DMatrixRMaj(1, 1));
+
+        x.data[0] += .01;
+        live.solve(x, x_dot, a);
+        reference.solve(x, x_dot, expected);
+        assertEquals(expected.data[0], a.data[0], 0);
+        assertEquals(expected.data[1], a.data[1], 0);
+    }
+
+    @Test
+    void resolveFallsBackOnSingularMetricTest()
+    {
+        SimpleMatrix x = new SimpleMatrix(1, 2, false, new double[] {-1, -.5});
+        SimpleMatrix x_dot = new SimpleMatrix(1, 2, false, new double[] {.3, .1});
+        root.solve(x, x_dot);
+        assertFalse(root.resolvedWithPseudoinverse());
+
+        // A single distance leaf only constrains one direction, so M has rank one
+        RMPRoot single = new RMPRoot("single");
+        new CollisionAvoidance("Obstacle", single, new SimpleMatrix(1, 2, false, new double[] {1, 1}), .2, .2, 1e-5, .1);
+        SimpleMatrix a = single.solve(x, x_dot);
+        assertTrue(single.resolvedWithPseudoinverse());
+        SimpleMatrix expected = single.getM().pseudoInverse().mult(single.getF());
+        assertEquals(expected.get(0), a.get(0), delta);
+        assertEquals(expected.get(1), a.get(1), delta);
+    }
+
+    @Test
+    void jacobianIsEvaluatedOncePerSolveTest()
+    {
+        ScaledNode scaled = new ScaledNode("Scaled", root, 2);
+        new GoalAttractor("Nested Goal Attractor", scaled, new SimpleMatrix(1, 2, false, new double[] {4, 2}), 10, 1, 10, 1, 2, 2, .005);
+        SimpleMatrix x = new SimpleMatrix(1, 2, false, new double[] {-1, -.5});
+        SimpleMatrix x_dot = new SimpleMatrix(1, 2, false, new double[] {.3, .1});
+        root.solve(x, x_dot);
+        assertEquals(1, scaled.jCalls);
+        root.solve(x, x_dot);
+        assertEquals(2, scaled.jCalls);
+
+        root.setRootState(x, x_dot);
+        root.pushforward();
+        root.setX(x.scale(2)); // Changes the state the Jacobian was evaluated at
+        root.pullback();
+        assertEquals(4, scaled.jCalls);
+    }
+
+    @Test
+    void negligibleLeavesAreSkippedTest()
+    {
+        // At rest, a barrier is negligible beyond r * (1 + tolerance^(-1/4))
+        SimpleMatrix x = new SimpleMatrix(1, 2, false, new double[] {1.2, .9});
+        SimpleMatrix x_dot = new SimpleMatrix(1, 2, false, new double[] {0, 0});
+        double tolerance = 1e-3, reach = .2 * (1 + Math.pow(tolerance, -.25));
+        RMPRoot culled = new RMPRoot("culled"), near = new RMPRoot("near");
+        new GoalAttractor("Goal Attractor", culled, new SimpleMatrix(1, 2, false, new double[] {10, 8}), 10, 1, 10, 1, 2, 2, .005);
+        new GoalAttractor("Goal Attractor", near, new SimpleMatrix(1, 2, false, new double[] {10, 8}), 10, 1, 10, 1, 2, 2, .005);
+        int skipped = 0;
+        for (int i = 0; i < 30; i++) {
+            SimpleMatrix center = new SimpleMatrix(1, 2, false, new double[] {i % 6 + .5, i / 6 + .5});
+            new CollisionAvoidance("Obstacle " + i, culled, center, .2, .2, 1e-5, .1).setCullingTolerance(tolerance);
+            if (center.minus(x).normF() <= reach)
+                new CollisionAvoidance("Obstacle " + i, near, center, .2, .2, 1e-5, .1);
+            else
+                skipped++;
+        }
+        assertTrue(skipped > 0 && skipped < 30);
+
+        SimpleMatrix expected = near.solve(x, x_dot), actual = culled.solve(x, x_dot);
+        assertEquals(expected.get(0), actual.get(0), 0);
+        assertEquals(expected.get(1), actual.get(1), 0);
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            culled.enableParallelPullback(pool, 2);
+            actual = culled.solve(x, x_dot);
+            assertEquals(expected.get(0), actual.get(0), 0);
+            assertEquals(expected.get(1), actual.get(1), 0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void profilerRecordsEveryPhaseTest()
+    {
+        ScaledNode scaled = new ScaledNode("Scaled", root, 2);
+        RMPNode nested = new GoalAttractor("Nested Goal Attractor", scaled, new SimpleMatrix(1, 2, false, new double[] {4, 2}), 10, 1, 10, 1, 2, 2, .005);
+        DMatrixRMaj x = new DMatrixRMaj(2, 1, true, -1, -.5);
+        DMatrixRMaj x_dot = new DMatrixRMaj(2, 1, true, .3, .1);
+        DMatrixRMaj a = new DMatrixRMaj(2, 1);
+        DMatrixRMaj expected = root.solve(x, x_dot, new DMatrixRMaj(2, 1));
+
+        RMPProfiler profiler = root.enableProfiling();
+        for (int i = 0; i < 100; i++)
+            root.solve(x, x_dot, a);
+        assertEquals(expected.get(0), a.get(0), 0);
+        assertEquals(expected.get(1), a.get(1), 0);
+
+        assertEquals(100, profiler.getCount(root, RMPProfiler.Phase.RESOLVE));
+        assertEquals(0, profiler.getCount(root, RMPProfiler.Phase.EVALUATE));
+        for (RMPNode node : new RMPNode[] {scaled, nested}) {
+            assertEquals(100, profiler.getCount(node, RMPProfiler.Phase.PUSHFORWARD));
+            assertEquals(100, profiler.getCount(node, RMPProfiler.Phase.JACOBIAN));
+            assertEquals(100, profiler.getCount(node, RMPProfiler.Phase.PULLBACK));
+        }
+        assertEquals(100, profiler.getCount(nested, RMPProfiler.Phase.EVALUATE));
+        long p50 = profiler.getP50(nested, RMPProfiler.Phase.EVALUATE);
+        long p99 = profiler.getP99(nested, RMPProfiler.Phase.EVALUATE);
+        assertTrue(p50 > 0 && p50 <= p99 && p99 <= profiler.getMax(nested, RMPProfiler.Phase.EVALUATE));
+
+        root.disableProfiling();
+        root.solve(x, x_dot, a);
+        assertEquals(100, profiler.getCount(root, RMPProfiler.Phase.RESOLVE));
+        profiler.reset();
+        assertEquals(0, profiler.getCount(nested, RMPProfiler.Phase.EVALUATE));
+        assertEquals(0, profiler.getMax(nested, RMPProfiler.Phase.EVALUATE));
+    }
+
+    @Test
+    void budgetedSolveEvaluatesByPriorityTest()
+    {
+        int[] order = root.getPlan().leafOrder;
+        assertEquals(32, order.length);
+        for (int k = 0; k < 30; k++) // Collision avoidance first, in the order it was linked
+            assertEquals("Obstacle " + k, root.getPlan().nodes[order[k]].getName());
+        assertEquals("Goal Attractor", root.getPlan().nodes[order[30]].getName());
+        assertEquals("Damper", root.getPlan().nodes[order[31]].getName());
+
+        DMatrixRMaj x = new DMatrixRMaj(2, 1, true, -1, -.5);
+        DMatrixRMaj x_dot = new DMatrixRMaj(2, 1, true, .3, .1);
+        DMatrixRMaj expected = root.solve(x, x_dot, new DMatrixRMaj(2, 1));
+        RMPSolveReport report = new RMPSolveReport();
+        DMatrixRMaj a = root.solve(x, x_dot, new DMatrixRMaj(2, 1), 1_000_000_000L, report);
+        assertTrue(report.isComplete());
+        assertEquals(32, report.getEvaluatedCount());
+        assertEquals(expected.get(0), a.get(0), 0);
+        assertEquals(expected.get(1), a.get(1), 0);
+    }
+
+    @Test
+    void overrunLeavesAreStaleThenDroppedTest()
+    {
+        root.setMandatoryPriority(Integer.MAX_VALUE); // Let the budget cover the obstacles too
+        DMatrixRMaj x = new DMatrixRMaj(2, 1, true, -1, -.5);
+        DMatrixRMaj x_dot = new DMatrixRMaj(2, 1, true, .3, .1);
+        DMatrixRMaj a = new DMatrixRMaj(2, 1);
+        RMPSolveReport report = new RMPSolveReport();
+        root.solve(x, x_dot, a, 0, report); // Nothing has been evaluated yet
+        assertEquals(32, report.getDroppedLeaves().size());
+        assertEquals(0, report.getEvaluatedCount());
+
+        DMatrixRMaj expected = root.solve(x, x_dot, new DMatrixRMaj(2, 1));
+        root.solve(x, x_dot, a, 0, report);
+        assertEquals(32, report.getStaleLeaves().size());
+        assertFalse(report.isComplete());
+        // At the same state, the reused RMPs are the ones just evaluated
+        assertEquals(expected.get(0), a.get(0), 0);
+        assertEquals(expected.get(1), a.get(1), 0);
+
+        root.solve(x, x_dot, a, 0, report); // Now two solves old
+        assertEquals(0, report.getStaleLeaves().size());
+        assertEquals(32, report.getDroppedLeaves().size());
+    }
+
+    @Test
+    void safetyLeavesAreEvaluatedWithoutBudgetTest()
+    {
+        DMatrixRMaj x = new DMatrixRMaj(2, 1, true, -1, -.5);
+        DMatrixRMaj x_dot = new DMatrixRMaj(2, 1, true, .3, .1);
+        DMatrixRMaj a = new DMatrixRMaj(2, 1);
+        RMPSolveReport report = new RMPSolveReport();
+        root.solve(x, x_dot, a, 0, report);
+        assertEquals(30, report.getEvaluatedCount()); // Every obstacle, at PRIORITY_SAFETY
+        assertEquals(2, report.getDroppedLeaves().size());
+        for (RMPLeaf leaf : report.getDroppedLeaves())
+            assertTrue(leaf.getPriority() < RMPLeaf.PRIORITY_SAFETY);
+
+        // After a full solve, the obstacles are evaluated at the new state rather than reused
+        root.solve(x, x_dot, a);
+        x.set(0, -.9);
+        root.solve(x, x_dot, a, 0, report);
+        assertEquals(30, report.getEvaluatedCount());
+        assertEquals(2, report.getStaleLeaves().size());
+        for (int k = 0; k < 30; k++)
+            assertEquals(0, root.getStaleness((RMPLeaf) root.getPlan().nodes[root.getPlan().leafOrder[k]]));
+    }
+
+    @Test
+    void heldLeavesAreEvaluatedOncePerPeriodTest()
+    {
+        GoalAttractor goal = (GoalAttractor) root.getChildren().get(0);
+        RMPLeaf damper = (RMPLeaf) root.getChildren().get(root.getChildren().size() - 1);
+        goal.setUpdatePeriod(3);
+        DMatrixRMaj x = new DMatrixRMaj(2, 1, true, -1, -.5);
+        DMatrixRMaj x_dot = new DMatrixRMaj(2, 1, true, .3, .1);
+        DMatrixRMaj a = new DMatrixRMaj(2, 1);
+        for (int i = 0; i < 7; i++) {
+            x.data[0] += .01;
+            root.solve(x, x_dot, a);
+            assertEquals(i % 3, root.getStaleness(goal));
+            assertEquals(0, root.getStaleness(damper));
+        }
+        RMPSolveReport report = new RMPSolveReport();
+        root.solve(x, x_dot, a, 1_000_000_000L, report);
+        assertEquals(1, report.getHeldCount());
+        assertTrue(report.isComplete());
+    }
+
+    @Test
+    void frozenLeafReusesItsContributionTest()
+    {
+        DMatrixRMaj x1 = new DMatrixRMaj(2, 1, true, 1.2, .9), x2 = new DMatrixRMaj(2, 1, true, 1.25, .95);
+        DMatrixRMaj x_dot = new DMatrixRMaj(2, 1, true, .3, .1);
+        DMatrixRMaj[] held = new DMatrixRMaj[2];
+        for (int reproject = 0; reproject < 2; reproject++) {
+            RMPRoot single = new RMPRoot("single");
+            CollisionAvoidance obstacle = new CollisionAvoidance("Obstacle", single, new SimpleMatrix(1, 2, false, new double[] {1.5, 1.5}), .2, .2, 1e-5, .1);
+            obstacle.setUpdatePeriod(2, reproject == 1);
+            DMatrixRMaj first = single.solve(x1, x_dot, new DMatrixRMaj(2, 1));
+            held[reproject] = single.solve(x2, x_dot, new DMatrixRMaj(2, 1));
+            if (reproject == 0) { // The root sees exactly the RMP of the first solve
+                assertEquals(first.get(0), held[0].get(0), 0);
+                assertEquals(first.get(1), held[0].get(1), 0);
+            }
+        }
+        // Pulling the held RMP back through the new Jacobian changes the result
+        assertTrue(Math.abs(held[0].get(0) - held[1].get(0)) + Math.abs(held[0].get(1) - held[1].get(1)) > 1e-6);
+    }
+
+    @Test
+    void stagedEditsApplyAtNextSolveTest()
+    {
+        DMatrixRMaj x = new DMatrixRMaj(2, 1, true, -1, -.5);
+        DMatrixRMaj x_dot = new DMatrixRMaj(2, 1, true, .3, .1);
+        DMatrixRMaj before = root.solve(x, x_dot, new DMatrixRMaj(2, 1));
+        CollisionAvoidance obstacle = new CollisionAvoidance("Staged", null, new SimpleMatrix(1, 2, false, new double[] {-1.2, -.4}), .2, .2, 1e-5, .1);
+        root.stageLink(obstacle, root);
+        assertEquals(32, root.getChildren().size()); // Not applied until the next solve
+        DMatrixRMaj with = root.solve(x, x_dot, new DMatrixRMaj(2, 1));
+        assertEquals(33, root.getChildren().size());
+        assertTrue(Math.abs(with.get(0) - before.get(0)) > 1e-6);
+
+        root.stageUnlink(obstacle);
+        DMatrixRMaj after = root.solve(x, x_dot, new DMatrixRMaj(2, 1));
+        assertEquals(before.get(0), after.get(0), 0);
+        assertEquals(before.get(1), after.get(1), 0);
+    }
+
+    @Test
+    void stagingFromAnotherThreadTest() throws InterruptedException
+    {
+        CollisionAvoidance[] staged = new CollisionAvoidance[20];
+        for (int i = 0; i < staged.length; i++)
+            staged[i] = new CollisionAvoidance("Vision " + i, null, new SimpleMatrix(1, 2, false, new double[] {i * .3, -2}), .1, .2, 1e-5, .1);
+        Thread vision = new Thread(() -> {
+            for (int round = 0; round < 200; round++)
+                for (int i = 0; i < staged.length; i++) {
+                    root.stageLink(staged[i], root);
+                    if (round < 199)
+                        root.stageUnlink(staged[i]);
+                }
+        });
+        DMatrixRMaj x = new DMatrixRMaj(2, 1, true, -1, -.5);
+        DMatrixRMaj x_dot = new DMatrixRMaj(2, 1, true, .3, .1);
+        DMatrixRMaj a = new DMatrixRMaj(2, 1);
+        vision.start();
+        while (vision.isAlive()) {
+            root.solve(x, x_dot, a);
+            assertTrue(Double.isFinite(a.get(0)) && Double.isFinite(a.get(1)));
+        }
+        vision.join();
+        root.solve(x, x_dot, a);
+        assertEquals(52, root.getChildren().size());
+        assertEquals(52, root.getPlan().leafOrder.length);
+    }
+
+    @Test
+    void structuredJacobiansMatchDenseTest()
+    {
+        RMPRoot structured = agentTree(), dense = agentTree();
+        int declared = 0;
+        for (RMPNode node : dense.getPlan().nodes)
+            if (node.getJacobianStructure() != RMPNode.JacobianStructure.DENSE) {
+                node.setJacobianStructure(RMPNode.JacobianStructure.DENSE);
+                declared++;
+            }
+        assertEquals(16, declared);
+
+        DMatrixRMaj x = new DMatrixRMaj(6, 1, true, 0, 0, 1, .4, .6, -.3);
+        DMatrixRMaj x_dot = new DMatrixRMaj(6, 1, true, .3, .1, -.2, .5, 0, .4);
+        DMatrixRMaj expected = new DMatrixRMaj(6, 1), actual = new DMatrixRMaj(6, 1);
+        for (int step = 0; step < 3; step++) {
+            dense.solve(x, x_dot, expected);
+            structured.solve(x, x_dot, actual);
+            for (int i = 0; i < 6; i++)
+                assertEquals(expected.get(i), actual.get(i), 1e-9 * Math.max(1, Math.abs(expected.get(i))));
+            x.data[step] += .1;
+        }
+    }
+
+    /**
+     * Three agents with a goal, a damper and an obstacle each, and two pairs
+     * kept apart.
+     */
+    private static RMPRoot agentTree()
+    {
+        RMPRoot tree = new RMPRoot("agents");
+        for (int i = 0; i < 3; i++) {
+            RMPNode agent = new AgentBlock("Agent " + i, tree, i);
+            new GoalAttractor("Goal " + i, agent, new SimpleMatrix(2, 1, false, new double[] {5, i}), 10, 1, 10, 1, 2, 2, .005);
+            new CollisionAvoidance("Obstacle " + i, agent, new SimpleMatrix(2, 1, false, new double[] {.5, .5 * i}), .2, .2, 1e-5, .1);
+            new Damper("Damper " + i, agent, .5, 1);
+        }
+        new CollisionAvoidance("Pair 0 2", new AgentPair("0 - 2", tree, 0, 2), new SimpleMatrix(2, 1), .4, .2, 1e-5, .1);
+        new CollisionAvoidance("Pair 2 1", new AgentPair("2 - 1", tree, 2, 1), new SimpleMatrix(2, 1), .4, .2, 1e-5, .1);
+        return tree;
+    }
+
+    /**
+     * An intermediate node with the task map psi(q) = scale * q.
+     */
+    private static class ScaledNode extends RMPNode {
+        private final double scale;
+        int jCalls = 0;
+
+        ScaledNode(String name, RMPNode parent, double scale)
+        {
+            super(name, parent);
+            this.scale = scale;
+        }
+
+        @Override
+        public SimpleMatrix psi(SimpleMatrix q)
+        {
+            return q.scale(scale);
+        }
+
+        @Override
+        public SimpleMatrix j(SimpleMatrix q)
+        {
+            jCalls++;
+            return SimpleMatrix.identity(q.getNumElements()).scale(scale);
+        }
+
+        @Override
+        public SimpleMatrix j_dot(SimpleMatrix q, SimpleMatrix q_dot)
+        {
+            return new SimpleMatrix(q.getNumElements(), q.getNumElements());
+        }
+    }
+
+    private void step(DMatrixRMaj x, DMatrixRMaj x_dot, DMatrixRMaj a)
+    {
+        root.solve(x, x_dot, a);
+        x_dot.data[0] = x_dot.data[0] + a.data[0] * 1e-4;
+        x_dot.data[1] = x_dot.data[1] + a.data[1] * 1e-4;
+        x.data[0] = x.data[0] + x_dot.data[0] * 1e-4;
+        x.data[1] = x.data[1] + x_dot.data[1] * 1e-4;
+    }
+}
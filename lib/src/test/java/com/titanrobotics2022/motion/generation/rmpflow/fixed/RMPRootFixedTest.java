@@ -0,0 +1,225 @@
+package com.titanrobotics2022.motion.generation.rmpflow.fixed;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import com.titanrobotics2022.motion.generation.rmpflow.RMPRoot;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.CollisionAvoidance;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.CollisionAvoidance2D;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.Damper;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.Damper2D;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.GoalAttractor;
+import com.titanrobotics2022.motion.generation.rmpflow.rmps.GoalAttractor2D;
+
+import org.ejml.data.DMatrix2;
+import org.ejml.data.DMatrix2x2;
+import org.ejml.data.DMatrix3;
+import org.ejml.data.DMatrix3x3;
+import org.ejml.simple.SimpleMatrix;
+import org.junit.jupiter.api.Test;
+
+public class RMPRootFixedTest {
+    private static final double delta = 1e-9;
+
+    @Test
+    void root2DMatchesDynamicRootTest()
+    {
+        RMPRoot dynamic = new RMPRoot("root");
+        RMPRoot2D fixed = new RMPRoot2D("root");
+        new GoalAttractor("Goal Attractor", dynamic, new SimpleMatrix(1, 2, false, new double[] {10, 8}), 10, 1, 10, 1, 2, 2, .005);
+        new GoalAttractor2D("Goal Attractor", fixed, new DMatrix2(10, 8), 10, 1, 10, 1, 2, 2, .005);
+        for (int i = 0; i < 12; i++) {
+            double cx = i % 4 + .5, cy = i / 4 + .5;
+            new CollisionAvoidance("Obstacle " + i, dynamic, new SimpleMatrix(1, 2, false, new double[] {cx, cy}), .2, .2, 1e-5, .1);
+            new CollisionAvoidance2D("Obstacle " + i, fixed, new DMatrix2(cx, cy), .2, .2, 1e-5, .1);
+        }
+        new Damper("Damper", dynamic, .5, 1);
+        new Damper2D("Damper", fixed, .5, 1);
+
+        DMatrix2 a = new DMatrix2();
+        for (int k = 0; k < 10; k++) {
+            double x0 = -1 + .3 * k, x1 = -.5 + .1 * k, xd0 = .3, xd1 = .1 - .05 * k;
+            SimpleMatrix expected = dynamic.solve(new SimpleMatrix(1, 2, false, new double[] {x0, x1}),
+                new SimpleMatrix(1, 2, false, new double[] {xd0, xd1}));
+            fixed.solve(new DMatrix2(x0, x1), new DMatrix2(xd0, xd1), a);
+            assertEquals(expected.get(0), a.a1, delta * Math.max(1, Math.abs(a.a1)));
+            assertEquals(expected.get(1), a.a2, delta * Math.max(1, Math.abs(a.a2)));
+        }
+    }
+
+    @Test
+    void root3DFallsBackToPseudoinverseTest()
+    {
+        RMPRoot3D root = new RMPRoot3D("root");
+        // Pushes along x only, so M has rank one
+        new RMPScalarLeaf3D("x", root) {
+            @Override
+            public double psi(DMatrix3 q)
+            {
+                return q.a1;
+            }
+
+            @Override
+            public void j(DMatrix3 q, DMatrix3 out)
+            {
+                out.setTo(1, 0, 0);
+            }
+
+            @Override
+            public void j_dot(DMatrix3 q, DMatrix3 q_dot, DMatrix3 out)
+            {
+                out.setTo(0, 0, 0);
+            }
+
+            @Override
+            protected double solveF(double x, double x_dot)
+            {
+                return 4;
+            }
+
+            @Override
+            protected double solveM(double x, double x_dot)
+            {
+                return 2;
+            }
+        };
+        DMatrix3 a = root.solve(new DMatrix3(1, 2, 3), new DMatrix3(), new DMatrix3());
+        assertEquals(2, a.a1, delta);
+        assertEquals(0, a.a2, delta);
+        assertEquals(0, a.a3, delta);
+
+        new RMPVectorLeaf3D("diagonal", root) {
+            @Override
+            protected void solveF(DMatrix3 x, DMatrix3 x_dot, DMatrix3 out)
+            {
+                out.setTo(2, 2, 3);
+            }
+
+            @Override
+            protected void solveM(DMatrix3 x, DMatrix3 x_dot, DMatrix3x3 out)
+            {
+                out.setTo(1, 0, 0, 0, 2, 0, 0, 0, 3);
+            }
+        };
+        root.solve(new DMatrix3(1, 2, 3), new DMatrix3(), a);
+        assertEquals(2, a.a1, delta);
+        assertEquals(1, a.a2, delta);
+        assertEquals(1, a.a3, delta);
+    }
+
+    @Test
+    void offAxisRankOneInertiaTest()
+    {
+        // A single scalar leaf along a random direction u gives M = m u uT,
+        // which round-off rarely makes exactly singular
+        Random random = new Random(5);
+        DMatrix2 u2 = new DMatrix2();
+        RMPRoot2D root2 = new RMPRoot2D("root");
+        new RMPScalarLeaf2D("u", root2) {
+            @Override
+            public double psi(DMatrix2 q)
+            {
+                return q.a1 * u2.a1 + q.a2 * u2.a2;
+            }
+
+            @Override
+            public void j(DMatrix2 q, DMatrix2 out)
+            {
+                out.setTo(u2);
+            }
+
+            @Override
+            public void j_dot(DMatrix2 q, DMatrix2 q_dot, DMatrix2 out)
+            {
+                out.setTo(0, 0);
+            }
+
+            @Override
+            protected double solveF(double x, double x_dot)
+            {
+                return 3;
+            }
+
+            @Override
+            protected double solveM(double x, double x_dot)
+            {
+                return 7;
+            }
+        };
+        DMatrix3 u3 = new DMatrix3();
+        RMPRoot3D root3 = new RMPRoot3D("root");
+        new RMPScalarLeaf3D("u", root3) {
+            @Override
+            public double psi(DMatrix3 q)
+            {
+                return q.a1 * u3.a1 + q.a2 * u3.a2 + q.a3 * u3.a3;
+            }
+
+            @Override
+            public void j(DMatrix3 q, DMatrix3 out)
+            {
+                out.setTo(u3);
+            }
+
+            @Override
+            public void j_dot(DMatrix3 q, DMatrix3 q_dot, DMatrix3 out)
+            {
+                out.setTo(0, 0, 0);
+            }
+
+            @Override
+            protected double solveF(double x, double x_dot)
+            {
+                return 3;
+            }
+
+            @Override
+            protected double solveM(double x, double x_dot)
+            {
+                return 7;
+            }
+        };
+
+        DMatrix2 a2 = new DMatrix2();
+        DMatrix3 a3 = new DMatrix3();
+        for (int k = 0; k < 1000; k++) {
+            double angle = 2 * Math.PI * random.nextDouble();
+            u2.setTo(Math.cos(angle), Math.sin(angle));
+            root2.solve(new DMatrix2(1, 2), new DMatrix2(), a2);
+            // a = M+ f = u (3 / 7)
+            assertTrue(root2.resolvedWithPseudoinverse());
+            assertEquals(3. / 7 * u2.a1, a2.a1, 1e-9);
+            assertEquals(3. / 7 * u2.a2, a2.a2, 1e-9);
+
+            u3.setTo(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+            double norm = Math.sqrt(u3.a1 * u3.a1 + u3.a2 * u3.a2 + u3.a3 * u3.a3);
+            u3.setTo(u3.a1 / norm, u3.a2 / norm, u3.a3 / norm);
+            root3.solve(new DMatrix3(1, 2, 3), new DMatrix3(), a3);
+            assertTrue(root3.resolvedWithPseudoinverse());
+            assertEquals(3. / 7 * u3.a1, a3.a1, 1e-9);
+            assertEquals(3. / 7 * u3.a2, a3.a2, 1e-9);
+            assertEquals(3. / 7 * u3.a3, a3.a3, 1e-9);
+        }
+
+        // A well conditioned M is still inverted directly
+        new RMPVectorLeaf2D("identity", root2) {
+            @Override
+            protected void solveF(DMatrix2 x, DMatrix2 x_dot, DMatrix2 out)
+            {
+                out.setTo(0, 0);
+            }
+
+            @Override
+            protected void solveM(DMatrix2 x, DMatrix2 x_dot, DMatrix2x2 out)
+            {
+                out.setTo(1, 0, 0, 1);
+            }
+        };
+        root2.solve(new DMatrix2(1, 2), new DMatrix2(), a2);
+        assertFalse(root2.resolvedWithPseudoinverse());
+        assertEquals(3 * u2.a1 / (7 + 1), a2.a1, 1e-9);
+    }
+}
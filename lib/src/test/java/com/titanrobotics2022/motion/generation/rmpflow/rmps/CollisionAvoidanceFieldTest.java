@@ -0,0 +1,139 @@
+package com.titanrobotics2022.motion.generation.rmpflow.rmps;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.titanrobotics2022.motion.generation.rmpflow.RMPRoot;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.simple.SimpleMatrix;
+import org.junit.jupiter.api.Test;
+
+public class CollisionAvoidanceFieldTest {
+    private static final double delta = 1e-9;
+
+    @Test
+    void FieldMatchesSeparateLeavesTest()
+    {
+        RMPRoot leaves = new RMPRoot("leaves");
+        RMPRoot field = new RMPRoot("field");
+        new GoalAttractor("Goal Attractor", leaves, new SimpleMatrix(1, 2, false, new double[] {10, 8}), 10, 1, 10, 1, 2, 2, .005);
+        new GoalAttractor("Goal Attractor", field, new SimpleMatrix(1, 2, false, new double[] {10, 8}), 10, 1, 10, 1, 2, 2, .005);
+        CollisionAvoidanceField obstacles = new CollisionAvoidanceField("Obstacles", field, .2, 1e-5, .1);
+        for (int i = 0; i < 30; i++) {
+            double x = i % 6 + .5, y = i / 6 + .5, r = .2 + .01 * i;
+            new CollisionAvoidance("Obstacle " + i, leaves, new SimpleMatrix(1, 2, false, new double[] {x, y}), r, .2, 1e-5, .1);
+            obstacles.addObstacle(x, y, r);
+        }
+        assertEquals(30, obstacles.getObstacleCount());
+
+        int states = 20;
+        DMatrixRMaj xs = new DMatrixRMaj(2, states), x_dots = new DMatrixRMaj(2, states);
+        for (int k = 0; k < states; k++) {
+            double[] x = {-1.1 + .29 * k, -.45 + .21 * k}, x_dot = {.3, .1 - .05 * k};
+            SimpleMatrix expected = leaves.solve(new SimpleMatrix(2, 1, true, x), new SimpleMatrix(2, 1, true, x_dot));
+            SimpleMatrix actual = field.solve(new SimpleMatrix(2, 1, true, x), new SimpleMatrix(2, 1, true, x_dot));
+            assertEquals(expected.get(0), actual.get(0), delta * Math.max(1, Math.abs(expected.get(0))));
+            assertEquals(expected.get(1), actual.get(1), delta * Math.max(1, Math.abs(expected.get(1))));
+            for (int d = 0; d < 2; d++) {
+                xs.set(d, k, x[d]);
+                x_dots.set(d, k, x_dot[d]);
+            }
+        }
+
+        DMatrixRMaj expected = leaves.solveBatch(xs, x_dots, new DMatrixRMaj(1, 1));
+        DMatrixRMaj actual = field.solveBatch(xs, x_dots, new DMatrixRMaj(1, 1));
+        for (int i = 0; i < expected.getNumElements(); i++)
+            assertEquals(expected.get(i), actual.get(i), delta * Math.max(1, Math.abs(expected.get(i))));
+    }
+
+    @Test
+    void RemoveObstacleShiftsLaterObstaclesTest()
+    {
+        RMPRoot root = new RMPRoot("root");
+        CollisionAvoidanceField obstacles = new CollisionAvoidanceField("Obstacles", root, .2, 1e-5, .1);
+        for (int i = 0; i < 20; i++)
+            obstacles.addObstacle(i, 0, .5);
+        obstacles.removeObstacle(3);
+        obstacles.setObstacle(18, 100, 100, .5);
+        assertEquals(19, obstacles.getObstacleCount());
+
+        RMPRoot reference = new RMPRoot("reference");
+        CollisionAvoidanceField expected = new CollisionAvoidanceField("Obstacles", reference, .2, 1e-5, .1);
+        for (int i = 0; i < 20; i++)
+            if (i != 3)
+                expected.addObstacle(i, 0, .5);
+        expected.setObstacle(18, 100, 100, .5);
+
+        SimpleMatrix x = new SimpleMatrix(2, 1, true, new double[] {3.2, .8});
+        SimpleMatrix x_dot = new SimpleMatrix(2, 1, true, new double[] {-.4, -.3});
+        assertEquals(reference.solve(x, x_dot).get(0), root.solve(x, x_dot).get(0), 0);
+        assertEquals(reference.solve(x, x_dot).get(1), root.solve(x, x_dot).get(1), 0);
+    }
+
+    @Test
+    void CulledFieldMatchesNearObstaclesTest()
+    {
+        double tolerance = 1e-2;
+        RMPRoot root = new RMPRoot("root");
+        CollisionAvoidanceField obstacles = new CollisionAvoidanceField("Obstacles", root, .2, 1e-5, .1);
+        obstacles.setCullingTolerance(tolerance);
+        double[][] field = new double[200][];
+        for (int i = 0; i < field.length; i++) {
+            field[i] = new double[] {16 * Math.random() - 8, 8 * Math.random() - 4, .05 + .3 * Math.random()};
+            obstacles.addObstacle(field[i][0], field[i][1], field[i][2]);
+        }
+
+        for (int trial = 0; trial < 50; trial++) {
+            double x = 18 * Math.random() - 9, y = 10 * Math.random() - 5;
+            RMPRoot reference = new RMPRoot("reference");
+            CollisionAvoidanceField near = new CollisionAvoidanceField("Obstacles", reference, .2, 1e-5, .1);
+            double qdx = .5, qdy = -.2;
+            for (double[] o : field) {
+                double dx = x - o[0], dy = y - o[1], norm = Math.hypot(dx, dy);
+                double x_dot = (qdx * dx + qdy * dy) / (norm * o[2]);
+                if (!CollisionAvoidance.negligible(norm / o[2] - 1, x_dot, Math.pow(tolerance, -.25), .2, 1e-5, .1))
+                    near.addObstacle(o[0], o[1], o[2]);
+            }
+
+            SimpleMatrix q = new SimpleMatrix(2, 1, true, new double[] {x, y});
+            SimpleMatrix q_dot = new SimpleMatrix(2, 1, true, new double[] {qdx, qdy});
+            root.setRootState(q, q_dot);
+            reference.setRootState(q, q_dot);
+            root.pushforward();
+            reference.pushforward();
+            root.pullback();
+            reference.pullback();
+            for (int i = 0; i < 2; i++) {
+                double expected = reference.getF().get(i);
+                assertEquals(expected, root.getF().get(i), delta * Math.max(1, Math.abs(expected)));
+            }
+            for (int i = 0; i < 4; i++) {
+                double expected = reference.getM().get(i);
+                assertEquals(expected, root.getM().get(i), delta * Math.max(1, Math.abs(expected)));
+            }
+        }
+    }
+
+    @Test
+    void SolvesMatchEvaluateAfterObstaclesMoveTest()
+    {
+        CollisionAvoidanceField obstacles = new CollisionAvoidanceField("Obstacles", new RMPRoot("root"), .2, 1e-5, .1);
+        for (int i = 0; i < 6; i++)
+            obstacles.addObstacle(i % 3, i / 3, .2);
+        obstacles.setCullingTolerance(1e-3);
+        DMatrixRMaj x = new DMatrixRMaj(2, 1, true, .5, .4), x_dot = new DMatrixRMaj(2, 1, true, .3, -.2);
+        DMatrixRMaj f = new DMatrixRMaj(2, 1), m = new DMatrixRMaj(2, 2);
+        DMatrixRMaj solvedF = new DMatrixRMaj(2, 1), solvedM = new DMatrixRMaj(2, 2);
+        for (int move = 0; move < 3; move++) {
+            // F and M of one solve come from the same evaluation, redone once an obstacle moves
+            obstacles.solveF(x, x_dot, solvedF);
+            obstacles.solveM(x, x_dot, solvedM);
+            obstacles.evaluate(x, x_dot, f, m);
+            for (int e = 0; e < 2; e++)
+                assertEquals(f.get(e), solvedF.get(e), 0);
+            for (int e = 0; e < 4; e++)
+                assertEquals(m.get(e), solvedM.get(e), 0);
+            obstacles.setObstacle(move, .7, .2 * move, .2);
+        }
+    }
+}
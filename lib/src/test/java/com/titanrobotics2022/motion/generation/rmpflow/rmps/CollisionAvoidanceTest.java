@@ -1,9 +1,14 @@
 package com.titanrobotics2022.motion.generation.rmpflow.rmps;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.Random;
+
 import com.titanrobotics2022.motion.generation.rmpflow.RMPRoot;
 
+import org.ejml.data.DMatrixRMaj;
 import org.ejml.simple.SimpleMatrix;
 import org.junit.jupiter.api.Test;
 
@@ -15,4 +20,55 @@ public class CollisionAvoidanceTest {
         CollisionAvoidance policy = new CollisionAvoidance("Collision Avoidance Test", r, new SimpleMatrix(1, 2,  false, new double[] {0, 0}), 1.0, .2, 1e-5, 0.0);
         assertTrue(policy.getCenter().numCols() == 1);
     }
-}
\ No newline at end of file
+
+    @Test
+    void FusedEvaluationMatchesSeparateSolvesTest()
+    {
+        CollisionAvoidance policy = new CollisionAvoidance("Collision Avoidance Test", r, new SimpleMatrix(1, 2,  false, new double[] {0, 0}), 1.0, .2, 1e-5, .1);
+        DMatrixRMaj f = new DMatrixRMaj(1, 1), m = new DMatrixRMaj(1, 1);
+        for (double x : new double[] {-.5, .1, 1, 3}) {
+            for (double x_dot : new double[] {-2, 0, .5}) {
+                SimpleMatrix sx = new SimpleMatrix(1, 1, true, new double[] {x});
+                SimpleMatrix sx_dot = new SimpleMatrix(1, 1, true, new double[] {x_dot});
+                policy.evaluate(sx.getDDRM(), sx_dot.getDDRM(), f, m);
+                assertEquals(policy.solveF(sx, sx_dot).get(0), f.get(0), 0);
+                assertEquals(policy.solveM(sx, sx_dot).get(0), m.get(0), 0);
+            }
+        }
+    }
+
+    @Test
+    void fastApproachIsNotCulledTest()
+    {
+        double tolerance = 1e-3;
+        CollisionAvoidance policy = new CollisionAvoidance("Collision Avoidance Test", r, new SimpleMatrix(1, 2,  false, new double[] {0, 0}), .2, .2, 1e-5, .1);
+        policy.setCullingTolerance(tolerance);
+        // Just past the reach at rest, r * (1 + tolerance^(-1/4)) = 1.32
+        DMatrixRMaj q = new DMatrixRMaj(2, 1, true, 1.4, 0);
+        assertTrue(policy.isNegligible(q, new DMatrixRMaj(2, 1, true, 0, 0)));
+        assertTrue(policy.isNegligible(q, new DMatrixRMaj(2, 1, true, .1, 0)));
+        // Closing at 3 gives a damping force far above the tolerance
+        assertFalse(policy.isNegligible(q, new DMatrixRMaj(2, 1, true, -3, 0)));
+        SimpleMatrix x = new SimpleMatrix(1, 1, true, new double[] {1.4 / .2 - 1});
+        SimpleMatrix x_dot = new SimpleMatrix(1, 1, true, new double[] {-3 / .2});
+        assertTrue(Math.abs(policy.solveF(x, x_dot).get(0)) > 1);
+
+        // Wherever the leaf is culled, F and M are within the tolerance
+        Random random = new Random(6);
+        DMatrixRMaj f = new DMatrixRMaj(1, 1), m = new DMatrixRMaj(1, 1);
+        int culled = 0;
+        for (int i = 0; i < 10000; i++) {
+            double distance = .2 + 5 * random.nextDouble(), speed = 10 * random.nextGaussian();
+            q.setData(new double[] {distance, 0});
+            if (!policy.isNegligible(q, new DMatrixRMaj(2, 1, true, speed, random.nextGaussian())))
+                continue;
+            culled++;
+            x.set(0, distance / .2 - 1);
+            x_dot.set(0, speed / .2);
+            policy.evaluate(x.getDDRM(), x_dot.getDDRM(), f, m);
+            assertTrue(Math.abs(f.get(0)) <= 3 * tolerance);
+            assertTrue(Math.abs(m.get(0)) <= tolerance);
+        }
+        assertTrue(culled > 1000);
+    }
+}
@@ -0,0 +1,133 @@
+package com.titanrobotics2022.motion.generation.rmpflow.rmps;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.titanrobotics2022.motion.generation.rmpflow.RMPRoot;
+
+import org.ejml.data.DMatrixRMaj;
+import org.junit.jupiter.api.Test;
+
+public class MultiAgentAvoidanceTest {
+    private static final double delta = 1e-9;
+
+    @Test
+    void neighborListCoversCutoffTest()
+    {
+        int agents = 40, ticks = 200;
+        double cutoff = 2, skin = .5;
+        double[] radii = new double[agents];
+        Arrays.fill(radii, .2);
+        RMPRoot root = new RMPRoot("root");
+        MultiAgentAvoidance avoidance = new MultiAgentAvoidance(root, radii, cutoff, skin, .2, 1e-5, 0);
+        Random random = new Random(3);
+        DMatrixRMaj x = new DMatrixRMaj(2 * agents, 1);
+        for (int e = 0; e < 2 * agents; e++)
+            x.data[e] = random.nextDouble() * 20;
+
+        for (int tick = 0; tick < ticks; tick++) {
+            for (int e = 0; e < 2 * agents; e++)
+                x.data[e] += (random.nextDouble() - .5) * .1;
+            avoidance.update(x);
+            assertEquals(avoidance.getPairCount(), root.getChildren().size());
+            for (int i = 0; i < agents; i++)
+                for (int j = i + 1; j < agents; j++) {
+                    double dist = Math.hypot(x.data[2 * i] - x.data[2 * j], x.data[2 * i + 1] - x.data[2 * j + 1]);
+                    if (dist <= cutoff)
+                        assertTrue(avoidance.isLinked(i, j));
+                    if (avoidance.isLinked(j, i))
+                        assertTrue(dist <= cutoff + 2 * skin);
+                }
+        }
+        assertTrue(avoidance.getRebuildCount() < ticks);
+    }
+
+    @Test
+    void pairwiseAvoidanceIsSymmetricTest()
+    {
+        RMPRoot root = new RMPRoot("root");
+        for (int i = 0; i < 3; i++)
+            new Damper("Damper " + i, new AgentBlock("Agent " + i, root, i), .5, 1);
+        MultiAgentAvoidance avoidance = new MultiAgentAvoidance(root, new double[] {.2, .2, .2}, 2, .5, .2, 1e-5, 0);
+        DMatrixRMaj x = new DMatrixRMaj(6, 1, true, 0, 0, 1, .5, 10, 10);
+        DMatrixRMaj x_dot = new DMatrixRMaj(6, 1);
+        assertTrue(avoidance.update(x));
+        assertEquals(1, avoidance.getPairCount());
+        assertFalse(avoidance.isLinked(0, 2));
+
+        DMatrixRMaj a = root.solve(x, x_dot, new DMatrixRMaj(6, 1));
+        assertTrue(a.get(0) < 0 && a.get(1) < 0); // Agent 0 is pushed away from agent 1
+        assertEquals(-a.get(0), a.get(2), delta);
+        assertEquals(-a.get(1), a.get(3), delta);
+        assertEquals(0, a.get(4), delta); // Agent 2 is alone
+        assertEquals(0, a.get(5), delta);
+        assertFalse(avoidance.update(x)); // Nobody moved
+    }
+
+    @Test
+    void rebuildDoesNotChangeAccelerationTest()
+    {
+        RMPRoot root = new RMPRoot("root");
+        for (int i = 0; i < 2; i++)
+            new Damper("Damper " + i, new AgentBlock("Agent " + i, root, i), .5, 1);
+        MultiAgentAvoidance avoidance = new MultiAgentAvoidance(root, new double[] {.2, .2}, 2, .5, .2, 1e-5, 0);
+        DMatrixRMaj x = new DMatrixRMaj(4, 1, true, 0, 0, 1.9, 0);
+        DMatrixRMaj x_dot = new DMatrixRMaj(4, 1, true, .1, 0, -.1, 0);
+        DMatrixRMaj before = new DMatrixRMaj(4, 1), after = new DMatrixRMaj(4, 1);
+        avoidance.update(x);
+        root.solve(x, x_dot, before);
+        assertTrue(before.get(0) < 0); // Within the cutoff, the agents avoid each other
+
+        // Beyond the cutoff but within the skin, the pair stays linked until a rebuild
+        x.set(2, 0, 2.3);
+        avoidance.update(x);
+        assertTrue(avoidance.isLinked(0, 1));
+        x.set(2, 0, 2.6);
+        root.solve(x, x_dot, before);
+        assertTrue(avoidance.update(x));
+        assertFalse(avoidance.isLinked(0, 1));
+        root.solve(x, x_dot, after);
+        for (int e = 0; e < 4; e++)
+            assertEquals(before.get(e), after.get(e), 0);
+    }
+
+    @Test
+    void fastClosingPairBeyondCutoffIsEvaluatedTest()
+    {
+        RMPRoot root = new RMPRoot("root"), alone = new RMPRoot("alone");
+        for (int i = 0; i < 2; i++) {
+            new Damper("Damper " + i, new AgentBlock("Agent " + i, root, i), .5, 1);
+            new Damper("Damper " + i, new AgentBlock("Agent " + i, alone, i), .5, 1);
+        }
+        MultiAgentAvoidance avoidance = new MultiAgentAvoidance(root, new double[] {.2, .2}, 2, .5, .2, 1e-5, .1);
+        DMatrixRMaj x = new DMatrixRMaj(4, 1, true, 0, 0, 2.3, 0);
+        avoidance.update(x);
+        assertTrue(avoidance.isLinked(0, 1));
+        DMatrixRMaj linked = new DMatrixRMaj(4, 1), unlinked = new DMatrixRMaj(4, 1);
+
+        // Closing slowly beyond the cutoff, the barrier is culled
+        DMatrixRMaj x_dot = new DMatrixRMaj(4, 1, true, .1, 0, -.1, 0);
+        root.solve(x, x_dot, linked);
+        alone.solve(x, x_dot, unlinked);
+        for (int e = 0; e < 4; e++)
+            assertEquals(unlinked.get(e), linked.get(e), 0);
+
+        // Closing fast, its damping is not negligible and it is still evaluated
+        x_dot = new DMatrixRMaj(4, 1, true, 2, 0, -2, 0);
+        root.solve(x, x_dot, linked);
+        alone.solve(x, x_dot, unlinked);
+        assertTrue(Math.abs(linked.get(0) - unlinked.get(0)) > 1e-3);
+    }
+
+    @Test
+    void cutoffMustExceedContactDistanceTest()
+    {
+        assertThrows(IllegalArgumentException.class,
+                () -> new MultiAgentAvoidance(new RMPRoot("root"), new double[] {.2, 1, .9}, 1.8, .5, .2, 1e-5, 0));
+    }
+}
@@ -0,0 +1,68 @@
+package com.titanrobotics2022.motion.generation.rmpflow.simulation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import com.titanrobotics2022.motion.generation.rmpflow.RMPRollout;
+
+import org.junit.jupiter.api.Test;
+
+public class MonteCarloSimulatorTest {
+    private static final ScenarioGenerator generator = new ScenarioGenerator(400, 400, 50, 100, 6, 30, 5, 10);
+
+    @Test
+    void generatedObstaclesKeepTheirSpacingTest() {
+        Scenario scenario = generator.generate(new Random(7));
+        for (int i = 0; i < scenario.getObstacleCount(); i++) {
+            double x = scenario.getObstacleCenter(i).getX(), y = scenario.getObstacleCenter(i).getY();
+            assertTrue(Math.hypot(x - scenario.getStart().getX(), y - scenario.getStart().getY()) >= 30);
+            assertTrue(Math.hypot(x - scenario.getGoal().getX(), y - scenario.getGoal().getY()) >= 30);
+            for (int j = 0; j < i; j++)
+                assertTrue(Math.hypot(x - scenario.getObstacleCenter(j).getX(),
+                        y - scenario.getObstacleCenter(j).getY()) >= 30);
+        }
+        assertTrue(scenario.getDistanceToGoal(scenario.getStart().getX(), scenario.getStart().getY()) >= 100);
+    }
+
+    @Test
+    void runIsIndependentOfThreadCountTest() {
+        MonteCarloSimulator simulator = new MonteCarloSimulator(generator, MonteCarloSimulator::demoTree, 0.01, 20,
+                1);
+        List<EpisodeResult> serial = simulator.run(6, 42, 1).getResults();
+        List<EpisodeResult> parallel = simulator.run(6, 42, 3).getResults();
+        assertEquals(6, parallel.size());
+        for (int i = 0; i < serial.size(); i++) {
+            assertEquals(i, parallel.get(i).getEpisode());
+            assertEquals(serial.get(i).getOutcome(), parallel.get(i).getOutcome());
+            assertEquals(serial.get(i).getSteps(), parallel.get(i).getSteps());
+            assertEquals(serial.get(i).getMinClearance(), parallel.get(i).getMinClearance(), 0);
+        }
+    }
+
+    @Test
+    void latencyIsPerSolveTest() {
+        MonteCarloSimulator simulator = new MonteCarloSimulator(generator, MonteCarloSimulator::demoTree, 0.01, 1,
+                1, RMPRollout.Scheme.RK4);
+        EpisodeResult result = simulator.runEpisode(42, 0);
+        // RK4 solves the tree four times per step
+        assertEquals(4 * result.getSteps(), result.getSolves());
+        assertTrue(result.getMeanSolveNanos() > 0);
+        assertTrue(result.getMaxSolveNanos() >= result.getMeanSolveNanos());
+    }
+
+    @Test
+    void demoEpisodesReachTheGoalTest() {
+        // Episodes of the demo field that used to diverge once the robot passed
+        // the end of the line to the goal without reaching it
+        MonteCarloSimulator simulator = new MonteCarloSimulator(new ScenarioGenerator(), MonteCarloSimulator::demoTree,
+                .02, 600, 1);
+        for (int episode : new int[] {6, 8, 14, 24, 28}) {
+            EpisodeResult result = simulator.runEpisode(42, episode);
+            assertEquals(EpisodeResult.Outcome.REACHED_GOAL, result.getOutcome());
+            assertTrue(result.getMinClearance() > 0);
+        }
+    }
+}
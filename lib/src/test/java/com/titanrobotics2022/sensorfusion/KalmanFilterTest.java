@@ -0,0 +1,28 @@
+package com.titanrobotics2022.sensorfusion;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
+import org.ejml.simple.SimpleMatrix;
+import org.junit.jupiter.api.Test;
+
+public class KalmanFilterTest {
+    private static final double delta = 1e-9;
+
+    @Test
+    void multiDimensionalUpdateTest() {
+        KalmanFilter filter = new KalmanFilter(1, new SimpleMatrix(3, 1), SimpleMatrix.identity(3));
+        DMatrixRMaj obs = new DMatrixRMaj(3, 1, true, 2, 4, 6);
+        DMatrixRMaj obsPrec = CommonOps_DDRM.identity(3);
+        assertTrue(filter.update(0, obs, obsPrec, 0));
+        // A prior and an observation with equal precision average out
+        SimpleMatrix mean = filter.getPred(0);
+        assertEquals(1, mean.get(0), delta);
+        assertEquals(2, mean.get(1), delta);
+        assertEquals(3, mean.get(2), delta);
+        assertEquals(.5, filter.getPredCov(0).get(0, 0), delta);
+        assertEquals(4, obs.get(1), 0); // The observation is not modified
+    }
+}